@@ -0,0 +1,36 @@
+package org.servicebroker.apigateway.admission;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+/**
+ * The type Admission metrics controller. Admission counters of the provisioning path. (same authentication as the broker API)
+ */
+@RestController
+public class AdmissionMetricsController {
+
+    private final ProvisioningAdmission provisioningAdmission;
+
+    /**
+     * Instantiates a new Admission metrics controller.
+     *
+     * @param provisioningAdmission the provisioning admission
+     */
+    @Autowired
+    public AdmissionMetricsController(ProvisioningAdmission provisioningAdmission) {
+        this.provisioningAdmission = provisioningAdmission;
+    }
+
+    /**
+     * Gets the admission metrics.
+     *
+     * @return the metrics
+     */
+    @GetMapping("/admin/admission")
+    public Map<String, Object> metrics() {
+        return provisioningAdmission.metrics();
+    }
+}
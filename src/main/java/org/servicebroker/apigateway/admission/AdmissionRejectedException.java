@@ -0,0 +1,62 @@
+package org.servicebroker.apigateway.admission;
+
+/**
+ * The type Admission rejected exception.
+ *
+ * A provision turned away before it reached the service : 429 for a rate limit, 503 when the broker is saturated.
+ */
+public class AdmissionRejectedException extends RuntimeException {
+
+    private static final long serialVersionUID = -2630145307211564823L;
+
+    /** The constant TOO_MANY_REQUESTS. */
+    public static final int TOO_MANY_REQUESTS = 429;
+    /** The constant SERVICE_UNAVAILABLE. */
+    public static final int SERVICE_UNAVAILABLE = 503;
+
+    private final String reason;
+    private final int status;
+    private final long retryAfterSeconds;
+
+    /**
+     * Instantiates a new Admission rejected exception.
+     *
+     * @param reason            the reason (metric name)
+     * @param status            the http status
+     * @param retryAfterSeconds the retry after seconds
+     * @param message           the message
+     */
+    public AdmissionRejectedException(String reason, int status, long retryAfterSeconds, String message) {
+        super(message);
+        this.reason = reason;
+        this.status = status;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * Gets reason.
+     *
+     * @return the reason
+     */
+    public String getReason() {
+        return reason;
+    }
+
+    /**
+     * Gets status.
+     *
+     * @return the status
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * Gets retry after seconds.
+     *
+     * @return the retry after seconds
+     */
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
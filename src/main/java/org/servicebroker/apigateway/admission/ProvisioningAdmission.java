@@ -0,0 +1,228 @@
+package org.servicebroker.apigateway.admission;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * The type Provisioning admission.
+ *
+ * Admission control in front of the provisioning path, applied in order :
+ * per-org token bucket (429), global token bucket (429), then a limit on concurrent provisions.
+ * A provision over the limit waits in a bounded queue for at most {@code max_wait}; a full queue or an expired wait is rejected
+ * at once with 503, so an overload costs the caller a fast retry instead of piling up threads, SCIM2 calls and BOSH tasks.
+ */
+@Slf4j
+@Component
+public class ProvisioningAdmission {
+
+    /** The constant REJECTED_ORG_RATE. */
+    public static final String REJECTED_ORG_RATE = "org_rate";
+    /** The constant REJECTED_GLOBAL_RATE. */
+    public static final String REJECTED_GLOBAL_RATE = "global_rate";
+    /** The constant REJECTED_QUEUE_FULL. */
+    public static final String REJECTED_QUEUE_FULL = "queue_full";
+    /** The constant REJECTED_WAIT_TIMEOUT. */
+    public static final String REJECTED_WAIT_TIMEOUT = "wait_timeout";
+
+    private final boolean enabled;
+    private final int maxConcurrent;
+    private final int queueCapacity;
+    private final long maxWait;
+    private final double orgRate;
+    private final int orgBurst;
+    private final int maxOrgs;
+    private final LongSupplier nanoTime;
+
+    private final TokenBucket globalBucket;
+    private final ConcurrentMap<String, TokenBucket> orgBuckets = new ConcurrentHashMap<>();
+    private final Semaphore slots;
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final Map<String, AtomicLong> rejected = new LinkedHashMap<>();
+
+    /**
+     * Instantiates a new Provisioning admission.
+     *
+     * @param enabled       the enabled
+     * @param maxConcurrent the max concurrent provisions
+     * @param queueCapacity the max provisions waiting for a slot
+     * @param maxWait       the max wait for a slot (ms)
+     * @param globalRate    the global rate (provisions per second)
+     * @param globalBurst   the global burst
+     * @param orgRate       the per-org rate (provisions per second)
+     * @param orgBurst      the per-org burst
+     * @param maxOrgs       the max tracked orgs
+     */
+    @Autowired
+    public ProvisioningAdmission(@Value("${broker.admission.enabled:true}") boolean enabled,
+                                 @Value("${broker.admission.max_concurrent:20}") int maxConcurrent,
+                                 @Value("${broker.admission.queue_capacity:50}") int queueCapacity,
+                                 @Value("${broker.admission.max_wait:10000}") long maxWait,
+                                 @Value("${broker.admission.global_rate:10}") double globalRate,
+                                 @Value("${broker.admission.global_burst:20}") int globalBurst,
+                                 @Value("${broker.admission.org_rate:0.5}") double orgRate,
+                                 @Value("${broker.admission.org_burst:5}") int orgBurst,
+                                 @Value("${broker.admission.max_orgs:10000}") int maxOrgs) {
+        this(enabled, maxConcurrent, queueCapacity, maxWait, globalRate, globalBurst, orgRate, orgBurst, maxOrgs, System::nanoTime);
+    }
+
+    ProvisioningAdmission(boolean enabled, int maxConcurrent, int queueCapacity, long maxWait, double globalRate, int globalBurst,
+                          double orgRate, int orgBurst, int maxOrgs, LongSupplier nanoTime) {
+        this.enabled = enabled;
+        this.maxConcurrent = maxConcurrent;
+        this.queueCapacity = queueCapacity;
+        this.maxWait = maxWait;
+        this.orgRate = orgRate;
+        this.orgBurst = orgBurst;
+        this.maxOrgs = maxOrgs;
+        this.nanoTime = nanoTime;
+        this.globalBucket = new TokenBucket(globalRate, globalBurst, nanoTime);
+        this.slots = new Semaphore(maxConcurrent, true);
+
+        for (String reason : new String[]{REJECTED_ORG_RATE, REJECTED_GLOBAL_RATE, REJECTED_QUEUE_FULL, REJECTED_WAIT_TIMEOUT}) {
+            rejected.put(reason, new AtomicLong());
+        }
+    }
+
+    /**
+     * Is enabled boolean.
+     *
+     * @return the boolean
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Admits a provision, waiting for a slot if needed. The permit must be closed when the provision ends.
+     *
+     * @param organizationGuid the organization guid (may be null)
+     * @return the permit
+     * @throws AdmissionRejectedException if the provision is rejected
+     */
+    public Permit acquire(String organizationGuid) {
+        if (!enabled) {
+            return () -> { };
+        }
+
+        TokenBucket orgBucket = organizationGuid == null ? null : orgBucket(organizationGuid);
+        if (orgBucket != null) {
+            long wait = orgBucket.tryAcquire();
+            if (wait > 0) {
+                throw reject(REJECTED_ORG_RATE, AdmissionRejectedException.TOO_MANY_REQUESTS, wait,
+                        "Too many provision requests for organization " + organizationGuid + ".");
+            }
+        }
+
+        long wait = globalBucket.tryAcquire();
+        if (wait > 0) {
+            if (orgBucket != null) {
+                orgBucket.refund();
+            }
+            throw reject(REJECTED_GLOBAL_RATE, AdmissionRejectedException.TOO_MANY_REQUESTS, wait, "Too many provision requests.");
+        }
+
+        if (!slots.tryAcquire()) {
+            awaitSlot();
+        }
+
+        admitted.incrementAndGet();
+        AtomicBoolean released = new AtomicBoolean();
+        return () -> {
+            if (released.compareAndSet(false, true)) {
+                slots.release();
+            }
+        };
+    }
+
+    private void awaitSlot() {
+        if (waiting.incrementAndGet() > queueCapacity) {
+            waiting.decrementAndGet();
+            throw reject(REJECTED_QUEUE_FULL, AdmissionRejectedException.SERVICE_UNAVAILABLE, TimeUnit.MILLISECONDS.toNanos(maxWait),
+                    "The broker is busy. Provision queue is full.");
+        }
+
+        long start = nanoTime.getAsLong();
+        try {
+            if (!slots.tryAcquire(maxWait, TimeUnit.MILLISECONDS)) {
+                throw reject(REJECTED_WAIT_TIMEOUT, AdmissionRejectedException.SERVICE_UNAVAILABLE, TimeUnit.MILLISECONDS.toNanos(maxWait),
+                        "The broker is busy. Timed out waiting for a provision slot.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw reject(REJECTED_WAIT_TIMEOUT, AdmissionRejectedException.SERVICE_UNAVAILABLE, TimeUnit.MILLISECONDS.toNanos(maxWait),
+                    "Interrupted while waiting for a provision slot.");
+        } finally {
+            waiting.decrementAndGet();
+            waitNanos.addAndGet(nanoTime.getAsLong() - start);
+        }
+    }
+
+    private TokenBucket orgBucket(String organizationGuid) {
+        TokenBucket bucket = orgBuckets.get(organizationGuid);
+        if (bucket != null) {
+            return bucket;
+        }
+
+        // 추적 org 수 제한 : 가득 찬 (최근 사용 없는) bucket 은 삭제 후 재생성해도 동작이 같음
+        if (orgBuckets.size() >= maxOrgs) {
+            orgBuckets.values().removeIf(TokenBucket::isFull);
+        }
+        return orgBuckets.computeIfAbsent(organizationGuid, key -> new TokenBucket(orgRate, orgBurst, nanoTime));
+    }
+
+    private AdmissionRejectedException reject(String reason, int status, long retryAfterNanos, String message) {
+        rejected.get(reason).incrementAndGet();
+        log.warn("provision rejected :: {} :: {}", reason, message);
+        long retryAfterSeconds = Math.max(1, (long) Math.ceil(Math.min(retryAfterNanos, TimeUnit.HOURS.toNanos(1)) / 1e9));
+        return new AdmissionRejectedException(reason, status, retryAfterSeconds, message);
+    }
+
+    /**
+     * Metrics snapshot.
+     *
+     * @return the metrics
+     */
+    public Map<String, Object> metrics() {
+        long admittedCount = admitted.get();
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("max_concurrent", maxConcurrent);
+        metrics.put("in_flight", maxConcurrent - slots.availablePermits());
+        metrics.put("queue_capacity", queueCapacity);
+        metrics.put("waiting", waiting.get());
+        metrics.put("admitted", admittedCount);
+        metrics.put("wait_time_ms", TimeUnit.NANOSECONDS.toMillis(waitNanos.get()));
+
+        Map<String, Long> rejectedCounts = new LinkedHashMap<>();
+        rejected.forEach((reason, count) -> rejectedCounts.put(reason, count.get()));
+        metrics.put("rejected", rejectedCounts);
+        metrics.put("tracked_orgs", orgBuckets.size());
+        return metrics;
+    }
+
+    /**
+     * The interface Permit. Closing it frees the provision slot; closing twice has no effect.
+     */
+    @FunctionalInterface
+    public interface Permit extends AutoCloseable {
+
+        @Override
+        void close();
+    }
+}
@@ -0,0 +1,157 @@
+package org.servicebroker.apigateway.admission;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Pattern;
+
+/**
+ * The type Provisioning admission filter.
+ *
+ * Applies {@link ProvisioningAdmission} to provision requests (PUT /v2/service_instances/{id}) before they reach the broker controller,
+ * and answers a rejection with its status, a Retry-After header and an OSB error body.
+ * Runs after the security filter chain, so unauthenticated requests use no tokens.
+ */
+@Slf4j
+@Component
+public class ProvisioningAdmissionFilter extends OncePerRequestFilter {
+
+    private static final Pattern PROVISION_PATH = Pattern.compile("^/v2/service_instances/[^/]+/?$");
+    private static final String ORGANIZATION_GUID = "organization_guid";
+
+    private final ProvisioningAdmission provisioningAdmission;
+
+    /**
+     * Instantiates a new Provisioning admission filter.
+     *
+     * @param provisioningAdmission the provisioning admission
+     */
+    @Autowired
+    public ProvisioningAdmissionFilter(ProvisioningAdmission provisioningAdmission) {
+        this.provisioningAdmission = provisioningAdmission;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        if (!provisioningAdmission.isEnabled() || !"PUT".equals(request.getMethod())) {
+            return true;
+        }
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        return !PROVISION_PATH.matcher(path).matches();
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        // org guid 는 body 에만 있음 : body 를 먼저 읽고 controller 에는 다시 읽을 수 있는 request 전달
+        byte[] body = StreamUtils.copyToByteArray(request.getInputStream());
+
+        ProvisioningAdmission.Permit permit;
+        try {
+            permit = provisioningAdmission.acquire(organizationGuid(body));
+        } catch (AdmissionRejectedException e) {
+            reject(response, e);
+            return;
+        }
+
+        try (ProvisioningAdmission.Permit ignored = permit) {
+            filterChain.doFilter(new CachedBodyRequest(request, body), response);
+        }
+    }
+
+    private static void reject(HttpServletResponse response, AdmissionRejectedException e) throws IOException {
+        JsonObject error = new JsonObject();
+        error.addProperty("description", e.getMessage());
+
+        response.setStatus(e.getStatus());
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()));
+        response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+        response.getOutputStream().write(error.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Organization guid of a provision request body, or null if it cannot be read. (the controller reports malformed bodies)
+     */
+    static String organizationGuid(byte[] body) {
+        try {
+            JsonElement json = new JsonParser().parse(new String(body, StandardCharsets.UTF_8));
+            if (!json.isJsonObject()) {
+                return null;
+            }
+            JsonElement organizationGuid = json.getAsJsonObject().get(ORGANIZATION_GUID);
+            return organizationGuid instanceof JsonPrimitive ? organizationGuid.getAsString() : null;
+        } catch (RuntimeException e) {
+            log.debug("provision admission :: unreadable request body :: {}", e.toString());
+            return null;
+        }
+    }
+
+    private static final class CachedBodyRequest extends HttpServletRequestWrapper {
+
+        private final byte[] body;
+
+        CachedBodyRequest(HttpServletRequest request, byte[] body) {
+            super(request);
+            this.body = body;
+        }
+
+        @Override
+        public ServletInputStream getInputStream() {
+            ByteArrayInputStream in = new ByteArrayInputStream(body);
+            return new ServletInputStream() {
+                @Override
+                public boolean isFinished() {
+                    return in.available() == 0;
+                }
+
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void setReadListener(ReadListener readListener) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public int read() {
+                    return in.read();
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) {
+                    return in.read(b, off, len);
+                }
+            };
+        }
+
+        @Override
+        public BufferedReader getReader() {
+            String encoding = getCharacterEncoding();
+            return new BufferedReader(new InputStreamReader(getInputStream(),
+                    encoding == null ? StandardCharsets.UTF_8 : Charset.forName(encoding)));
+        }
+    }
+}
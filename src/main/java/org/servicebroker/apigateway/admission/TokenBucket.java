@@ -0,0 +1,72 @@
+package org.servicebroker.apigateway.admission;
+
+import java.util.function.LongSupplier;
+
+/**
+ * The type Token bucket.
+ *
+ * Holds up to {@code burst} tokens, refilled continuously at {@code ratePerSecond}. Never blocks.
+ */
+final class TokenBucket {
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    private final double burst;
+    private final double tokensPerNano;
+    private final LongSupplier nanoTime;
+
+    private double tokens;
+    private long refilledAt;
+
+    /**
+     * Instantiates a new Token bucket, initially full.
+     *
+     * @param ratePerSecond the refill rate (tokens per second)
+     * @param burst         the capacity
+     * @param nanoTime      the clock
+     */
+    TokenBucket(double ratePerSecond, int burst, LongSupplier nanoTime) {
+        this.burst = Math.max(1, burst);
+        this.tokensPerNano = ratePerSecond / NANOS_PER_SECOND;
+        this.nanoTime = nanoTime;
+        this.tokens = this.burst;
+        this.refilledAt = nanoTime.getAsLong();
+    }
+
+    /**
+     * Takes a token.
+     *
+     * @return 0 if a token was taken, otherwise the nanos until the next token is available
+     */
+    synchronized long tryAcquire() {
+        refill();
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        return tokensPerNano <= 0 ? Long.MAX_VALUE : (long) Math.ceil((1 - tokens) / tokensPerNano);
+    }
+
+    /**
+     * Returns a token taken by {@link #tryAcquire()} that was not used.
+     */
+    synchronized void refund() {
+        tokens = Math.min(burst, tokens + 1);
+    }
+
+    /**
+     * Is full boolean. (no recent use : the bucket can be dropped and recreated without changing behaviour)
+     *
+     * @return the boolean
+     */
+    synchronized boolean isFull() {
+        refill();
+        return tokens >= burst;
+    }
+
+    private void refill() {
+        long now = nanoTime.getAsLong();
+        tokens = Math.min(burst, tokens + (now - refilledAt) * tokensPerNano);
+        refilledAt = now;
+    }
+}
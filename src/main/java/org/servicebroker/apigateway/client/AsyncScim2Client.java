@@ -0,0 +1,222 @@
+package org.servicebroker.apigateway.client;
+
+import lombok.extern.slf4j.Slf4j;
+import org.servicebroker.apigateway.exception.ServiceException;
+import org.servicebroker.apigateway.jfr.BrokerEvent;
+import org.servicebroker.apigateway.jfr.BrokerEvents;
+import org.servicebroker.apigateway.service.impl.Constants;
+import org.servicebroker.apigateway.trace.Span;
+import org.servicebroker.apigateway.trace.Tracer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.AsyncRequestCallback;
+import org.springframework.web.client.AsyncRestTemplate;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.ResponseExtractor;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * The type Async scim2 client. Non-blocking variant of {@link Scim2Client}.
+ *
+ * Calls return immediately; the response is handled on the HTTP client's I/O threads, so no broker thread
+ * is held while a SCIM2 call is in flight. Failures complete the future with the same {@link ServiceException}
+ * messages as {@link Scim2Client}.
+ * Continuations run on the I/O threads too : blocking work (JDBC, BOSH) must be moved to an executor.
+ */
+@Slf4j
+@Component
+public class AsyncScim2Client {
+
+    private final AsyncRestTemplate asyncRestTemplate;
+    private final Tracer tracer;
+    private final String serviceAdmin;
+    private final HttpHeaders headers;
+    private final AsyncRequestCallback noBody;
+
+    /**
+     * Instantiates a new Async scim2 client.
+     *
+     * @param asyncRestTemplate the async rest template
+     * @param tracer            the tracer
+     * @param admin             the admin
+     * @param adminPassword     the admin password
+     * @param serviceAdmin      the service admin
+     */
+    @Autowired
+    public AsyncScim2Client(AsyncRestTemplate asyncRestTemplate,
+                            Tracer tracer,
+                            @Value("${service.admin}") String admin,
+                            @Value("${service.admin_password}") String adminPassword,
+                            @Value("${service.service_admin}") String serviceAdmin) {
+        this.asyncRestTemplate = asyncRestTemplate;
+        this.tracer = tracer;
+        this.serviceAdmin = serviceAdmin;
+        this.headers = Scim2Client.headers(admin, adminPassword);
+        this.noBody = request -> addHeaders(request.getHeaders());
+    }
+
+    /**
+     * Creates the service admin user and adds it to the admin group.
+     * The admin group lookup and the user creation run concurrently; the user is deleted again if a later step fails.
+     *
+     * @param url      the url
+     * @param password the password
+     * @return the service admin user id
+     */
+    public CompletableFuture<String> createServiceAdmin(String url, String password) {
+        CompletableFuture<String> groupId = getGroups(url);
+        CompletableFuture<String> userId = createUser(url, password);
+
+        return userId.thenCompose(user -> groupId
+                .whenComplete((group, e) -> {
+                    // 그룹 조회 실패 시 생성했던 사용자 정보 삭제
+                    if (e != null) {
+                        deleteUser(url, user);
+                    }
+                })
+                .thenCompose(group -> regAdmin(url, group, user))
+                .thenApply(ignored -> user));
+    }
+
+    /**
+     * Gets the admin group id.
+     *
+     * @param url the url
+     * @return the group id
+     */
+    public CompletableFuture<String> getGroups(String url) {
+        String reqUrl = "https://" + url + Constants.SCIM2_GROUPS + "?filter={filter}&attributes=id&count=1";
+
+        return execute("getGroups", url, reqUrl, HttpMethod.GET, noBody, Scim2Client.FIRST_RESOURCE_ID, "Failed to retrieve Admin group data", Scim2Client.ADMIN_GROUP_FILTER)
+                .thenApply(groupId -> {
+                    if (groupId == null) {
+                        throw new CompletionException(new ServiceException("Failed to retrieve Admin group data > URL [ " + reqUrl + "] Admin group not found."));
+                    }
+                    log.info("create service admin :: group id :: {}", groupId);
+                    return groupId;
+                });
+    }
+
+    /**
+     * Create user.
+     *
+     * @param url      the url
+     * @param password the password
+     * @return the user id
+     */
+    public CompletableFuture<String> createUser(String url, String password) {
+        String reqUrl = "https://" + url + Constants.SCIM2_USERS;
+
+        return execute("createUser", url, reqUrl, HttpMethod.POST, withBody(Scim2JsonCodec.user(serviceAdmin, password)), Scim2Client.RESOURCE, "Failed to create service admin")
+                .thenApply(response -> {
+                    log.info("create service admin :: user id :: {}", response.getId());
+                    return response.getId();
+                });
+    }
+
+    /**
+     * Exists service admin user.
+     *
+     * @param url the url
+     * @return true if the service admin user exists
+     */
+    public CompletableFuture<Boolean> existsServiceAdmin(String url) {
+        String reqUrl = "https://" + url + Constants.SCIM2_USERS + "?filter={filter}&attributes=id";
+
+        return execute("existsServiceAdmin", url, reqUrl, HttpMethod.GET, noBody, Scim2Client.LIST_RESPONSE, "Failed to retrieve service admin", "userName eq " + serviceAdmin)
+                .thenApply(response -> response.getTotalResults() > 0);
+    }
+
+    /**
+     * Reg admin. The user is deleted if the registration fails.
+     *
+     * @param url     the url
+     * @param groupId the group id
+     * @param userId  the user id
+     * @return the completable future
+     */
+    public CompletableFuture<Void> regAdmin(String url, String groupId, String userId) {
+        String reqUrl = "https://" + url + Constants.SCIM2_GROUPS + "/" + groupId;
+
+        return execute("regAdmin", url, reqUrl, HttpMethod.PATCH, withBody(Scim2JsonCodec.addMember(serviceAdmin, userId)), null, "Failed to register admin group")
+                .handle((ignored, e) -> e)
+                .thenCompose(e -> {
+                    if (e == null) {
+                        log.info("register admin group :: user id :: {} :: group id :: {}", userId, groupId);
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    // error 발생 시 생성했던 사용자 정보 삭제
+                    return deleteUser(url, userId).handle((deleted, deleteError) -> {
+                        throw e instanceof CompletionException ? (CompletionException) e : new CompletionException(e);
+                    });
+                });
+    }
+
+    /**
+     * Delete user.
+     *
+     * @param url    the url
+     * @param userId the user id
+     * @return the completable future
+     */
+    public CompletableFuture<Void> deleteUser(String url, String userId) {
+        String reqUrl = "https://" + url + Constants.SCIM2_USERS + "/" + userId;
+
+        return execute("deleteUser", url, reqUrl, HttpMethod.DELETE, noBody, null, "Failed to delete service admin")
+                .thenApply(ignored -> {
+                    log.info("delete user :: user id :: {}", userId);
+                    return null;
+                });
+    }
+
+    private <T> CompletableFuture<T> execute(String operation, String vmIp, String reqUrl, HttpMethod method, AsyncRequestCallback requestCallback,
+                                             ResponseExtractor<T> responseExtractor, String errorMessage, Object... uriVariables) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        BrokerEvent event = BrokerEvents.scim2Call(operation, vmIp);
+
+        try {
+            asyncRestTemplate.execute(reqUrl, method, requestCallback, response -> {
+                event.httpStatus(response.getRawStatusCode());
+                return responseExtractor == null ? null : responseExtractor.extractData(response);
+            }, uriVariables).addCallback(result -> {
+                event.success(true).commit();
+                future.complete(result);
+            }, e -> {
+                if (e instanceof HttpStatusCodeException) {
+                    event.httpStatus(((HttpStatusCodeException) e).getRawStatusCode());
+                }
+                event.commit();
+                log.error("{} :: {}", errorMessage, e.toString());
+                future.completeExceptionally(new ServiceException(errorMessage + " > URL [ " + reqUrl + "] " + e.getMessage()));
+            });
+        } catch (RuntimeException e) {
+            event.commit();
+            log.error("{} :: {}", errorMessage, e.toString());
+            future.completeExceptionally(new ServiceException(errorMessage + " > URL [ " + reqUrl + "] " + e.getMessage()));
+        }
+
+        return future;
+    }
+
+    private AsyncRequestCallback withBody(Scim2JsonCodec.Body body) {
+        return request -> {
+            addHeaders(request.getHeaders());
+            Scim2JsonCodec.write(body, request.getBody());
+        };
+    }
+
+    private void addHeaders(HttpHeaders requestHeaders) {
+        requestHeaders.putAll(headers);
+
+        // 호출 thread 의 trace context 전달 (응답 처리는 I/O thread 에서 수행되므로 별도 span 없음)
+        Span current = tracer.current();
+        if (current != null) {
+            requestHeaders.set(Span.TRACEPARENT, current.traceparent());
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package org.servicebroker.apigateway.client;
+
+import lombok.extern.slf4j.Slf4j;
+import org.servicebroker.apigateway.exception.ServiceException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.*;
+import org.springframework.stereotype.Component;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+
+/**
+ * The type Bosh deployment client. (BOSH Director API : deployment manifest, deploy task, VMs)
+ *
+ * The vendored {@code BoshDirector} only changes instance states; this client covers the calls needed to scale a deployment.
+ * Authenticates with the same UAA client as {@code BoshDirector} (bosh.client_id / client_secret), the token is reused until shortly before it expires.
+ */
+@Slf4j
+@Component
+public class BoshDeploymentClient {
+
+    private static final MediaType TEXT_YAML = MediaType.parseMediaType("text/yaml");
+    private static final List<String> FINISHED_TASK_STATES = Arrays.asList("done", "error", "cancelled", "timeout");
+    private static final String RUNNING_TASK_STATES = "queued,processing,cancelling";
+    private static final long TOKEN_EXPIRY_MARGIN = TimeUnit.SECONDS.toNanos(30);
+
+    private final RestTemplate restTemplate;
+    private final String clientId;
+    private final String clientSecret;
+    private final String url;
+    private final String oauthUrl;
+    private final long taskPollInterval;
+
+    // token 갱신 중 HTTP 호출 : monitor 대신 lock 사용 (virtual thread pinning 방지)
+    private final ReentrantLock tokenLock = new ReentrantLock();
+    private volatile String accessToken;
+    private volatile long accessTokenExpires;
+
+    /**
+     * Instantiates a new Bosh deployment client.
+     *
+     * @param restTemplate     the rest template
+     * @param clientId         the client id
+     * @param clientSecret     the client secret
+     * @param url              the director url
+     * @param oauthUrl         the uaa url
+     * @param taskPollInterval the task poll interval (ms)
+     */
+    @Autowired
+    public BoshDeploymentClient(RestTemplate restTemplate,
+                                @Value("${bosh.client_id}") String clientId,
+                                @Value("${bosh.client_secret}") String clientSecret,
+                                @Value("${bosh.url}") String url,
+                                @Value("${bosh.oauth_url}") String oauthUrl,
+                                @Value("${bosh.task_poll_interval:5000}") long taskPollInterval) {
+        this.restTemplate = restTemplate;
+        this.clientId = clientId;
+        this.clientSecret = clientSecret;
+        this.url = url;
+        this.oauthUrl = oauthUrl;
+        this.taskPollInterval = taskPollInterval;
+    }
+
+    /**
+     * Gets the deployment manifest.
+     *
+     * @param deploymentName the deployment name
+     * @return the manifest yaml
+     * @throws ServiceException the service exception
+     */
+    public String getManifest(String deploymentName) throws ServiceException {
+        Map<?, ?> deployment = exchange("Failed to retrieve BOSH deployment manifest", url + "/deployments/{deployment}",
+                HttpMethod.GET, null, null, Map.class, deploymentName).getBody();
+
+        Object manifest = deployment == null ? null : deployment.get("manifest");
+        if (!(manifest instanceof String)) {
+            throw new ServiceException("Failed to retrieve BOSH deployment manifest > Deployment [" + deploymentName + "] has no manifest.");
+        }
+        return (String) manifest;
+    }
+
+    /**
+     * Deploys a manifest.
+     *
+     * @param manifest the manifest yaml
+     * @return the task id
+     * @throws ServiceException the service exception
+     */
+    public long deploy(String manifest) throws ServiceException {
+        // 응답 302 (Location : /tasks/{id}), POST 는 redirect 하지 않음
+        URI location = exchange("Failed to deploy BOSH deployment", url + "/deployments", HttpMethod.POST, TEXT_YAML, manifest, Void.class)
+                .getHeaders().getLocation();
+
+        if (location == null || !location.getPath().matches(".*/tasks/\\d+$")) {
+            throw new ServiceException("Failed to deploy BOSH deployment > No task in the response :: " + location);
+        }
+        return Long.parseLong(location.getPath().substring(location.getPath().lastIndexOf('/') + 1));
+    }
+
+    /**
+     * Waits until a task finishes.
+     *
+     * @param taskId  the task id
+     * @param timeout the timeout (ms)
+     * @throws ServiceException if the task did not finish as done within the timeout
+     */
+    public void waitForTask(long taskId, long timeout) throws ServiceException {
+        waitForTask(taskId, timeout, () -> true);
+    }
+
+    /**
+     * Waits until a task finishes, as long as the caller still wants the result.
+     * When {@code keepWaiting} turns false the wait stops, the task keeps running on BOSH.
+     *
+     * @param taskId      the task id
+     * @param timeout     the timeout (ms)
+     * @param keepWaiting checked before every poll
+     * @throws ServiceException if the task did not finish as done within the timeout, or the caller stopped waiting
+     */
+    public void waitForTask(long taskId, long timeout, BooleanSupplier keepWaiting) throws ServiceException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+
+        while (true) {
+            if (!keepWaiting.getAsBoolean()) {
+                throw new ServiceException("Stopped waiting for BOSH task " + taskId + ". The task keeps running on BOSH.");
+            }
+
+            Map<?, ?> task = exchange("Failed to retrieve BOSH task", url + "/tasks/{id}", HttpMethod.GET, null, null, Map.class, taskId).getBody();
+            Object state = task == null ? null : task.get("state");
+
+            if (FINISHED_TASK_STATES.contains(state)) {
+                if (!"done".equals(state)) {
+                    throw new ServiceException("BOSH task " + taskId + " " + state + " :: " + task.get("result"));
+                }
+                return;
+            }
+
+            if (System.nanoTime() > deadline) {
+                throw new ServiceException("BOSH task " + taskId + " did not finish within " + timeout + " ms (state : " + state + ").");
+            }
+
+            try {
+                Thread.sleep(taskPollInterval);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ServiceException("Interrupted while waiting for BOSH task " + taskId + ".");
+            }
+        }
+    }
+
+    /**
+     * Gets the unfinished tasks of a deployment. (queued, processing, cancelling)
+     *
+     * @param deploymentName the deployment name
+     * @return the task ids
+     * @throws ServiceException the service exception
+     */
+    public List<Long> getRunningTasks(String deploymentName) throws ServiceException {
+        Map<?, ?>[] tasks = exchange("Failed to retrieve BOSH tasks", url + "/tasks?state={state}&deployment={deployment}", HttpMethod.GET, null, null,
+                Map[].class, RUNNING_TASK_STATES, deploymentName).getBody();
+        return tasks == null ? Collections.emptyList() : Arrays.stream(tasks)
+                .map(task -> task.get("id"))
+                .filter(id -> id instanceof Number)
+                .map(id -> ((Number) id).longValue())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Gets the VMs of a deployment.
+     *
+     * @param deploymentName the deployment name
+     * @return the vms
+     * @throws ServiceException the service exception
+     */
+    public List<BoshVm> getVms(String deploymentName) throws ServiceException {
+        BoshVm[] vms = exchange("Failed to retrieve BOSH VMs", url + "/deployments/{deployment}/vms", HttpMethod.GET, null, null, BoshVm[].class, deploymentName).getBody();
+        return vms == null ? Collections.emptyList() : Arrays.asList(vms);
+    }
+
+    private <T> ResponseEntity<T> exchange(String errorMessage, String reqUrl, HttpMethod method, MediaType contentType, Object body,
+                                           Class<T> responseType, Object... uriVariables) throws ServiceException {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.AUTHORIZATION, "Bearer " + accessToken());
+        headers.setAccept(Collections.singletonList(MediaType.APPLICATION_JSON));
+        if (contentType != null) {
+            headers.setContentType(contentType);
+        }
+
+        try {
+            return restTemplate.exchange(reqUrl, method, new HttpEntity<>(body, headers), responseType, uriVariables);
+        } catch (HttpStatusCodeException e) {
+            if (e.getStatusCode() == HttpStatus.UNAUTHORIZED) {
+                accessToken = null;
+            }
+            log.error("{} :: {}", errorMessage, e.toString());
+            throw new ServiceException(errorMessage + " > URL [ " + reqUrl + "] " + e.getMessage());
+        } catch (RestClientException e) {
+            log.error("{} :: {}", errorMessage, e.toString());
+            throw new ServiceException(errorMessage + " > URL [ " + reqUrl + "] " + e.getMessage());
+        }
+    }
+
+    private String accessToken() throws ServiceException {
+        String token = accessToken;
+        if (token != null && System.nanoTime() < accessTokenExpires) {
+            return token;
+        }
+
+        tokenLock.lock();
+        try {
+            if (accessToken == null || System.nanoTime() >= accessTokenExpires) {
+                requestToken();
+            }
+            return accessToken;
+        } finally {
+            tokenLock.unlock();
+        }
+    }
+
+    private void requestToken() throws ServiceException {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.AUTHORIZATION, "Basic " + Base64.getEncoder().encodeToString((clientId + ":" + clientSecret).getBytes(StandardCharsets.UTF_8)));
+        headers.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
+        headers.setAccept(Collections.singletonList(MediaType.APPLICATION_JSON));
+        MultiValueMap<String, String> form = new LinkedMultiValueMap<>();
+        form.add("grant_type", "client_credentials");
+
+        Map<?, ?> token;
+        long requested = System.nanoTime();
+        try {
+            token = restTemplate.postForObject(oauthUrl + "/oauth/token", new HttpEntity<>(form, headers), Map.class);
+        } catch (RestClientException e) {
+            log.error("Failed to get BOSH access token :: {}", e.toString());
+            throw new ServiceException("Failed to get BOSH access token > URL [ " + oauthUrl + "] " + e.getMessage());
+        }
+
+        if (token == null || !(token.get("access_token") instanceof String)) {
+            throw new ServiceException("Failed to get BOSH access token > URL [ " + oauthUrl + "] No access token in the response.");
+        }
+
+        long expiresIn = token.get("expires_in") instanceof Number ? ((Number) token.get("expires_in")).longValue() : 0;
+        accessTokenExpires = requested + TimeUnit.SECONDS.toNanos(expiresIn) - TOKEN_EXPIRY_MARGIN;
+        accessToken = (String) token.get("access_token");
+    }
+}
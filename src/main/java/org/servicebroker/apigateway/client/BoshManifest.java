@@ -0,0 +1,94 @@
+package org.servicebroker.apigateway.client;
+
+import org.servicebroker.apigateway.exception.ServiceException;
+import org.yaml.snakeyaml.DumperOptions;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.SafeConstructor;
+import org.yaml.snakeyaml.error.YAMLException;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The type Bosh manifest. Reads and changes the instance count of an instance group in a deployment manifest.
+ * Supports v2 (instance_groups) and v1 (jobs) manifests.
+ */
+public final class BoshManifest {
+
+    private final Map<String, Object> manifest;
+
+    private BoshManifest(Map<String, Object> manifest) {
+        this.manifest = manifest;
+    }
+
+    /**
+     * Parses a manifest.
+     *
+     * @param yaml the yaml
+     * @return the bosh manifest
+     * @throws ServiceException the service exception
+     */
+    @SuppressWarnings("unchecked")
+    public static BoshManifest parse(String yaml) throws ServiceException {
+        // 기본 type (map, list, scalar) 만 생성 :: manifest 의 global tag (!!java...) 로 임의 class 생성 방지
+        Object manifest;
+        try {
+            manifest = new Yaml(new SafeConstructor()).load(yaml);
+        } catch (YAMLException e) {
+            throw new ServiceException("Invalid BOSH deployment manifest. " + e.getMessage());
+        }
+        if (!(manifest instanceof Map)) {
+            throw new ServiceException("Invalid BOSH deployment manifest.");
+        }
+        return new BoshManifest((Map<String, Object>) manifest);
+    }
+
+    /**
+     * Gets the instance count of an instance group.
+     *
+     * @param instanceGroup the instance group
+     * @return the instances
+     * @throws ServiceException the service exception
+     */
+    public int getInstances(String instanceGroup) throws ServiceException {
+        Object instances = instanceGroup(instanceGroup).get("instances");
+        return instances instanceof Number ? ((Number) instances).intValue() : 0;
+    }
+
+    /**
+     * Sets the instance count of an instance group.
+     *
+     * @param instanceGroup the instance group
+     * @param instances     the instances
+     * @return this
+     * @throws ServiceException the service exception
+     */
+    public BoshManifest withInstances(String instanceGroup, int instances) throws ServiceException {
+        instanceGroup(instanceGroup).put("instances", instances);
+        return this;
+    }
+
+    /**
+     * To yaml string.
+     *
+     * @return the string
+     */
+    public String toYaml() {
+        DumperOptions options = new DumperOptions();
+        options.setDefaultFlowStyle(DumperOptions.FlowStyle.BLOCK);
+        return new Yaml(options).dump(manifest);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> instanceGroup(String name) throws ServiceException {
+        Object groups = manifest.containsKey("instance_groups") ? manifest.get("instance_groups") : manifest.get("jobs");
+        if (groups instanceof List) {
+            for (Object group : (List<Object>) groups) {
+                if (group instanceof Map && name.equals(((Map<String, Object>) group).get("name"))) {
+                    return (Map<String, Object>) group;
+                }
+            }
+        }
+        throw new ServiceException("Instance group " + name + " not found in the BOSH deployment manifest.");
+    }
+}
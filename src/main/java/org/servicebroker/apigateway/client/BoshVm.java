@@ -0,0 +1,35 @@
+package org.servicebroker.apigateway.client;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.List;
+
+/**
+ * The type Bosh vm. (GET /deployments/{deployment}/vms, only the attributes the broker reads)
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class BoshVm {
+
+    private String job;
+    private int index;
+    private String id;
+    private String az;
+    private List<String> ips;
+
+    /**
+     * Gets the first ip.
+     *
+     * @return the ip, or null
+     */
+    public String getIp() {
+        return ips == null || ips.isEmpty() ? null : ips.get(0);
+    }
+}
@@ -0,0 +1,332 @@
+package org.servicebroker.apigateway.client;
+
+import lombok.extern.slf4j.Slf4j;
+import org.servicebroker.apigateway.exception.ServiceException;
+import org.servicebroker.apigateway.jfr.BrokerEvent;
+import org.servicebroker.apigateway.jfr.BrokerEvents;
+import org.servicebroker.apigateway.service.impl.Constants;
+import org.servicebroker.apigateway.trace.Span;
+import org.servicebroker.apigateway.trace.Tracer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.RequestCallback;
+import org.springframework.web.client.ResponseExtractor;
+import org.springframework.web.client.RestTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+
+/**
+ * The type Scim2 client. (WSO2 API Manager SCIM2 API on the dedicated VM)
+ *
+ * The auth headers are built once; request bodies are streamed through {@link Scim2JsonCodec}
+ * and responses are read into typed DTOs instead of a {@code Map}.
+ * Within a trace, each call gets its own span and carries the trace context in the {@code traceparent} header.
+ */
+@Slf4j
+@Component
+public class Scim2Client {
+
+    static final String ADMIN_GROUP_FILTER = "displayName eq PRIMARY/admin";
+    static final ResponseExtractor<Scim2Resource> RESOURCE = response -> Scim2JsonCodec.readResource(response.getBody());
+    static final ResponseExtractor<String> FIRST_RESOURCE_ID = response -> Scim2JsonCodec.readFirstResourceId(response.getBody());
+    static final ResponseExtractor<Scim2ListResponse> LIST_RESPONSE = response -> Scim2JsonCodec.readListResponse(response.getBody());
+
+    private final RestTemplate restTemplate;
+    private final Tracer tracer;
+    private final String serviceAdmin;
+    private final HttpHeaders headers;
+    private final RequestCallback noBody;
+
+    /**
+     * Instantiates a new Scim2 client.
+     *
+     * @param restTemplate  the rest template
+     * @param tracer        the tracer
+     * @param admin         the admin
+     * @param adminPassword the admin password
+     * @param serviceAdmin  the service admin
+     */
+    @Autowired
+    public Scim2Client(RestTemplate restTemplate,
+                       Tracer tracer,
+                       @Value("${service.admin}") String admin,
+                       @Value("${service.admin_password}") String adminPassword,
+                       @Value("${service.service_admin}") String serviceAdmin) {
+        this.restTemplate = restTemplate;
+        this.tracer = tracer;
+        this.serviceAdmin = serviceAdmin;
+        this.headers = headers(admin, adminPassword);
+        this.noBody = request -> addHeaders(request.getHeaders());
+    }
+
+    /**
+     * SCIM2 request headers. (basic auth, JSON)
+     *
+     * @param admin         the admin
+     * @param adminPassword the admin password
+     * @return the read-only http headers
+     */
+    static HttpHeaders headers(String admin, String adminPassword) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.AUTHORIZATION, "Basic " + Base64.getEncoder().encodeToString((admin + ":" + adminPassword).getBytes(StandardCharsets.UTF_8)));
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.setAccept(Collections.singletonList(MediaType.APPLICATION_JSON));
+        return HttpHeaders.readOnlyHttpHeaders(headers);
+    }
+
+    /**
+     * Gets the admin group id.
+     *
+     * @param url the url
+     * @return the groups
+     * @throws ServiceException the service exception
+     */
+    public String getGroups(String url) throws ServiceException {
+
+        // Admin Group 정보 조회 (첫 번째 그룹의 id 만 조회, members 제외)
+        // https://<VM_IP>:9443/scim2/Groups?filter=displayName+eq+PRIMARY/admin&attributes=id&count=1
+        String reqUrl = "https://" + url + Constants.SCIM2_GROUPS + "?filter={filter}&attributes=id&count=1";
+
+        try {
+            String groupId = execute("getGroups", url, reqUrl, HttpMethod.GET, noBody, FIRST_RESOURCE_ID, ADMIN_GROUP_FILTER);
+            if (groupId == null) {
+                throw new IllegalStateException("Admin group not found.");
+            }
+            log.info("create service admin :: group id :: {}", groupId);
+            return groupId;
+        } catch (Exception e) {
+            log.error("Failed to retrieve Admin group data :: {}", e.toString());
+            throw new ServiceException("Failed to retrieve Admin group data > URL [ " + reqUrl + "] " + e.getMessage());
+        }
+    }
+
+    /**
+     * Create user string.
+     *
+     * @param url      the url
+     * @param password the password
+     * @return the string
+     * @throws ServiceException the service exception
+     */
+    public String createUser(String url, String password) throws ServiceException {
+
+        // 사용자 생성
+        // https://<VM_IP>:9443/scim2/Users
+        String reqUrl = "https://" + url + Constants.SCIM2_USERS;
+
+        try {
+            Scim2Resource response = execute("createUser", url, reqUrl, HttpMethod.POST, withBody(Scim2JsonCodec.user(serviceAdmin, password)), RESOURCE);
+            log.info("create service admin :: user id :: {}", response.getId());
+            return response.getId();
+        } catch (Exception e) {
+            log.error("Failed to create service admin :: {}", e.toString());
+            throw new ServiceException("Failed to create service admin > URL [ " + reqUrl + "] " + e.getMessage());
+        }
+    }
+
+    /**
+     * Create user string. (user other than the service admin, e.g. a binding user)
+     *
+     * @param url      the url
+     * @param userName the user name
+     * @param password the password
+     * @return the user id
+     * @throws ServiceException the service exception
+     */
+    public String createUser(String url, String userName, String password) throws ServiceException {
+
+        // 사용자 생성
+        // https://<VM_IP>:9443/scim2/Users
+        String reqUrl = "https://" + url + Constants.SCIM2_USERS;
+
+        try {
+            Scim2Resource response = execute("createUser", url, reqUrl, HttpMethod.POST, withBody(Scim2JsonCodec.user(userName, password)), RESOURCE);
+            log.info("create user :: {} :: user id :: {}", userName, response.getId());
+            return response.getId();
+        } catch (Exception e) {
+            log.error("Failed to create user {} :: {}", userName, e.toString());
+            throw new ServiceException("Failed to create user " + userName + " > URL [ " + reqUrl + "] " + e.getMessage());
+        }
+    }
+
+    /**
+     * Finds a user id by user name.
+     *
+     * @param url      the url
+     * @param userName the user name
+     * @return the user id, or null if the user does not exist
+     * @throws ServiceException the service exception
+     */
+    public String findUserId(String url, String userName) throws ServiceException {
+
+        // 사용자 조회
+        // https://<VM_IP>:9443/scim2/Users?filter=userName+eq+<USER_NAME>&attributes=id
+        String reqUrl = "https://" + url + Constants.SCIM2_USERS + "?filter={filter}&attributes=id";
+
+        try {
+            return execute("findUserId", url, reqUrl, HttpMethod.GET, noBody, FIRST_RESOURCE_ID, "userName eq " + userName);
+        } catch (Exception e) {
+            log.error("Failed to retrieve user {} :: {}", userName, e.toString());
+            throw new ServiceException("Failed to retrieve user " + userName + " > URL [ " + reqUrl + "] " + e.getMessage());
+        }
+    }
+
+    /**
+     * Exists service admin user.
+     *
+     * @param url the url
+     * @return true if the service admin user exists
+     * @throws ServiceException the service exception
+     */
+    public boolean existsServiceAdmin(String url) throws ServiceException {
+
+        // 사용자 조회 :: service admin
+        // https://<VM_IP>:9443/scim2/Users?filter=userName+eq+<SERVICE_ADMIN>&attributes=id
+        String reqUrl = "https://" + url + Constants.SCIM2_USERS + "?filter={filter}&attributes=id";
+
+        try {
+            return execute("existsServiceAdmin", url, reqUrl, HttpMethod.GET, noBody, LIST_RESPONSE, "userName eq " + serviceAdmin).getTotalResults() > 0;
+        } catch (Exception e) {
+            log.error("Failed to retrieve service admin :: {}", e.toString());
+            throw new ServiceException("Failed to retrieve service admin > URL [ " + reqUrl + "] " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reg admin.
+     *
+     * @param url     the url
+     * @param groupId the group id
+     * @param userId  the user id
+     * @throws ServiceException the service exception
+     */
+    public void regAdmin(String url, String groupId, String userId) throws ServiceException {
+        // 사용자 (service admin) admin 권한 부여
+        // https://<VM_IP>:9443/scim2/Groups/<ADMIN_GROUP_ID>
+        String reqUrl = "https://" + url + Constants.SCIM2_GROUPS + "/" + groupId;
+
+        try {
+            execute("regAdmin", url, reqUrl, HttpMethod.PATCH, withBody(Scim2JsonCodec.addMember(serviceAdmin, userId)), null);
+            log.info("register admin group :: user id :: {} :: group id :: {}", userId, groupId);
+        } catch (Exception e) {
+            log.error("Failed to register admin group :: {}", e.toString());
+            // error 발생 시 생성했던 사용자 정보 삭제
+            deleteUser(url, userId);
+            throw new ServiceException("Failed to register admin group > URL [ " + reqUrl + "] " + e.getMessage());
+        }
+    }
+
+    /**
+     * Adds a user to a group, or to a WSO2 internal role listed as a group (e.g. Internal/subscriber).
+     *
+     * @param url         the url
+     * @param displayName the group display name
+     * @param userName    the user name
+     * @param userId      the user id
+     * @throws ServiceException if the group does not exist or the user could not be added
+     */
+    public void addToGroup(String url, String displayName, String userName, String userId) throws ServiceException {
+        // 그룹 조회 후 member 추가
+        // https://<VM_IP>:9443/scim2/Groups?filter=displayName+eq+<GROUP>&attributes=id&count=1
+        String reqUrl = "https://" + url + Constants.SCIM2_GROUPS + "?filter={filter}&attributes=id&count=1";
+
+        try {
+            String groupId = execute("addToGroup", url, reqUrl, HttpMethod.GET, noBody, FIRST_RESOURCE_ID, "displayName eq " + displayName);
+            if (groupId == null) {
+                throw new IllegalStateException("Group " + displayName + " not found.");
+            }
+
+            // https://<VM_IP>:9443/scim2/Groups/<GROUP_ID>
+            reqUrl = "https://" + url + Constants.SCIM2_GROUPS + "/" + groupId;
+            execute("addToGroup", url, reqUrl, HttpMethod.PATCH, withBody(Scim2JsonCodec.addMember(userName, userId)), null);
+            log.info("add user to group :: {} :: {}", userName, displayName);
+        } catch (Exception e) {
+            log.error("Failed to add user {} to group {} :: {}", userName, displayName, e.toString());
+            throw new ServiceException("Failed to add user " + userName + " to group " + displayName + " > URL [ " + reqUrl + "] " + e.getMessage());
+        }
+    }
+
+    /**
+     * Delete user.
+     *
+     * @param url    the url
+     * @param userId the user id
+     * @throws ServiceException the service exception
+     */
+    public void deleteUser(String url, String userId) throws ServiceException {
+
+        // 사용자 삭제
+        // https://<VM_IP>:9443/scim2/Users/<USER_ID>
+        String reqUrl = "https://" + url + Constants.SCIM2_USERS + "/" + userId;
+
+        try {
+            execute("deleteUser", url, reqUrl, HttpMethod.DELETE, noBody, null);
+            log.info("delete user :: user id :: {}", userId);
+        } catch (Exception e) {
+            log.error("Failed to delete service admin :: {}", e.toString());
+            throw new ServiceException("Failed to delete service admin > URL [ " + reqUrl + "] " + e.getMessage());
+        }
+    }
+
+    /**
+     * Executes a SCIM2 call, recorded as a flight recorder event with the VM IP and the response status.
+     */
+    private <T> T execute(String operation, String vmIp, String reqUrl, HttpMethod method, RequestCallback requestCallback,
+                          ResponseExtractor<T> responseExtractor, Object... uriVariables) {
+        BrokerEvent event = BrokerEvents.scim2Call(operation, vmIp);
+        // trace 내의 호출만 span 생성 (scheduler 등 trace 밖의 호출은 root span 을 만들지 않음)
+        Span span = tracer.current() == null ? null : tracer.start("Scim2Client." + operation, Span.KIND_HTTP).tag("peer", vmIp);
+        try {
+            T result = restTemplate.execute(reqUrl, method, requestCallback, response -> {
+                event.httpStatus(response.getRawStatusCode());
+                if (span != null) {
+                    span.tag("status", response.getRawStatusCode());
+                }
+                return responseExtractor == null ? null : responseExtractor.extractData(response);
+            }, uriVariables);
+            event.success(true);
+            return result;
+        } catch (HttpStatusCodeException e) {
+            event.httpStatus(e.getRawStatusCode());
+            if (span != null) {
+                span.tag("status", e.getRawStatusCode());
+            }
+            throw e;
+        } catch (RuntimeException e) {
+            if (span != null) {
+                span.error(e);
+            }
+            throw e;
+        } finally {
+            event.commit();
+            if (span != null) {
+                span.close();
+            }
+        }
+    }
+
+    private RequestCallback withBody(Scim2JsonCodec.Body body) {
+        return request -> {
+            addHeaders(request.getHeaders());
+            Scim2JsonCodec.write(body, request.getBody());
+        };
+    }
+
+    private void addHeaders(HttpHeaders requestHeaders) {
+        requestHeaders.putAll(headers);
+
+        // 호출 span 의 trace context 전달
+        Span current = tracer.current();
+        if (current != null) {
+            requestHeaders.set(Span.TRACEPARENT, current.traceparent());
+        }
+    }
+
+}
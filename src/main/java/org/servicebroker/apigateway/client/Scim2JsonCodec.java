@@ -0,0 +1,191 @@
+package org.servicebroker.apigateway.client;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The type Scim2 json codec.
+ *
+ * Streams SCIM2 request bodies straight into the request and reads responses into {@link Scim2Resource} /
+ * {@link Scim2ListResponse} without building a JSON tree or a {@code Map}. Unread attributes are skipped.
+ */
+public final class Scim2JsonCodec {
+
+    private Scim2JsonCodec() {
+    }
+
+    /**
+     * The interface Body.
+     */
+    @FunctionalInterface
+    public interface Body {
+
+        /**
+         * Write.
+         *
+         * @param writer the writer
+         * @throws IOException the io exception
+         */
+        void write(JsonWriter writer) throws IOException;
+    }
+
+    /**
+     * Writes the body to the output stream (UTF-8). The stream is flushed, not closed.
+     *
+     * @param body the body
+     * @param out  the out
+     * @throws IOException the io exception
+     */
+    public static void write(Body body, OutputStream out) throws IOException {
+        JsonWriter writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)));
+        body.write(writer);
+        writer.flush();
+    }
+
+    /**
+     * User body. {"userName":..,"password":..}
+     *
+     * @param userName the user name
+     * @param password the password
+     * @return the body
+     */
+    public static Body user(String userName, String password) {
+        return writer -> writer.beginObject()
+                .name("userName").value(userName)
+                .name("password").value(password)
+                .endObject();
+    }
+
+    /**
+     * Add member patch body. {"Operations":[{"op":"add","value":{"members":[{"display":..,"value":..}]}}]}
+     *
+     * @param display the display
+     * @param userId  the user id
+     * @return the body
+     */
+    public static Body addMember(String display, String userId) {
+        return writer -> writer.beginObject()
+                .name("Operations").beginArray()
+                .beginObject()
+                .name("op").value("add")
+                .name("value").beginObject()
+                .name("members").beginArray()
+                .beginObject()
+                .name("display").value(display)
+                .name("value").value(userId)
+                .endObject()
+                .endArray()
+                .endObject()
+                .endObject()
+                .endArray()
+                .endObject();
+    }
+
+    /**
+     * Reads a single resource.
+     *
+     * @param in the in
+     * @return the scim2 resource
+     * @throws IOException the io exception
+     */
+    public static Scim2Resource readResource(InputStream in) throws IOException {
+        JsonReader reader = reader(in);
+        return readResource(reader);
+    }
+
+    /**
+     * Reads a list response.
+     *
+     * @param in the in
+     * @return the scim2 list response
+     * @throws IOException the io exception
+     */
+    public static Scim2ListResponse readListResponse(InputStream in) throws IOException {
+        JsonReader reader = reader(in);
+        int totalResults = 0;
+        List<Scim2Resource> resources = Collections.emptyList();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("totalResults".equals(name)) {
+                totalResults = reader.nextInt();
+            } else if ("Resources".equals(name) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                resources = new ArrayList<>();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    resources.add(readResource(reader));
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return new Scim2ListResponse(totalResults, resources);
+    }
+
+    /**
+     * Reads the id of the first resource of a list response and stops there.
+     * The rest of the response (further resources, long member lists) is neither parsed nor buffered.
+     *
+     * @param in the in
+     * @return the id, or null if the response has no resource
+     * @throws IOException the io exception
+     */
+    public static String readFirstResourceId(InputStream in) throws IOException {
+        JsonReader reader = reader(in);
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!"Resources".equals(reader.nextName()) || reader.peek() != JsonToken.BEGIN_ARRAY) {
+                reader.skipValue();
+                continue;
+            }
+
+            reader.beginArray();
+            if (!reader.hasNext()) {
+                return null;
+            }
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if ("id".equals(reader.nextName())) {
+                    return reader.nextString();
+                }
+                reader.skipValue();
+            }
+            return null;
+        }
+
+        return null;
+    }
+
+    private static Scim2Resource readResource(JsonReader reader) throws IOException {
+        String id = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if ("id".equals(reader.nextName())) {
+                id = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return new Scim2Resource(id);
+    }
+
+    private static JsonReader reader(InputStream in) {
+        return new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,17 @@
+package org.servicebroker.apigateway.client;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * The type Scim2 list response.
+ */
+@Getter
+@AllArgsConstructor
+public class Scim2ListResponse {
+
+    private final int totalResults;
+    private final List<Scim2Resource> resources;
+}
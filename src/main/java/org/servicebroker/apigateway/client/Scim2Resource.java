@@ -0,0 +1,14 @@
+package org.servicebroker.apigateway.client;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * The type Scim2 resource. (only the attributes the broker reads)
+ */
+@Getter
+@AllArgsConstructor
+public class Scim2Resource {
+
+    private final String id;
+}
@@ -0,0 +1,329 @@
+package org.servicebroker.apigateway.client;
+
+import com.google.gson.*;
+import lombok.extern.slf4j.Slf4j;
+import org.servicebroker.apigateway.exception.ServiceException;
+import org.servicebroker.apigateway.service.impl.Constants;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.*;
+import org.springframework.stereotype.Component;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.*;
+
+/**
+ * The type Wso2 migration client. Copies the tenant configuration between two dedicated VMs through the WSO2 API Manager admin APIs.
+ *
+ * Users and group memberships go through SCIM2, APIs through the publisher REST API export / import (API Manager 3.x).
+ * Listings are read page by page (SCIM2 startIndex / count, publisher offset / limit) up to the total the server reports;
+ * a listing that ends short of (or beyond) that total fails, so a migration never completes with part of the tenant.
+ * WSO2 does not export credentials : users are created without their password unless the caller can derive it, see {@link #createUser}.
+ * The service admin (service.service_admin) is not copied : its password is known to the tenant only, see {@link Scim2Client#createUser(String, String)}.
+ * Authenticates as the WSO2 super admin (service.admin), like {@link Scim2Client}.
+ */
+@Slf4j
+@Component
+public class Wso2MigrationClient {
+
+    static final String PUBLISHER_APIS = ":9443/api/am/publisher/v1/apis";
+    static final String ENTERPRISE_USER = "urn:ietf:params:scim:schemas:extension:enterprise:2.0:User";
+    static final int PAGE_SIZE = 100;
+
+    private final RestTemplate restTemplate;
+    private final String admin;
+    private final String serviceAdmin;
+    private final HttpHeaders headers;
+
+    // 목록 조회 page 크기
+    int pageSize = PAGE_SIZE;
+
+    /**
+     * Instantiates a new Wso2 migration client.
+     *
+     * @param restTemplate  the rest template
+     * @param admin         the admin
+     * @param adminPassword the admin password
+     * @param serviceAdmin  the service admin
+     */
+    @Autowired
+    public Wso2MigrationClient(RestTemplate restTemplate,
+                               @Value("${service.admin}") String admin,
+                               @Value("${service.admin_password}") String adminPassword,
+                               @Value("${service.service_admin}") String serviceAdmin) {
+        this.restTemplate = restTemplate;
+        this.admin = admin;
+        this.serviceAdmin = serviceAdmin;
+        this.headers = Scim2Client.headers(admin, adminPassword);
+    }
+
+    /**
+     * Gets the users (except the super admin and the service admin).
+     *
+     * @param ip the vm ip
+     * @return the users : user name -> primary email (null if none)
+     * @throws ServiceException the service exception
+     */
+    public Map<String, String> getUsers(String ip) throws ServiceException {
+        Map<String, String> users = new LinkedHashMap<>();
+        for (JsonObject resource : scimResources("Failed to retrieve users", "https://" + ip + Constants.SCIM2_USERS + "?attributes=userName,emails")) {
+            String userName = string(resource, "userName");
+            if (userName != null && !userName.equals(admin) && !userName.equals(serviceAdmin)) {
+                users.put(userName, primaryEmail(resource.get("emails")));
+            }
+        }
+        return users;
+    }
+
+    /**
+     * Creates a user. With a password, the user gets that password; otherwise with an email, WSO2 sends the user
+     * an invitation to set the password (askPassword); without either, the user gets a random password that an administrator has to reset.
+     *
+     * @param ip       the vm ip
+     * @param userName the user name
+     * @param email    the email, or null
+     * @param password the password, or null
+     * @return the user id
+     * @throws ServiceException the service exception
+     */
+    public String createUser(String ip, String userName, String email, String password) throws ServiceException {
+        JsonObject user = new JsonObject();
+        user.addProperty("userName", userName);
+        if (email != null) {
+            JsonObject primary = new JsonObject();
+            primary.addProperty("primary", true);
+            primary.addProperty("value", email);
+            JsonArray emails = new JsonArray();
+            emails.add(primary);
+            user.add("emails", emails);
+        }
+        if (password != null) {
+            user.addProperty("password", password);
+        } else if (email != null) {
+            JsonObject askPassword = new JsonObject();
+            askPassword.addProperty("askPassword", true);
+            user.add(ENTERPRISE_USER, askPassword);
+        } else {
+            user.addProperty("password", UUID.randomUUID().toString() + "Aa1!");
+        }
+
+        JsonObject response = exchange("Failed to create user " + userName, "https://" + ip + Constants.SCIM2_USERS,
+                HttpMethod.POST, new HttpEntity<>(user.toString(), headers), JsonObject.class);
+        return string(response, "id");
+    }
+
+    /**
+     * Gets the group memberships.
+     *
+     * @param ip the vm ip
+     * @return the groups : display name -> member user names
+     * @throws ServiceException the service exception
+     */
+    public Map<String, List<String>> getGroupMembers(String ip) throws ServiceException {
+        Map<String, List<String>> groups = new LinkedHashMap<>();
+        for (JsonObject group : scimResources("Failed to retrieve groups", "https://" + ip + Constants.SCIM2_GROUPS + "?attributes=displayName,members")) {
+            List<String> members = new ArrayList<>();
+            if (group.has("members") && group.get("members").isJsonArray()) {
+                for (JsonElement member : group.getAsJsonArray("members")) {
+                    String display = string(member.getAsJsonObject(), "display");
+                    if (display != null) {
+                        members.add(display);
+                    }
+                }
+            }
+            groups.put(string(group, "displayName"), members);
+        }
+        return groups;
+    }
+
+    /**
+     * Adds members to a group, creating the group if it does not exist.
+     *
+     * @param ip          the vm ip
+     * @param displayName the group display name
+     * @param members     the members : user name -> user id
+     * @throws ServiceException the service exception
+     */
+    public void addGroupMembers(String ip, String displayName, Map<String, String> members) throws ServiceException {
+        JsonArray values = new JsonArray();
+        members.forEach((userName, userId) -> {
+            JsonObject member = new JsonObject();
+            member.addProperty("display", userName);
+            member.addProperty("value", userId);
+            values.add(member);
+        });
+
+        String groupsUrl = "https://" + ip + Constants.SCIM2_GROUPS;
+        JsonObject found = exchange("Failed to retrieve group " + displayName, groupsUrl + "?filter={filter}&attributes=id",
+                HttpMethod.GET, new HttpEntity<>(headers), JsonObject.class, "displayName eq " + displayName);
+        JsonArray resources = resources(found);
+
+        if (resources.size() == 0) {
+            JsonObject group = new JsonObject();
+            group.addProperty("displayName", displayName);
+            group.add("members", values);
+            exchange("Failed to create group " + displayName, groupsUrl, HttpMethod.POST, new HttpEntity<>(group.toString(), headers), JsonObject.class);
+            return;
+        }
+
+        JsonObject value = new JsonObject();
+        value.add("members", values);
+        JsonObject operation = new JsonObject();
+        operation.addProperty("op", "add");
+        operation.add("value", value);
+        JsonArray operations = new JsonArray();
+        operations.add(operation);
+        JsonObject patch = new JsonObject();
+        patch.add("Operations", operations);
+        exchange("Failed to add members to group " + displayName, groupsUrl + "/" + string(resources.get(0).getAsJsonObject(), "id"),
+                HttpMethod.PATCH, new HttpEntity<>(patch.toString(), headers), String.class);
+    }
+
+    /**
+     * Gets the API ids.
+     *
+     * @param ip the vm ip
+     * @return the api ids
+     * @throws ServiceException the service exception
+     */
+    public List<String> getApiIds(String ip) throws ServiceException {
+        String errorMessage = "Failed to retrieve APIs";
+        List<String> ids = new ArrayList<>();
+        int total;
+        do {
+            JsonObject page = exchange(errorMessage, "https://" + ip + PUBLISHER_APIS + "?limit={limit}&offset={offset}",
+                    HttpMethod.GET, new HttpEntity<>(headers), JsonObject.class, pageSize, ids.size());
+            JsonObject pagination = page != null && page.has("pagination") && page.get("pagination").isJsonObject() ? page.getAsJsonObject("pagination") : null;
+            total = integer(pagination, "total");
+            JsonArray list = page != null && page.has("list") && page.get("list").isJsonArray() ? page.getAsJsonArray("list") : new JsonArray();
+            for (JsonElement api : list) {
+                ids.add(string(api.getAsJsonObject(), "id"));
+            }
+            if (list.size() == 0) {
+                break;
+            }
+        } while (ids.size() < total);
+
+        checkTotal(errorMessage, total, ids.size());
+        return ids;
+    }
+
+    /**
+     * Exports an API. (zip archive)
+     *
+     * @param ip    the vm ip
+     * @param apiId the api id
+     * @return the archive
+     * @throws ServiceException the service exception
+     */
+    public byte[] exportApi(String ip, String apiId) throws ServiceException {
+        HttpHeaders exportHeaders = new HttpHeaders();
+        exportHeaders.set(HttpHeaders.AUTHORIZATION, headers.getFirst(HttpHeaders.AUTHORIZATION));
+        exportHeaders.setAccept(Collections.singletonList(MediaType.APPLICATION_OCTET_STREAM));
+        return exchange("Failed to export API " + apiId, "https://" + ip + PUBLISHER_APIS + "/export?apiId={apiId}",
+                HttpMethod.GET, new HttpEntity<>(exportHeaders), byte[].class, apiId);
+    }
+
+    /**
+     * Imports an API archive, keeping its provider.
+     *
+     * @param ip      the vm ip
+     * @param archive the archive
+     * @throws ServiceException the service exception
+     */
+    public void importApi(String ip, byte[] archive) throws ServiceException {
+        HttpHeaders importHeaders = new HttpHeaders();
+        importHeaders.set(HttpHeaders.AUTHORIZATION, headers.getFirst(HttpHeaders.AUTHORIZATION));
+        importHeaders.setContentType(MediaType.MULTIPART_FORM_DATA);
+        MultiValueMap<String, Object> form = new LinkedMultiValueMap<>();
+        form.add("file", new ByteArrayResource(archive) {
+            @Override
+            public String getFilename() {
+                return "api.zip";
+            }
+        });
+        exchange("Failed to import API", "https://" + ip + PUBLISHER_APIS + "/import?preserveProvider=true&overwrite=true",
+                HttpMethod.POST, new HttpEntity<>(form, importHeaders), String.class);
+    }
+
+    private <T> T exchange(String errorMessage, String reqUrl, HttpMethod method, HttpEntity<?> entity, Class<T> responseType,
+                           Object... uriVariables) throws ServiceException {
+        try {
+            if (responseType == JsonObject.class) {
+                String body = restTemplate.exchange(reqUrl, method, entity, String.class, uriVariables).getBody();
+                return responseType.cast(body == null || body.isEmpty() ? null : new JsonParser().parse(body).getAsJsonObject());
+            }
+            return restTemplate.exchange(reqUrl, method, entity, responseType, uriVariables).getBody();
+        } catch (RestClientException | JsonParseException | IllegalStateException e) {
+            log.error("{} :: {}", errorMessage, e.toString());
+            throw new ServiceException(errorMessage + " > URL [ " + reqUrl + "] " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads all the resources of a SCIM2 listing, page by page.
+     */
+    private List<JsonObject> scimResources(String errorMessage, String reqUrl) throws ServiceException {
+        List<JsonObject> all = new ArrayList<>();
+        int total;
+        do {
+            // SCIM2 startIndex 는 1 부터
+            JsonObject page = exchange(errorMessage, reqUrl + "&startIndex={startIndex}&count={count}",
+                    HttpMethod.GET, new HttpEntity<>(headers), JsonObject.class, all.size() + 1, pageSize);
+            total = integer(page, "totalResults");
+            JsonArray resources = resources(page);
+            resources.forEach(resource -> all.add(resource.getAsJsonObject()));
+            if (resources.size() == 0) {
+                break;
+            }
+        } while (all.size() < total);
+
+        checkTotal(errorMessage, total, all.size());
+        return all;
+    }
+
+    private static void checkTotal(String errorMessage, int total, int read) throws ServiceException {
+        if (read != total) {
+            log.error("{} :: {} of {} read", errorMessage, read, total);
+            throw new ServiceException(errorMessage + " :: read " + read + " of " + total + " (the listing changed or was truncated).");
+        }
+    }
+
+    private static JsonArray resources(JsonObject response) {
+        return response != null && response.has("Resources") && response.get("Resources").isJsonArray()
+                ? response.getAsJsonArray("Resources") : new JsonArray();
+    }
+
+    private static String string(JsonObject object, String name) {
+        JsonElement value = object == null ? null : object.get(name);
+        return value == null || value.isJsonNull() ? null : value.getAsString();
+    }
+
+    private static int integer(JsonObject object, String name) {
+        JsonElement value = object == null ? null : object.get(name);
+        return value == null || value.isJsonNull() ? -1 : value.getAsInt();
+    }
+
+    private static String primaryEmail(JsonElement emails) {
+        if (emails == null || !emails.isJsonArray() || emails.getAsJsonArray().size() == 0) {
+            return null;
+        }
+
+        String first = null;
+        for (JsonElement email : emails.getAsJsonArray()) {
+            // WSO2 : ["a@b"] 또는 [{"value":"a@b","primary":true}]
+            String value = email.isJsonPrimitive() ? email.getAsString() : string(email.getAsJsonObject(), "value");
+            if (email.isJsonObject() && email.getAsJsonObject().has("primary") && email.getAsJsonObject().get("primary").getAsBoolean()) {
+                return value;
+            }
+            if (first == null) {
+                first = value;
+            }
+        }
+        return first;
+    }
+}
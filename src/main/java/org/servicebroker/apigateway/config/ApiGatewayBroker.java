@@ -8,16 +8,21 @@ import org.apache.http.conn.ssl.NoopHostnameVerifier;
 import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
-import org.apache.http.impl.conn.BasicHttpClientConnectionManager;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
 import org.apache.http.ssl.SSLContexts;
 import org.apache.http.ssl.TrustStrategy;
 import org.servicebroker.apigateway.exception.ServiceException;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.autoconfigure.domain.EntityScan;
 import org.springframework.context.annotation.Bean;
 import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.http.client.HttpComponentsAsyncClientHttpRequestFactory;
 import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.web.client.AsyncRestTemplate;
 import org.springframework.web.client.RestTemplate;
 
 import javax.net.ssl.SSLContext;
@@ -28,8 +33,9 @@ import java.security.NoSuchAlgorithmException;
 
 /**
  * The type Application.
+ * Component scan : broker.startup.scan_packages (org.openpaas.bosh has no components, BoshDirector is created in {@link BoshConfig})
  */
-@SpringBootApplication(scanBasePackages = {"org.openpaas.servicebroker", "org.servicebroker", "org.openpaas.bosh"})
+@SpringBootApplication(scanBasePackages = "${broker.startup.scan_packages:org.openpaas.servicebroker,org.servicebroker.apigateway}")
 @EnableJpaRepositories("org.servicebroker.apigateway.repository")
 @EntityScan(value = "org.servicebroker.apigateway.model")
 public class ApiGatewayBroker {
@@ -45,26 +51,61 @@ public class ApiGatewayBroker {
 
     /**
      * Rest template rest template.
+     * Pooled connections : concurrent provisions to different VMs no longer share a single connection.
      *
+     * @param maxConnections         the max connections
+     * @param maxConnectionsPerRoute the max connections per route (per VM)
      * @return the rest template
      * @throws KeyStoreException        the key store exception
      * @throws NoSuchAlgorithmException the no such algorithm exception
      * @throws KeyManagementException   the key management exception
      */
     @Bean
-    RestTemplate restTemplate() throws KeyStoreException, NoSuchAlgorithmException, KeyManagementException {
-        TrustStrategy trustStrategy = (cert, authType) -> true;
-        SSLContext sslContext = SSLContexts.custom().loadTrustMaterial(null, trustStrategy).build();
-        SSLConnectionSocketFactory sslConnectionSocketFactory = new SSLConnectionSocketFactory(sslContext, NoopHostnameVerifier.INSTANCE);
+    public RestTemplate restTemplate(@Value("${broker.http.max_connections:200}") int maxConnections,
+                                     @Value("${broker.http.max_connections_per_route:10}") int maxConnectionsPerRoute) throws KeyStoreException, NoSuchAlgorithmException, KeyManagementException {
+        SSLConnectionSocketFactory sslConnectionSocketFactory = new SSLConnectionSocketFactory(trustAllSslContext(), NoopHostnameVerifier.INSTANCE);
         Registry<ConnectionSocketFactory> socketFactoryRegistry =
                 RegistryBuilder.<ConnectionSocketFactory>create()
                         .register("https", sslConnectionSocketFactory)
                         .register("http", new PlainConnectionSocketFactory())
                         .build();
-        BasicHttpClientConnectionManager connectionManager = new BasicHttpClientConnectionManager(socketFactoryRegistry);
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(socketFactoryRegistry);
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
         CloseableHttpClient httpClient = HttpClients.custom().setSSLSocketFactory(sslConnectionSocketFactory).setConnectionManager(connectionManager).build();
         HttpComponentsClientHttpRequestFactory requestFactory = new HttpComponentsClientHttpRequestFactory(httpClient);
 
+        // 요청 body 를 buffer 에 모으지 않고 connection 으로 바로 전송 (Scim2JsonCodec streaming)
+        requestFactory.setBufferRequestBody(false);
+
         return new RestTemplate(requestFactory);
     }
+
+    /**
+     * Async rest template async rest template. (non-blocking I/O, used by AsyncScim2Client)
+     *
+     * @param maxConnections         the max connections
+     * @param maxConnectionsPerRoute the max connections per route (per VM)
+     * @return the async rest template
+     * @throws KeyStoreException        the key store exception
+     * @throws NoSuchAlgorithmException the no such algorithm exception
+     * @throws KeyManagementException   the key management exception
+     */
+    @Bean
+    AsyncRestTemplate asyncRestTemplate(@Value("${broker.http.max_connections:200}") int maxConnections,
+                                        @Value("${broker.http.max_connections_per_route:10}") int maxConnectionsPerRoute) throws KeyStoreException, NoSuchAlgorithmException, KeyManagementException {
+        CloseableHttpAsyncClient httpAsyncClient = HttpAsyncClients.custom()
+                .setSSLContext(trustAllSslContext())
+                .setSSLHostnameVerifier(NoopHostnameVerifier.INSTANCE)
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxConnectionsPerRoute)
+                .build();
+
+        return new AsyncRestTemplate(new HttpComponentsAsyncClientHttpRequestFactory(httpAsyncClient));
+    }
+
+    private static SSLContext trustAllSslContext() throws KeyStoreException, NoSuchAlgorithmException, KeyManagementException {
+        TrustStrategy trustStrategy = (cert, authType) -> true;
+        return SSLContexts.custom().loadTrustMaterial(null, trustStrategy).build();
+    }
 }
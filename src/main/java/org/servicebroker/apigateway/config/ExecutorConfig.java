@@ -0,0 +1,56 @@
+package org.servicebroker.apigateway.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * The type Executor config.
+ */
+@Configuration
+public class ExecutorConfig {
+
+    @Value("${broker.worker.pool_size:8}")
+    public int pool_size;
+
+    @Value("${broker.worker.queue_capacity:200}")
+    public int queue_capacity;
+
+    @Value("${broker.threads.virtual:false}")
+    public boolean virtual_threads;
+
+    @Value("${broker.shutdown.drain_timeout:20000}")
+    public long drain_timeout;
+
+    /**
+     * Broker task executor. Bounded pool for the blocking steps of the non-blocking provisioning flow (JDBC rollback)
+     * and for background work (BOSH recreates, plan migrations, capacity checks);
+     * when the queue is full the task runs on the submitting thread. (back-pressure instead of an unbounded queue)
+     * With virtual threads every task gets its own thread; concurrent JDBC work is bounded by the connection pool.
+     *
+     * @return the task executor
+     */
+    @Bean
+    TaskExecutor brokerTaskExecutor() {
+        ThreadFactory virtualThreadFactory = VirtualThreads.factoryIfEnabled(virtual_threads, "broker-worker-");
+        if (virtualThreadFactory != null) {
+            return new SimpleAsyncTaskExecutor(virtualThreadFactory);
+        }
+
+        ThreadPoolTaskExecutor taskExecutor = new ThreadPoolTaskExecutor();
+        taskExecutor.setCorePoolSize(pool_size);
+        taskExecutor.setMaxPoolSize(pool_size);
+        taskExecutor.setQueueCapacity(queue_capacity);
+        taskExecutor.setThreadNamePrefix("broker-worker-");
+        taskExecutor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        taskExecutor.setWaitForTasksToCompleteOnShutdown(true);
+        taskExecutor.setAwaitTerminationSeconds((int) Math.ceil(drain_timeout / 1000.0));
+        return taskExecutor;
+    }
+}
@@ -0,0 +1,42 @@
+package org.servicebroker.apigateway.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+/**
+ * The type Scheduling config.
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+
+    @Value("${broker.scheduler.pool_size:4}")
+    public int pool_size;
+
+    @Value("${broker.threads.virtual:false}")
+    public boolean virtual_threads;
+
+    @Value("${broker.shutdown.drain_timeout:20000}")
+    public long drain_timeout;
+
+    /**
+     * Task scheduler task scheduler.
+     *
+     * @return the task scheduler
+     */
+    @Bean
+    TaskScheduler taskScheduler() {
+        ThreadPoolTaskScheduler taskScheduler = new ThreadPoolTaskScheduler();
+        taskScheduler.setPoolSize(pool_size);
+        taskScheduler.setThreadNamePrefix("broker-scheduler-");
+        taskScheduler.setThreadFactory(VirtualThreads.factoryIfEnabled(virtual_threads, "broker-scheduler-"));
+        // 실행 중인 작업 (capacity check, sweeper 등) 은 종료 전 완료
+        taskScheduler.setWaitForTasksToCompleteOnShutdown(true);
+        taskScheduler.setAwaitTerminationSeconds((int) Math.ceil(drain_timeout / 1000.0));
+        return taskScheduler;
+    }
+}
@@ -0,0 +1,53 @@
+package org.servicebroker.apigateway.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.servicebroker.apigateway.startup.LazyInitBeanFactoryPostProcessor;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * The type Startup config. (fast-startup profile)
+ *
+ * Lazy bean initialization (broker.startup.lazy) and the AppCDS training run (broker.startup.exit_on_ready :
+ * the broker exits as soon as it is ready, so that the JVM dumps the classes loaded during startup, see the cdsArchive task).
+ */
+@Slf4j
+@Configuration
+public class StartupConfig {
+
+    /**
+     * Lazy init bean factory post processor.
+     *
+     * @return the lazy init bean factory post processor
+     */
+    @Bean
+    @ConditionalOnProperty(name = "broker.startup.lazy", havingValue = "true")
+    static LazyInitBeanFactoryPostProcessor lazyInitBeanFactoryPostProcessor() {
+        return new LazyInitBeanFactoryPostProcessor();
+    }
+
+    /**
+     * Exits once the broker is ready. (AppCDS training run)
+     *
+     * @return the application listener
+     */
+    @Bean
+    @ConditionalOnProperty(name = "broker.startup.exit_on_ready", havingValue = "true")
+    ApplicationListener<ApplicationReadyEvent> exitOnReady() {
+        // lambda 는 event type 이 소거되어 모든 event 를 수신하므로 anonymous class 사용
+        return new ApplicationListener<ApplicationReadyEvent>() {
+            @Override
+            public void onApplicationEvent(ApplicationReadyEvent event) {
+                log.info("startup :: ready in {} ms since JVM start, exiting (broker.startup.exit_on_ready)",
+                        System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime());
+                System.exit(SpringApplication.exit(event.getApplicationContext()));
+            }
+        };
+    }
+}
@@ -0,0 +1,48 @@
+package org.servicebroker.apigateway.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.coyote.AbstractProtocol;
+import org.apache.coyote.ProtocolHandler;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.embedded.EmbeddedServletContainerCustomizer;
+import org.springframework.boot.context.embedded.tomcat.TomcatEmbeddedServletContainerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The type Virtual thread config. (broker.threads.virtual=true, JDK 21+)
+ *
+ * Tomcat processes every request on a new virtual thread instead of its worker pool; server.tomcat.max-threads no longer applies,
+ * concurrent requests are bounded by server.tomcat.max-connections. The broker executors are switched in
+ * {@link ExecutorConfig} and {@link SchedulingConfig}.
+ */
+@Slf4j
+@Configuration
+@ConditionalOnProperty(name = "broker.threads.virtual", havingValue = "true")
+public class VirtualThreadConfig {
+
+    /**
+     * Tomcat connector executor customizer.
+     *
+     * @return the embedded servlet container customizer
+     */
+    @Bean
+    EmbeddedServletContainerCustomizer virtualThreadContainerCustomizer() {
+        return container -> {
+            ThreadFactory threadFactory = VirtualThreads.factoryIfEnabled(true, "http-vt-");
+            if (threadFactory == null || !(container instanceof TomcatEmbeddedServletContainerFactory)) {
+                return;
+            }
+
+            ((TomcatEmbeddedServletContainerFactory) container).addConnectorCustomizers(connector -> {
+                ProtocolHandler protocolHandler = connector.getProtocolHandler();
+                if (protocolHandler instanceof AbstractProtocol) {
+                    ((AbstractProtocol<?>) protocolHandler).setExecutor(task -> threadFactory.newThread(task).start());
+                    log.info("Tomcat connector {} :: requests run on virtual threads", connector.getPort());
+                }
+            });
+        };
+    }
+}
@@ -0,0 +1,91 @@
+package org.servicebroker.apigateway.config;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The type Virtual threads.
+ *
+ * The broker is built for Java 8, so virtual threads (JDK 21+) are created through {@code Thread.ofVirtual()} looked up at runtime.
+ * On older JDKs {@link #available()} is false and callers keep their platform threads.
+ */
+@Slf4j
+public final class VirtualThreads {
+
+    private static final MethodHandle OF_VIRTUAL = ofVirtual();
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * Is available boolean.
+     *
+     * @return true if the running JDK supports virtual threads
+     */
+    public static boolean available() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * Thread factory for named virtual threads. (prefix + counter)
+     *
+     * @param prefix the thread name prefix
+     * @return the thread factory
+     * @throws IllegalStateException if virtual threads are not available
+     */
+    public static ThreadFactory factory(String prefix) {
+        if (OF_VIRTUAL == null) {
+            throw new IllegalStateException("Virtual threads require JDK 21 or later :: " + System.getProperty("java.version"));
+        }
+
+        try {
+            return (ThreadFactory) OF_VIRTUAL.invoke(prefix, 0L);
+        } catch (Throwable e) {
+            throw new IllegalStateException("Failed to create virtual thread factory :: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Thread factory, virtual if enabled and available, otherwise null (the executor's default platform threads).
+     *
+     * @param enabled the enabled
+     * @param prefix  the thread name prefix
+     * @return the thread factory or null
+     */
+    public static ThreadFactory factoryIfEnabled(boolean enabled, String prefix) {
+        if (!enabled) {
+            return null;
+        }
+        if (!available()) {
+            log.warn("broker.threads.virtual is set but virtual threads are not supported on Java {}. Using platform threads for {}",
+                    System.getProperty("java.version"), prefix);
+            return null;
+        }
+        return factory(prefix);
+    }
+
+    /**
+     * (prefix, start) -> Thread.ofVirtual().name(prefix, start).factory()
+     */
+    private static MethodHandle ofVirtual() {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            Class<?> ofVirtualBuilder = Class.forName("java.lang.Thread$Builder$OfVirtual");
+
+            MethodHandle ofVirtual = lookup.findStatic(Thread.class, "ofVirtual", MethodType.methodType(ofVirtualBuilder));
+            MethodHandle name = lookup.findVirtual(ofVirtualBuilder, "name", MethodType.methodType(ofVirtualBuilder, String.class, long.class));
+            MethodHandle factory = lookup.findVirtual(builder, "factory", MethodType.methodType(ThreadFactory.class));
+
+            // factory(name(ofVirtual(), prefix, start))
+            MethodHandle named = MethodHandles.collectArguments(name, 0, ofVirtual);
+            return MethodHandles.collectArguments(factory.asType(MethodType.methodType(ThreadFactory.class, ofVirtualBuilder)), 0, named);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+}
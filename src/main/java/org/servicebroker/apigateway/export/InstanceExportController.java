@@ -0,0 +1,60 @@
+package org.servicebroker.apigateway.export;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The type Instance export controller. Streaming export of service instances and their VMs. (same authentication as the broker API)
+ */
+@RestController
+public class InstanceExportController {
+
+    private final InstanceExportService instanceExportService;
+
+    /**
+     * Instantiates a new Instance export controller.
+     *
+     * @param instanceExportService the instance export service
+     */
+    @Autowired
+    public InstanceExportController(InstanceExportService instanceExportService) {
+        this.instanceExportService = instanceExportService;
+    }
+
+    /**
+     * Exports the instances, ordered by service_instance_id. Resume with the last exported id as {@code after}.
+     *
+     * @param format   the format (ndjson, csv)
+     * @param after    the last service instance id already exported
+     * @param limit    the maximum number of rows (0 : no limit)
+     * @param response the response
+     * @throws IOException the io exception
+     */
+    @GetMapping("/admin/export/instances")
+    public void export(@RequestParam(value = "format", defaultValue = "ndjson") String format,
+                       @RequestParam(value = "after", defaultValue = "") String after,
+                       @RequestParam(value = "limit", defaultValue = "0") int limit,
+                       HttpServletResponse response) throws IOException {
+        InstanceExportService.Format exportFormat;
+        try {
+            exportFormat = InstanceExportService.Format.valueOf(format.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Unsupported format :: " + format);
+            return;
+        }
+        if (limit < 0) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid limit :: " + limit);
+            return;
+        }
+
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.setContentType(exportFormat == InstanceExportService.Format.CSV ? "text/csv" : "application/x-ndjson");
+        instanceExportService.export(after, limit, exportFormat, response.getWriter());
+    }
+}
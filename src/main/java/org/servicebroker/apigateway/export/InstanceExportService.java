@@ -0,0 +1,155 @@
+package org.servicebroker.apigateway.export;
+
+import com.google.gson.stream.JsonWriter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+/**
+ * The type Instance export service.
+ *
+ * Streams the service_instance ⋈ dedicated_vm mapping row by row from a forward-only JDBC cursor, ordered by service_instance_id.
+ * Rows are written as soon as they are read, so memory use does not depend on the number of instances.
+ * A pull is resumed with the last exported service_instance_id as {@code after} (keyset pagination on the primary key).
+ *
+ * The MariaDB driver streams the result set when a positive fetch size is set; the connection is held until the last row is written.
+ */
+@Slf4j
+@Service
+public class InstanceExportService {
+
+    /**
+     * The enum Format.
+     */
+    public enum Format {
+        /** One JSON object per line. */
+        NDJSON,
+        /** RFC 4180 CSV with a header line. */
+        CSV
+    }
+
+    static final String[] COLUMNS = {"service_instance_id", "service_id", "plan_id", "organization_guid", "space_guid", "created_time",
+            "vm_ip", "vm_name", "vm_id", "assignment", "provisioned_time"};
+
+    private static final String SELECT = "SELECT s.service_instance_id, s.service_id, s.plan_id, s.organization_guid, s.space_guid, s.created_time, " +
+            "v.vm_ip, v.vm_name, v.vm_id, v.assignment, v.provisioned_time " +
+            "FROM service_instance s LEFT JOIN dedicated_vm v ON v.provisioned_service_instance_id = s.service_instance_id " +
+            "WHERE s.service_instance_id > ? ORDER BY s.service_instance_id";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Instantiates a new Instance export service.
+     *
+     * @param dataSource the data source
+     * @param fetchSize  the fetch size
+     */
+    @Autowired
+    public InstanceExportService(DataSource dataSource, @Value("${broker.export.fetch_size:500}") int fetchSize) {
+        // 공용 JdbcTemplate 의 설정을 바꾸지 않도록 export 전용 인스턴스 사용
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.setFetchSize(fetchSize);
+    }
+
+    /**
+     * Exports the instances after the given service instance id.
+     *
+     * @param after  the last service instance id already exported (empty : from the start)
+     * @param limit  the maximum number of rows (0 : no limit)
+     * @param format the format
+     * @param writer the writer
+     * @return the number of exported rows
+     * @throws IOException the io exception
+     */
+    public long export(String after, int limit, Format format, Writer writer) throws IOException {
+        String sql = limit > 0 ? SELECT + " LIMIT " + limit : SELECT;
+        long[] rows = {0};
+
+        if (format == Format.CSV) {
+            writeCsvLine(writer, COLUMNS);
+        }
+
+        try {
+            jdbcTemplate.query(sql, rs -> {
+                try {
+                    if (format == Format.CSV) {
+                        writeCsv(writer, rs);
+                    } else {
+                        writeJson(writer, rs);
+                    }
+                } catch (IOException e) {
+                    // client 연결 종료 : cursor 를 닫고 중단
+                    throw new UncheckedIOException(e);
+                }
+                rows[0]++;
+            }, after == null ? "" : after);
+        } catch (UncheckedIOException e) {
+            log.warn("export :: aborted after {} row(s) :: {}", rows[0], e.getCause().toString());
+            throw e.getCause();
+        }
+
+        writer.flush();
+        return rows[0];
+    }
+
+    private static void writeJson(Writer writer, ResultSet rs) throws SQLException, IOException {
+        JsonWriter json = new JsonWriter(writer);
+        json.setSerializeNulls(true);
+        json.beginObject();
+        for (int i = 0; i < COLUMNS.length; i++) {
+            json.name(COLUMNS[i]);
+            Object value = rs.getObject(i + 1);
+            if (value instanceof Number) {
+                json.value((Number) value);
+            } else {
+                json.value(text(value));
+            }
+        }
+        json.endObject();
+        // JsonWriter 는 버퍼가 없으므로 flush / close 하지 않음 (close 는 writer 를 닫음)
+        writer.write('\n');
+    }
+
+    private static void writeCsv(Writer writer, ResultSet rs) throws SQLException, IOException {
+        String[] values = new String[COLUMNS.length];
+        for (int i = 0; i < COLUMNS.length; i++) {
+            Object value = rs.getObject(i + 1);
+            values[i] = value == null ? "" : text(value);
+        }
+        writeCsvLine(writer, values);
+    }
+
+    private static void writeCsvLine(Writer writer, String[] values) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            String value = values[i];
+            if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+                writer.write('"');
+                writer.write(value.replace("\"", "\"\""));
+                writer.write('"');
+            } else {
+                writer.write(value);
+            }
+        }
+        writer.write("\r\n");
+    }
+
+    private static String text(Object value) {
+        if (value == null) {
+            return null;
+        }
+        return value instanceof Timestamp ? ((Timestamp) value).toInstant().toString() : value.toString();
+    }
+}
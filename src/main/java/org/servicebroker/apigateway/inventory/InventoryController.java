@@ -0,0 +1,47 @@
+package org.servicebroker.apigateway.inventory;
+
+import org.servicebroker.apigateway.exception.ServiceException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * The type Inventory controller. BOSH inventory reconciliation reports. (same authentication as the broker API)
+ */
+@RestController
+public class InventoryController {
+
+    private final InventoryReconciliationService inventoryReconciliationService;
+
+    /**
+     * Instantiates a new Inventory controller.
+     *
+     * @param inventoryReconciliationService the inventory reconciliation service
+     */
+    @Autowired
+    public InventoryController(InventoryReconciliationService inventoryReconciliationService) {
+        this.inventoryReconciliationService = inventoryReconciliationService;
+    }
+
+    /**
+     * Gets the report of the last scheduled reconciliation.
+     *
+     * @return the report
+     */
+    @GetMapping("/admin/inventory")
+    public InventoryReport lastReport() {
+        return inventoryReconciliationService.getLastReport();
+    }
+
+    /**
+     * Reconciles now.
+     *
+     * @return the report
+     * @throws ServiceException the service exception
+     */
+    @PostMapping("/admin/inventory/reconcile")
+    public InventoryReport reconcile() throws ServiceException {
+        return inventoryReconciliationService.reconcile();
+    }
+}
@@ -0,0 +1,170 @@
+package org.servicebroker.apigateway.inventory;
+
+import lombok.extern.slf4j.Slf4j;
+import org.servicebroker.apigateway.client.BoshDeploymentClient;
+import org.servicebroker.apigateway.client.BoshVm;
+import org.servicebroker.apigateway.exception.ServiceException;
+import org.servicebroker.apigateway.repository.JpaDedicatedVMRepository;
+import org.servicebroker.apigateway.service.impl.ApiGatewayLeaderService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.sql.Statement;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * The type Inventory reconciliation service.
+ *
+ * Keeps vm_name / vm_id of dedicated_vm in line with the BOSH deployment, which changes them when it resurrects or recreates instances.
+ * One pass : the VM list of the deployment and the (ip, vm_name, vm_id) projection of dedicated_vm are indexed by IP in hash maps,
+ * and only the rows that differ are written back in a single JDBC batch. Unknown and missing VMs are reported, not changed.
+ * Runs periodically on the leader node only.
+ */
+@Slf4j
+@Service
+public class InventoryReconciliationService {
+
+    // 조회 이후 다른 요청이 바꾼 row 는 건너뜀, version 증가로 진행 중인 상태 전이는 재조회
+    private static final String UPDATE = "UPDATE dedicated_vm SET vm_name = ?, vm_id = ?, version = version + 1 " +
+            "WHERE vm_ip = ? AND vm_name = ? AND vm_id = ?";
+
+    private final JpaDedicatedVMRepository jpaDedicatedVMRepository;
+    private final BoshDeploymentClient boshDeploymentClient;
+    private final ApiGatewayLeaderService apiGatewayLeaderService;
+    private final JdbcTemplate jdbcTemplate;
+    private final String deploymentName;
+    private final String instanceGroup;
+    private final boolean enabled;
+
+    private volatile InventoryReport lastReport;
+
+    /**
+     * Instantiates a new Inventory reconciliation service.
+     *
+     * @param jpaDedicatedVMRepository the jpa dedicated vm repository
+     * @param boshDeploymentClient     the bosh deployment client
+     * @param apiGatewayLeaderService  the api gateway leader service
+     * @param dataSource               the data source
+     * @param deploymentName           the deployment name
+     * @param instanceGroup            the instance group of the pool (empty : the vm_name values in dedicated_vm)
+     * @param enabled                  the enabled
+     */
+    @Autowired
+    public InventoryReconciliationService(JpaDedicatedVMRepository jpaDedicatedVMRepository,
+                                          BoshDeploymentClient boshDeploymentClient,
+                                          ApiGatewayLeaderService apiGatewayLeaderService,
+                                          DataSource dataSource,
+                                          @Value("${bosh.deployment_name}") String deploymentName,
+                                          @Value("${broker.inventory.instance_group:}") String instanceGroup,
+                                          @Value("${broker.inventory.enabled:true}") boolean enabled) {
+        this.jpaDedicatedVMRepository = jpaDedicatedVMRepository;
+        this.boshDeploymentClient = boshDeploymentClient;
+        this.apiGatewayLeaderService = apiGatewayLeaderService;
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.deploymentName = deploymentName;
+        this.instanceGroup = instanceGroup;
+        this.enabled = enabled;
+    }
+
+    /**
+     * Scheduled reconciliation.
+     */
+    @Scheduled(initialDelayString = "${broker.inventory.initial_delay:60000}", fixedDelayString = "${broker.inventory.interval:600000}")
+    public void scheduledReconcile() {
+        if (!enabled || !apiGatewayLeaderService.isLeader()) {
+            return;
+        }
+
+        try {
+            reconcile();
+        } catch (ServiceException | RuntimeException e) {
+            log.error("inventory :: reconciliation failed :: {}", e.toString());
+        }
+    }
+
+    /**
+     * Reconciles dedicated_vm with the BOSH deployment.
+     *
+     * @return the inventory report
+     * @throws ServiceException the service exception
+     */
+    public InventoryReport reconcile() throws ServiceException {
+        Map<String, BoshVm> deployed = new HashMap<>();
+        for (BoshVm vm : boshDeploymentClient.getVms(deploymentName)) {
+            if (vm.getIp() != null && vm.getJob() != null && vm.getId() != null) {
+                deployed.put(vm.getIp(), vm);
+            }
+        }
+
+        Map<String, InventoryReport.Vm> registered = new HashMap<>();
+        for (Object[] row : jpaDedicatedVMRepository.findInventory()) {
+            registered.put((String) row[0], new InventoryReport.Vm((String) row[0], (String) row[1], (String) row[2]));
+        }
+
+        List<InventoryReport.Change> changed = new ArrayList<>();
+        List<InventoryReport.Vm> missing = new ArrayList<>();
+        for (InventoryReport.Vm row : registered.values()) {
+            BoshVm vm = deployed.get(row.getIp());
+            if (vm == null) {
+                missing.add(row);
+            } else if (!vm.getJob().equals(row.getVmName()) || !vm.getId().equals(row.getVmId())) {
+                changed.add(new InventoryReport.Change(row.getIp(), vm.getJob(), vm.getId(), row.getVmName(), row.getVmId()));
+            }
+        }
+
+        Set<String> groups = instanceGroup.isEmpty()
+                ? registered.values().stream().map(InventoryReport.Vm::getVmName).collect(Collectors.toSet())
+                : Collections.singleton(instanceGroup);
+        List<InventoryReport.Vm> unknown = deployed.values().stream()
+                .filter(vm -> groups.contains(vm.getJob()) && !registered.containsKey(vm.getIp()))
+                .map(vm -> new InventoryReport.Vm(vm.getIp(), vm.getJob(), vm.getId()))
+                .collect(Collectors.toList());
+
+        int updated = update(changed);
+
+        InventoryReport report = new InventoryReport(new Date(), deployed.size(), registered.size(), changed, updated, unknown, missing);
+        if (!changed.isEmpty() || !unknown.isEmpty() || !missing.isEmpty()) {
+            log.warn("inventory :: {} changed ({} updated), unknown {}, missing {}", changed.size(), updated,
+                    unknown.stream().map(InventoryReport.Vm::getIp).collect(Collectors.toList()),
+                    missing.stream().map(InventoryReport.Vm::getIp).collect(Collectors.toList()));
+        } else {
+            log.debug("inventory :: {} VM(s) in line with BOSH", registered.size());
+        }
+
+        lastReport = report;
+        return report;
+    }
+
+    /**
+     * Gets the last report.
+     *
+     * @return the last report, or null before the first reconciliation
+     */
+    public InventoryReport getLastReport() {
+        return lastReport;
+    }
+
+    private int update(List<InventoryReport.Change> changed) {
+        if (changed.isEmpty()) {
+            return 0;
+        }
+
+        List<Object[]> args = changed.stream()
+                .map(change -> new Object[]{change.getVmName(), change.getVmId(), change.getIp(), change.getPreviousVmName(), change.getPreviousVmId()})
+                .collect(Collectors.toList());
+
+        int updated = 0;
+        for (int count : jdbcTemplate.batchUpdate(UPDATE, args)) {
+            // driver 에 따라 batch 결과가 SUCCESS_NO_INFO
+            if (count > 0 || count == Statement.SUCCESS_NO_INFO) {
+                updated++;
+            }
+        }
+        return updated;
+    }
+}
@@ -0,0 +1,56 @@
+package org.servicebroker.apigateway.inventory;
+
+import com.fasterxml.jackson.databind.PropertyNamingStrategy;
+import com.fasterxml.jackson.databind.annotation.JsonNaming;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * The type Inventory report. Result of one reconciliation of dedicated_vm against the BOSH deployment.
+ */
+@Getter
+@AllArgsConstructor
+@JsonNaming(PropertyNamingStrategy.SnakeCaseStrategy.class)
+public class InventoryReport {
+
+    private final Date time;
+    private final int deployed;
+    private final int registered;
+    /** VMs whose vm_name / vm_id were corrected. */
+    private final List<Change> changed;
+    /** Rows actually updated. (a row changed since it was read is left for the next run) */
+    private final int updated;
+    /** VMs of the instance group BOSH reports but dedicated_vm does not know. */
+    private final List<Vm> unknown;
+    /** Rows of dedicated_vm whose IP BOSH no longer reports. */
+    private final List<Vm> missing;
+
+    /**
+     * The type Vm.
+     */
+    @Getter
+    @AllArgsConstructor
+    @JsonNaming(PropertyNamingStrategy.SnakeCaseStrategy.class)
+    public static class Vm {
+        private final String ip;
+        private final String vmName;
+        private final String vmId;
+    }
+
+    /**
+     * The type Change.
+     */
+    @Getter
+    @AllArgsConstructor
+    @JsonNaming(PropertyNamingStrategy.SnakeCaseStrategy.class)
+    public static class Change {
+        private final String ip;
+        private final String vmName;
+        private final String vmId;
+        private final String previousVmName;
+        private final String previousVmId;
+    }
+}
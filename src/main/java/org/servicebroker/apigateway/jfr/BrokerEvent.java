@@ -0,0 +1,54 @@
+package org.servicebroker.apigateway.jfr;
+
+/**
+ * The type Broker event. A timed step of provisioning / deprovisioning, started by {@link BrokerEvents}.
+ * Setters that do not apply to an event type are ignored.
+ */
+public interface BrokerEvent {
+
+    /**
+     * Vm ip broker event.
+     *
+     * @param vmIp the vm ip
+     * @return the broker event
+     */
+    default BrokerEvent vmIp(String vmIp) {
+        return this;
+    }
+
+    /**
+     * Http status broker event.
+     *
+     * @param httpStatus the http status
+     * @return the broker event
+     */
+    default BrokerEvent httpStatus(int httpStatus) {
+        return this;
+    }
+
+    /**
+     * Success broker event.
+     *
+     * @param success the success
+     * @return the broker event
+     */
+    default BrokerEvent success(boolean success) {
+        return this;
+    }
+
+    /**
+     * Message broker event.
+     *
+     * @param message the message
+     * @return the broker event
+     */
+    default BrokerEvent message(String message) {
+        return this;
+    }
+
+    /**
+     * Ends the step and records the event if a recording is enabled for it.
+     */
+    default void commit() {
+    }
+}
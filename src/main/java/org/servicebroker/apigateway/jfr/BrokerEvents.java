@@ -0,0 +1,90 @@
+package org.servicebroker.apigateway.jfr;
+
+/**
+ * The type Broker events.
+ *
+ * Java Flight Recorder events for the provisioning steps. The {@code jdk.jfr} event classes are only touched
+ * when the API is present (JDK 11+, 8u272+), otherwise a no-op event is returned.
+ * Without an active recording an event costs one allocation; {@code -Dbroker.jfr.disabled=true} turns them off entirely.
+ *
+ * e.g. {@code jcmd <pid> JFR.start settings=profile} or {@code -XX:StartFlightRecording=settings=default}
+ */
+public final class BrokerEvents {
+
+    private static final BrokerEvent NOOP = new BrokerEvent() { };
+    private static final boolean AVAILABLE = isAvailable();
+
+    private BrokerEvents() {
+    }
+
+    /**
+     * Is available boolean.
+     *
+     * @return true if the events are recorded
+     */
+    public static boolean available() {
+        return AVAILABLE;
+    }
+
+    /**
+     * Starts a VM claim event.
+     *
+     * @param serviceInstanceId the service instance id
+     * @return the broker event
+     */
+    public static BrokerEvent vmClaim(String serviceInstanceId) {
+        return AVAILABLE ? begin(new VmClaimEvent(serviceInstanceId)) : NOOP;
+    }
+
+    /**
+     * Starts a SCIM2 call event.
+     *
+     * @param operation the operation
+     * @param vmIp      the vm ip
+     * @return the broker event
+     */
+    public static BrokerEvent scim2Call(String operation, String vmIp) {
+        return AVAILABLE ? begin(new Scim2CallEvent(operation, vmIp)) : NOOP;
+    }
+
+    /**
+     * Starts a provisioning rollback event.
+     *
+     * @param serviceInstanceId the service instance id
+     * @param vmIp              the vm ip
+     * @return the broker event
+     */
+    public static BrokerEvent provisioningRollback(String serviceInstanceId, String vmIp) {
+        return AVAILABLE ? begin(new ProvisioningRollbackEvent(serviceInstanceId, vmIp)) : NOOP;
+    }
+
+    /**
+     * Starts a BOSH VM recreate event.
+     *
+     * @param deploymentName the deployment name
+     * @param vmName         the vm name
+     * @param vmId           the vm id
+     * @return the broker event
+     */
+    public static BrokerEvent vmRecreate(String deploymentName, String vmName, String vmId) {
+        return AVAILABLE ? begin(new VmRecreateEvent(deploymentName, vmName, vmId)) : NOOP;
+    }
+
+    private static BrokerEvent begin(BrokerJfrEvent event) {
+        event.begin();
+        return event;
+    }
+
+    private static boolean isAvailable() {
+        if (Boolean.getBoolean("broker.jfr.disabled")) {
+            return false;
+        }
+
+        try {
+            Class.forName("jdk.jfr.Event", false, BrokerEvents.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+}
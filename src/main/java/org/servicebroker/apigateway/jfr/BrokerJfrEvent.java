@@ -0,0 +1,13 @@
+package org.servicebroker.apigateway.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.StackTrace;
+
+/**
+ * The type Broker jfr event. Common base of the broker's flight recorder events.
+ */
+@Category({"API Gateway Broker", "Provisioning"})
+@StackTrace(false)
+abstract class BrokerJfrEvent extends Event implements BrokerEvent {
+}
@@ -0,0 +1,34 @@
+package org.servicebroker.apigateway.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The type Provisioning rollback event.
+ */
+@Name("org.servicebroker.apigateway.ProvisioningRollback")
+@Label("Provisioning Rollback")
+@Description("Release of a claimed VM after a failed service admin setup")
+class ProvisioningRollbackEvent extends BrokerJfrEvent {
+
+    @Label("Service Instance Id")
+    String serviceInstanceId;
+
+    @Label("VM IP")
+    String vmIp;
+
+    @Label("Cause")
+    String cause;
+
+    ProvisioningRollbackEvent(String serviceInstanceId, String vmIp) {
+        this.serviceInstanceId = serviceInstanceId;
+        this.vmIp = vmIp;
+    }
+
+    @Override
+    public BrokerEvent message(String message) {
+        this.cause = message;
+        return this;
+    }
+}
@@ -0,0 +1,44 @@
+package org.servicebroker.apigateway.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The type Scim2 call event.
+ */
+@Name("org.servicebroker.apigateway.Scim2Call")
+@Label("SCIM2 Call")
+@Description("SCIM2 API call to the API Manager on a dedicated VM")
+class Scim2CallEvent extends BrokerJfrEvent {
+
+    @Label("Operation")
+    String operation;
+
+    @Label("VM IP")
+    String vmIp;
+
+    @Label("HTTP Status")
+    @Description("0 if no response was received")
+    int httpStatus;
+
+    @Label("Success")
+    boolean success;
+
+    Scim2CallEvent(String operation, String vmIp) {
+        this.operation = operation;
+        this.vmIp = vmIp;
+    }
+
+    @Override
+    public BrokerEvent httpStatus(int httpStatus) {
+        this.httpStatus = httpStatus;
+        return this;
+    }
+
+    @Override
+    public BrokerEvent success(boolean success) {
+        this.success = success;
+        return this;
+    }
+}
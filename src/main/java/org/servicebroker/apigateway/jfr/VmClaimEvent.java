@@ -0,0 +1,39 @@
+package org.servicebroker.apigateway.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The type Vm claim event.
+ */
+@Name("org.servicebroker.apigateway.VmClaim")
+@Label("VM Claim")
+@Description("Claim of a free dedicated VM, including optimistic locking retries")
+class VmClaimEvent extends BrokerJfrEvent {
+
+    @Label("Service Instance Id")
+    String serviceInstanceId;
+
+    @Label("VM IP")
+    String vmIp;
+
+    @Label("Claimed")
+    boolean claimed;
+
+    VmClaimEvent(String serviceInstanceId) {
+        this.serviceInstanceId = serviceInstanceId;
+    }
+
+    @Override
+    public BrokerEvent vmIp(String vmIp) {
+        this.vmIp = vmIp;
+        return this;
+    }
+
+    @Override
+    public BrokerEvent success(boolean success) {
+        this.claimed = success;
+        return this;
+    }
+}
@@ -0,0 +1,47 @@
+package org.servicebroker.apigateway.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The type Vm recreate event.
+ */
+@Name("org.servicebroker.apigateway.VmRecreate")
+@Label("VM Recreate")
+@Description("BOSH recreate of a deprovisioned dedicated VM")
+class VmRecreateEvent extends BrokerJfrEvent {
+
+    @Label("Deployment")
+    String deploymentName;
+
+    @Label("VM Name")
+    String vmName;
+
+    @Label("VM Id")
+    String vmId;
+
+    @Label("Success")
+    boolean success;
+
+    @Label("Error")
+    String error;
+
+    VmRecreateEvent(String deploymentName, String vmName, String vmId) {
+        this.deploymentName = deploymentName;
+        this.vmName = vmName;
+        this.vmId = vmId;
+    }
+
+    @Override
+    public BrokerEvent success(boolean success) {
+        this.success = success;
+        return this;
+    }
+
+    @Override
+    public BrokerEvent message(String message) {
+        this.error = message;
+        return this;
+    }
+}
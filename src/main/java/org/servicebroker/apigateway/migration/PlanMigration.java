@@ -0,0 +1,136 @@
+package org.servicebroker.apigateway.migration;
+
+import com.fasterxml.jackson.databind.PropertyNamingStrategy;
+import com.fasterxml.jackson.databind.annotation.JsonNaming;
+import lombok.Getter;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The type Plan migration. Progress of the move of a service instance to a VM of its new plan.
+ * Written by the migration worker only, read by the admin API.
+ */
+@Getter
+@JsonNaming(PropertyNamingStrategy.SnakeCaseStrategy.class)
+public class PlanMigration {
+
+    /**
+     * The enum Step.
+     */
+    public enum Step {
+        PENDING, CLAIMING, COPYING_USERS, COPYING_APIS, SWAPPING, COMPLETED, FAILED
+    }
+
+    private final String serviceInstanceId;
+    private final String fromPlanId;
+    private final String toPlanId;
+    private final Date startedTime = new Date();
+    private volatile Step step = Step.PENDING;
+    private volatile String sourceIp;
+    private volatile String targetIp;
+    private volatile int usersTotal;
+    private volatile int usersCopied;
+    private volatile int groupsCopied;
+    private volatile int apisTotal;
+    private volatile int apisCopied;
+    /** Users created without their password (no email to send the password invitation to). */
+    private final List<String> passwordResetRequired = new CopyOnWriteArrayList<>();
+    private volatile String message;
+    private volatile Date finishedTime;
+    private volatile boolean cancelled;
+
+    /**
+     * Instantiates a new Plan migration.
+     *
+     * @param serviceInstanceId the service instance id
+     * @param fromPlanId        the from plan id
+     * @param toPlanId          the to plan id
+     */
+    public PlanMigration(String serviceInstanceId, String fromPlanId, String toPlanId) {
+        this.serviceInstanceId = serviceInstanceId;
+        this.fromPlanId = fromPlanId;
+        this.toPlanId = toPlanId;
+    }
+
+    /**
+     * Is finished.
+     *
+     * @return true if completed or failed
+     */
+    public boolean isFinished() {
+        return step == Step.COMPLETED || step == Step.FAILED;
+    }
+
+    /**
+     * Cancels the migration, unless it has started swapping the VMs or has finished.
+     * The worker stops at its next copied item and gives back the migration VM.
+     *
+     * @return true if cancelled, false if the migration completes (or failed) on its own
+     */
+    public synchronized boolean cancel() {
+        if (step == Step.SWAPPING || isFinished()) {
+            return false;
+        }
+        cancelled = true;
+        return true;
+    }
+
+    void step(Step step) {
+        this.step = step;
+    }
+
+    /**
+     * Moves to {@link Step#SWAPPING} unless cancelled. Once swapping, the migration can no longer be cancelled.
+     */
+    synchronized boolean swapping() {
+        if (cancelled) {
+            return false;
+        }
+        step = Step.SWAPPING;
+        return true;
+    }
+
+    void vms(String sourceIp, String targetIp) {
+        this.sourceIp = sourceIp;
+        this.targetIp = targetIp;
+    }
+
+    void usersTotal(int usersTotal) {
+        this.usersTotal = usersTotal;
+    }
+
+    void userCopied(String userName, boolean passwordReset) {
+        usersCopied++;
+        if (passwordReset) {
+            passwordResetRequired.add(userName);
+        }
+    }
+
+    void groupCopied() {
+        groupsCopied++;
+    }
+
+    void apisTotal(int apisTotal) {
+        this.apisTotal = apisTotal;
+    }
+
+    void apiCopied() {
+        apisCopied++;
+    }
+
+    void complete() {
+        finish(Step.COMPLETED, null);
+    }
+
+    void fail(String message) {
+        finish(Step.FAILED, message);
+    }
+
+    private void finish(Step step, String message) {
+        this.message = message;
+        this.finishedTime = new Date();
+        this.step = step;
+    }
+}
@@ -0,0 +1,50 @@
+package org.servicebroker.apigateway.migration;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Collection;
+
+/**
+ * The type Plan migration controller. Progress of the plan migrations run by this node. (same authentication as the broker API)
+ */
+@RestController
+public class PlanMigrationController {
+
+    private final PlanMigrationService planMigrationService;
+
+    /**
+     * Instantiates a new Plan migration controller.
+     *
+     * @param planMigrationService the plan migration service
+     */
+    @Autowired
+    public PlanMigrationController(PlanMigrationService planMigrationService) {
+        this.planMigrationService = planMigrationService;
+    }
+
+    /**
+     * Migrations.
+     *
+     * @return the migrations
+     */
+    @GetMapping("/admin/migrations")
+    public Collection<PlanMigration> migrations() {
+        return planMigrationService.getAll();
+    }
+
+    /**
+     * Migration of a service instance.
+     *
+     * @param serviceInstanceId the service instance id
+     * @return the migration, 404 if none
+     */
+    @GetMapping("/admin/migrations/{serviceInstanceId}")
+    public ResponseEntity<PlanMigration> migration(@PathVariable String serviceInstanceId) {
+        PlanMigration migration = planMigrationService.get(serviceInstanceId);
+        return migration == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(migration);
+    }
+}
@@ -0,0 +1,255 @@
+package org.servicebroker.apigateway.migration;
+
+import lombok.extern.slf4j.Slf4j;
+import org.servicebroker.apigateway.client.Scim2Client;
+import org.servicebroker.apigateway.client.Wso2MigrationClient;
+import org.servicebroker.apigateway.exception.ServiceException;
+import org.servicebroker.apigateway.model.JpaDedicatedVM;
+import org.servicebroker.apigateway.selection.VmSelectionService;
+import org.servicebroker.apigateway.service.impl.ApiGatewayBindingCredentials;
+import org.servicebroker.apigateway.service.impl.ApiGatewayCapacityService;
+import org.servicebroker.apigateway.service.impl.ApiGatewayDedicatedVMService;
+import org.servicebroker.apigateway.service.impl.ApiGatewayServiceInstanceBindingService;
+import org.servicebroker.apigateway.service.impl.Constants;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+
+/**
+ * The type Plan migration service.
+ *
+ * A plan change moves the service instance to another dedicated VM : claim a free VM (of the plan's instance group, if mapped),
+ * copy users, group memberships and APIs through the WSO2 admin APIs, then swap the VMs in one transaction
+ * ({@link ApiGatewayDedicatedVMService#swap}). The old VM keeps serving until the swap and is recreated afterwards.
+ * The service admin is created with the password given on the plan change request and added to the admin group, as at provisioning;
+ * binding users keep their (derived) password; the other users are created without theirs.
+ *
+ * Migrations run on the broker task executor, one per service instance; progress is kept in memory on the node running it.
+ * Every copied item refreshes the claim of the migration VM ({@link ApiGatewayDedicatedVMService#heartbeat}), so a migration
+ * outlasting the sweeper grace period is not taken as an orphan; if the VM was recovered anyway the migration fails before writing more.
+ * A migration VM left behind by a crashed node has no service_instance row and is recycled by the sweeper after its grace period.
+ * A migration cancelled before the swap ({@link #cancel}) stops at its next copied item; once swapping it completes.
+ */
+@Slf4j
+@Service
+public class PlanMigrationService {
+
+    private final ApiGatewayDedicatedVMService apiGatewayDedicatedVMService;
+    private final ApiGatewayCapacityService apiGatewayCapacityService;
+    private final Wso2MigrationClient wso2MigrationClient;
+    private final Scim2Client scim2Client;
+    private final ApiGatewayBindingCredentials apiGatewayBindingCredentials;
+    private final ApiGatewayServiceInstanceBindingService apiGatewayServiceInstanceBindingService;
+    private final VmSelectionService vmSelectionService;
+    private final Executor brokerTaskExecutor;
+
+    static final String CANCELLED = "Cancelled. The plan change request did not wait for the migration to complete.";
+
+    // 서비스 인스턴스별 마지막 migration (key : service instance id)
+    private final ConcurrentMap<String, PlanMigration> migrations = new ConcurrentHashMap<>();
+
+    /**
+     * Instantiates a new Plan migration service.
+     *
+     * @param apiGatewayDedicatedVMService            the api gateway dedicated vm service
+     * @param apiGatewayCapacityService               the api gateway capacity service
+     * @param wso2MigrationClient                     the wso2 migration client
+     * @param scim2Client                             the scim2 client
+     * @param apiGatewayBindingCredentials            the api gateway binding credentials
+     * @param apiGatewayServiceInstanceBindingService the api gateway service instance binding service
+     * @param vmSelectionService                      the vm selection service (plan to instance group mapping)
+     * @param brokerTaskExecutor                      the broker task executor
+     */
+    @Autowired
+    public PlanMigrationService(ApiGatewayDedicatedVMService apiGatewayDedicatedVMService,
+                                ApiGatewayCapacityService apiGatewayCapacityService,
+                                Wso2MigrationClient wso2MigrationClient,
+                                Scim2Client scim2Client,
+                                ApiGatewayBindingCredentials apiGatewayBindingCredentials,
+                                ApiGatewayServiceInstanceBindingService apiGatewayServiceInstanceBindingService,
+                                VmSelectionService vmSelectionService,
+                                @Qualifier("brokerTaskExecutor") Executor brokerTaskExecutor) {
+        this.apiGatewayDedicatedVMService = apiGatewayDedicatedVMService;
+        this.apiGatewayCapacityService = apiGatewayCapacityService;
+        this.wso2MigrationClient = wso2MigrationClient;
+        this.scim2Client = scim2Client;
+        this.apiGatewayBindingCredentials = apiGatewayBindingCredentials;
+        this.apiGatewayServiceInstanceBindingService = apiGatewayServiceInstanceBindingService;
+        this.vmSelectionService = vmSelectionService;
+        this.brokerTaskExecutor = brokerTaskExecutor;
+    }
+
+    /**
+     * Starts a migration.
+     *
+     * @param serviceInstanceId    the service instance id
+     * @param fromPlanId           the current plan id
+     * @param toPlanId             the new plan id
+     * @param serviceAdminPassword the service admin password (not kept in the migration)
+     * @return the migration, completed when it finished (completed or failed)
+     * @throws ServiceException if the password is missing or the service instance is already being migrated on this node
+     */
+    public CompletableFuture<PlanMigration> start(String serviceInstanceId, String fromPlanId, String toPlanId, String serviceAdminPassword) throws ServiceException {
+        if (serviceAdminPassword == null || serviceAdminPassword.isEmpty()) {
+            throw new ServiceException("Cannot migrate. The service admin password is required to re-create the service admin on the new VM.");
+        }
+
+        PlanMigration migration = new PlanMigration(serviceInstanceId, fromPlanId, toPlanId);
+        PlanMigration current = migrations.compute(serviceInstanceId, (id, previous) -> previous != null && !previous.isFinished() ? previous : migration);
+
+        if (current != migration) {
+            throw new ServiceException("ServiceInstance " + serviceInstanceId + " is already being migrated to plan " + current.getToPlanId() + ".");
+        }
+
+        log.info("migration :: ServiceInstance {} :: plan {} -> {}", serviceInstanceId, fromPlanId, toPlanId);
+        return CompletableFuture.supplyAsync(() -> {
+            run(migration, serviceAdminPassword);
+            return migration;
+        }, brokerTaskExecutor);
+    }
+
+    /**
+     * Cancels the running migration of a service instance, unless it has started swapping the VMs.
+     *
+     * @param serviceInstanceId the service instance id
+     * @return true if cancelled, false if there is no migration to cancel or it completes on its own
+     */
+    public boolean cancel(String serviceInstanceId) {
+        PlanMigration migration = migrations.get(serviceInstanceId);
+        return migration != null && migration.cancel();
+    }
+
+    /**
+     * Gets the last migration of a service instance.
+     *
+     * @param serviceInstanceId the service instance id
+     * @return the migration, or null
+     */
+    public PlanMigration get(String serviceInstanceId) {
+        return migrations.get(serviceInstanceId);
+    }
+
+    /**
+     * Gets the migrations known to this node.
+     *
+     * @return the migrations
+     */
+    public Collection<PlanMigration> getAll() {
+        return migrations.values();
+    }
+
+    void run(PlanMigration migration, String serviceAdminPassword) {
+        String serviceInstanceId = migration.getServiceInstanceId();
+        JpaDedicatedVM target = null;
+        boolean written = false;
+
+        try {
+            migration.step(PlanMigration.Step.CLAIMING);
+            JpaDedicatedVM source = apiGatewayDedicatedVMService.findByServiceInstanceId(serviceInstanceId);
+            if (source == null || source.getAssignment() != Constants.STATUS_ASSIGNED) {
+                throw new ServiceException("Cannot migrate. ServiceInstance " + serviceInstanceId + " has no assigned VM.");
+            }
+
+            try {
+                target = apiGatewayDedicatedVMService.claimForMigration(serviceInstanceId, vmSelectionService.instanceGroup(migration.getToPlanId()));
+            } catch (DataIntegrityViolationException e) {
+                throw new ServiceException("Cannot migrate. ServiceInstance " + serviceInstanceId + " is already being migrated.");
+            }
+            if (target == null) {
+                apiGatewayCapacityService.poolExhausted();
+                throw new ServiceException("Cannot migrate. There are no available service VM.");
+            }
+            migration.vms(source.getIp(), target.getIp());
+            log.info("migration :: ServiceInstance {} :: VM {} -> {}", serviceInstanceId, source.getIp(), target.getIp());
+
+            migration.step(PlanMigration.Step.COPYING_USERS);
+            Map<String, String> users = wso2MigrationClient.getUsers(source.getIp());
+            migration.usersTotal(users.size());
+
+            // service admin :: 요청의 비밀번호로 생성 후 admin 권한 부여 (serviceAssignment 와 동일)
+            written = true;
+            scim2Client.regAdmin(target.getIp(), scim2Client.getGroups(target.getIp()), scim2Client.createUser(target.getIp(), serviceAdminPassword));
+            checkpoint(migration, target);
+
+            // 사용자 / 그룹 복사
+            Map<String, String> userIds = new HashMap<>();
+            for (Map.Entry<String, String> user : users.entrySet()) {
+                written = true;
+                // binding 사용자 :: 비밀번호를 다시 계산할 수 있으므로 그대로 유지
+                String password = apiGatewayBindingCredentials.isBindingUser(user.getKey()) ? apiGatewayBindingCredentials.password(user.getKey()) : null;
+                userIds.put(user.getKey(), wso2MigrationClient.createUser(target.getIp(), user.getKey(), user.getValue(), password));
+                migration.userCopied(user.getKey(), password == null && user.getValue() == null);
+                checkpoint(migration, target);
+            }
+
+            for (Map.Entry<String, List<String>> group : wso2MigrationClient.getGroupMembers(source.getIp()).entrySet()) {
+                Map<String, String> members = new LinkedHashMap<>();
+                group.getValue().stream().filter(userIds::containsKey).forEach(userName -> members.put(userName, userIds.get(userName)));
+                if (!members.isEmpty()) {
+                    wso2MigrationClient.addGroupMembers(target.getIp(), group.getKey(), members);
+                    migration.groupCopied();
+                    checkpoint(migration, target);
+                }
+            }
+
+            // API 복사 (export / import)
+            migration.step(PlanMigration.Step.COPYING_APIS);
+            List<String> apiIds = wso2MigrationClient.getApiIds(source.getIp());
+            migration.apisTotal(apiIds.size());
+            for (String apiId : apiIds) {
+                written = true;
+                wso2MigrationClient.importApi(target.getIp(), wso2MigrationClient.exportApi(source.getIp(), apiId));
+                migration.apiCopied();
+                checkpoint(migration, target);
+            }
+
+            if (!migration.swapping()) {
+                throw new ServiceException(CANCELLED);
+            }
+            apiGatewayDedicatedVMService.swap(serviceInstanceId, migration.getFromPlanId(), migration.getToPlanId(), target);
+            apiGatewayServiceInstanceBindingService.evict(serviceInstanceId);
+            migration.complete();
+            log.info("migration :: ServiceInstance {} :: completed :: {} user(s), {} API(s), password reset required :: {}",
+                    serviceInstanceId, migration.getUsersCopied(), migration.getApisCopied(), migration.getPasswordResetRequired());
+        } catch (ServiceException | RuntimeException e) {
+            log.error("migration :: ServiceInstance {} :: failed at {} :: {}", serviceInstanceId, migration.getStep(), e.toString());
+            if (target != null) {
+                abandon(target, written);
+            }
+            migration.fail(e.getMessage());
+        }
+    }
+
+    /**
+     * Stops a cancelled migration, otherwise refreshes the claim of the migration VM.
+     */
+    private void checkpoint(PlanMigration migration, JpaDedicatedVM target) throws ServiceException {
+        if (migration.isCancelled()) {
+            throw new ServiceException(CANCELLED);
+        }
+        apiGatewayDedicatedVMService.heartbeat(target);
+    }
+
+    /**
+     * Gives back the migration VM : to the free pool if nothing was written to it, otherwise to recreate.
+     */
+    private void abandon(JpaDedicatedVM target, boolean written) {
+        try {
+            if (written) {
+                apiGatewayDedicatedVMService.markForRecreate(target);
+            } else {
+                apiGatewayDedicatedVMService.release(target);
+            }
+        } catch (RuntimeException e) {
+            // sweeper 가 grace period 이후 회수
+            log.error("migration :: Failed to give back VM {} :: {}", target.getIp(), e.toString());
+        }
+    }
+}
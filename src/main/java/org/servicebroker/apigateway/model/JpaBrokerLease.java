@@ -0,0 +1,35 @@
+package org.servicebroker.apigateway.model;
+
+import lombok.*;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.validation.constraints.NotNull;
+import java.util.Date;
+
+/**
+ * The type Jpa broker lease.
+ */
+@Setter
+@Getter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "broker_lease")
+public class JpaBrokerLease {
+
+    @Id
+    @Column(name = "lease_name")
+    private String name;
+    @NotNull
+    @Column(name = "owner")
+    private String owner;
+    @NotNull
+    @Column(name = "expires_time")
+    private Date expiresTime;
+    @Column(name = "renewed_time")
+    private Date renewedTime;
+}
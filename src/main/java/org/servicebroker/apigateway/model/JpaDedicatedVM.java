@@ -4,10 +4,7 @@ import lombok.*;
 import org.hibernate.annotations.CreationTimestamp;
 import org.hibernate.annotations.UpdateTimestamp;
 
-import javax.persistence.Column;
-import javax.persistence.Entity;
-import javax.persistence.Id;
-import javax.persistence.Table;
+import javax.persistence.*;
 import javax.validation.constraints.NotNull;
 import java.util.Date;
 
@@ -20,7 +17,10 @@ import java.util.Date;
 @NoArgsConstructor
 @AllArgsConstructor
 @Entity
-@Table(name = "dedicated_vm")
+@Table(name = "dedicated_vm", indexes = {
+        @Index(name = "idx_dedicated_vm_assignment", columnList = "assignment"),
+        @Index(name = "idx_dedicated_vm_assignment_released_time", columnList = "assignment, released_time"),
+        @Index(name = "uk_dedicated_vm_provisioned_service_instance_id", columnList = "provisioned_service_instance_id", unique = true)})
 public class JpaDedicatedVM {
 
     @Id
@@ -45,4 +45,11 @@ public class JpaDedicatedVM {
     @CreationTimestamp
     @Column(name = "created_time")
     private Date createdTime;
+    @Column(name = "claimed_time")
+    private Date claimedTime;
+    @Column(name = "released_time")
+    private Date releasedTime;
+    @Version
+    @Column(name = "version", columnDefinition = "BIGINT NOT NULL DEFAULT 0")
+    private long version;
 }
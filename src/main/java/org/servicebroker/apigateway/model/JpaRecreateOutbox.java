@@ -0,0 +1,44 @@
+package org.servicebroker.apigateway.model;
+
+import lombok.*;
+
+import javax.persistence.*;
+import javax.validation.constraints.NotNull;
+import java.util.Date;
+
+/**
+ * The type Jpa recreate outbox. A pending BOSH recreate of a VM waiting for recreate, one row per VM.
+ */
+@Setter
+@Getter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "recreate_outbox", indexes = {
+        @Index(name = "idx_recreate_outbox_next_attempt_time", columnList = "next_attempt_time")})
+public class JpaRecreateOutbox {
+
+    @Id
+    @Column(name = "vm_ip")
+    private String ip;
+    @NotNull
+    @Column(name = "vm_name")
+    private String vmName;
+    @NotNull
+    @Column(name = "vm_id")
+    private String vmId;
+    @Column(name = "attempts")
+    private int attempts;
+    @NotNull
+    @Column(name = "next_attempt_time")
+    private Date nextAttemptTime;
+    @Column(name = "lock_owner")
+    private String lockOwner;
+    @Column(name = "locked_until")
+    private Date lockedUntil;
+    @Column(name = "last_error", length = 1000)
+    private String lastError;
+    @Column(name = "created_time")
+    private Date createdTime;
+}
@@ -0,0 +1,49 @@
+package org.servicebroker.apigateway.model;
+
+import lombok.*;
+import org.hibernate.annotations.CreationTimestamp;
+import org.springframework.data.domain.Persistable;
+
+import javax.persistence.*;
+import javax.validation.constraints.NotNull;
+import java.util.Date;
+
+/**
+ * The type Jpa service instance binding. The password of the binding user is derived, not stored.
+ * New rows are persisted, not merged : a concurrent insert of the same binding id fails instead of overwriting.
+ */
+@Setter
+@Getter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "service_instance_binding", indexes = {
+        @Index(name = "idx_service_instance_binding_service_instance_id", columnList = "service_instance_id")})
+public class JpaServiceInstanceBinding implements Persistable<String> {
+
+    @Id
+    @Column(name = "binding_id")
+    private String bindingId;
+    @NotNull
+    @Column(name = "service_instance_id")
+    private String serviceInstanceId;
+    @Column(name = "app_guid")
+    private String appGuid;
+    @NotNull
+    @Column(name = "user_name")
+    private String userName;
+    @CreationTimestamp
+    @Column(name = "created_time")
+    private Date createdTime;
+
+    @Override
+    public String getId() {
+        return bindingId;
+    }
+
+    @Override
+    public boolean isNew() {
+        return createdTime == null;
+    }
+}
@@ -0,0 +1,58 @@
+package org.servicebroker.apigateway.occupancy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * The type Occupancy controller. Pool occupancy history and demand forecast. (same authentication as the broker API)
+ */
+@RestController
+public class OccupancyController {
+
+    private final OccupancyService occupancyService;
+
+    /**
+     * Instantiates a new Occupancy controller.
+     *
+     * @param occupancyService the occupancy service
+     */
+    @Autowired
+    public OccupancyController(OccupancyService occupancyService) {
+        this.occupancyService = occupancyService;
+    }
+
+    /**
+     * Window aggregates.
+     *
+     * @param window the window (ms, default 1 day)
+     * @param step   the step (ms, default 1 hour)
+     * @return the aggregates
+     * @throws IOException the io exception
+     */
+    @GetMapping("/admin/occupancy")
+    public Map<String, Object> aggregate(@RequestParam(value = "window", defaultValue = "86400000") long window,
+                                         @RequestParam(value = "step", defaultValue = "3600000") long step) throws IOException {
+        return occupancyService.aggregate(window, Math.max(step, 1));
+    }
+
+    /**
+     * Demand forecast.
+     *
+     * @param window  the history window (ms, default 7 days)
+     * @param step    the step (ms, default 1 hour)
+     * @param horizon the horizon (ms, default 1 day)
+     * @return the forecast
+     * @throws IOException the io exception
+     */
+    @GetMapping("/admin/occupancy/forecast")
+    public Map<String, Object> forecast(@RequestParam(value = "window", defaultValue = "604800000") long window,
+                                        @RequestParam(value = "step", defaultValue = "3600000") long step,
+                                        @RequestParam(value = "horizon", defaultValue = "86400000") long horizon) throws IOException {
+        return occupancyService.forecast(window, Math.max(step, 1), horizon);
+    }
+}
@@ -0,0 +1,160 @@
+package org.servicebroker.apigateway.occupancy;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The type Occupancy ring buffer. Fixed-size file of {@link OccupancySnapshot} records; the oldest record is overwritten when full.
+ *
+ * Layout : header (magic, format, capacity, record size, records written) followed by {@code capacity} fixed-size records
+ * (timestamp, count per state, provisions, deprovisions). A file with another layout or capacity is started over.
+ */
+@Slf4j
+final class OccupancyRingBuffer implements Closeable {
+
+    private static final int MAGIC = 0x4f434352;
+    private static final int FORMAT = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int RECORD_SIZE = 8 + OccupancySnapshot.STATES * 4 + 4 + 4;
+
+    private final FileChannel channel;
+    private final int capacity;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // 누적 기록 수 (다음 record 위치 : written % capacity)
+    private long written;
+
+    /**
+     * Opens or creates a ring buffer file.
+     *
+     * @param path     the path
+     * @param capacity the number of records kept
+     * @throws IOException the io exception
+     */
+    OccupancyRingBuffer(Path path, int capacity) throws IOException {
+        this.capacity = capacity;
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        channel.read(header, 0);
+        header.flip();
+
+        if (header.remaining() == HEADER_SIZE && header.getInt() == MAGIC && header.getInt() == FORMAT
+                && header.getInt() == capacity && header.getInt() == RECORD_SIZE) {
+            written = header.getLong();
+        } else {
+            if (channel.size() > 0) {
+                log.warn("occupancy :: {} has another layout or capacity, starting over", path);
+            }
+            channel.truncate(0);
+            written = 0;
+            writeHeader();
+        }
+    }
+
+    /**
+     * Appends a snapshot.
+     *
+     * @param snapshot the snapshot
+     * @throws IOException the io exception
+     */
+    void append(OccupancySnapshot snapshot) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        record.putLong(snapshot.getTimestamp());
+        for (int state = 0; state < OccupancySnapshot.STATES; state++) {
+            record.putInt(snapshot.getCount(state));
+        }
+        record.putInt(snapshot.getProvisions());
+        record.putInt(snapshot.getDeprovisions());
+        record.flip();
+
+        lock.writeLock().lock();
+        try {
+            channel.write(record, HEADER_SIZE + (written % capacity) * RECORD_SIZE);
+            written++;
+            writeHeader();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Reads the snapshots taken at or after {@code from}, oldest first.
+     *
+     * @param from the from (epoch ms)
+     * @return the snapshots
+     * @throws IOException the io exception
+     */
+    List<OccupancySnapshot> read(long from) throws IOException {
+        ByteBuffer records;
+        long first;
+        int size;
+
+        lock.readLock().lock();
+        try {
+            size = (int) Math.min(written, capacity);
+            first = written - size;
+            records = ByteBuffer.allocate(size * RECORD_SIZE);
+            while (records.hasRemaining() && channel.read(records, HEADER_SIZE + records.position()) >= 0) {
+                // 파일 끝까지 읽음
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        List<OccupancySnapshot> snapshots = new ArrayList<>(size);
+        for (long i = first; i < first + size; i++) {
+            records.position((int) (i % capacity) * RECORD_SIZE);
+            long timestamp = records.getLong();
+            int[] counts = new int[OccupancySnapshot.STATES];
+            for (int state = 0; state < OccupancySnapshot.STATES; state++) {
+                counts[state] = records.getInt();
+            }
+            OccupancySnapshot snapshot = new OccupancySnapshot(timestamp, counts, records.getInt(), records.getInt());
+            if (timestamp >= from) {
+                snapshots.add(snapshot);
+            }
+        }
+        return snapshots;
+    }
+
+    /**
+     * Gets the number of records held.
+     *
+     * @return the size
+     */
+    int size() {
+        lock.readLock().lock();
+        try {
+            return (int) Math.min(written, capacity);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void writeHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(FORMAT).putInt(capacity).putInt(RECORD_SIZE).putLong(written);
+        header.position(HEADER_SIZE);
+        header.flip();
+        channel.write(header, 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,256 @@
+package org.servicebroker.apigateway.occupancy;
+
+import lombok.extern.slf4j.Slf4j;
+import org.servicebroker.apigateway.repository.JpaDedicatedVMRepository;
+import org.servicebroker.apigateway.service.impl.Constants;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The type Occupancy service.
+ *
+ * Records a snapshot of the VM counts per assignment state (one grouped count query) and of this node's
+ * provision / deprovision counts every interval into a fixed-size {@link OccupancyRingBuffer}.
+ * Window aggregates and the demand forecast are computed from the ring buffer only.
+ * Every node keeps its own file : the counts are pool-wide, the provision rates are the node's own requests.
+ * If the file cannot be opened, recording is disabled and the aggregates are empty; the broker still starts.
+ */
+@Slf4j
+@Service
+public class OccupancyService {
+
+    // Holt 지수 평활 계수 (level, trend)
+    private static final double ALPHA = 0.5;
+    private static final double BETA = 0.3;
+
+    private final JpaDedicatedVMRepository jpaDedicatedVMRepository;
+    // null : 파일을 열 수 없어 기록 비활성
+    private final OccupancyRingBuffer ringBuffer;
+
+    private final AtomicInteger provisions = new AtomicInteger();
+    private final AtomicInteger deprovisions = new AtomicInteger();
+
+    /**
+     * Instantiates a new Occupancy service.
+     *
+     * @param jpaDedicatedVMRepository the jpa dedicated vm repository
+     * @param file                     the ring buffer file
+     * @param capacity                 the number of snapshots kept
+     */
+    @Autowired
+    public OccupancyService(JpaDedicatedVMRepository jpaDedicatedVMRepository,
+                            @Value("${broker.occupancy.file:/var/vcap/store/api-gateway-broker/occupancy.ring}") String file,
+                            @Value("${broker.occupancy.capacity:10080}") int capacity) {
+        this.jpaDedicatedVMRepository = jpaDedicatedVMRepository;
+        this.ringBuffer = open(file, capacity);
+    }
+
+    private static OccupancyRingBuffer open(String file, int capacity) {
+        try {
+            return new OccupancyRingBuffer(Paths.get(file), capacity);
+        } catch (IOException | RuntimeException e) {
+            log.error("occupancy :: Failed to open {}, recording disabled :: {}", file, e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * Counts a completed provision.
+     */
+    public void provisioned() {
+        provisions.incrementAndGet();
+    }
+
+    /**
+     * Counts a completed deprovision.
+     */
+    public void deprovisioned() {
+        deprovisions.incrementAndGet();
+    }
+
+    /**
+     * Records a snapshot.
+     */
+    @Scheduled(initialDelayString = "${broker.occupancy.interval:60000}", fixedRateString = "${broker.occupancy.interval:60000}")
+    public void record() {
+        try {
+            record(System.currentTimeMillis());
+        } catch (IOException | RuntimeException e) {
+            log.error("occupancy :: Failed to record snapshot :: {}", e.toString());
+        }
+    }
+
+    void record(long now) throws IOException {
+        if (ringBuffer == null) {
+            return;
+        }
+
+        int[] counts = new int[OccupancySnapshot.STATES];
+        for (Object[] row : jpaDedicatedVMRepository.countGroupByAssignment()) {
+            int assignment = ((Number) row[0]).intValue();
+            if (assignment >= 0 && assignment < OccupancySnapshot.STATES) {
+                counts[assignment] = ((Number) row[1]).intValue();
+            }
+        }
+
+        ringBuffer.append(new OccupancySnapshot(now, counts, provisions.getAndSet(0), deprovisions.getAndSet(0)));
+    }
+
+    /**
+     * Window aggregates : per step, min / avg / max VM count of every state and the provision / deprovision totals.
+     *
+     * @param window the window (ms, up to now)
+     * @param step   the bucket size (ms)
+     * @return the aggregates
+     * @throws IOException the io exception
+     */
+    public Map<String, Object> aggregate(long window, long step) throws IOException {
+        long now = System.currentTimeMillis();
+        List<OccupancySnapshot> snapshots = read(now - window);
+
+        List<Map<String, Object>> buckets = new ArrayList<>();
+        List<List<OccupancySnapshot>> grouped = buckets(snapshots, now - window, step);
+        for (int i = 0; i < grouped.size(); i++) {
+            List<OccupancySnapshot> bucket = grouped.get(i);
+            if (bucket.isEmpty()) {
+                continue;
+            }
+
+            Map<String, Object> states = new LinkedHashMap<>();
+            for (int state = 0; state < OccupancySnapshot.STATES; state++) {
+                IntSummaryStatistics statistics = new IntSummaryStatistics();
+                for (OccupancySnapshot snapshot : bucket) {
+                    statistics.accept(snapshot.getCount(state));
+                }
+                Map<String, Object> values = new LinkedHashMap<>();
+                values.put("min", statistics.getMin());
+                values.put("avg", Math.round(statistics.getAverage() * 100) / 100.0);
+                values.put("max", statistics.getMax());
+                states.put(Constants.STATUS_NAMES[state], values);
+            }
+
+            Map<String, Object> aggregate = new LinkedHashMap<>();
+            aggregate.put("start", new Date(now - window + i * step));
+            aggregate.put("samples", bucket.size());
+            aggregate.put("states", states);
+            aggregate.put("provisions", bucket.stream().mapToInt(OccupancySnapshot::getProvisions).sum());
+            aggregate.put("deprovisions", bucket.stream().mapToInt(OccupancySnapshot::getDeprovisions).sum());
+            buckets.add(aggregate);
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("window_ms", window);
+        result.put("step_ms", step);
+        result.put("snapshots", snapshots.size());
+        result.put("buckets", buckets);
+        return result;
+    }
+
+    /**
+     * Demand forecast. Provision and net demand (provisions - deprovisions) per step are smoothed with Holt's linear method
+     * and projected over the horizon, against the latest free VM count.
+     *
+     * @param window  the history window (ms)
+     * @param step    the step (ms)
+     * @param horizon the horizon (ms)
+     * @return the forecast
+     * @throws IOException the io exception
+     */
+    public Map<String, Object> forecast(long window, long step, long horizon) throws IOException {
+        long now = System.currentTimeMillis();
+        List<OccupancySnapshot> snapshots = read(now - window);
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("window_ms", window);
+        result.put("step_ms", step);
+        result.put("horizon_ms", horizon);
+
+        List<List<OccupancySnapshot>> buckets = buckets(snapshots, now - window, step);
+        if (snapshots.size() < 2) {
+            result.put("forecast", null);
+            return result;
+        }
+
+        // 첫 snapshot 이전 구간은 기록이 없으므로 제외
+        int firstBucket = (int) ((snapshots.get(0).getTimestamp() - (now - window)) / step);
+        List<List<OccupancySnapshot>> observed = buckets.subList(firstBucket, buckets.size());
+        double[] provisionSeries = new double[observed.size()];
+        double[] netSeries = new double[observed.size()];
+        for (int i = 0; i < observed.size(); i++) {
+            int provisioned = observed.get(i).stream().mapToInt(OccupancySnapshot::getProvisions).sum();
+            int deprovisioned = observed.get(i).stream().mapToInt(OccupancySnapshot::getDeprovisions).sum();
+            provisionSeries[i] = provisioned;
+            netSeries[i] = provisioned - deprovisioned;
+        }
+
+        double steps = (double) horizon / step;
+        double provisionsAhead = Math.max(0, project(provisionSeries, steps));
+        double netAhead = project(netSeries, steps);
+        OccupancySnapshot latest = snapshots.get(snapshots.size() - 1);
+        int free = latest.getCount(0);
+        double netPerStep = netAhead / steps;
+
+        Map<String, Object> forecast = new LinkedHashMap<>();
+        forecast.put("free_now", free);
+        forecast.put("provisions", Math.round(provisionsAhead * 10) / 10.0);
+        forecast.put("net_demand", Math.round(netAhead * 10) / 10.0);
+        forecast.put("free_projected", Math.round((free - netAhead) * 10) / 10.0);
+        forecast.put("exhausted_in_ms", netPerStep > 0 ? (long) (free / netPerStep * step) : null);
+        result.put("forecast", forecast);
+        return result;
+    }
+
+    /**
+     * Sum over the horizon of Holt's linear forecast : level + h * trend for h = 1 .. steps.
+     */
+    static double project(double[] series, double steps) {
+        if (series.length == 0) {
+            return 0;
+        }
+
+        double level = series[0];
+        double trend = series.length > 1 ? series[1] - series[0] : 0;
+        for (int i = 1; i < series.length; i++) {
+            double previous = level;
+            level = ALPHA * series[i] + (1 - ALPHA) * (level + trend);
+            trend = BETA * (level - previous) + (1 - BETA) * trend;
+        }
+        return steps * level + trend * steps * (steps + 1) / 2;
+    }
+
+    private List<OccupancySnapshot> read(long from) throws IOException {
+        return ringBuffer == null ? Collections.emptyList() : ringBuffer.read(from);
+    }
+
+    private static List<List<OccupancySnapshot>> buckets(List<OccupancySnapshot> snapshots, long from, long step) {
+        List<List<OccupancySnapshot>> buckets = new ArrayList<>();
+        for (OccupancySnapshot snapshot : snapshots) {
+            int bucket = (int) ((snapshot.getTimestamp() - from) / step);
+            while (buckets.size() <= bucket) {
+                buckets.add(new ArrayList<>());
+            }
+            buckets.get(bucket).add(snapshot);
+        }
+        return buckets;
+    }
+
+    /**
+     * Close.
+     *
+     * @throws IOException the io exception
+     */
+    @PreDestroy
+    public void close() throws IOException {
+        if (ringBuffer != null) {
+            ringBuffer.close();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package org.servicebroker.apigateway.occupancy;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * The type Occupancy snapshot. VM counts per assignment state at one point in time,
+ * and the provisions / deprovisions handled by this node since the previous snapshot.
+ */
+@Getter
+@AllArgsConstructor
+public class OccupancySnapshot {
+
+    /** The constant STATES. (assignment 0 .. 4, see Constants.STATUS_*) */
+    public static final int STATES = 5;
+
+    private final long timestamp;
+    private final int[] counts;
+    private final int provisions;
+    private final int deprovisions;
+
+    /**
+     * Gets the VM count of an assignment state.
+     *
+     * @param assignment the assignment
+     * @return the count
+     */
+    public int getCount(int assignment) {
+        return counts[assignment];
+    }
+}
@@ -0,0 +1,36 @@
+package org.servicebroker.apigateway.pool;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+/**
+ * The type Pool status controller. Read-only pool status. (same authentication as the broker API)
+ */
+@RestController
+public class PoolStatusController {
+
+    private final PoolStatusService poolStatusService;
+
+    /**
+     * Instantiates a new Pool status controller.
+     *
+     * @param poolStatusService the pool status service
+     */
+    @Autowired
+    public PoolStatusController(PoolStatusService poolStatusService) {
+        this.poolStatusService = poolStatusService;
+    }
+
+    /**
+     * Pool status.
+     *
+     * @return the status
+     */
+    @GetMapping("/admin/pool")
+    public Map<String, Object> status() {
+        return poolStatusService.status();
+    }
+}
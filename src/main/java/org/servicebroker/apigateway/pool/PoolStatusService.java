@@ -0,0 +1,101 @@
+package org.servicebroker.apigateway.pool;
+
+import org.servicebroker.apigateway.repository.JpaDedicatedVMRepository;
+import org.servicebroker.apigateway.service.impl.Constants;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.*;
+
+/**
+ * The type Pool status service.
+ *
+ * Summarizes dedicated_vm with one grouped query (counts per assignment state and plan, oldest release, latest provision)
+ * and one indexed single-row lookup for the VM waiting for recreate the longest. No {@code JpaDedicatedVM} entity is loaded,
+ * so the cost grows with the number of states and plans rather than with the pool size.
+ */
+@Service
+public class PoolStatusService {
+
+    private static final String NO_PLAN = "none";
+
+    private final JpaDedicatedVMRepository jpaDedicatedVMRepository;
+
+    /**
+     * Instantiates a new Pool status service.
+     *
+     * @param jpaDedicatedVMRepository the jpa dedicated vm repository
+     */
+    @Autowired
+    public PoolStatusService(JpaDedicatedVMRepository jpaDedicatedVMRepository) {
+        this.jpaDedicatedVMRepository = jpaDedicatedVMRepository;
+    }
+
+    /**
+     * Gets the pool status.
+     *
+     * @return the status
+     */
+    @Transactional(readOnly = true)
+    public Map<String, Object> status() {
+        long total = 0;
+        Date lastProvisioned = null;
+        Map<String, Long> states = new LinkedHashMap<>();
+        for (String name : Constants.STATUS_NAMES) {
+            states.put(name, 0L);
+        }
+        Map<String, Map<String, Object>> plans = new TreeMap<>();
+
+        for (Object[] row : jpaDedicatedVMRepository.summarizeGroupByAssignmentAndPlan()) {
+            String state = stateName(((Number) row[0]).intValue());
+            String plan = row[1] == null ? NO_PLAN : (String) row[1];
+            long count = ((Number) row[2]).longValue();
+            Date provisioned = (Date) row[4];
+
+            total += count;
+            states.merge(state, count, Long::sum);
+            lastProvisioned = latest(lastProvisioned, provisioned);
+
+            Map<String, Object> planStatus = plans.computeIfAbsent(plan, key -> new LinkedHashMap<>());
+            planStatus.merge(state, count, (a, b) -> (Long) a + (Long) b);
+            planStatus.put("last_provisioned", latest((Date) planStatus.get("last_provisioned"), provisioned));
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("total", total);
+        result.put("states", states);
+        result.put("plans", plans);
+        result.put("oldest_waiting_for_recreate", oldestWaitingForRecreate());
+        result.put("last_provisioned", lastProvisioned);
+        return result;
+    }
+
+    private Map<String, Object> oldestWaitingForRecreate() {
+        List<Object[]> rows = jpaDedicatedVMRepository.findOldestReleasedByAssignment(Constants.STATUS_WATING_FOR_VM_RECREATE, new PageRequest(0, 1));
+        if (rows.isEmpty()) {
+            return null;
+        }
+
+        Object[] row = rows.get(0);
+        Map<String, Object> vm = new LinkedHashMap<>();
+        vm.put("ip", row[0]);
+        vm.put("vm_name", row[1]);
+        vm.put("vm_id", row[2]);
+        // released_time 도입 이전에 반환된 VM 은 null
+        vm.put("since", row[3]);
+        return vm;
+    }
+
+    private static String stateName(int assignment) {
+        return assignment >= 0 && assignment < Constants.STATUS_NAMES.length ? Constants.STATUS_NAMES[assignment] : String.valueOf(assignment);
+    }
+
+    private static Date latest(Date a, Date b) {
+        if (a == null) {
+            return b;
+        }
+        return b == null || a.after(b) ? a : b;
+    }
+}
@@ -0,0 +1,73 @@
+package org.servicebroker.apigateway.repository;
+
+import org.servicebroker.apigateway.model.JpaBrokerLease;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Date;
+
+/**
+ * The interface Jpa broker lease repository.
+ */
+@Repository
+public interface JpaBrokerLeaseRepository extends JpaRepository<JpaBrokerLease, String> {
+
+    /**
+     * Renews the lease if it is held by the owner, or takes it over if it has expired.
+     *
+     * @param name        the lease name
+     * @param owner       the owner
+     * @param now         the current time
+     * @param expiresTime the new expiry time
+     * @return the number of updated rows (0 or 1)
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE JpaBrokerLease l SET l.owner = :owner, l.expiresTime = :expiresTime, l.renewedTime = :now " +
+            "WHERE l.name = :name AND (l.owner = :owner OR l.expiresTime < :now)")
+    int acquire(@Param("name") String name, @Param("owner") String owner, @Param("now") Date now, @Param("expiresTime") Date expiresTime);
+
+    /**
+     * Creates the lease for the owner. Fails with a duplicate key if the lease already exists.
+     *
+     * @param name        the lease name
+     * @param owner       the owner
+     * @param now         the current time
+     * @param expiresTime the expiry time
+     * @return the number of inserted rows
+     */
+    @Transactional
+    @Modifying
+    @Query(value = "INSERT INTO broker_lease (lease_name, owner, expires_time, renewed_time) VALUES (:name, :owner, :expiresTime, :now)", nativeQuery = true)
+    int insert(@Param("name") String name, @Param("owner") String owner, @Param("now") Date now, @Param("expiresTime") Date expiresTime);
+
+    /**
+     * Records a signal on an existing row : the owner is the signalling node, renewed_time the time of the signal.
+     *
+     * @param name  the signal name
+     * @param owner the signalling node
+     * @param now   the current time
+     * @return the number of updated rows (0 if the row does not exist yet)
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE JpaBrokerLease l SET l.owner = :owner, l.expiresTime = :now, l.renewedTime = :now WHERE l.name = :name")
+    int signal(@Param("name") String name, @Param("owner") String owner, @Param("now") Date now);
+
+    /**
+     * Releases the lease held by the owner.
+     *
+     * @param name  the lease name
+     * @param owner the owner
+     * @param now   the current time
+     * @return the number of updated rows (0 or 1)
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE JpaBrokerLease l SET l.expiresTime = :now WHERE l.name = :name AND l.owner = :owner")
+    int release(@Param("name") String name, @Param("owner") String owner, @Param("now") Date now);
+}
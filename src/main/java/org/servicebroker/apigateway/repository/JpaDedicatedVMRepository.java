@@ -1,9 +1,17 @@
 package org.servicebroker.apigateway.repository;
 
 import org.servicebroker.apigateway.model.JpaDedicatedVM;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
 /**
  * The interface Jpa Dedicated VM repository.
  */
@@ -13,4 +21,197 @@ public interface JpaDedicatedVMRepository extends JpaRepository<JpaDedicatedVM,
     JpaDedicatedVM findDistinctFirstByAssignmentEquals(int assignment);
 
     JpaDedicatedVM findDistinctFirstByProvisionedServiceInstanceId(String serviceInstanceId);
+
+    List<JpaDedicatedVM> findByAssignment(int assignment);
+
+    /**
+     * Counts the VMs per assignment state. (index-only scan on idx_dedicated_vm_assignment)
+     *
+     * @return the rows of [assignment, count]
+     */
+    @Query("SELECT v.assignment, COUNT(v) FROM JpaDedicatedVM v GROUP BY v.assignment")
+    List<Object[]> countGroupByAssignment();
+
+    /**
+     * Gets the BOSH identity of every VM without loading entities.
+     *
+     * @return the rows of [ip, vm name, vm id]
+     */
+    @Query("SELECT v.ip, v.vmName, v.vmId FROM JpaDedicatedVM v")
+    List<Object[]> findInventory();
+
+    /**
+     * Summarizes the pool per assignment state and plan in a single grouped query.
+     * The plan comes from the service instance the VM is provisioned for (null for VMs without one).
+     *
+     * @return the rows of [assignment, plan id, count, oldest released time, latest provisioned time]
+     */
+    @Query(value = "SELECT v.assignment, s.plan_id, COUNT(*), MIN(v.released_time), MAX(v.provisioned_time) " +
+            "FROM dedicated_vm v LEFT JOIN service_instance s ON s.service_instance_id = v.provisioned_service_instance_id " +
+            "GROUP BY v.assignment, s.plan_id", nativeQuery = true)
+    List<Object[]> summarizeGroupByAssignmentAndPlan();
+
+    /**
+     * Finds the VMs released longest ago in an assignment state. (range scan on idx_dedicated_vm_assignment_released_time)
+     * VMs released before released_time was recorded come first.
+     *
+     * @param assignment the assignment
+     * @param pageable   the pageable
+     * @return the rows of [ip, vm name, vm id, released time]
+     */
+    @Query("SELECT v.ip, v.vmName, v.vmId, v.releasedTime FROM JpaDedicatedVM v WHERE v.assignment = :assignment ORDER BY v.releasedTime ASC")
+    List<Object[]> findOldestReleasedByAssignment(@Param("assignment") int assignment, Pageable pageable);
+
+    /**
+     * Claims the first VM in the {@code from} state for the service instance in a single statement.
+     *
+     * @param from              the expected assignment
+     * @param to                the new assignment
+     * @param serviceInstanceId the service instance id
+     * @return the number of claimed rows (0 or 1)
+     */
+    @Modifying
+    @Query(value = "UPDATE dedicated_vm SET assignment = :to, provisioned_service_instance_id = :serviceInstanceId, provisioned_time = CURRENT_TIMESTAMP, claimed_time = CURRENT_TIMESTAMP, version = version + 1 " +
+            "WHERE assignment = :from LIMIT 1", nativeQuery = true)
+    int claimFirstByAssignment(@Param("from") int from, @Param("to") int to, @Param("serviceInstanceId") String serviceInstanceId);
+
+    /**
+     * Claims the VM with the given ip for the service instance, if it is still in the {@code from} state. (primary key lookup)
+     *
+     * @param ip                the vm ip
+     * @param from              the expected assignment
+     * @param to                the new assignment
+     * @param serviceInstanceId the service instance id
+     * @return the number of claimed rows (0 or 1)
+     */
+    @Modifying
+    @Query(value = "UPDATE dedicated_vm SET assignment = :to, provisioned_service_instance_id = :serviceInstanceId, provisioned_time = CURRENT_TIMESTAMP, claimed_time = CURRENT_TIMESTAMP, version = version + 1 " +
+            "WHERE vm_ip = :ip AND assignment = :from", nativeQuery = true)
+    int claimByIpAndAssignment(@Param("ip") String ip, @Param("from") int from, @Param("to") int to, @Param("serviceInstanceId") String serviceInstanceId);
+
+    /**
+     * Claims the first VM of an instance group in the {@code from} state for the service instance in a single statement.
+     *
+     * @param from              the expected assignment
+     * @param to                the new assignment
+     * @param serviceInstanceId the service instance id
+     * @param vmName            the instance group
+     * @return the number of claimed rows (0 or 1)
+     */
+    @Modifying
+    @Query(value = "UPDATE dedicated_vm SET assignment = :to, provisioned_service_instance_id = :serviceInstanceId, provisioned_time = CURRENT_TIMESTAMP, claimed_time = CURRENT_TIMESTAMP, version = version + 1 " +
+            "WHERE assignment = :from AND vm_name = :vmName LIMIT 1", nativeQuery = true)
+    int claimFirstByAssignmentAndVmName(@Param("from") int from, @Param("to") int to, @Param("serviceInstanceId") String serviceInstanceId,
+                                        @Param("vmName") String vmName);
+
+    /**
+     * Attaches the VM provisioned under {@code fromServiceInstanceId} to {@code toServiceInstanceId} and moves it from the {@code from} state to the {@code to} state.
+     *
+     * @param fromServiceInstanceId the service instance id the VM was claimed with
+     * @param toServiceInstanceId   the service instance id
+     * @param from                  the expected assignment
+     * @param to                    the new assignment
+     * @return the number of updated rows (0 or 1)
+     */
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE JpaDedicatedVM v SET v.provisionedServiceInstanceId = :toServiceInstanceId, v.assignment = :to, v.provisionedTime = CURRENT_TIMESTAMP, v.version = v.version + 1 " +
+            "WHERE v.provisionedServiceInstanceId = :fromServiceInstanceId AND v.assignment = :from")
+    int attachProvisionedServiceInstanceId(@Param("fromServiceInstanceId") String fromServiceInstanceId, @Param("toServiceInstanceId") String toServiceInstanceId,
+                                           @Param("from") int from, @Param("to") int to);
+
+    /**
+     * Moves the VM provisioned for the service instance from the {@code from} state to the {@code to} state.
+     *
+     * @param serviceInstanceId the service instance id
+     * @param from              the expected assignment
+     * @param to                the new assignment
+     * @return the number of updated rows (0 or 1)
+     */
+    @Modifying
+    @Query("UPDATE JpaDedicatedVM v SET v.assignment = :to, v.version = v.version + 1 " +
+            "WHERE v.provisionedServiceInstanceId = :serviceInstanceId AND v.assignment = :from")
+    int updateAssignmentByProvisionedServiceInstanceId(@Param("serviceInstanceId") String serviceInstanceId, @Param("from") int from, @Param("to") int to);
+
+    /**
+     * Detaches the VM from its service instance and moves it to the {@code to} state,
+     * only if it is still in the {@code from} state at the expected version.
+     *
+     * @param ip                the vm ip
+     * @param serviceInstanceId the service instance id
+     * @param version           the expected version
+     * @param from              the expected assignment
+     * @param to                the new assignment
+     * @return the number of updated rows (0 or 1)
+     */
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE JpaDedicatedVM v SET v.assignment = :to, v.provisionedServiceInstanceId = NULL, v.provisionedTime = NULL, v.claimedTime = NULL, v.releasedTime = CURRENT_TIMESTAMP, v.version = v.version + 1 " +
+            "WHERE v.ip = :ip AND v.provisionedServiceInstanceId = :serviceInstanceId AND v.version = :version AND v.assignment = :from")
+    int releaseAssignment(@Param("ip") String ip, @Param("serviceInstanceId") String serviceInstanceId, @Param("version") long version,
+                          @Param("from") int from, @Param("to") int to);
+
+    /**
+     * Refreshes the claim time of a VM still claimed at the expected version, so the sweeper keeps treating it as in flight.
+     *
+     * @param ip                the vm ip
+     * @param serviceInstanceId the service instance id
+     * @param version           the expected version
+     * @param assignment        the expected assignment
+     * @return the number of updated rows (0 or 1)
+     */
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE JpaDedicatedVM v SET v.claimedTime = CURRENT_TIMESTAMP, v.version = v.version + 1 " +
+            "WHERE v.ip = :ip AND v.provisionedServiceInstanceId = :serviceInstanceId AND v.version = :version AND v.assignment = :assignment")
+    int touchClaim(@Param("ip") String ip, @Param("serviceInstanceId") String serviceInstanceId, @Param("version") long version,
+                   @Param("assignment") int assignment);
+
+    /**
+     * Finds claimed or assigned VMs without a matching service_instance row (single anti-join).
+     * VMs claimed after {@code claimedBefore} are still in flight and are skipped.
+     *
+     * @param provisioning  the provisioning assignment
+     * @param assigned      the assigned assignment
+     * @param claimedBefore the claim time threshold
+     * @return the orphan VMs
+     */
+    @Query(value = "SELECT v.* FROM dedicated_vm v LEFT JOIN service_instance s ON s.service_instance_id = v.provisioned_service_instance_id " +
+            "WHERE v.assignment IN (:provisioning, :assigned) AND s.service_instance_id IS NULL " +
+            "AND (v.claimed_time IS NULL OR v.claimed_time < :claimedBefore)", nativeQuery = true)
+    List<JpaDedicatedVM> findOrphans(@Param("provisioning") int provisioning, @Param("assigned") int assigned, @Param("claimedBefore") Date claimedBefore);
+
+    /**
+     * Moves an unassigned VM from the {@code from} state to the {@code to} state, only if it is unchanged since it was read.
+     *
+     * @param ip      the vm ip
+     * @param version the expected version
+     * @param from    the expected assignment
+     * @param to      the new assignment
+     * @return the number of updated rows (0 or 1)
+     */
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE JpaDedicatedVM v SET v.assignment = :to, v.version = v.version + 1 " +
+            "WHERE v.ip = :ip AND v.version = :version AND v.assignment = :from AND v.provisionedServiceInstanceId IS NULL")
+    int updateAssignmentByIp(@Param("ip") String ip, @Param("version") long version, @Param("from") int from, @Param("to") int to);
+
+    /**
+     * Moves the given VMs from the {@code from} state to the {@code to} state.
+     *
+     * @param ips  the vm ips
+     * @param from the expected assignment
+     * @param to   the new assignment
+     * @return the number of updated rows
+     */
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE JpaDedicatedVM v SET v.assignment = :to, v.version = v.version + 1 WHERE v.ip IN :ips AND v.assignment = :from")
+    int updateAssignmentByIpIn(@Param("ips") Collection<String> ips, @Param("from") int from, @Param("to") int to);
+
+    /**
+     * Deletes the given VMs if they are in the {@code assignment} state.
+     *
+     * @param ips        the vm ips
+     * @param assignment the expected assignment
+     * @return the number of deleted rows
+     */
+    @Modifying(clearAutomatically = true)
+    @Query("DELETE FROM JpaDedicatedVM v WHERE v.ip IN :ips AND v.assignment = :assignment")
+    int deleteByIpInAndAssignment(@Param("ips") Collection<String> ips, @Param("assignment") int assignment);
 }
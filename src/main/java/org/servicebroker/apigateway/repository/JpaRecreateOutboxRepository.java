@@ -0,0 +1,86 @@
+package org.servicebroker.apigateway.repository;
+
+import org.servicebroker.apigateway.model.JpaRecreateOutbox;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * The interface Jpa recreate outbox repository.
+ */
+@Repository
+public interface JpaRecreateOutboxRepository extends JpaRepository<JpaRecreateOutbox, String> {
+
+    /**
+     * Finds the intents due at {@code now} that no worker holds, oldest first.
+     *
+     * @param now      the now
+     * @param pageable the pageable
+     * @return the intents
+     */
+    @Query("SELECT o FROM JpaRecreateOutbox o WHERE o.nextAttemptTime <= :now AND (o.lockedUntil IS NULL OR o.lockedUntil < :now) " +
+            "ORDER BY o.nextAttemptTime ASC")
+    List<JpaRecreateOutbox> findDue(@Param("now") Date now, Pageable pageable);
+
+    /**
+     * Locks an intent for a worker, unless another worker holds it.
+     *
+     * @param ip    the vm ip
+     * @param owner the lock owner
+     * @param now   the now
+     * @param until the lock expiry
+     * @return the number of locked rows (0 or 1)
+     */
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE JpaRecreateOutbox o SET o.lockOwner = :owner, o.lockedUntil = :until " +
+            "WHERE o.ip = :ip AND (o.lockedUntil IS NULL OR o.lockedUntil < :now)")
+    int lock(@Param("ip") String ip, @Param("owner") String owner, @Param("now") Date now, @Param("until") Date until);
+
+    /**
+     * Schedules the next attempt of a locked intent and unlocks it.
+     *
+     * @param ip              the vm ip
+     * @param owner           the lock owner
+     * @param nextAttemptTime the next attempt time
+     * @param lastError       the last error
+     * @return the number of updated rows (0 or 1)
+     */
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE JpaRecreateOutbox o SET o.attempts = o.attempts + 1, o.nextAttemptTime = :nextAttemptTime, o.lastError = :lastError, " +
+            "o.lockOwner = NULL, o.lockedUntil = NULL WHERE o.ip = :ip AND o.lockOwner = :owner")
+    int reschedule(@Param("ip") String ip, @Param("owner") String owner, @Param("nextAttemptTime") Date nextAttemptTime,
+                   @Param("lastError") String lastError);
+
+    /**
+     * Unlocks an intent without counting an attempt.
+     *
+     * @param ip    the vm ip
+     * @param owner the lock owner
+     * @return the number of updated rows (0 or 1)
+     */
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE JpaRecreateOutbox o SET o.lockOwner = NULL, o.lockedUntil = NULL WHERE o.ip = :ip AND o.lockOwner = :owner")
+    int unlock(@Param("ip") String ip, @Param("owner") String owner);
+
+    /**
+     * Deletes a completed intent, only if it is still held by the owner (a new intent for the VM resets the lock).
+     *
+     * @param ip    the vm ip
+     * @param owner the lock owner
+     * @return the number of deleted rows (0 or 1)
+     */
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("DELETE FROM JpaRecreateOutbox o WHERE o.ip = :ip AND o.lockOwner = :owner")
+    int deleteByIpAndLockOwner(@Param("ip") String ip, @Param("owner") String owner);
+}
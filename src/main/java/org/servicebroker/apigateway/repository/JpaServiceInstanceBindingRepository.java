@@ -0,0 +1,13 @@
+package org.servicebroker.apigateway.repository;
+
+import org.servicebroker.apigateway.model.JpaServiceInstanceBinding;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+/**
+ * The interface Jpa service instance binding repository.
+ */
+@Repository
+public interface JpaServiceInstanceBindingRepository extends JpaRepository<JpaServiceInstanceBinding, String> {
+
+}
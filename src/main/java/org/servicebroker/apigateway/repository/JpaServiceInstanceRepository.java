@@ -2,14 +2,36 @@ package org.servicebroker.apigateway.repository;
 
 import org.servicebroker.apigateway.model.JpaServiceInstance;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.List;
+
 /**
  * The interface Jpa service instance repository.
  */
 @Repository
-public interface JpaServiceInstanceRepository extends JpaRepository<JpaServiceInstance, String> {
+public interface JpaServiceInstanceRepository extends JpaRepository<JpaServiceInstance, String>, JpaServiceInstanceRepositoryCustom {
 
     JpaServiceInstance findDistinctFirstByOrganizationGuid(String orgId);
 
+    List<JpaServiceInstance> findByServiceInstanceIdOrOrganizationGuid(String serviceInstanceId, String orgId);
+
+    /**
+     * Changes the plan and dashboard url of the service instance, only if it is still on the expected plan.
+     *
+     * @param serviceInstanceId the service instance id
+     * @param fromPlanId        the expected plan id
+     * @param toPlanId          the new plan id
+     * @param dashboardUrl      the new dashboard url
+     * @return the number of updated rows (0 or 1)
+     */
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE JpaServiceInstance s SET s.planId = :toPlanId, s.dashboardUrl = :dashboardUrl " +
+            "WHERE s.serviceInstanceId = :serviceInstanceId AND s.planId = :fromPlanId")
+    int updatePlan(@Param("serviceInstanceId") String serviceInstanceId, @Param("fromPlanId") String fromPlanId,
+                   @Param("toPlanId") String toPlanId, @Param("dashboardUrl") String dashboardUrl);
+
 }
@@ -0,0 +1,18 @@
+package org.servicebroker.apigateway.repository;
+
+import org.servicebroker.apigateway.model.JpaServiceInstance;
+
+/**
+ * The interface Jpa service instance repository custom.
+ */
+public interface JpaServiceInstanceRepositoryCustom {
+
+    /**
+     * Persists a new service instance.
+     * {@code save} merges entities with an assigned id, which costs an extra SELECT before the INSERT.
+     *
+     * @param jpaServiceInstance the jpa service instance
+     */
+    void persist(JpaServiceInstance jpaServiceInstance);
+
+}
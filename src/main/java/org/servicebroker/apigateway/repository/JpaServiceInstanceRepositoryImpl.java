@@ -0,0 +1,21 @@
+package org.servicebroker.apigateway.repository;
+
+import org.servicebroker.apigateway.model.JpaServiceInstance;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+/**
+ * The type Jpa service instance repository impl.
+ */
+public class JpaServiceInstanceRepositoryImpl implements JpaServiceInstanceRepositoryCustom {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public void persist(JpaServiceInstance jpaServiceInstance) {
+        entityManager.persist(jpaServiceInstance);
+    }
+
+}
@@ -0,0 +1,67 @@
+package org.servicebroker.apigateway.selection;
+
+import org.servicebroker.apigateway.client.BoshDeploymentClient;
+import org.servicebroker.apigateway.client.BoshVm;
+import org.servicebroker.apigateway.exception.ServiceException;
+import org.servicebroker.apigateway.model.JpaDedicatedVM;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+
+/**
+ * The type Az round robin strategy. Alternates the AZs (as reported by BOSH) so consecutive claims land in different AZs;
+ * the AZ with the most free VMs comes first. VMs BOSH does not report share one group.
+ */
+@Component
+public class AzRoundRobinStrategy implements VmSelectionStrategy {
+
+    private final BoshDeploymentClient boshDeploymentClient;
+    private final String deploymentName;
+
+    /**
+     * Instantiates a new Az round robin strategy.
+     *
+     * @param boshDeploymentClient the bosh deployment client
+     * @param deploymentName       the deployment name
+     */
+    @Autowired
+    public AzRoundRobinStrategy(BoshDeploymentClient boshDeploymentClient, @Value("${bosh.deployment_name}") String deploymentName) {
+        this.boshDeploymentClient = boshDeploymentClient;
+        this.deploymentName = deploymentName;
+    }
+
+    @Override
+    public String getName() {
+        return "az-round-robin";
+    }
+
+    @Override
+    public List<JpaDedicatedVM> rank(List<JpaDedicatedVM> free) throws ServiceException {
+        Map<String, String> azs = new HashMap<>();
+        for (BoshVm vm : boshDeploymentClient.getVms(deploymentName)) {
+            if (vm.getIp() != null) {
+                azs.put(vm.getIp(), String.valueOf(vm.getAz()));
+            }
+        }
+
+        Map<String, Deque<JpaDedicatedVM>> byAz = new TreeMap<>();
+        for (JpaDedicatedVM jpaDedicatedVM : free) {
+            byAz.computeIfAbsent(azs.getOrDefault(jpaDedicatedVM.getIp(), ""), az -> new ArrayDeque<>()).add(jpaDedicatedVM);
+        }
+
+        List<Deque<JpaDedicatedVM>> groups = new ArrayList<>(byAz.values());
+        groups.sort(Comparator.comparingInt(Deque<JpaDedicatedVM>::size).reversed());
+
+        List<JpaDedicatedVM> ranked = new ArrayList<>(free.size());
+        while (ranked.size() < free.size()) {
+            for (Deque<JpaDedicatedVM> group : groups) {
+                if (!group.isEmpty()) {
+                    ranked.add(group.poll());
+                }
+            }
+        }
+        return ranked;
+    }
+}
@@ -0,0 +1,52 @@
+package org.servicebroker.apigateway.selection;
+
+import org.servicebroker.apigateway.model.JpaDedicatedVM;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The type Health weighted strategy. Weighted random order by health score (Efraimidis-Spirakis : ascending -ln(u) / score),
+ * so healthy VMs tend to come first and VMs that failed recently still get claimed, only less often.
+ */
+@Component
+public class HealthWeightedStrategy implements VmSelectionStrategy {
+
+    private final VmHealthTracker vmHealthTracker;
+    private final Random random;
+
+    /**
+     * Instantiates a new Health weighted strategy.
+     *
+     * @param vmHealthTracker the vm health tracker
+     */
+    @Autowired
+    public HealthWeightedStrategy(VmHealthTracker vmHealthTracker) {
+        this(vmHealthTracker, null);
+    }
+
+    HealthWeightedStrategy(VmHealthTracker vmHealthTracker, Random random) {
+        this.vmHealthTracker = vmHealthTracker;
+        this.random = random;
+    }
+
+    @Override
+    public String getName() {
+        return "health-weighted";
+    }
+
+    @Override
+    public List<JpaDedicatedVM> rank(List<JpaDedicatedVM> free) {
+        Random random = this.random == null ? ThreadLocalRandom.current() : this.random;
+        Map<JpaDedicatedVM, Double> keys = new IdentityHashMap<>();
+        for (JpaDedicatedVM jpaDedicatedVM : free) {
+            keys.put(jpaDedicatedVM, -Math.log(1 - random.nextDouble()) / vmHealthTracker.score(jpaDedicatedVM.getIp()));
+        }
+
+        List<JpaDedicatedVM> ranked = new ArrayList<>(free);
+        ranked.sort(Comparator.comparing(keys::get));
+        return ranked;
+    }
+}
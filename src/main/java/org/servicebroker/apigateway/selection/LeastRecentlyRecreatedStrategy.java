@@ -0,0 +1,28 @@
+package org.servicebroker.apigateway.selection;
+
+import org.servicebroker.apigateway.model.JpaDedicatedVM;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The type Least recently recreated strategy. Oldest released_time first (a VM is recreated when it is released),
+ * VMs never released first of all, so the pool is used evenly instead of reusing the VMs recreated last.
+ */
+@Component
+public class LeastRecentlyRecreatedStrategy implements VmSelectionStrategy {
+
+    @Override
+    public String getName() {
+        return "least-recently-recreated";
+    }
+
+    @Override
+    public List<JpaDedicatedVM> rank(List<JpaDedicatedVM> free) {
+        List<JpaDedicatedVM> ranked = new ArrayList<>(free);
+        ranked.sort(Comparator.comparing(JpaDedicatedVM::getReleasedTime, Comparator.nullsFirst(Comparator.naturalOrder())));
+        return ranked;
+    }
+}
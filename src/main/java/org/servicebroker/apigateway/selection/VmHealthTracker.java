@@ -0,0 +1,47 @@
+package org.servicebroker.apigateway.selection;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The type Vm health tracker. Health score per VM in [MIN_SCORE, 1] : an exponentially weighted average of
+ * the provisioning outcomes on the VM (1 : success, 0 : failure). VMs without outcomes score 1. Kept per node.
+ */
+@Component
+public class VmHealthTracker {
+
+    static final double ALPHA = 0.3;
+    static final double MIN_SCORE = 0.05;
+
+    private final Map<String, Double> scores = new ConcurrentHashMap<>();
+
+    /**
+     * Records a successful provisioning.
+     *
+     * @param ip the vm ip
+     */
+    public void success(String ip) {
+        scores.computeIfPresent(ip, (key, score) -> score * (1 - ALPHA) + ALPHA >= 1 - 1e-3 ? null : score * (1 - ALPHA) + ALPHA);
+    }
+
+    /**
+     * Records a failed provisioning.
+     *
+     * @param ip the vm ip
+     */
+    public void failure(String ip) {
+        scores.merge(ip, Math.max(MIN_SCORE, 1 - ALPHA), (score, ignored) -> Math.max(MIN_SCORE, score * (1 - ALPHA)));
+    }
+
+    /**
+     * Gets the score.
+     *
+     * @param ip the vm ip
+     * @return the score
+     */
+    public double score(String ip) {
+        return scores.getOrDefault(ip, 1.0);
+    }
+}
@@ -0,0 +1,169 @@
+package org.servicebroker.apigateway.selection;
+
+import lombok.extern.slf4j.Slf4j;
+import org.servicebroker.apigateway.exception.ServiceException;
+import org.servicebroker.apigateway.model.JpaDedicatedVM;
+import org.servicebroker.apigateway.service.impl.ApiGatewayDedicatedVMService;
+import org.servicebroker.apigateway.service.impl.Constants;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.stream.Collectors;
+
+/**
+ * The type Vm selection service.
+ *
+ * Picks the VM a provisioning claims. The free VMs are ranked by the configured {@link VmSelectionStrategy}
+ * every refresh_interval into an in-memory queue; a claim takes the next VM (of the plan's instance group, if the plan is mapped
+ * in plan_instance_groups) and claims it by primary key.
+ * Every node keeps its own ranking, so a candidate may have been claimed by another node since the refresh :
+ * such candidates are skipped, and after MAX_CANDIDATES misses (or when the queue has no candidate) the claim falls back
+ * to the first free VM of the instance group in database order.
+ */
+@Slf4j
+@Service
+public class VmSelectionService {
+
+    static final int MAX_CANDIDATES = 3;
+    static final String NONE = "none";
+
+    private final ApiGatewayDedicatedVMService apiGatewayDedicatedVMService;
+    private final VmHealthTracker vmHealthTracker;
+    private final VmSelectionStrategy strategy;
+    private final Map<String, String> planInstanceGroups;
+
+    private final Deque<JpaDedicatedVM> ranking = new ConcurrentLinkedDeque<>();
+
+    /**
+     * Instantiates a new Vm selection service.
+     *
+     * @param apiGatewayDedicatedVMService the api gateway dedicated vm service
+     * @param vmHealthTracker              the vm health tracker
+     * @param strategies                   the strategies
+     * @param strategyName                 the strategy name (none : database order)
+     * @param planInstanceGroups           the plan to instance group mapping (plan_id=instance_group,...)
+     * @throws ServiceException if the strategy is unknown
+     */
+    @Autowired
+    public VmSelectionService(ApiGatewayDedicatedVMService apiGatewayDedicatedVMService, VmHealthTracker vmHealthTracker,
+                              List<VmSelectionStrategy> strategies,
+                              @Value("${broker.selection.strategy:least-recently-recreated}") String strategyName,
+                              @Value("${broker.selection.plan_instance_groups:}") String planInstanceGroups) throws ServiceException {
+        this.apiGatewayDedicatedVMService = apiGatewayDedicatedVMService;
+        this.vmHealthTracker = vmHealthTracker;
+        this.planInstanceGroups = parse(planInstanceGroups);
+
+        if (NONE.equals(strategyName)) {
+            this.strategy = null;
+        } else {
+            this.strategy = strategies.stream().filter(s -> s.getName().equals(strategyName)).findFirst()
+                    .orElseThrow(() -> new ServiceException("Unknown VM selection strategy :: " + strategyName + " "
+                            + strategies.stream().map(VmSelectionStrategy::getName).collect(Collectors.toList())));
+        }
+    }
+
+    /**
+     * Rebuilds the ranking of the free VMs.
+     */
+    @Scheduled(fixedDelayString = "${broker.selection.refresh_interval:30000}")
+    public void refresh() {
+        if (strategy == null) {
+            return;
+        }
+
+        try {
+            List<JpaDedicatedVM> ranked = strategy.rank(apiGatewayDedicatedVMService.findByAssignment(Constants.STATUS_WATING_FOR_ASSIGNMENT));
+            ranking.clear();
+            ranking.addAll(ranked);
+            log.debug("selection :: {} :: {} free VM(s) ranked", strategy.getName(), ranked.size());
+        } catch (ServiceException | RuntimeException e) {
+            // 이전 순위 유지, 소진되면 DB 순서로 선점
+            log.error("selection :: Failed to rank free VMs :: {}", e.toString());
+        }
+    }
+
+    /**
+     * Claims a VM for the service instance : the next ranked VM of the plan's instance group that is still free,
+     * or the first free VM of the instance group.
+     *
+     * @param serviceInstanceId the service instance id
+     * @param planId            the plan id
+     * @return the claimed vm, or null if there is no free VM
+     */
+    public JpaDedicatedVM claim(String serviceInstanceId, String planId) {
+        String instanceGroup = instanceGroup(planId);
+        int candidates = 0;
+
+        for (Iterator<JpaDedicatedVM> it = ranking.iterator(); it.hasNext() && candidates < MAX_CANDIDATES; ) {
+            JpaDedicatedVM candidate = it.next();
+            // 다른 instance group 의 VM 은 순위에 유지, 다른 요청이 먼저 꺼낸 VM 은 건너뜀
+            if (instanceGroup != null && !instanceGroup.equals(candidate.getVmName()) || !ranking.remove(candidate)) {
+                continue;
+            }
+
+            candidates++;
+            JpaDedicatedVM jpaDedicatedVM = apiGatewayDedicatedVMService.claim(serviceInstanceId, candidate.getIp());
+            if (jpaDedicatedVM != null) {
+                return jpaDedicatedVM;
+            }
+        }
+
+        return apiGatewayDedicatedVMService.claimFromInstanceGroup(serviceInstanceId, instanceGroup);
+    }
+
+    /**
+     * Gets the instance group a plan claims its VMs from.
+     *
+     * @param planId the plan id
+     * @return the instance group, or null if the plan is not mapped (any free VM)
+     */
+    public String instanceGroup(String planId) {
+        return planId == null ? null : planInstanceGroups.get(planId);
+    }
+
+    /**
+     * Records a successful provisioning on the VM.
+     *
+     * @param ip the vm ip
+     */
+    public void succeeded(String ip) {
+        vmHealthTracker.success(ip);
+    }
+
+    /**
+     * Records a failed provisioning on the VM.
+     *
+     * @param ip the vm ip
+     */
+    public void failed(String ip) {
+        vmHealthTracker.failure(ip);
+    }
+
+    /**
+     * Gets the ranked ips not claimed yet.
+     *
+     * @return the ips
+     */
+    public List<String> getRanking() {
+        return ranking.stream().map(JpaDedicatedVM::getIp).collect(Collectors.toList());
+    }
+
+    static Map<String, String> parse(String planInstanceGroups) {
+        Map<String, String> mapping = new HashMap<>();
+        for (String entry : planInstanceGroups.split(",")) {
+            String[] pair = entry.split("=", 2);
+            if (pair.length == 2 && !pair[0].trim().isEmpty() && !pair[1].trim().isEmpty()) {
+                mapping.put(pair[0].trim(), pair[1].trim());
+            }
+        }
+        return mapping;
+    }
+}
@@ -0,0 +1,29 @@
+package org.servicebroker.apigateway.selection;
+
+import org.servicebroker.apigateway.exception.ServiceException;
+import org.servicebroker.apigateway.model.JpaDedicatedVM;
+
+import java.util.List;
+
+/**
+ * The interface Vm selection strategy. Orders the free VMs in the order they should be claimed.
+ * Called off the request path when the ranking is rebuilt, never per claim.
+ */
+public interface VmSelectionStrategy {
+
+    /**
+     * Gets the name. (broker.selection.strategy)
+     *
+     * @return the name
+     */
+    String getName();
+
+    /**
+     * Ranks the free VMs.
+     *
+     * @param free the free VMs
+     * @return the VMs, first to claim first
+     * @throws ServiceException the service exception
+     */
+    List<JpaDedicatedVM> rank(List<JpaDedicatedVM> free) throws ServiceException;
+}
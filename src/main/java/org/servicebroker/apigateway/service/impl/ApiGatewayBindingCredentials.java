@@ -0,0 +1,78 @@
+package org.servicebroker.apigateway.service.impl;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Base64;
+
+/**
+ * The type Api gateway binding credentials.
+ *
+ * The password of a binding user is HMAC-SHA256(secret, user name {@code binding-<binding id>}), so it is never stored and every broker node
+ * (and a plan migration) derives the same value. Changing broker.binding.secret invalidates the existing bindings.
+ * The secret is required : it is a key of its own, never the super admin password.
+ */
+@Component
+public class ApiGatewayBindingCredentials {
+
+    /** The constant USER_NAME_PREFIX. (binding users on the dedicated VM) */
+    public static final String USER_NAME_PREFIX = "binding-";
+
+    private final SecretKeySpec key;
+
+    /**
+     * Instantiates a new Api gateway binding credentials.
+     *
+     * @param secret the secret (shared by all nodes)
+     */
+    @Autowired
+    public ApiGatewayBindingCredentials(@Value("${broker.binding.secret}") String secret) {
+        if (secret == null || secret.trim().isEmpty()) {
+            throw new IllegalStateException("broker.binding.secret is required.");
+        }
+        this.key = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256");
+    }
+
+    /**
+     * User name of a binding.
+     *
+     * @param bindingId the binding id
+     * @return the user name
+     */
+    public String userName(String bindingId) {
+        return USER_NAME_PREFIX + bindingId;
+    }
+
+    /**
+     * Is binding user.
+     *
+     * @param userName the user name
+     * @return true if the user was created for a binding
+     */
+    public boolean isBindingUser(String userName) {
+        return userName.startsWith(USER_NAME_PREFIX);
+    }
+
+    /**
+     * Password of a binding user.
+     *
+     * @param userName the binding user name
+     * @return the password
+     */
+    public String password(String userName) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(key);
+            byte[] digest = mac.doFinal(userName.getBytes(StandardCharsets.UTF_8));
+            // 24자 + WSO2 비밀번호 정책 (대/소문자, 숫자, 특수문자) 충족용 접미사
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(digest).substring(0, 24) + "Aa1!";
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not available.", e);
+        }
+    }
+}
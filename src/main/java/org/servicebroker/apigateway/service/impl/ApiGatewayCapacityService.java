@@ -0,0 +1,356 @@
+package org.servicebroker.apigateway.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.servicebroker.apigateway.client.BoshDeploymentClient;
+import org.servicebroker.apigateway.client.BoshManifest;
+import org.servicebroker.apigateway.client.BoshVm;
+import org.servicebroker.apigateway.exception.ServiceException;
+import org.servicebroker.apigateway.model.JpaBrokerLease;
+import org.servicebroker.apigateway.model.JpaDedicatedVM;
+import org.servicebroker.apigateway.repository.JpaBrokerLeaseRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/**
+ * The type Api gateway capacity service.
+ *
+ * Keeps the number of free VMs ({@link Constants#STATUS_WATING_FOR_ASSIGNMENT}) between two watermarks by scaling
+ * the instance group of the deployment through BOSH, on the leader node only.
+ * Below low_watermark it adds scale_step instances (up to max_instances) and registers the VMs that deploy added in dedicated_vm.
+ * Other VMs of the instance group missing from dedicated_vm are left to {@code InventoryReconciliationService}, which reports them.
+ * Above high_watermark it removes VMs that have been free for idle_period (down to min_instances). The idle time comes from
+ * the row (released_time, or created_time for a VM never assigned), so a new leader does not start the idle period over.
+ * A node that runs out of free VMs checks right away if it is the leader; otherwise it records the signal
+ * ({@link Constants#LEASE_POOL_EXHAUSTED}) and the leader picks it up within signal_interval.
+ *
+ * BOSH removes the highest instance indexes (per AZ) on a scale-down and cannot be told which VMs to delete,
+ * so a scale-down only happens when every VM BOSH might pick is free and idle. Those VMs are taken out of the pool
+ * ({@link Constants#STATUS_RETIRING}) before the deploy; the ones BOSH keeps are returned afterwards.
+ *
+ * Nothing is settled or deployed while a BOSH task runs on the deployment (e.g. the deploy of a former leader).
+ * The leader re-checks its lease before deploying and while it waits for the task; once it loses the lease it stops waiting
+ * and leaves the retiring VMs to the next leader, which settles them after the task has finished.
+ */
+@Slf4j
+@Service
+public class ApiGatewayCapacityService {
+
+    @Value("${bosh.deployment_name}")
+    public String deploymentName;
+    @Value("${broker.capacity.enabled:false}")
+    public boolean enabled;
+    @Value("${broker.capacity.instance_group:}")
+    public String instanceGroup;
+    @Value("${broker.capacity.low_watermark:2}")
+    public int lowWatermark;
+    @Value("${broker.capacity.high_watermark:6}")
+    public int highWatermark;
+    @Value("${broker.capacity.scale_step:2}")
+    public int scaleStep;
+    @Value("${broker.capacity.min_instances:1}")
+    public int minInstances;
+    @Value("${broker.capacity.max_instances:20}")
+    public int maxInstances;
+    @Value("${broker.capacity.idle_period:86400000}")
+    public long idlePeriod;
+    @Value("${broker.capacity.task_timeout:1800000}")
+    public long taskTimeout;
+    @Value("${broker.capacity.dashboard_url:https://{ip}:9443/publisher}")
+    public String dashboardUrl;
+
+    @Autowired
+    ApiGatewayDedicatedVMService apiGatewayDedicatedVMService;
+    @Autowired
+    ApiGatewayLeaderService apiGatewayLeaderService;
+    @Autowired
+    JpaBrokerLeaseRepository jpaBrokerLeaseRepository;
+    @Autowired
+    BoshDeploymentClient boshDeploymentClient;
+    @Autowired
+    @Qualifier("brokerTaskExecutor")
+    Executor brokerTaskExecutor;
+
+    // released_time / created_time 이 없는 미할당 VM (released_time 도입 이전 행) 의 최초 확인 시각 (leader 노드 기준, leader 변경 시 초기화)
+    private final Map<String, Long> freeSince = new ConcurrentHashMap<>();
+    private final AtomicBoolean checking = new AtomicBoolean();
+    // 처리한 pool 고갈 신호 시각 (broker_lease.renewed_time)
+    private volatile long handledSignal;
+
+    /**
+     * Checks the free VM count against the watermarks and scales the deployment if needed.
+     *
+     * @return the change in instances (positive : added, negative : removed)
+     */
+    @Scheduled(initialDelayString = "${broker.capacity.initial_delay:30000}", fixedDelayString = "${broker.capacity.interval:60000}")
+    public int checkCapacity() {
+        if (!enabled || instanceGroup.isEmpty() || !apiGatewayLeaderService.isLeader()) {
+            freeSince.clear();
+            return 0;
+        }
+
+        // scheduler 와 pool 고갈 알림이 동시에 실행되지 않도록
+        if (!checking.compareAndSet(false, true)) {
+            return 0;
+        }
+
+        try {
+            // 실행 중인 BOSH task (이전 leader 의 deploy, recreate 등) 가 끝날 때까지 retiring VM 정리 / scale 보류
+            List<Long> tasks = boshDeploymentClient.getRunningTasks(deploymentName);
+            if (!tasks.isEmpty()) {
+                log.info("capacity :: BOSH task(s) {} running on {} :: check skipped", tasks, deploymentName);
+                return 0;
+            }
+
+            List<BoshVm> vms = instanceGroupVms();
+            reconcile(vms);
+
+            List<JpaDedicatedVM> free = apiGatewayDedicatedVMService.findByAssignment(Constants.STATUS_WATING_FOR_ASSIGNMENT);
+            trackIdle(free);
+
+            if (free.size() < lowWatermark) {
+                return scaleUp(vms, free.size());
+            }
+            if (free.size() > highWatermark) {
+                return -scaleDown(vms, free);
+            }
+            return 0;
+        } catch (ServiceException | RuntimeException e) {
+            log.error("capacity :: check failed :: {}", e.toString());
+            return 0;
+        } finally {
+            checking.set(false);
+        }
+    }
+
+    /**
+     * Pool exhausted. Runs a capacity check right away on the leader, or records the signal for the leader.
+     */
+    public void poolExhausted() {
+        if (!enabled) {
+            return;
+        }
+
+        log.warn("capacity :: no free VM left in the pool");
+        if (apiGatewayLeaderService.isLeader()) {
+            brokerTaskExecutor.execute(this::checkCapacity);
+            return;
+        }
+
+        // leader 가 아닌 노드 :: DB 에 기록, leader 가 signal_interval 마다 확인
+        Date now = new Date();
+        String nodeId = apiGatewayLeaderService.getNodeId();
+        try {
+            if (jpaBrokerLeaseRepository.signal(Constants.LEASE_POOL_EXHAUSTED, nodeId, now) == 0) {
+                jpaBrokerLeaseRepository.insert(Constants.LEASE_POOL_EXHAUSTED, nodeId, now, now);
+            }
+        } catch (Exception e) {
+            // 동시에 생성한 다른 노드의 신호가 기록됨
+            log.warn("capacity :: Failed to record pool exhausted signal :: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Picks up the pool exhausted signal recorded by the other nodes and runs a capacity check. (leader node)
+     *
+     * @return the change in instances (positive : added, negative : removed)
+     */
+    @Scheduled(initialDelayString = "${broker.capacity.initial_delay:30000}", fixedDelayString = "${broker.capacity.signal_interval:5000}")
+    public int checkSignal() {
+        if (!enabled || instanceGroup.isEmpty() || !apiGatewayLeaderService.isLeader()) {
+            return 0;
+        }
+
+        JpaBrokerLease signal;
+        try {
+            signal = jpaBrokerLeaseRepository.findOne(Constants.LEASE_POOL_EXHAUSTED);
+        } catch (Exception e) {
+            log.error("capacity :: Failed to read pool exhausted signal :: {}", e.getMessage());
+            return 0;
+        }
+
+        if (signal == null || signal.getRenewedTime() == null || signal.getRenewedTime().getTime() <= handledSignal) {
+            return 0;
+        }
+
+        handledSignal = signal.getRenewedTime().getTime();
+        log.info("capacity :: pool exhausted on node {} :: checking capacity", signal.getOwner());
+        return checkCapacity();
+    }
+
+    private int scaleUp(List<BoshVm> vms, int free) throws ServiceException {
+        BoshManifest manifest = BoshManifest.parse(boshDeploymentClient.getManifest(deploymentName));
+        int instances = manifest.getInstances(instanceGroup);
+        int add = Math.min(Math.max(scaleStep, lowWatermark - free), maxInstances - instances);
+
+        if (add <= 0) {
+            log.warn("capacity :: {} free VM(s), below low watermark {}, but {} is at max instances {}", free, lowWatermark, instanceGroup, maxInstances);
+            return 0;
+        }
+
+        log.info("capacity :: {} free VM(s), below low watermark {} :: scale {} {} -> {}", free, lowWatermark, instanceGroup, instances, instances + add);
+        deploy(manifest.withInstances(instanceGroup, instances + add));
+
+        // deploy 로 추가된 VM 만 등록
+        Set<String> existing = vms.stream().map(BoshVm::getIp).filter(Objects::nonNull).collect(Collectors.toSet());
+        int registered = register(instanceGroupVms().stream().filter(vm -> !existing.contains(vm.getIp())).collect(Collectors.toList()));
+        log.info("capacity :: scale up done :: {} VM(s) registered", registered);
+        return add;
+    }
+
+    private int scaleDown(List<BoshVm> vms, List<JpaDedicatedVM> free) throws ServiceException {
+        BoshManifest manifest = BoshManifest.parse(boshDeploymentClient.getManifest(deploymentName));
+        int instances = manifest.getInstances(instanceGroup);
+        int surplus = Math.min(free.size() - highWatermark, instances - minInstances);
+
+        Map<String, JpaDedicatedVM> idle = idle(free);
+        for (int remove = surplus; remove > 0; remove--) {
+            Set<String> exposed = exposed(vms, remove);
+            if (idle.keySet().containsAll(exposed)) {
+                return retire(manifest, instances, remove, exposed.stream().map(idle::get).collect(Collectors.toList()));
+            }
+        }
+
+        log.debug("capacity :: {} free VM(s), above high watermark {}, but the VMs BOSH would remove are not idle", free.size(), highWatermark);
+        return 0;
+    }
+
+    private int retire(BoshManifest manifest, int instances, int remove, List<JpaDedicatedVM> exposed) throws ServiceException {
+        List<String> retired = new ArrayList<>();
+        for (JpaDedicatedVM jpaDedicatedVM : exposed) {
+            if (!apiGatewayDedicatedVMService.retire(jpaDedicatedVM)) {
+                // 조회 이후 할당됨
+                apiGatewayDedicatedVMService.restore(retired);
+                return 0;
+            }
+            retired.add(jpaDedicatedVM.getIp());
+        }
+
+        log.info("capacity :: idle VM(s) {} above high watermark {} :: scale {} {} -> {}", retired, highWatermark, instanceGroup, instances, instances - remove);
+        try {
+            deploy(manifest.withInstances(instanceGroup, instances - remove));
+        } catch (ServiceException | RuntimeException e) {
+            // task 가 아직 실행 중이면 retiring 유지 (task 종료 후 reconcile 에서 정리)
+            if (!deploying()) {
+                apiGatewayDedicatedVMService.restore(retired);
+            }
+            throw e;
+        }
+
+        reconcile(instanceGroupVms());
+        retired.forEach(freeSince::remove);
+        return remove;
+    }
+
+    /**
+     * Settles retiring VMs : removed if BOSH deleted them, returned to the pool otherwise.
+     */
+    private void reconcile(List<BoshVm> vms) {
+        Set<String> deployed = vms.stream().map(BoshVm::getIp).filter(Objects::nonNull).collect(Collectors.toSet());
+        List<String> retiring = apiGatewayDedicatedVMService.findByAssignment(Constants.STATUS_RETIRING).stream()
+                .map(JpaDedicatedVM::getIp).collect(Collectors.toList());
+        if (retiring.isEmpty()) {
+            return;
+        }
+
+        List<String> deleted = retiring.stream().filter(ip -> !deployed.contains(ip)).collect(Collectors.toList());
+        retiring.removeAll(deleted);
+        int removed = apiGatewayDedicatedVMService.remove(deleted);
+        int restored = apiGatewayDedicatedVMService.restore(retiring);
+        log.info("capacity :: retiring VM(s) :: {} removed, {} returned to the pool", removed, restored);
+    }
+
+    private int register(List<BoshVm> vms) {
+        List<JpaDedicatedVM> jpaDedicatedVMs = vms.stream()
+                .filter(vm -> vm.getIp() != null)
+                .map(vm -> JpaDedicatedVM.builder()
+                        .ip(vm.getIp())
+                        .vmName(vm.getJob())
+                        .vmId(vm.getId())
+                        .dashboardUrl(dashboardUrl.replace("{ip}", vm.getIp()))
+                        .build())
+                .collect(Collectors.toList());
+
+        int registered = apiGatewayDedicatedVMService.register(jpaDedicatedVMs);
+        if (registered > 0) {
+            log.info("capacity :: {} VM(s) of {} registered in the pool", registered, instanceGroup);
+        }
+        return registered;
+    }
+
+    private void deploy(BoshManifest manifest) throws ServiceException {
+        if (!apiGatewayLeaderService.isLeader()) {
+            throw new ServiceException("capacity :: leadership lost, " + deploymentName + " not deployed.");
+        }
+
+        long taskId = boshDeploymentClient.deploy(manifest.toYaml());
+        log.info("capacity :: BOSH task {} :: deploying {}", taskId, deploymentName);
+        // leadership 상실 시 대기 중단
+        boshDeploymentClient.waitForTask(taskId, taskTimeout, apiGatewayLeaderService::isLeader);
+    }
+
+    private boolean deploying() {
+        try {
+            return !boshDeploymentClient.getRunningTasks(deploymentName).isEmpty();
+        } catch (ServiceException e) {
+            // 확인할 수 없으면 실행 중으로 간주
+            return true;
+        }
+    }
+
+    private List<BoshVm> instanceGroupVms() throws ServiceException {
+        return boshDeploymentClient.getVms(deploymentName).stream()
+                .filter(vm -> instanceGroup.equals(vm.getJob()))
+                .collect(Collectors.toList());
+    }
+
+    private void trackIdle(List<JpaDedicatedVM> free) {
+        long now = System.currentTimeMillis();
+        Set<String> ips = free.stream().filter(vm -> idleSince(vm) == null).map(JpaDedicatedVM::getIp).collect(Collectors.toSet());
+        freeSince.keySet().retainAll(ips);
+        ips.forEach(ip -> freeSince.putIfAbsent(ip, now));
+    }
+
+    private Map<String, JpaDedicatedVM> idle(List<JpaDedicatedVM> free) {
+        long idleBefore = System.currentTimeMillis() - idlePeriod;
+        Map<String, JpaDedicatedVM> idle = new HashMap<>();
+        for (JpaDedicatedVM jpaDedicatedVM : free) {
+            Date idleSince = idleSince(jpaDedicatedVM);
+            Long since = idleSince != null ? Long.valueOf(idleSince.getTime()) : freeSince.get(jpaDedicatedVM.getIp());
+            if (since != null && since <= idleBefore) {
+                idle.put(jpaDedicatedVM.getIp(), jpaDedicatedVM);
+            }
+        }
+        return idle;
+    }
+
+    /**
+     * Time a free VM became free : released_time, or created_time for a VM never assigned.
+     * A released VM is recreated before it is free again, so the recreate counts as idle time.
+     */
+    private static Date idleSince(JpaDedicatedVM jpaDedicatedVM) {
+        return jpaDedicatedVM.getReleasedTime() != null ? jpaDedicatedVM.getReleasedTime() : jpaDedicatedVM.getCreatedTime();
+    }
+
+    /**
+     * VMs BOSH may delete when the instance group shrinks by {@code remove} : the highest indexes overall and in each AZ.
+     */
+    private static Set<String> exposed(List<BoshVm> vms, int remove) {
+        Comparator<BoshVm> byIndexDesc = Comparator.comparingInt(BoshVm::getIndex).reversed();
+        Set<String> exposed = new HashSet<>();
+
+        vms.stream().sorted(byIndexDesc).limit(remove).forEach(vm -> exposed.add(vm.getIp()));
+        vms.stream().collect(Collectors.groupingBy(vm -> String.valueOf(vm.getAz())))
+                .values()
+                .forEach(az -> az.stream().sorted(byIndexDesc).limit(remove).forEach(vm -> exposed.add(vm.getIp())));
+        return exposed;
+    }
+}
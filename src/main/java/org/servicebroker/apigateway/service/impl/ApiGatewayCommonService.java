@@ -1,31 +1,45 @@
 package org.servicebroker.apigateway.service.impl;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonObject;
 import lombok.extern.slf4j.Slf4j;
 import org.openpaas.bosh.director.BoshDirector;
 import org.openpaas.servicebroker.model.CreateServiceInstanceRequest;
 import org.openpaas.servicebroker.model.ServiceInstance;
+import org.servicebroker.apigateway.client.AsyncScim2Client;
+import org.servicebroker.apigateway.client.Scim2Client;
 import org.servicebroker.apigateway.exception.ServiceException;
+import org.servicebroker.apigateway.jfr.BrokerEvent;
+import org.servicebroker.apigateway.jfr.BrokerEvents;
 import org.servicebroker.apigateway.model.JpaDedicatedVM;
 import org.servicebroker.apigateway.model.JpaServiceInstance;
-import org.servicebroker.apigateway.repository.JpaDedicatedVMRepository;
+import org.servicebroker.apigateway.occupancy.OccupancyService;
 import org.servicebroker.apigateway.repository.JpaServiceInstanceRepository;
+import org.servicebroker.apigateway.selection.VmSelectionService;
+import org.servicebroker.apigateway.shutdown.InFlightRegistry;
+import org.slf4j.MDC;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.*;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
 
-import java.net.URLDecoder;
-import java.util.Arrays;
-import java.util.Base64;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 /**
  * The type Api gateway common service.
+ *
+ * Virtual thread pinning (broker.threads.virtual) : the blocking sections here (JDBC via dbcp2 / MariaDB,
+ * SCIM2 via HttpClient 4.5 pooling, retry back-off sleep) hold no monitors in broker code, and the pools lock
+ * with ReentrantLock, so the carrier is released while they wait. The vendored BoshDirector cannot be audited
+ * here : run with -Djdk.tracePinnedThreads=short to report pinning at runtime.
+ *
+ * Non-blocking mode (broker.provisioning.non_blocking) : the OSB controller of the vendored broker library is synchronous
+ * and returns the ServiceInstance itself, so the request thread still waits for the SCIM2 calls ({@link #await}); there is
+ * no DeferredResult to hand back. What the mode saves is the outbound side (no thread per SCIM2 call in flight).
+ * Combine it with virtual threads to stop the wait from holding a platform thread.
+ * BOSH recreates never run on a request thread : they go through recreate_outbox ({@link ApiGatewayRecreateService}).
  */
 @Slf4j
 @Service
@@ -33,21 +47,34 @@ public class ApiGatewayCommonService {
 
     @Value("${bosh.deployment_name}")
     public String deploymentName;
-    @Value("${service.admin}")
-    public String admin;
-    @Value("${service.admin_password}")
-    public String adminPassword;
-    @Value("${service.service_admin}")
-    public String serviceAdmin;
+
+    // SCIM2 호출을 non-blocking client 로 수행 (AsyncScim2Client)
+    @Value("${broker.provisioning.non_blocking:false}")
+    boolean nonBlocking;
 
     @Autowired
     BoshDirector boshDirector;
     @Autowired
-    RestTemplate restTemplate;
+    Scim2Client scim2Client;
+    @Autowired
+    AsyncScim2Client asyncScim2Client;
+    @Autowired
+    @Qualifier("brokerTaskExecutor")
+    Executor brokerTaskExecutor;
     @Autowired
     JpaServiceInstanceRepository jpaServiceInstanceRepository;
     @Autowired
-    JpaDedicatedVMRepository jpaDedicatedVMRepository;
+    ApiGatewayDedicatedVMService apiGatewayDedicatedVMService;
+    @Autowired
+    ApiGatewayRetryPolicy apiGatewayRetryPolicy;
+    @Autowired
+    ApiGatewayCapacityService apiGatewayCapacityService;
+    @Autowired
+    OccupancyService occupancyService;
+    @Autowired
+    VmSelectionService vmSelectionService;
+    @Autowired
+    InFlightRegistry inFlightRegistry;
 
     /**
      * Gets service instance.
@@ -95,6 +122,37 @@ public class ApiGatewayCommonService {
         return serviceInstance;
     }
 
+    /**
+     * Find by service instance id or org guid service instance.
+     * Checks both the instance id and the one-per-org policy with a single query; a row matching the instance id wins.
+     *
+     * @param serviceInstanceId the service instance id
+     * @param orgGuid           the org guid
+     * @return the service instance
+     */
+    public ServiceInstance findByServiceInstanceIdOrOrgGuid(String serviceInstanceId, String orgGuid) {
+        List<JpaServiceInstance> jpaServiceInstances = jpaServiceInstanceRepository.findByServiceInstanceIdOrOrganizationGuid(serviceInstanceId, orgGuid);
+
+        JpaServiceInstance found = null;
+        for (JpaServiceInstance jpaServiceInstance : jpaServiceInstances) {
+            if (found == null || serviceInstanceId.equals(jpaServiceInstance.getServiceInstanceId())) {
+                found = jpaServiceInstance;
+            }
+        }
+
+        if (found == null) {
+            return null;
+        }
+
+        return new ServiceInstance(new CreateServiceInstanceRequest(
+                found.getServiceId(),
+                found.getPlanId(),
+                found.getOrganizationGuid(),
+                found.getSpaceGuid()
+        ).withServiceInstanceId(found.getServiceInstanceId())
+        ).withDashboardUrl(found.getDashboardUrl());
+    }
+
     /**
      * Service assignment string.
      *
@@ -103,45 +161,110 @@ public class ApiGatewayCommonService {
      * @throws ServiceException the service exception
      */
     public String serviceAssignment(CreateServiceInstanceRequest request) throws ServiceException {
+        // 동기 OSB controller :: 요청 thread 는 SCIM2 호출 완료까지 대기 (non-blocking 은 호출 중 thread 를 점유하지 않음)
+        if (nonBlocking) {
+            return await(serviceAssignmentAsync(request));
+        }
+
         String serviceInstanceId = request.getServiceInstanceId();
         String password = (String)request.getParameters().get(Constants.PARAMETERS_KEY);
-        JpaDedicatedVM jpaDedicatedVM = jpaDedicatedVMRepository.findDistinctFirstByAssignmentEquals(Constants.STATUS_WATING_FOR_ASSIGNMENT);
 
-        if (jpaDedicatedVM != null) {
-            jpaDedicatedVM.setAssignment(Constants.STATUS_ASSIGNED);
-            jpaDedicatedVM.setProvisionedServiceInstanceId(serviceInstanceId);
-            jpaDedicatedVMRepository.save(jpaDedicatedVM);
-        } else {
-            throw new ServiceException("Cannot assign VM. There are no available service VM.");
-        }
+        JpaDedicatedVM jpaDedicatedVM = claimVM(serviceInstanceId, request.getPlanId());
 
         // Service Admin User 생성
         try {
             // admin group 정보 조회
-            String groupId = getGroups(jpaDedicatedVM.getIp());
+            String groupId = scim2Client.getGroups(jpaDedicatedVM.getIp());
 
             // 사용자 생성 :: service admin
-            String userId = createUser(jpaDedicatedVM.getIp(), password);
+            String userId = scim2Client.createUser(jpaDedicatedVM.getIp(), password);
 
             // 사용자 (service admin) admin 권한 부여
-            regAdmin(jpaDedicatedVM.getIp(), groupId, userId);
+            scim2Client.regAdmin(jpaDedicatedVM.getIp(), groupId, userId);
 
         } catch (Exception e) {
-            jpaDedicatedVM.setAssignment(Constants.STATUS_WATING_FOR_ASSIGNMENT);
-            jpaDedicatedVM.setProvisionedServiceInstanceId(null);
-            jpaDedicatedVMRepository.save(jpaDedicatedVM);
+            rollback(serviceInstanceId, jpaDedicatedVM, e);
             throw e;
         }
 
+        vmSelectionService.succeeded(jpaDedicatedVM.getIp());
         return jpaDedicatedVM.getDashboardUrl();
     }
 
+    /**
+     * Non-blocking service assignment.
+     * The VM is claimed on the calling thread; the SCIM2 calls do not hold a thread while in flight,
+     * and the rollback on failure runs on the broker task executor.
+     *
+     * @param request the request
+     * @return the dashboard url
+     * @throws ServiceException the service exception
+     */
+    public CompletableFuture<String> serviceAssignmentAsync(CreateServiceInstanceRequest request) throws ServiceException {
+        String serviceInstanceId = request.getServiceInstanceId();
+        String password = (String)request.getParameters().get(Constants.PARAMETERS_KEY);
+
+        JpaDedicatedVM jpaDedicatedVM = claimVM(serviceInstanceId, request.getPlanId());
+
+        return asyncScim2Client.createServiceAdmin(jpaDedicatedVM.getIp(), password)
+                .handleAsync((userId, e) -> {
+                    if (e != null) {
+                        rollback(serviceInstanceId, jpaDedicatedVM, e);
+                        throw e instanceof CompletionException ? (CompletionException) e : new CompletionException(e);
+                    }
+                    vmSelectionService.succeeded(jpaDedicatedVM.getIp());
+                    return jpaDedicatedVM.getDashboardUrl();
+                }, brokerTaskExecutor);
+    }
+
+    /**
+     * Claim transaction :: 미할당 VM 선점 (STATUS_PROVISIONING), 선점할 VM 은 VmSelectionService 의 순위 / plan 의 instance group 에 따름
+     * 동일 인스턴스 ID 로 이미 선점된 VM 이 있는 경우 (다른 노드에서 진행 중인 중복 요청) unique key 위반
+     */
+    private JpaDedicatedVM claimVM(String serviceInstanceId, String planId) throws ServiceException {
+        JpaDedicatedVM jpaDedicatedVM;
+        BrokerEvent claimEvent = BrokerEvents.vmClaim(serviceInstanceId);
+        try {
+            jpaDedicatedVM = apiGatewayRetryPolicy.execute("claim", () -> vmSelectionService.claim(serviceInstanceId, planId));
+            if (jpaDedicatedVM != null) {
+                claimEvent.success(true).vmIp(jpaDedicatedVM.getIp());
+            }
+        } catch (DataIntegrityViolationException e) {
+            throw new ServiceException("Cannot assign VM. ServiceInstance " + serviceInstanceId + " is already being provisioned.");
+        } finally {
+            claimEvent.commit();
+        }
+
+        if (jpaDedicatedVM == null) {
+            apiGatewayCapacityService.poolExhausted();
+            throw new ServiceException("Cannot assign VM. There are no available service VM.");
+        }
+        MDC.put(Constants.MDC_VM_IP, jpaDedicatedVM.getIp());
+        // 할당 완료 (createServiceInstance) 또는 rollback 전까지 shutdown drain 대상
+        inFlightRegistry.claimed(serviceInstanceId, jpaDedicatedVM);
+
+        return jpaDedicatedVM;
+    }
+
+    private void rollback(String serviceInstanceId, JpaDedicatedVM jpaDedicatedVM, Throwable cause) {
+        BrokerEvent rollbackEvent = BrokerEvents.provisioningRollback(serviceInstanceId, jpaDedicatedVM.getIp()).message(cause.getMessage());
+        vmSelectionService.failed(jpaDedicatedVM.getIp());
+        try {
+            apiGatewayDedicatedVMService.release(jpaDedicatedVM);
+        } finally {
+            inFlightRegistry.settled(serviceInstanceId);
+            rollbackEvent.commit();
+        }
+    }
+
     /**
      * provisioning.
+     * Commit transaction :: 서비스 인스턴스 저장 + 선점한 VM 할당 완료 (STATUS_ASSIGNED)
      *
      * @param serviceInstance the service instance
+     * @throws ServiceException the service exception
      */
-    public void createServiceInstance(ServiceInstance serviceInstance) {
+    public void createServiceInstance(ServiceInstance serviceInstance) throws ServiceException {
         JpaServiceInstance jpaServiceInstance = JpaServiceInstance.builder()
                 .serviceInstanceId(serviceInstance.getServiceInstanceId())
                 .serviceId(serviceInstance.getServiceDefinitionId())
@@ -151,7 +274,12 @@ public class ApiGatewayCommonService {
                 .dashboardUrl(serviceInstance.getDashboardUrl())
                 .build();
 
-        jpaServiceInstanceRepository.save(jpaServiceInstance);
+        try {
+            apiGatewayDedicatedVMService.assign(jpaServiceInstance);
+        } finally {
+            inFlightRegistry.settled(serviceInstance.getServiceInstanceId());
+        }
+        occupancyService.provisioned();
     }
 
     /**
@@ -162,18 +290,27 @@ public class ApiGatewayCommonService {
      */
     public void procDeProvisioning(String serviceInstanceId) throws ServiceException {
 
-        // Delete service instance data
-        jpaServiceInstanceRepository.delete(serviceInstanceId);
-
-        // Deprovision dedicated VM
+        // Delete service instance data + Deprovision dedicated VM (한 transaction)
+        // recreate 요청은 recreate_outbox 에 기록, ApiGatewayRecreateService 가 BOSH 호출
         JpaDedicatedVM jpaDedicatedVM = deprovisionVM(serviceInstanceId);
+        MDC.put(Constants.MDC_VM_IP, jpaDedicatedVM.getIp());
+        occupancyService.deprovisioned();
+    }
 
-        // Call Bosh RecreateVM API
+    /**
+     * Recreate vm.
+     *
+     * @param jpaDedicatedVM the jpa dedicated vm
+     * @throws ServiceException the service exception
+     */
+    public void recreateVM(JpaDedicatedVM jpaDedicatedVM) throws ServiceException {
         String vmName = jpaDedicatedVM.getVmName();
         String vmId = jpaDedicatedVM.getVmId();
+        BrokerEvent recreateEvent = BrokerEvents.vmRecreate(deploymentName, vmName, vmId);
         try {
 
             boolean result = boshDirector.updateInstanceState(deploymentName, vmName, vmId, Constants.JOB_STATE_RECREATE);
+            recreateEvent.success(result);
 
             if (!result) {
                 log.error("##### reCreateVM :: Bosh API ::: deploymentName :: {}, vmName :: {}, vmId :: {} ", deploymentName, vmName, vmId);
@@ -181,10 +318,12 @@ public class ApiGatewayCommonService {
             }
 
         } catch (Exception e) {
-            log.error("Failed to recreate dedecated VM ::" + e);
+            log.error("Failed to recreate dedecated VM :: {}", e.toString());
+            recreateEvent.message(e.getMessage());
             throw new ServiceException("Failed to recreate dedecated VM :: " + e.getMessage());
+        } finally {
+            recreateEvent.commit();
         }
-
     }
 
     /**
@@ -195,151 +334,32 @@ public class ApiGatewayCommonService {
      * @throws ServiceException the service exception
      */
     public JpaDedicatedVM deprovisionVM(String serviceInstanceId) throws ServiceException {
-        JpaDedicatedVM jpaDedicatedVM = jpaDedicatedVMRepository.findDistinctFirstByProvisionedServiceInstanceId(serviceInstanceId);
-
-        if (jpaDedicatedVM != null) {
-            jpaDedicatedVM.setAssignment(Constants.STATUS_WATING_FOR_VM_RECREATE);
-            jpaDedicatedVM.setProvisionedServiceInstanceId(null);
-            jpaDedicatedVM.setProvisionedTime(null);
-            jpaDedicatedVMRepository.save(jpaDedicatedVM);
-            return jpaDedicatedVM;
-        } else {
-            throw new ServiceException("Cannot deprovision. There are no provisioned VM.");
-        }
-    }
-
-    // [ Use WSO2 API ]=================================================================================================
-    /**
-     * Gets groups.
-     *
-     * @param url the url
-     * @return the groups
-     * @throws ServiceException the service exception
-     */
-    public String getGroups(String url) throws ServiceException {
-
-        // Admin Group 정보 조회
-        // https://<VM_IP>:9443/scim2/Groups?filter=displayName+eq+PRIMARY/admin
-        String reqUrl = "https://"+ url + Constants.SCIM2_GROUPS+"?filter=displayName+eq+PRIMARY/admin";
-        HttpEntity<Object> entity = restCommonHeaders(null);
-
-        try {
-            // 그룹 정보 조회
-            ResponseEntity<Map> response = restTemplate.exchange(URLDecoder.decode(reqUrl, "UTF-8"), HttpMethod.GET, entity, Map.class);
-            List<Map> resources = (List<Map>) response.getBody().get("Resources");
-            log.info("create service admin :: user id :: {}", resources.get(0).get("id"));
-            return (String) resources.get(0).get("id");
-        } catch (Exception e) {
-            log.error("Failed to retrieve Admin group data ::" + e);
-            throw new ServiceException("Failed to retrieve Admin group data > URL [ "+ reqUrl +"] "+ e.getMessage());
-        }
-
-    }
-
-    /**
-     * Create user string.
-     *
-     * @param url      the url
-     * @param password the password
-     * @return the string
-     * @throws ServiceException the service exception
-     */
-    public  String createUser(String url, String password) throws ServiceException {
-
-        // 사용자 생성
-        // https://<VM_IP>:9443/scim2/Users
-        String reqUrl = "https://"+ url + Constants.SCIM2_USERS;
-
-        Gson gson = new Gson();
-        JsonObject user =  new JsonObject();
-        user.addProperty("userName", serviceAdmin);
-        user.addProperty("password", password);
-
-        String param = gson.toJson(user);
-        HttpEntity<Object> entity = restCommonHeaders(param);
-
-        try {
-            Map response = restTemplate.exchange(reqUrl, HttpMethod.POST, entity, Map.class).getBody();
-            log.info("create service admin :: user id :: {}", response.get("id"));
-            return (String) response.get("id");
-        } catch (Exception e) {
-            log.error("Failed to create service admin ::" + e);
-            throw new ServiceException("Failed to create service admin > URL [ "+ reqUrl +"] "+ e.getMessage());
-        }
+        return apiGatewayRetryPolicy.execute("deprovision", () -> apiGatewayDedicatedVMService.deprovision(serviceInstanceId));
     }
 
     /**
-     * Reg admin.
+     * Waits for a non-blocking operation and rethrows its failure.
      *
-     * @param url     the url
-     * @param groupId the group id
-     * @param userId  the user id
+     * @param future the future
+     * @param <T>    the type parameter
+     * @return the result
      * @throws ServiceException the service exception
      */
-    public void regAdmin(String url, String groupId, String userId) throws ServiceException {
-        // 사용자 (service admin) admin 권한 부여
-        // https://<VM_IP>:9443/scim2/Groups/<ADMIN_GROUP_ID>
-        String reqUrl = "https://"+ url + Constants.SCIM2_GROUPS + "/" + groupId;
-
-        Gson gson = new Gson();
-        JsonObject operations =  new JsonObject();
-        JsonObject members =  new JsonObject();
-        JsonArray jsonArray = new JsonArray();
-        JsonObject jsonObject = new JsonObject();
-
-        jsonObject.addProperty("display", serviceAdmin);
-        jsonObject.addProperty("value", userId);
-        jsonArray.add(jsonObject);
-        members.add("members", jsonArray);
-
-        jsonObject = new JsonObject();
-        jsonObject.addProperty("op", "add");
-        jsonObject.add("value", members);
-        jsonArray = new JsonArray();
-        jsonArray.add(jsonObject);
-        operations.add("Operations", jsonArray);
-
-        String param = gson.toJson(operations);
-        HttpEntity<Object> entity = restCommonHeaders(param);
-
-        try {
-            ResponseEntity<String> response = restTemplate.exchange(reqUrl, HttpMethod.PATCH, entity, String.class);
-            log.info("register admin group :: user id :: {} :: group id :: {} :: response :: {} ", userId, groupId, response);
-        } catch (Exception e) {
-            log.error("Failed to register admin group ::" + e);
-            // error 발생 시 생성했던 사용자 정보 삭제
-            deleteUser(url, userId);
-            throw new ServiceException("Failed to register admin group > URL [ "+ reqUrl +"] "+ e.getMessage());
-        }
-
-    }
-
-    public  void deleteUser(String url, String userId) throws ServiceException {
-
-        // 사용자 삭제
-        // https://<VM_IP>:9443/scim2/Users/<USER_ID>
-        String reqUrl = "https://"+ url + Constants.SCIM2_USERS + "/" + userId;
-        HttpEntity<Object> entity = restCommonHeaders(null);
-
+    static <T> T await(CompletableFuture<T> future) throws ServiceException {
         try {
-            ResponseEntity<String> response = restTemplate.exchange(reqUrl, HttpMethod.DELETE, entity, String.class);
-            log.info("delete user :: user id :: {} :: response :: {}", userId, response);
-        } catch (Exception e) {
-            log.error("Failed to delete service admin ::" + e);
-            throw new ServiceException("Failed to delete service admin > URL [ "+ reqUrl +"] "+ e.getMessage());
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e;
+            while (cause instanceof CompletionException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof ServiceException) {
+                throw (ServiceException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new ServiceException(cause.getMessage());
         }
     }
-
-    private HttpEntity<Object> restCommonHeaders(Object param) {
-
-        String basicAuth = "Basic " + (Base64.getEncoder().encodeToString((admin + ":" + adminPassword).getBytes()));
-        HttpHeaders headers = new HttpHeaders();
-        headers.set("Authorization", basicAuth);
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        headers.setAccept(Arrays.asList(MediaType.APPLICATION_JSON));
-
-        HttpEntity<Object> entity = param == null ? new HttpEntity<>(headers): new HttpEntity<>(param, headers);
-
-        return entity;
-    }
 }
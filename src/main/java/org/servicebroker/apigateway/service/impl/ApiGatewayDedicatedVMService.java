@@ -0,0 +1,393 @@
+package org.servicebroker.apigateway.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.servicebroker.apigateway.exception.ServiceException;
+import org.servicebroker.apigateway.model.JpaDedicatedVM;
+import org.servicebroker.apigateway.model.JpaRecreateOutbox;
+import org.servicebroker.apigateway.model.JpaServiceInstance;
+import org.servicebroker.apigateway.repository.JpaDedicatedVMRepository;
+import org.servicebroker.apigateway.repository.JpaRecreateOutboxRepository;
+import org.servicebroker.apigateway.repository.JpaServiceInstanceRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * The type Api gateway dedicated vm service.
+ *
+ * Provisioning runs in two short transactions around the remote SCIM2 calls :
+ * claim (0 -> 3) before, and assign (3 -> 2 + service_instance row) after.
+ * A crash in between leaves the VM in {@link Constants#STATUS_PROVISIONING} instead of a half-assigned state.
+ *
+ * Every state transition is a conditional update on the expected prior state (and version, where the entity was read),
+ * so concurrent broker threads or nodes cannot overwrite each other's changes.
+ *
+ * A move to {@link Constants#STATUS_WATING_FOR_VM_RECREATE} records the recreate intent in recreate_outbox in the same transaction;
+ * the BOSH call itself is made by {@link ApiGatewayRecreateService}.
+ *
+ * A plan migration claims its target VM the same way (0 -> 3) and swaps it with the assigned VM in one transaction.
+ */
+@Slf4j
+@Service
+public class ApiGatewayDedicatedVMService {
+
+    private final JpaDedicatedVMRepository jpaDedicatedVMRepository;
+    private final JpaServiceInstanceRepository jpaServiceInstanceRepository;
+    private final JpaRecreateOutboxRepository jpaRecreateOutboxRepository;
+
+    /**
+     * Instantiates a new Api gateway dedicated vm service.
+     *
+     * @param jpaDedicatedVMRepository     the jpa dedicated vm repository
+     * @param jpaServiceInstanceRepository the jpa service instance repository
+     * @param jpaRecreateOutboxRepository  the jpa recreate outbox repository
+     */
+    @Autowired
+    public ApiGatewayDedicatedVMService(JpaDedicatedVMRepository jpaDedicatedVMRepository, JpaServiceInstanceRepository jpaServiceInstanceRepository,
+                                        JpaRecreateOutboxRepository jpaRecreateOutboxRepository) {
+        this.jpaDedicatedVMRepository = jpaDedicatedVMRepository;
+        this.jpaServiceInstanceRepository = jpaServiceInstanceRepository;
+        this.jpaRecreateOutboxRepository = jpaRecreateOutboxRepository;
+    }
+
+    /**
+     * Claim transaction. Marks one free VM as provisioning for the service instance.
+     *
+     * @param serviceInstanceId the service instance id
+     * @return the claimed vm, or null if there are no available VM
+     */
+    @Transactional
+    public JpaDedicatedVM claim(String serviceInstanceId) {
+        return claimFromInstanceGroup(serviceInstanceId, null);
+    }
+
+    /**
+     * Claim transaction for a plan mapped to an instance group. Marks one free VM of the instance group as provisioning for the service instance.
+     *
+     * @param serviceInstanceId the service instance id
+     * @param instanceGroup     the instance group to claim from, or null for any
+     * @return the claimed vm, or null if there are no available VM
+     */
+    @Transactional
+    public JpaDedicatedVM claimFromInstanceGroup(String serviceInstanceId, String instanceGroup) {
+        if (claimFirst(serviceInstanceId, instanceGroup) == 0) {
+            return null;
+        }
+
+        return jpaDedicatedVMRepository.findDistinctFirstByProvisionedServiceInstanceId(serviceInstanceId);
+    }
+
+    /**
+     * Claim transaction for a selected VM. Marks the VM as provisioning for the service instance if it is still free.
+     *
+     * @param serviceInstanceId the service instance id
+     * @param ip                the vm ip
+     * @return the claimed vm, or null if the VM is no longer free
+     */
+    @Transactional
+    public JpaDedicatedVM claim(String serviceInstanceId, String ip) {
+        int claimed = jpaDedicatedVMRepository.claimByIpAndAssignment(ip, Constants.STATUS_WATING_FOR_ASSIGNMENT, Constants.STATUS_PROVISIONING, serviceInstanceId);
+
+        if (claimed == 0) {
+            return null;
+        }
+
+        return jpaDedicatedVMRepository.findDistinctFirstByProvisionedServiceInstanceId(serviceInstanceId);
+    }
+
+    /**
+     * Claim transaction of a plan migration. Marks one free VM as provisioning for the migration of the service instance,
+     * under {@code serviceInstanceId + }{@link Constants#MIGRATION_KEY_SUFFIX} until the swap.
+     *
+     * @param serviceInstanceId the service instance id
+     * @param instanceGroup     the instance group to claim from, or null for any
+     * @return the claimed vm, or null if there are no available VM
+     */
+    @Transactional
+    public JpaDedicatedVM claimForMigration(String serviceInstanceId, String instanceGroup) {
+        String migrationId = serviceInstanceId + Constants.MIGRATION_KEY_SUFFIX;
+        if (claimFirst(migrationId, instanceGroup) == 0) {
+            return null;
+        }
+
+        return jpaDedicatedVMRepository.findDistinctFirstByProvisionedServiceInstanceId(migrationId);
+    }
+
+    private int claimFirst(String claimId, String instanceGroup) {
+        return instanceGroup == null
+                ? jpaDedicatedVMRepository.claimFirstByAssignment(Constants.STATUS_WATING_FOR_ASSIGNMENT, Constants.STATUS_PROVISIONING, claimId)
+                : jpaDedicatedVMRepository.claimFirstByAssignmentAndVmName(Constants.STATUS_WATING_FOR_ASSIGNMENT, Constants.STATUS_PROVISIONING, claimId, instanceGroup);
+    }
+
+    /**
+     * Heartbeat of a long running claim (plan migration). Refreshes claimed_time so that the sweeper does not take
+     * the VM as an orphan once the grace period has passed.
+     *
+     * @param jpaDedicatedVM the claimed vm
+     * @throws ServiceException if the VM is no longer claimed (recovered by the sweeper or changed since it was read)
+     */
+    @Transactional(rollbackFor = ServiceException.class)
+    public void heartbeat(JpaDedicatedVM jpaDedicatedVM) throws ServiceException {
+        if (jpaDedicatedVMRepository.touchClaim(jpaDedicatedVM.getIp(), jpaDedicatedVM.getProvisionedServiceInstanceId(),
+                jpaDedicatedVM.getVersion(), Constants.STATUS_PROVISIONING) == 0) {
+            throw new ServiceException("VM " + jpaDedicatedVM.getIp() + " is no longer claimed by " + jpaDedicatedVM.getProvisionedServiceInstanceId() + ".");
+        }
+
+        jpaDedicatedVM.setClaimedTime(new Date());
+        jpaDedicatedVM.setVersion(jpaDedicatedVM.getVersion() + 1);
+    }
+
+    /**
+     * Swap transaction of a plan migration. Detaches the old VM (waiting for recreate), attaches the migration VM
+     * to the service instance and changes its plan and dashboard url, all or nothing.
+     *
+     * @param serviceInstanceId the service instance id
+     * @param fromPlanId        the current plan id
+     * @param toPlanId          the new plan id
+     * @param target            the migration vm
+     * @return the old vm
+     * @throws ServiceException if the service instance, the old VM or the migration VM changed during the migration
+     */
+    @Transactional(rollbackFor = ServiceException.class)
+    public JpaDedicatedVM swap(String serviceInstanceId, String fromPlanId, String toPlanId, JpaDedicatedVM target) throws ServiceException {
+        JpaDedicatedVM source = jpaDedicatedVMRepository.findDistinctFirstByProvisionedServiceInstanceId(serviceInstanceId);
+
+        if (source == null || source.getAssignment() != Constants.STATUS_ASSIGNED
+                || !transition(source, Constants.STATUS_ASSIGNED, Constants.STATUS_WATING_FOR_VM_RECREATE)) {
+            throw new ServiceException("Cannot swap VM. The VM of ServiceInstance " + serviceInstanceId + " is no longer assigned.");
+        }
+
+        if (jpaDedicatedVMRepository.attachProvisionedServiceInstanceId(serviceInstanceId + Constants.MIGRATION_KEY_SUFFIX, serviceInstanceId,
+                Constants.STATUS_PROVISIONING, Constants.STATUS_ASSIGNED) == 0) {
+            throw new ServiceException("Cannot swap VM. The migration VM " + target.getIp() + " is no longer in provisioning state.");
+        }
+
+        if (jpaServiceInstanceRepository.updatePlan(serviceInstanceId, fromPlanId, toPlanId, target.getDashboardUrl()) == 0) {
+            throw new ServiceException("Cannot swap VM. ServiceInstance " + serviceInstanceId + " was deleted or changed its plan.");
+        }
+
+        // bulk update 의 persistence context clear 이후에 기록 (flush 전 outbox insert 유실 방지)
+        enqueueRecreate(source);
+        return source;
+    }
+
+    /**
+     * Rollback of a claim. Returns the provisioning VM to the free pool, if it has not changed since it was read.
+     *
+     * @param jpaDedicatedVM the jpa dedicated vm
+     * @return true if this call returned the VM
+     */
+    @Transactional
+    public boolean release(JpaDedicatedVM jpaDedicatedVM) {
+        if (!transition(jpaDedicatedVM, Constants.STATUS_PROVISIONING, Constants.STATUS_WATING_FOR_ASSIGNMENT)) {
+            log.warn("release :: VM {} is no longer in provisioning state", jpaDedicatedVM.getIp());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Deprovision. Deletes the service instance, detaches its assigned VM and marks it as waiting for recreate,
+     * all or nothing : a failed deprovision keeps the service instance and writes no recreate intent.
+     *
+     * @param serviceInstanceId the service instance id
+     * @return the jpa dedicated vm
+     * @throws ServiceException the service exception
+     */
+    @Transactional(rollbackFor = ServiceException.class)
+    public JpaDedicatedVM deprovision(String serviceInstanceId) throws ServiceException {
+        JpaDedicatedVM jpaDedicatedVM = jpaDedicatedVMRepository.findDistinctFirstByProvisionedServiceInstanceId(serviceInstanceId);
+
+        if (jpaDedicatedVM == null) {
+            throw new ServiceException("Cannot deprovision. There are no provisioned VM.");
+        }
+
+        if (jpaDedicatedVM.getAssignment() != Constants.STATUS_ASSIGNED) {
+            throw new ServiceException("Cannot deprovision. The VM is not in assigned state :: " + jpaDedicatedVM.getAssignment());
+        }
+
+        if (!transition(jpaDedicatedVM, Constants.STATUS_ASSIGNED, Constants.STATUS_WATING_FOR_VM_RECREATE)) {
+            throw new ObjectOptimisticLockingFailureException(JpaDedicatedVM.class, jpaDedicatedVM.getIp());
+        }
+
+        // bulk update 의 persistence context clear 이후에 삭제 / 기록
+        jpaServiceInstanceRepository.delete(serviceInstanceId);
+        enqueueRecreate(jpaDedicatedVM);
+        return jpaDedicatedVM;
+    }
+
+    /**
+     * Marks a claimed or assigned VM as waiting for recreate, if it has not changed since it was read.
+     *
+     * @param jpaDedicatedVM the jpa dedicated vm
+     * @return true if this call moved the VM
+     */
+    @Transactional
+    public boolean markForRecreate(JpaDedicatedVM jpaDedicatedVM) {
+        if (!transition(jpaDedicatedVM, jpaDedicatedVM.getAssignment(), Constants.STATUS_WATING_FOR_VM_RECREATE)) {
+            return false;
+        }
+
+        enqueueRecreate(jpaDedicatedVM);
+        return true;
+    }
+
+    /**
+     * Finds orphan VMs. (claimed or assigned without a service_instance row)
+     *
+     * @param claimedBefore the claim time threshold
+     * @return the orphan VMs
+     */
+    @Transactional(readOnly = true)
+    public List<JpaDedicatedVM> findOrphans(Date claimedBefore) {
+        return jpaDedicatedVMRepository.findOrphans(Constants.STATUS_PROVISIONING, Constants.STATUS_ASSIGNED, claimedBefore);
+    }
+
+    /**
+     * Finds the VM provisioned for a service instance.
+     *
+     * @param serviceInstanceId the service instance id
+     * @return the VM, or null
+     */
+    @Transactional(readOnly = true)
+    public JpaDedicatedVM findByServiceInstanceId(String serviceInstanceId) {
+        return jpaDedicatedVMRepository.findDistinctFirstByProvisionedServiceInstanceId(serviceInstanceId);
+    }
+
+    /**
+     * Finds the VMs in an assignment state.
+     *
+     * @param assignment the assignment
+     * @return the VMs
+     */
+    @Transactional(readOnly = true)
+    public List<JpaDedicatedVM> findByAssignment(int assignment) {
+        return jpaDedicatedVMRepository.findByAssignment(assignment);
+    }
+
+    /**
+     * Takes a free VM out of the pool for a scale-down, if it has not changed since it was read.
+     *
+     * @param jpaDedicatedVM the jpa dedicated vm
+     * @return true if this call moved the VM
+     */
+    @Transactional
+    public boolean retire(JpaDedicatedVM jpaDedicatedVM) {
+        int updated = jpaDedicatedVMRepository.updateAssignmentByIp(jpaDedicatedVM.getIp(), jpaDedicatedVM.getVersion(),
+                Constants.STATUS_WATING_FOR_ASSIGNMENT, Constants.STATUS_RETIRING);
+
+        if (updated == 0) {
+            return false;
+        }
+
+        jpaDedicatedVM.setAssignment(Constants.STATUS_RETIRING);
+        jpaDedicatedVM.setVersion(jpaDedicatedVM.getVersion() + 1);
+        return true;
+    }
+
+    /**
+     * Returns retiring VMs to the free pool. (scale-down failed, or BOSH kept the VM)
+     *
+     * @param ips the vm ips
+     * @return the number of restored VMs
+     */
+    @Transactional
+    public int restore(Collection<String> ips) {
+        return ips.isEmpty() ? 0 : jpaDedicatedVMRepository.updateAssignmentByIpIn(ips, Constants.STATUS_RETIRING, Constants.STATUS_WATING_FOR_ASSIGNMENT);
+    }
+
+    /**
+     * Removes retiring VMs deleted from the deployment.
+     *
+     * @param ips the vm ips
+     * @return the number of removed VMs
+     */
+    @Transactional
+    public int remove(Collection<String> ips) {
+        return ips.isEmpty() ? 0 : jpaDedicatedVMRepository.deleteByIpInAndAssignment(ips, Constants.STATUS_RETIRING);
+    }
+
+    /**
+     * Registers new VMs in the free pool. VMs already known by ip are skipped.
+     *
+     * @param jpaDedicatedVMs the jpa dedicated vms
+     * @return the number of registered VMs
+     */
+    @Transactional
+    public int register(List<JpaDedicatedVM> jpaDedicatedVMs) {
+        int registered = 0;
+        for (JpaDedicatedVM jpaDedicatedVM : jpaDedicatedVMs) {
+            if (!jpaDedicatedVMRepository.exists(jpaDedicatedVM.getIp())) {
+                jpaDedicatedVM.setAssignment(Constants.STATUS_WATING_FOR_ASSIGNMENT);
+                jpaDedicatedVMRepository.save(jpaDedicatedVM);
+                registered++;
+            }
+        }
+        return registered;
+    }
+
+    /**
+     * Commit transaction. Stores the service instance and marks its claimed VM as assigned.
+     *
+     * @param jpaServiceInstance the jpa service instance
+     * @throws ServiceException the service exception
+     */
+    @Transactional(rollbackFor = ServiceException.class)
+    public void assign(JpaServiceInstance jpaServiceInstance) throws ServiceException {
+        jpaServiceInstanceRepository.persist(jpaServiceInstance);
+
+        int assigned = jpaDedicatedVMRepository.updateAssignmentByProvisionedServiceInstanceId(
+                jpaServiceInstance.getServiceInstanceId(), Constants.STATUS_PROVISIONING, Constants.STATUS_ASSIGNED);
+
+        if (assigned == 0) {
+            throw new ServiceException("Cannot assign VM. The claimed VM is no longer in provisioning state.");
+        }
+    }
+
+    /**
+     * Records the recreate intent of a VM. An intent left for the VM is replaced (one row per VM).
+     *
+     * @param jpaDedicatedVM the jpa dedicated vm
+     */
+    private void enqueueRecreate(JpaDedicatedVM jpaDedicatedVM) {
+        Date now = new Date();
+        jpaRecreateOutboxRepository.save(JpaRecreateOutbox.builder()
+                .ip(jpaDedicatedVM.getIp())
+                .vmName(jpaDedicatedVM.getVmName())
+                .vmId(jpaDedicatedVM.getVmId())
+                .nextAttemptTime(now)
+                .createdTime(now)
+                .build());
+    }
+
+    /**
+     * Detaching state transition. Applied only if the VM is still in the {@code from} state at the version it was read with.
+     * On success the given entity reflects the new state.
+     *
+     * @param jpaDedicatedVM the jpa dedicated vm
+     * @param from           the expected assignment
+     * @param to             the new assignment
+     * @return true if the VM was moved
+     */
+    private boolean transition(JpaDedicatedVM jpaDedicatedVM, int from, int to) {
+        int updated = jpaDedicatedVMRepository.releaseAssignment(jpaDedicatedVM.getIp(), jpaDedicatedVM.getProvisionedServiceInstanceId(),
+                jpaDedicatedVM.getVersion(), from, to);
+
+        if (updated == 0) {
+            return false;
+        }
+
+        jpaDedicatedVM.setAssignment(to);
+        jpaDedicatedVM.setProvisionedServiceInstanceId(null);
+        jpaDedicatedVM.setProvisionedTime(null);
+        jpaDedicatedVM.setClaimedTime(null);
+        jpaDedicatedVM.setReleasedTime(new Date());
+        jpaDedicatedVM.setVersion(jpaDedicatedVM.getVersion() + 1);
+        return true;
+    }
+}
@@ -0,0 +1,142 @@
+package org.servicebroker.apigateway.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.servicebroker.apigateway.repository.JpaBrokerLeaseRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.net.InetAddress;
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The type Api gateway leader service.
+ *
+ * Leader election for background jobs across broker nodes, based on a heartbeat-renewed lease row (broker_lease).
+ * The leader renews the lease every heartbeat interval. When it stops, another node takes over once the lease expires,
+ * i.e. within ttl + heartbeat. The local leadership ends max_clock_skew before the lease expires in the DB,
+ * so two nodes never consider themselves leader at the same time as long as their clocks differ by less than that.
+ */
+@Slf4j
+@Service
+public class ApiGatewayLeaderService {
+
+    private final JpaBrokerLeaseRepository jpaBrokerLeaseRepository;
+    private final String nodeId;
+    private final long ttl;
+    private final long maxClockSkew;
+
+    private volatile long leaderUntil;
+    private volatile boolean leader;
+
+    /**
+     * Instantiates a new Api gateway leader service.
+     *
+     * @param jpaBrokerLeaseRepository the jpa broker lease repository
+     * @param nodeId                   the node id (generated if empty)
+     * @param ttl                      the lease ttl (ms)
+     * @param maxClockSkew             the max clock skew between nodes (ms)
+     */
+    @Autowired
+    public ApiGatewayLeaderService(JpaBrokerLeaseRepository jpaBrokerLeaseRepository,
+                                   @Value("${broker.lease.node_id:}") String nodeId,
+                                   @Value("${broker.lease.ttl:30000}") long ttl,
+                                   @Value("${broker.lease.max_clock_skew:2000}") long maxClockSkew) {
+        this.jpaBrokerLeaseRepository = jpaBrokerLeaseRepository;
+        this.nodeId = nodeId.isEmpty() ? generateNodeId() : nodeId;
+        this.ttl = ttl;
+        this.maxClockSkew = maxClockSkew;
+    }
+
+    /**
+     * Heartbeat. Acquires or renews the lease.
+     *
+     * @return true if this node holds the lease
+     */
+    @Scheduled(fixedDelayString = "${broker.lease.heartbeat:10000}")
+    public boolean heartbeat() {
+        long started = System.nanoTime();
+        long now = System.currentTimeMillis();
+        Date expiresTime = new Date(now + ttl);
+        boolean acquired;
+
+        try {
+            acquired = jpaBrokerLeaseRepository.acquire(Constants.LEASE_BACKGROUND_JOBS, nodeId, new Date(now), expiresTime) == 1
+                    || insert(new Date(now), expiresTime);
+        } catch (Exception e) {
+            log.error("heartbeat :: Failed to renew lease :: {}", e.getMessage());
+            acquired = false;
+        }
+
+        if (acquired) {
+            leaderUntil = started + TimeUnit.MILLISECONDS.toNanos(ttl - maxClockSkew);
+        }
+
+        if (acquired != leader) {
+            log.info("heartbeat :: Node {} {} leadership", nodeId, acquired ? "acquired" : "lost");
+        }
+        leader = acquired;
+
+        return acquired;
+    }
+
+    /**
+     * Is leader boolean.
+     *
+     * @return true if this node holds a valid lease
+     */
+    public boolean isLeader() {
+        return leader && System.nanoTime() - leaderUntil < 0;
+    }
+
+    /**
+     * Release. Lets another node take over immediately.
+     */
+    @PreDestroy
+    public void release() {
+        if (!leader) {
+            return;
+        }
+
+        leader = false;
+        try {
+            jpaBrokerLeaseRepository.release(Constants.LEASE_BACKGROUND_JOBS, nodeId, new Date());
+            log.info("release :: Node {} released leadership", nodeId);
+        } catch (Exception e) {
+            log.warn("release :: Failed to release lease :: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Gets node id.
+     *
+     * @return the node id
+     */
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    private boolean insert(Date now, Date expiresTime) {
+        try {
+            return jpaBrokerLeaseRepository.insert(Constants.LEASE_BACKGROUND_JOBS, nodeId, now, expiresTime) == 1;
+        } catch (DataIntegrityViolationException e) {
+            // 다른 노드가 먼저 생성
+            return false;
+        }
+    }
+
+    private static String generateNodeId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            host = "broker";
+        }
+        return host + "-" + UUID.randomUUID().toString().substring(0, 8);
+    }
+}
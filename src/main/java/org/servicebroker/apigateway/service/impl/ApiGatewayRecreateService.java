@@ -0,0 +1,160 @@
+package org.servicebroker.apigateway.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.servicebroker.apigateway.exception.ServiceException;
+import org.servicebroker.apigateway.model.JpaDedicatedVM;
+import org.servicebroker.apigateway.model.JpaRecreateOutbox;
+import org.servicebroker.apigateway.repository.JpaDedicatedVMRepository;
+import org.servicebroker.apigateway.repository.JpaRecreateOutboxRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The type Api gateway recreate service.
+ *
+ * Drains recreate_outbox on the leader node : every due intent is locked (so a former leader still working on it is not
+ * overtaken), recreated through BOSH on the broker task executor, and deleted on success. A failed attempt is retried with
+ * exponential backoff (equal jitter) without limit, so no recreate is lost; at most max_concurrent recreates run at a time.
+ * An intent whose VM is no longer waiting for recreate is dropped.
+ */
+@Slf4j
+@Service
+public class ApiGatewayRecreateService {
+
+    private static final int MAX_ERROR_LENGTH = 1000;
+
+    @Value("${broker.recreate.max_concurrent:4}")
+    public int maxConcurrent;
+    @Value("${broker.recreate.backoff:10000}")
+    public long backoff;
+    @Value("${broker.recreate.max_backoff:900000}")
+    public long maxBackoff;
+    @Value("${broker.recreate.lock_timeout:600000}")
+    public long lockTimeout;
+
+    @Autowired
+    JpaRecreateOutboxRepository jpaRecreateOutboxRepository;
+    @Autowired
+    JpaDedicatedVMRepository jpaDedicatedVMRepository;
+    @Autowired
+    ApiGatewayCommonService apiGatewayCommonService;
+    @Autowired
+    ApiGatewayLeaderService apiGatewayLeaderService;
+    @Autowired
+    @Qualifier("brokerTaskExecutor")
+    Executor brokerTaskExecutor;
+
+    // lock 소유자 (노드 / 프로세스 단위)
+    private final String owner = UUID.randomUUID().toString();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile boolean stopped;
+
+    /**
+     * Dispatches the due recreate intents, up to the concurrency cap.
+     *
+     * @return the number of dispatched intents
+     */
+    @Scheduled(initialDelayString = "${broker.recreate.interval:5000}", fixedDelayString = "${broker.recreate.interval:5000}")
+    public int drain() {
+        if (stopped || !apiGatewayLeaderService.isLeader()) {
+            return 0;
+        }
+
+        int free = maxConcurrent - inFlight.get();
+        if (free <= 0) {
+            return 0;
+        }
+
+        Date now = new Date();
+        List<JpaRecreateOutbox> due = jpaRecreateOutboxRepository.findDue(now, new PageRequest(0, free));
+
+        int dispatched = 0;
+        for (JpaRecreateOutbox intent : due) {
+            // 다른 노드 (이전 leader) 가 처리 중
+            if (jpaRecreateOutboxRepository.lock(intent.getIp(), owner, now, new Date(now.getTime() + lockTimeout)) == 0) {
+                continue;
+            }
+
+            inFlight.incrementAndGet();
+            try {
+                brokerTaskExecutor.execute(() -> process(intent));
+                dispatched++;
+            } catch (RejectedExecutionException e) {
+                inFlight.decrementAndGet();
+                jpaRecreateOutboxRepository.unlock(intent.getIp(), owner);
+                break;
+            }
+        }
+        return dispatched;
+    }
+
+    /**
+     * Stops dispatching. (shutdown) Recreates already dispatched run to completion, due intents stay in the outbox.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Gets the number of recreates in flight on this node.
+     *
+     * @return the in flight count
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    void process(JpaRecreateOutbox intent) {
+        try {
+            // 최신 vm_name / vm_id 로 재생성 (inventory 보정 반영)
+            JpaDedicatedVM jpaDedicatedVM = jpaDedicatedVMRepository.findOne(intent.getIp());
+            if (jpaDedicatedVM == null || jpaDedicatedVM.getAssignment() != Constants.STATUS_WATING_FOR_VM_RECREATE) {
+                log.info("recreate :: VM {} is no longer waiting for recreate, intent dropped", intent.getIp());
+                jpaRecreateOutboxRepository.deleteByIpAndLockOwner(intent.getIp(), owner);
+                return;
+            }
+
+            apiGatewayCommonService.recreateVM(jpaDedicatedVM);
+            jpaRecreateOutboxRepository.deleteByIpAndLockOwner(intent.getIp(), owner);
+            log.info("recreate :: VM {} recreate requested (attempt {})", intent.getIp(), intent.getAttempts() + 1);
+        } catch (ServiceException | RuntimeException e) {
+            int attempt = intent.getAttempts() + 1;
+            long delay = delay(attempt);
+            log.error("recreate :: VM {} attempt {} failed, retry in {} ms :: {}", intent.getIp(), attempt, delay, e.getMessage());
+            reschedule(intent, delay, e);
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private void reschedule(JpaRecreateOutbox intent, long delay, Exception cause) {
+        String error = String.valueOf(cause.getMessage());
+        try {
+            jpaRecreateOutboxRepository.reschedule(intent.getIp(), owner, new Date(System.currentTimeMillis() + delay),
+                    error.length() > MAX_ERROR_LENGTH ? error.substring(0, MAX_ERROR_LENGTH) : error);
+        } catch (RuntimeException e) {
+            // lock 만료 후 다시 처리됨
+            log.error("recreate :: Failed to reschedule VM {} :: {}", intent.getIp(), e.toString());
+        }
+    }
+
+    /**
+     * Backoff of an attempt : half of min(max_backoff, backoff * 2^(attempt - 1)) plus a random share of the other half.
+     */
+    long delay(int attempt) {
+        long ceiling = Math.min(maxBackoff, backoff << Math.min(attempt - 1, 16));
+        return ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+    }
+}
@@ -0,0 +1,96 @@
+package org.servicebroker.apigateway.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.servicebroker.apigateway.exception.ServiceException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The type Api gateway retry policy.
+ *
+ * Retries an operation that lost a race on the VM pool ({@link ConcurrencyFailureException} :
+ * optimistic lock failure, deadlock, lock wait timeout) with bounded attempts and exponential backoff with full jitter.
+ * Must be called outside of a transaction, so that every attempt re-reads the current state.
+ */
+@Slf4j
+@Component
+public class ApiGatewayRetryPolicy {
+
+    private final int maxAttempts;
+    private final long backoff;
+    private final long maxBackoff;
+
+    /**
+     * Instantiates a new Api gateway retry policy.
+     *
+     * @param maxAttempts the max attempts
+     * @param backoff     the initial backoff (ms)
+     * @param maxBackoff  the max backoff (ms)
+     */
+    public ApiGatewayRetryPolicy(@Value("${broker.retry.max_attempts:5}") int maxAttempts,
+                                 @Value("${broker.retry.backoff:20}") long backoff,
+                                 @Value("${broker.retry.max_backoff:500}") long maxBackoff) {
+        this.maxAttempts = maxAttempts;
+        this.backoff = backoff;
+        this.maxBackoff = maxBackoff;
+    }
+
+    /**
+     * Execute.
+     *
+     * @param <T>       the type parameter
+     * @param operation the operation name
+     * @param callback  the callback
+     * @return the result
+     * @throws ServiceException the service exception
+     */
+    public <T> T execute(String operation, RetryCallback<T> callback) throws ServiceException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return callback.doWithRetry();
+            } catch (ConcurrencyFailureException e) {
+                if (attempt >= maxAttempts) {
+                    log.error("{} :: conflict, giving up after {} attempts", operation, attempt);
+                    throw new ServiceException(operation + " failed. Concurrent modification of the VM pool :: " + e.getMessage());
+                }
+
+                log.debug("{} :: conflict on attempt {} :: {}", operation, attempt, e.getMessage());
+                sleep(attempt);
+            }
+        }
+    }
+
+    private void sleep(int attempt) throws ServiceException {
+        long ceiling = Math.min(maxBackoff, backoff << Math.min(attempt - 1, 16));
+        if (ceiling <= 0) {
+            return;
+        }
+
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(ceiling + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceException("Interrupted while waiting for retry.");
+        }
+    }
+
+    /**
+     * The interface Retry callback.
+     *
+     * @param <T> the type parameter
+     */
+    @FunctionalInterface
+    public interface RetryCallback<T> {
+
+        /**
+         * Do with retry.
+         *
+         * @return the result
+         * @throws ServiceException the service exception
+         */
+        T doWithRetry() throws ServiceException;
+    }
+}
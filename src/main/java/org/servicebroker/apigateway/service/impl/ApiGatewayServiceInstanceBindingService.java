@@ -2,37 +2,317 @@ package org.servicebroker.apigateway.service.impl;
 
 import lombok.extern.slf4j.Slf4j;
 import org.openpaas.servicebroker.exception.ServiceBrokerException;
+import org.openpaas.servicebroker.exception.ServiceInstanceBindingExistsException;
 import org.openpaas.servicebroker.model.CreateServiceInstanceBindingRequest;
 import org.openpaas.servicebroker.model.DeleteServiceInstanceBindingRequest;
 import org.openpaas.servicebroker.model.ServiceInstanceBinding;
 import org.openpaas.servicebroker.service.ServiceInstanceBindingService;
+import org.servicebroker.apigateway.client.Scim2Client;
+import org.servicebroker.apigateway.exception.ServiceException;
+import org.servicebroker.apigateway.model.JpaDedicatedVM;
+import org.servicebroker.apigateway.model.JpaServiceInstanceBinding;
+import org.servicebroker.apigateway.repository.JpaServiceInstanceBindingRepository;
+import org.slf4j.MDC;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
 
+import java.util.*;
+import java.util.concurrent.*;
+
 /**
  * The type Api gateway service instance binding service.
+ *
+ * A binding is a SCIM2 user of its own on the dedicated VM of the instance, so apps do not share the service admin password.
+ * The user gets the binding role (role, Internal/subscriber by default) : subscribing to and invoking APIs, without publisher or admin rights.
+ * Only the binding row is stored; the password is derived ({@link ApiGatewayBindingCredentials}).
+ *
+ * Bindings already built are served from a bounded LRU cache (cache_size entries, cache_ttl), and concurrent duplicates
+ * of the same binding id are merged onto the first request : repeated binds cost no WSO2 round trip.
+ * A cached binding keeps the IP of its VM and is served only while the instance is still assigned to that VM
+ * (one dedicated_vm lookup), since {@link #evict(String)} clears this node's cache only.
  */
 @Slf4j
 @Service
 public class ApiGatewayServiceInstanceBindingService implements ServiceInstanceBindingService {
 
+    @Value("${broker.binding.gateway_url:https://{ip}:8243}")
+    public String gatewayUrl = "https://{ip}:8243";
+    @Value("${broker.binding.role:Internal/subscriber}")
+    public String role = "Internal/subscriber";
+    @Value("${broker.binding.cache_ttl:300000}")
+    public long cacheTtl = 300000;
+    @Value("${broker.provisioning.join_timeout:60000}")
+    long joinTimeout = 60000;
+
+    private final JpaServiceInstanceBindingRepository jpaServiceInstanceBindingRepository;
+    private final ApiGatewayDedicatedVMService apiGatewayDedicatedVMService;
+    private final Scim2Client scim2Client;
+    private final ApiGatewayBindingCredentials apiGatewayBindingCredentials;
+    private final Map<String, CachedBinding> cache;
+
+    // 생성 진행 중인 binding (key : binding id)
+    private final ConcurrentMap<String, CompletableFuture<ServiceInstanceBinding>> inFlight = new ConcurrentHashMap<>();
+
     /**
      * Instantiates a new Api gateway service instance binding service.
+     *
+     * @param jpaServiceInstanceBindingRepository the jpa service instance binding repository
+     * @param apiGatewayDedicatedVMService        the api gateway dedicated vm service
+     * @param scim2Client                         the scim 2 client
+     * @param apiGatewayBindingCredentials        the api gateway binding credentials
+     * @param cacheSize                           the cache size
      */
     @Autowired
-    public ApiGatewayServiceInstanceBindingService() {
+    public ApiGatewayServiceInstanceBindingService(JpaServiceInstanceBindingRepository jpaServiceInstanceBindingRepository,
+                                                   ApiGatewayDedicatedVMService apiGatewayDedicatedVMService,
+                                                   Scim2Client scim2Client,
+                                                   ApiGatewayBindingCredentials apiGatewayBindingCredentials,
+                                                   @Value("${broker.binding.cache_size:1000}") int cacheSize) {
+        this.jpaServiceInstanceBindingRepository = jpaServiceInstanceBindingRepository;
+        this.apiGatewayDedicatedVMService = apiGatewayDedicatedVMService;
+        this.scim2Client = scim2Client;
+        this.apiGatewayBindingCredentials = apiGatewayBindingCredentials;
+        this.cache = Collections.synchronizedMap(new LinkedHashMap<String, CachedBinding>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedBinding> eldest) {
+                return size() > cacheSize;
+            }
+        });
     }
 
     @Override
-    public ServiceInstanceBinding createServiceInstanceBinding(CreateServiceInstanceBindingRequest request) throws ServiceBrokerException {
-        log.debug("ApiGatewayServiceInstanceBindingService : Bind ServiceInstance :: Not Supported");
-        throw new ServiceBrokerException("Not Supported");
+    public ServiceInstanceBinding createServiceInstanceBinding(CreateServiceInstanceBindingRequest request)
+            throws ServiceInstanceBindingExistsException, ServiceBrokerException {
+        log.debug("ApiGatewayServiceInstanceBindingService : Bind ServiceInstance");
+
+        MDC.put(Constants.MDC_SERVICE_INSTANCE_ID, request.getServiceInstanceId());
+        try {
+            ServiceInstanceBinding cached = cached(request.getBindingId());
+            if (cached != null) {
+                return existing(request, cached);
+            }
+
+            return bindOrJoin(request);
+        } finally {
+            MDC.remove(Constants.MDC_SERVICE_INSTANCE_ID);
+        }
+    }
+
+    private ServiceInstanceBinding bindOrJoin(CreateServiceInstanceBindingRequest request) throws ServiceInstanceBindingExistsException, ServiceBrokerException {
+        CompletableFuture<ServiceInstanceBinding> binding = new CompletableFuture<>();
+        CompletableFuture<ServiceInstanceBinding> inProgress = inFlight.putIfAbsent(request.getBindingId(), binding);
+
+        if (inProgress != null) {
+            log.info("ServiceInstanceBinding : {} is being created. Joining the in-flight request.", request.getBindingId());
+            return existing(request, join(request.getBindingId(), inProgress));
+        }
+
+        try {
+            ServiceInstanceBinding serviceInstanceBinding = bind(request);
+            binding.complete(serviceInstanceBinding);
+            return serviceInstanceBinding;
+        } catch (ServiceInstanceBindingExistsException | ServiceBrokerException | RuntimeException e) {
+            binding.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(request.getBindingId(), binding);
+        }
+    }
+
+    private ServiceInstanceBinding bind(CreateServiceInstanceBindingRequest request) throws ServiceInstanceBindingExistsException, ServiceBrokerException {
+        JpaDedicatedVM jpaDedicatedVM = assignedVM(request.getServiceInstanceId());
+
+        JpaServiceInstanceBinding jpaServiceInstanceBinding = jpaServiceInstanceBindingRepository.findOne(request.getBindingId());
+        if (jpaServiceInstanceBinding != null) {
+            return existing(request, cache(jpaServiceInstanceBinding, jpaDedicatedVM));
+        }
+
+        // binding 사용자 생성 후 저장, 저장 실패 시 사용자 삭제
+        String userName = apiGatewayBindingCredentials.userName(request.getBindingId());
+        String userId;
+        try {
+            userId = scim2Client.createUser(jpaDedicatedVM.getIp(), userName, apiGatewayBindingCredentials.password(userName));
+        } catch (ServiceException e) {
+            // 이전 요청에서 생성 후 저장되지 않은 사용자 :: 비밀번호가 동일하므로 재사용
+            userId = scim2Client.findUserId(jpaDedicatedVM.getIp(), userName);
+            if (userId == null) {
+                throw e;
+            }
+        }
+
+        // binding 사용자 권한 부여, 실패 시 사용자 삭제
+        try {
+            scim2Client.addToGroup(jpaDedicatedVM.getIp(), role, userName, userId);
+        } catch (ServiceException e) {
+            deleteUser(jpaDedicatedVM.getIp(), userId);
+            throw e;
+        }
+
+        jpaServiceInstanceBinding = JpaServiceInstanceBinding.builder()
+                .bindingId(request.getBindingId())
+                .serviceInstanceId(request.getServiceInstanceId())
+                .appGuid(request.getAppGuid())
+                .userName(userName)
+                .build();
+        try {
+            jpaServiceInstanceBindingRepository.save(jpaServiceInstanceBinding);
+        } catch (DataIntegrityViolationException e) {
+            // 다른 노드에서 동일 binding 저장 :: 동일 이름의 사용자는 해당 binding 의 사용자이므로 삭제하지 않고 저장된 binding 반환
+            JpaServiceInstanceBinding saved = jpaServiceInstanceBindingRepository.findOne(request.getBindingId());
+            if (saved == null) {
+                throw e;
+            }
+            log.info("ServiceInstanceBinding : {} was saved by another node. Returning the saved binding.", request.getBindingId());
+            return existing(request, cache(saved, jpaDedicatedVM));
+        } catch (RuntimeException e) {
+            deleteUser(jpaDedicatedVM.getIp(), userId);
+            throw e;
+        }
+
+        log.info("ServiceInstanceBinding : {} :: user {} created on VM {}", request.getBindingId(), userName, jpaDedicatedVM.getIp());
+        return cache(jpaServiceInstanceBinding, jpaDedicatedVM);
     }
 
     @Override
     public ServiceInstanceBinding deleteServiceInstanceBinding(DeleteServiceInstanceBindingRequest request) throws ServiceBrokerException {
-        log.debug("ApiGatewayServiceInstanceBindingService : Unbind ServiceInstance :: Not Supported");
-        throw new ServiceBrokerException("Not Supported");
+        log.debug("ApiGatewayServiceInstanceBindingService : Unbind ServiceInstance");
+
+        cache.remove(request.getBindingId());
+        JpaServiceInstanceBinding jpaServiceInstanceBinding = jpaServiceInstanceBindingRepository.findOne(request.getBindingId());
+
+        if (jpaServiceInstanceBinding == null) {
+            return null;
+        }
+
+        MDC.put(Constants.MDC_SERVICE_INSTANCE_ID, jpaServiceInstanceBinding.getServiceInstanceId());
+        try {
+            // 사용자 삭제 :: VM 이 이미 회수되었거나 사용자가 없는 경우 생략
+            JpaDedicatedVM jpaDedicatedVM = apiGatewayDedicatedVMService.findByServiceInstanceId(jpaServiceInstanceBinding.getServiceInstanceId());
+            if (jpaDedicatedVM != null && jpaDedicatedVM.getAssignment() == Constants.STATUS_ASSIGNED) {
+                String userId = scim2Client.findUserId(jpaDedicatedVM.getIp(), jpaServiceInstanceBinding.getUserName());
+                if (userId != null) {
+                    scim2Client.deleteUser(jpaDedicatedVM.getIp(), userId);
+                }
+            }
+
+            jpaServiceInstanceBindingRepository.delete(jpaServiceInstanceBinding);
+            cache.remove(request.getBindingId());
+
+            return new ServiceInstanceBinding(jpaServiceInstanceBinding.getBindingId(), jpaServiceInstanceBinding.getServiceInstanceId(),
+                    Collections.emptyMap(), null, jpaServiceInstanceBinding.getAppGuid());
+        } finally {
+            MDC.remove(Constants.MDC_SERVICE_INSTANCE_ID);
+        }
+    }
+
+    /**
+     * Evicts the cached bindings of a service instance from this node's cache. (its VM changed)
+     * The other nodes drop their entries on the next hit, when the VM lookup no longer matches.
+     *
+     * @param serviceInstanceId the service instance id
+     */
+    public void evict(String serviceInstanceId) {
+        synchronized (cache) {
+            cache.values().removeIf(cached -> cached.binding.getServiceInstanceId().equals(serviceInstanceId));
+        }
+    }
+
+    private void deleteUser(String ip, String userId) {
+        try {
+            scim2Client.deleteUser(ip, userId);
+        } catch (ServiceException e) {
+            // 다음 bind 요청에서 재사용
+            log.warn("Failed to delete binding user {} :: {}", userId, e.getMessage());
+        }
+    }
+
+    private JpaDedicatedVM assignedVM(String serviceInstanceId) throws ServiceBrokerException {
+        JpaDedicatedVM jpaDedicatedVM = apiGatewayDedicatedVMService.findByServiceInstanceId(serviceInstanceId);
+
+        if (jpaDedicatedVM == null || jpaDedicatedVM.getAssignment() != Constants.STATUS_ASSIGNED) {
+            throw new ServiceBrokerException("ServiceInstance " + serviceInstanceId + " does not exist.");
+        }
+        return jpaDedicatedVM;
+    }
+
+    private ServiceInstanceBinding cached(String bindingId) {
+        CachedBinding cached = cache.get(bindingId);
+
+        if (cached == null) {
+            return null;
+        }
+        if (cached.expires < System.currentTimeMillis()) {
+            cache.remove(bindingId, cached);
+            return null;
+        }
+
+        // 다른 노드에서 VM 이 변경된 경우 (ex. plan migration) 해당 노드의 evict 는 이 노드의 cache 를 비우지 않음
+        JpaDedicatedVM jpaDedicatedVM = apiGatewayDedicatedVMService.findByServiceInstanceId(cached.binding.getServiceInstanceId());
+        if (jpaDedicatedVM == null || jpaDedicatedVM.getAssignment() != Constants.STATUS_ASSIGNED || !jpaDedicatedVM.getIp().equals(cached.ip)) {
+            cache.remove(bindingId, cached);
+            return null;
+        }
+        return cached.binding;
+    }
+
+    private ServiceInstanceBinding cache(JpaServiceInstanceBinding jpaServiceInstanceBinding, JpaDedicatedVM jpaDedicatedVM) {
+        Map<String, Object> credentials = new LinkedHashMap<>();
+        credentials.put("username", jpaServiceInstanceBinding.getUserName());
+        credentials.put("password", apiGatewayBindingCredentials.password(jpaServiceInstanceBinding.getUserName()));
+        credentials.put("gateway_url", gatewayUrl.replace("{ip}", jpaDedicatedVM.getIp()));
+        credentials.put("dashboard_url", jpaDedicatedVM.getDashboardUrl());
+
+        ServiceInstanceBinding binding = new ServiceInstanceBinding(jpaServiceInstanceBinding.getBindingId(), jpaServiceInstanceBinding.getServiceInstanceId(),
+                credentials, null, jpaServiceInstanceBinding.getAppGuid());
+        cache.put(binding.getId(), new CachedBinding(binding, jpaDedicatedVM.getIp(), System.currentTimeMillis() + cacheTtl));
+        return binding;
+    }
+
+    /**
+     * Returns the existing binding for an identical request, otherwise rejects the request as a conflict.
+     */
+    private ServiceInstanceBinding existing(CreateServiceInstanceBindingRequest request, ServiceInstanceBinding binding) throws ServiceInstanceBindingExistsException {
+        if (Objects.equals(request.getServiceInstanceId(), binding.getServiceInstanceId()) && Objects.equals(request.getAppGuid(), binding.getAppGuid())) {
+            return binding;
+        }
+
+        log.error("ServiceInstanceBinding : {} is exist.", request.getBindingId());
+        throw new ServiceInstanceBindingExistsException(binding);
+    }
+
+    private ServiceInstanceBinding join(String bindingId, CompletableFuture<ServiceInstanceBinding> inProgress)
+            throws ServiceInstanceBindingExistsException, ServiceBrokerException {
+        try {
+            return inProgress.get(joinTimeout, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ServiceInstanceBindingExistsException) {
+                throw (ServiceInstanceBindingExistsException) cause;
+            }
+            if (cause instanceof ServiceBrokerException) {
+                throw (ServiceBrokerException) cause;
+            }
+            throw new ServiceBrokerException(cause.getMessage());
+        } catch (TimeoutException e) {
+            throw new ServiceBrokerException("ServiceInstanceBinding " + bindingId + " is still being created.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceBrokerException("Interrupted while waiting for ServiceInstanceBinding " + bindingId + ".");
+        }
+    }
+
+    private static final class CachedBinding {
+        private final ServiceInstanceBinding binding;
+        private final String ip;
+        private final long expires;
+
+        private CachedBinding(ServiceInstanceBinding binding, String ip, long expires) {
+            this.binding = binding;
+            this.ip = ip;
+            this.expires = expires;
+        }
     }
 
 }
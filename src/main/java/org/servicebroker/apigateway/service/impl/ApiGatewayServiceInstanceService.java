@@ -9,14 +9,30 @@ import org.openpaas.servicebroker.model.ServiceInstance;
 import org.openpaas.servicebroker.model.UpdateServiceInstanceRequest;
 import org.openpaas.servicebroker.service.ServiceInstanceService;
 import org.servicebroker.apigateway.exception.ServiceException;
+import org.servicebroker.apigateway.migration.PlanMigration;
+import org.servicebroker.apigateway.migration.PlanMigrationService;
+import org.slf4j.MDC;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
  * The type Api gateway service instance service.
+ *
+ * Provisioning is idempotent : a request identical to an existing (or in-flight) instance returns that instance,
+ * and concurrent duplicates of the same instance id are merged onto the first request.
+ *
+ * A plan change migrates the instance to another VM ({@link PlanMigrationService}) and requires the service admin password parameter,
+ * as provisioning does : WSO2 does not export passwords, and the service admin is re-created on the new VM with it. The vendored broker library has no
+ * asynchronous operations, so the request waits up to sync_timeout. A migration still copying then is cancelled and the request fails,
+ * the instance staying on its current plan; a migration already swapping the VMs is waited for, so a failure is never reported for a
+ * plan change that commits. Tenants that take longer to copy than sync_timeout need a larger sync_timeout (and platform broker timeout).
  */
 @Slf4j
 @Service
@@ -24,15 +40,30 @@ public class ApiGatewayServiceInstanceService implements ServiceInstanceService
 
     @Autowired
     private final ApiGatewayCommonService apiGatewayCommonService;
+    private final PlanMigrationService planMigrationService;
+
+    // 비밀번호 유효성 체크 패턴 :: 영문 대문자 + 영문 소문자 + 숫자 또는 특수문자($@!%*#?&)
+    private static final Pattern PASSWORD_PATTERN = Pattern.compile("^((?=.*[A-Z])(?=.*[a-z])(?=.*\\d)|(?=.*[A-Z])(?=.*[a-z])(?=.*[$@!%*#?&]))[A-Za-z\\d$@!%*#?&]{6,30}$");
+
+    @Value("${broker.provisioning.join_timeout:60000}")
+    long joinTimeout = 60000;
+
+    @Value("${broker.migration.sync_timeout:45000}")
+    long migrationSyncTimeout = 45000;
+
+    // 프로비저닝 진행 중인 요청 (key : service instance id)
+    private final ConcurrentMap<String, CompletableFuture<ServiceInstance>> inFlight = new ConcurrentHashMap<>();
 
     /**
      * Instantiates a new Api gateway service instance service.
      *
      * @param apiGatewayCommonService the api gateway common service
+     * @param planMigrationService    the plan migration service
      */
     @Autowired
-    public ApiGatewayServiceInstanceService(ApiGatewayCommonService apiGatewayCommonService) {
+    public ApiGatewayServiceInstanceService(ApiGatewayCommonService apiGatewayCommonService, PlanMigrationService planMigrationService) {
         this.apiGatewayCommonService = apiGatewayCommonService;
+        this.planMigrationService = planMigrationService;
     }
 
     @Override
@@ -42,32 +73,67 @@ public class ApiGatewayServiceInstanceService implements ServiceInstanceService
         log.debug("ApiGatewayServiceInstanceService : Provision (Create) createServiceInstance");
 
         // [ 유효성 체크 ]=================================================================================================
+        validatePassword(request.getParameters());
+
+        MDC.put(Constants.MDC_SERVICE_INSTANCE_ID, request.getServiceInstanceId());
+        try {
+            return provisionOrJoin(request);
+        } finally {
+            clearLogContext();
+        }
+    }
+
+    /**
+     * Validates the service admin password parameter.
+     *
+     * @return the password
+     */
+    private static String validatePassword(Map<String, Object> parameters) throws ServiceBrokerException {
         // 파라미터 필수 입력 체크 (비밀번호)
-        if (request.getParameters() == null || request.getParameters().isEmpty() || !request.getParameters().containsKey(Constants.PARAMETERS_KEY)) {
+        if (parameters == null || parameters.isEmpty() || !parameters.containsKey(Constants.PARAMETERS_KEY)) {
             throw new ServiceBrokerException("Required [" + Constants.PARAMETERS_KEY + "] parameter.");
         }
 
-        // 비밀번호 유효성 체크 패턴 :: 영문 대문자 + 영문 소문자 + 숫자 또는 특수문자($@!%*#?&)
-        Pattern patternPassword = Pattern.compile("^((?=.*[A-Z])(?=.*[a-z])(?=.*\\d)|(?=.*[A-Z])(?=.*[a-z])(?=.*[$@!%*#?&]))[A-Za-z\\d$@!%*#?&]{6,30}$");
-
         // 사용자 암호 :: 파라미터 입력값 유효성 체크
-        Matcher matcher = patternPassword.matcher((String) request.getParameters().get(Constants.PARAMETERS_KEY));
+        Matcher matcher = PASSWORD_PATTERN.matcher((String) parameters.get(Constants.PARAMETERS_KEY));
         if (!matcher.matches()) {
             throw new ServiceBrokerException("password does not meet the requirements.[use letters(mix uppercase and lowercase letters) and numbers(or special characters($@!%*#?&), use 6-30 characters.]");
         }
+        return matcher.group();
+    }
 
-        // 서비스 인스턴스 Guid Check
-        ServiceInstance serviceInstance = apiGatewayCommonService.getServiceInstance(request.getServiceInstanceId());
+    private ServiceInstance provisionOrJoin(CreateServiceInstanceRequest request) throws ServiceInstanceExistsException, ServiceBrokerException {
+        // 동일 인스턴스에 대한 중복 요청 (Cloud Controller 재시도) :: 진행 중인 요청의 결과를 공유
+        CompletableFuture<ServiceInstance> provisioning = new CompletableFuture<>();
+        CompletableFuture<ServiceInstance> inProgress = inFlight.putIfAbsent(request.getServiceInstanceId(), provisioning);
 
-        if (serviceInstance != null) {
-            log.error("ServiceInstance : {} is exist.", request.getServiceInstanceId());
-            throw new ServiceInstanceExistsException(new ServiceInstance(request));
+        if (inProgress != null) {
+            log.info("ServiceInstance : {} is being provisioned. Joining the in-flight request.", request.getServiceInstanceId());
+            return existing(request, join(request.getServiceInstanceId(), inProgress));
         }
 
-        // 조직 Guid Check (방침 : space 구분 없이 조직별 1개만 생성)
-        ServiceInstance serviceInstanceOrg = apiGatewayCommonService.findByOrgGuid(request.getOrganizationGuid());
-        if (serviceInstanceOrg != null) {
-            log.error("ServiceInstance already exists in your organization: OrgGuid : {}, spaceId : {}", serviceInstanceOrg.getOrganizationGuid(), serviceInstanceOrg.getSpaceGuid());
+        try {
+            ServiceInstance serviceInstance = provision(request);
+            provisioning.complete(serviceInstance);
+            return serviceInstance;
+        } catch (ServiceInstanceExistsException | ServiceBrokerException | RuntimeException e) {
+            provisioning.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(request.getServiceInstanceId(), provisioning);
+        }
+    }
+
+    private ServiceInstance provision(CreateServiceInstanceRequest request) throws ServiceInstanceExistsException, ServiceBrokerException {
+        // 서비스 인스턴스 Guid Check + 조직 Guid Check (방침 : space 구분 없이 조직별 1개만 생성) :: 단일 조회
+        ServiceInstance serviceInstance = apiGatewayCommonService.findByServiceInstanceIdOrOrgGuid(request.getServiceInstanceId(), request.getOrganizationGuid());
+
+        if (serviceInstance != null) {
+            if (request.getServiceInstanceId().equals(serviceInstance.getServiceInstanceId())) {
+                return existing(request, serviceInstance);
+            }
+
+            log.error("ServiceInstance already exists in your organization: OrgGuid : {}, spaceId : {}", serviceInstance.getOrganizationGuid(), serviceInstance.getSpaceGuid());
             throw new ServiceBrokerException("ServiceInstance already exists in your organization.");
         }
 
@@ -75,13 +141,49 @@ public class ApiGatewayServiceInstanceService implements ServiceInstanceService
         // Dedicated Service VM 할당
         String service_url = apiGatewayCommonService.serviceAssignment(request);
 
-        // 서비스 인스턴스 정보 저장
+        // 서비스 인스턴스 정보 저장 (VM 할당 완료)
         serviceInstance = new ServiceInstance(request).withDashboardUrl(service_url);
         apiGatewayCommonService.createServiceInstance(serviceInstance);
 
         return serviceInstance;
     }
 
+    /**
+     * Returns the existing service instance for an identical request, otherwise rejects the request as a conflict.
+     */
+    private ServiceInstance existing(CreateServiceInstanceRequest request, ServiceInstance serviceInstance) throws ServiceInstanceExistsException {
+        if (Objects.equals(request.getServiceDefinitionId(), serviceInstance.getServiceDefinitionId())
+                && Objects.equals(request.getPlanId(), serviceInstance.getPlanId())
+                && Objects.equals(request.getOrganizationGuid(), serviceInstance.getOrganizationGuid())
+                && Objects.equals(request.getSpaceGuid(), serviceInstance.getSpaceGuid())) {
+            log.info("ServiceInstance : {} already exists with identical attributes.", request.getServiceInstanceId());
+            return serviceInstance;
+        }
+
+        log.error("ServiceInstance : {} is exist.", request.getServiceInstanceId());
+        throw new ServiceInstanceExistsException(new ServiceInstance(request));
+    }
+
+    private ServiceInstance join(String serviceInstanceId, CompletableFuture<ServiceInstance> inProgress) throws ServiceInstanceExistsException, ServiceBrokerException {
+        try {
+            return inProgress.get(joinTimeout, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ServiceInstanceExistsException) {
+                throw (ServiceInstanceExistsException) cause;
+            }
+            if (cause instanceof ServiceBrokerException) {
+                throw (ServiceBrokerException) cause;
+            }
+            throw new ServiceBrokerException(cause.getMessage());
+        } catch (TimeoutException e) {
+            throw new ServiceBrokerException("ServiceInstance " + serviceInstanceId + " is still being provisioned.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceBrokerException("Interrupted while waiting for ServiceInstance " + serviceInstanceId + ".");
+        }
+    }
+
     @Override
     public ServiceInstance getServiceInstance(String id) {
         return apiGatewayCommonService.getServiceInstance(id);
@@ -92,23 +194,82 @@ public class ApiGatewayServiceInstanceService implements ServiceInstanceService
 
         log.debug("ApiGatewayServiceInstanceService : Deprovision (Delete) deleteServiceInstance");
 
-        // ServiceInstanceId로 ServiceInstance 정보 조회
-        ServiceInstance serviceInstance = apiGatewayCommonService.getServiceInstance(request.getServiceInstanceId());
+        MDC.put(Constants.MDC_SERVICE_INSTANCE_ID, request.getServiceInstanceId());
+        try {
+            // ServiceInstanceId로 ServiceInstance 정보 조회
+            ServiceInstance serviceInstance = apiGatewayCommonService.getServiceInstance(request.getServiceInstanceId());
 
-        if (serviceInstance == null) {
-            return null;
-        }
+            if (serviceInstance == null) {
+                return null;
+            }
 
-        // Deprovisioning 처리
-        apiGatewayCommonService.procDeProvisioning(request.getServiceInstanceId());
+            // Deprovisioning 처리
+            apiGatewayCommonService.procDeProvisioning(request.getServiceInstanceId());
 
-        return serviceInstance;
+            return serviceInstance;
+        } finally {
+            clearLogContext();
+        }
+    }
+
+    private static void clearLogContext() {
+        MDC.remove(Constants.MDC_SERVICE_INSTANCE_ID);
+        MDC.remove(Constants.MDC_VM_IP);
     }
 
     @Override
     public ServiceInstance updateServiceInstance(UpdateServiceInstanceRequest request) throws ServiceBrokerException {
-        log.debug("ApiGatewayServiceInstanceService : Update Provision (Update) updateServiceInstance :: Not Supported");
-        throw new ServiceBrokerException("Not Supported");
+        log.debug("ApiGatewayServiceInstanceService : Update Provision (Update) updateServiceInstance");
+
+        MDC.put(Constants.MDC_SERVICE_INSTANCE_ID, request.getServiceInstanceId());
+        try {
+            ServiceInstance serviceInstance = apiGatewayCommonService.getServiceInstance(request.getServiceInstanceId());
+
+            if (serviceInstance == null) {
+                throw new ServiceBrokerException("ServiceInstance " + request.getServiceInstanceId() + " does not exist.");
+            }
+
+            // 동일 plan :: 변경 없음
+            if (Objects.equals(request.getPlanId(), serviceInstance.getPlanId())) {
+                return serviceInstance;
+            }
+
+            // plan 변경 :: 새 VM 으로 migration, service admin 은 요청의 비밀번호로 다시 생성
+            String password = validatePassword(request.getParameters());
+            CompletableFuture<PlanMigration> migration = planMigrationService.start(request.getServiceInstanceId(), serviceInstance.getPlanId(), request.getPlanId(), password);
+            return awaitMigration(request.getServiceInstanceId(), migration);
+        } finally {
+            clearLogContext();
+        }
+    }
+
+    private ServiceInstance awaitMigration(String serviceInstanceId, CompletableFuture<PlanMigration> migration)
+            throws ServiceBrokerException {
+        try {
+            PlanMigration result;
+            try {
+                result = migration.get(migrationSyncTimeout, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                if (planMigrationService.cancel(serviceInstanceId)) {
+                    log.warn("ServiceInstance : {} plan migration cancelled after sync_timeout ({} ms).", serviceInstanceId, migrationSyncTimeout);
+                    throw new ServiceBrokerException("The plan migration of ServiceInstance " + serviceInstanceId + " did not complete within "
+                            + migrationSyncTimeout + " ms and was cancelled. The instance stays on its current plan.");
+                }
+                // VM 교체 진행 중 (cancel 불가, 단일 DB transaction) :: 완료까지 대기
+                log.info("ServiceInstance : {} plan migration is swapping the VMs, waiting for it.", serviceInstanceId);
+                result = migration.get();
+            }
+
+            if (result.getStep() == PlanMigration.Step.FAILED) {
+                throw new ServiceBrokerException("Failed to change the plan of ServiceInstance " + serviceInstanceId + " :: " + result.getMessage());
+            }
+            return apiGatewayCommonService.getServiceInstance(serviceInstanceId);
+        } catch (ExecutionException e) {
+            throw new ServiceBrokerException(e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceBrokerException("Interrupted while waiting for the plan migration of ServiceInstance " + serviceInstanceId + ".");
+        }
     }
 
 }
@@ -0,0 +1,109 @@
+package org.servicebroker.apigateway.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.servicebroker.apigateway.client.Scim2Client;
+import org.servicebroker.apigateway.exception.ServiceException;
+import org.servicebroker.apigateway.model.JpaDedicatedVM;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * The type Api gateway sweeper service.
+ *
+ * Recovers VMs left behind by a broker crash in the middle of provisioning or deprovisioning,
+ * i.e. VMs in {@link Constants#STATUS_PROVISIONING} or {@link Constants#STATUS_ASSIGNED} without a service_instance row.
+ * Runs once at startup and then periodically, on the leader node only.
+ */
+@Slf4j
+@Service
+public class ApiGatewaySweeperService {
+
+    @Value("${broker.sweeper.grace_period:600000}")
+    public long gracePeriod;
+
+    @Autowired
+    ApiGatewayDedicatedVMService apiGatewayDedicatedVMService;
+    @Autowired
+    ApiGatewayLeaderService apiGatewayLeaderService;
+    @Autowired
+    Scim2Client scim2Client;
+
+    /**
+     * Sweep orphan VMs.
+     * 서비스 관리자 계정이 생성되지 않은 provisioning VM 은 반환 (STATUS_WATING_FOR_ASSIGNMENT),
+     * 그 외의 VM 은 재생성 (STATUS_WATING_FOR_VM_RECREATE)
+     *
+     * @return the number of recovered VMs
+     */
+    @Scheduled(initialDelayString = "${broker.sweeper.initial_delay:15000}", fixedDelayString = "${broker.sweeper.interval:300000}")
+    public int sweep() {
+        if (!apiGatewayLeaderService.isLeader()) {
+            return 0;
+        }
+
+        // claim 이후 grace period 가 지나지 않은 VM 은 진행 중인 요청으로 간주
+        Date claimedBefore = new Date(System.currentTimeMillis() - gracePeriod);
+        List<JpaDedicatedVM> orphans = apiGatewayDedicatedVMService.findOrphans(claimedBefore);
+
+        int recovered = 0;
+        for (JpaDedicatedVM jpaDedicatedVM : orphans) {
+            try {
+                if (sweep(jpaDedicatedVM)) {
+                    recovered++;
+                }
+            } catch (Exception e) {
+                log.error("sweep :: Failed to recover VM {} :: {}", jpaDedicatedVM.getIp(), e.getMessage());
+            }
+        }
+
+        if (!orphans.isEmpty()) {
+            log.info("sweep :: {} of {} orphan VM(s) recovered", recovered, orphans.size());
+        }
+
+        return recovered;
+    }
+
+    /**
+     * Sweep an orphan VM.
+     *
+     * @param jpaDedicatedVM the jpa dedicated vm
+     * @return true if the VM was recovered by this call
+     * @throws ServiceException the service exception
+     */
+    boolean sweep(JpaDedicatedVM jpaDedicatedVM) throws ServiceException {
+        if (jpaDedicatedVM.getAssignment() == Constants.STATUS_PROVISIONING && !existsServiceAdmin(jpaDedicatedVM)) {
+            // 조회 이후 다른 요청이 상태를 변경한 경우 (ex. 프로비저닝 완료, migration heartbeat) 회수하지 않음
+            if (!apiGatewayDedicatedVMService.release(jpaDedicatedVM)) {
+                return false;
+            }
+
+            log.info("sweep :: Reclaim VM {} (provisioning of {})", jpaDedicatedVM.getIp(), jpaDedicatedVM.getProvisionedServiceInstanceId());
+            return true;
+        }
+
+        String serviceInstanceId = jpaDedicatedVM.getProvisionedServiceInstanceId();
+
+        // 조회 이후 다른 요청이 상태를 변경한 경우 (ex. 프로비저닝 완료) 재생성하지 않음
+        // 재생성은 recreate_outbox 를 통해 ApiGatewayRecreateService 가 수행
+        if (!apiGatewayDedicatedVMService.markForRecreate(jpaDedicatedVM)) {
+            return false;
+        }
+
+        log.info("sweep :: Recreate VM {} (service instance {})", jpaDedicatedVM.getIp(), serviceInstanceId);
+        return true;
+    }
+
+    private boolean existsServiceAdmin(JpaDedicatedVM jpaDedicatedVM) {
+        try {
+            return scim2Client.existsServiceAdmin(jpaDedicatedVM.getIp());
+        } catch (ServiceException e) {
+            // 확인할 수 없는 경우 재생성
+            return true;
+        }
+    }
+}
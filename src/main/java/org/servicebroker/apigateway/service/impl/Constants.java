@@ -11,6 +11,12 @@ public class Constants {
     public static final int STATUS_WATING_FOR_VM_RECREATE = 1;
     /** The constant STATUS_ASSIGNED. */
     public static final int STATUS_ASSIGNED = 2;
+    /** The constant STATUS_PROVISIONING. (VM claimed, service admin not yet committed) */
+    public static final int STATUS_PROVISIONING = 3;
+    /** The constant STATUS_RETIRING. (free VM being removed from the deployment by a scale-down) */
+    public static final int STATUS_RETIRING = 4;
+    /** The constant STATUS_NAMES. (index : assignment) */
+    public static final String[] STATUS_NAMES = {"waiting_for_assignment", "waiting_for_recreate", "assigned", "provisioning", "retiring"};
     /** The constant JOB_STATE_RECREATE. */
     public static final String JOB_STATE_RECREATE = "recreate";
     /** The constant PARAMETERS_KEY. */
@@ -19,5 +25,15 @@ public class Constants {
     public static final String SCIM2_USERS = ":9443/scim2/Users";
     /** The constant SCIM2_GROUPS API URL. */
     public static final String SCIM2_GROUPS = ":9443/scim2/Groups";
+    /** The constant MIGRATION_KEY_SUFFIX. (provisioned_service_instance_id of the target VM of a plan migration, until the swap) */
+    public static final String MIGRATION_KEY_SUFFIX = "#migration";
+    /** The constant LEASE_BACKGROUND_JOBS. (leader lease for scheduled jobs) */
+    public static final String LEASE_BACKGROUND_JOBS = "background-jobs";
+    /** The constant LEASE_POOL_EXHAUSTED. (signal row : renewed_time is the last time a node found no free VM) */
+    public static final String LEASE_POOL_EXHAUSTED = "pool-exhausted";
+    /** The constant MDC_SERVICE_INSTANCE_ID. (log field) */
+    public static final String MDC_SERVICE_INSTANCE_ID = "serviceInstanceId";
+    /** The constant MDC_VM_IP. (log field) */
+    public static final String MDC_VM_IP = "vmIp";
 
 }
@@ -0,0 +1,71 @@
+package org.servicebroker.apigateway.shutdown;
+
+import com.google.gson.JsonObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The type Drain filter.
+ *
+ * Counts the requests that change service instances or bindings (PUT / PATCH / DELETE /v2/service_instances/**)
+ * in {@link InFlightRegistry}, and answers them with 503 and a Retry-After header once the node is shutting down,
+ * so that the platform retries them on another node. Catalog and read requests are always served.
+ */
+@Component
+public class DrainFilter extends OncePerRequestFilter {
+
+    private static final String SERVICE_INSTANCES = "/v2/service_instances/";
+    private static final int RETRY_AFTER_SECONDS = 5;
+
+    private final InFlightRegistry inFlightRegistry;
+
+    /**
+     * Instantiates a new Drain filter.
+     *
+     * @param inFlightRegistry the in flight registry
+     */
+    @Autowired
+    public DrainFilter(InFlightRegistry inFlightRegistry) {
+        this.inFlightRegistry = inFlightRegistry;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String method = request.getMethod();
+        if (!"PUT".equals(method) && !"PATCH".equals(method) && !"DELETE".equals(method)) {
+            return true;
+        }
+        return !request.getRequestURI().substring(request.getContextPath().length()).startsWith(SERVICE_INSTANCES);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        if (!inFlightRegistry.enter()) {
+            JsonObject error = new JsonObject();
+            error.addProperty("description", "Service broker node is shutting down. Retry the request.");
+
+            response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(RETRY_AFTER_SECONDS));
+            response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+            response.getOutputStream().write(error.toString().getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            inFlightRegistry.exit();
+        }
+    }
+}
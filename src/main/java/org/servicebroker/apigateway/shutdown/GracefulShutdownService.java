@@ -0,0 +1,155 @@
+package org.servicebroker.apigateway.shutdown;
+
+import lombok.extern.slf4j.Slf4j;
+import org.servicebroker.apigateway.model.JpaDedicatedVM;
+import org.servicebroker.apigateway.occupancy.OccupancyService;
+import org.servicebroker.apigateway.service.impl.ApiGatewayDedicatedVMService;
+import org.servicebroker.apigateway.service.impl.ApiGatewayRecreateService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * The type Graceful shutdown service.
+ *
+ * Runs first when the context closes, while the web server still accepts connections and before any bean is destroyed :
+ * <ol>
+ * <li>new service instance / binding changes are answered with 503 ({@link DrainFilter})</li>
+ * <li>in-flight requests get until drain_timeout to finish (commit or roll back on their own)</li>
+ * <li>VMs still claimed but not committed at the deadline are marked for recreate : their SCIM2 service admin may be half created</li>
+ * <li>the occupancy counts are recorded, and on the leader the due recreate intents (including those of step 3) are dispatched
+ * and awaited; intents not done by the deadline stay in the outbox for the next leader</li>
+ * </ol>
+ * The lease is then released by {@link org.servicebroker.apigateway.service.impl.ApiGatewayLeaderService#release()} as the beans are destroyed.
+ */
+@Slf4j
+@Service
+public class GracefulShutdownService implements SmartLifecycle {
+
+    private static final long POLL_INTERVAL = 100;
+
+    private final InFlightRegistry inFlightRegistry;
+    private final ApiGatewayDedicatedVMService apiGatewayDedicatedVMService;
+    private final ApiGatewayRecreateService apiGatewayRecreateService;
+    private final OccupancyService occupancyService;
+    private final long drainTimeout;
+
+    private volatile boolean running;
+
+    /**
+     * Instantiates a new Graceful shutdown service.
+     *
+     * @param inFlightRegistry             the in flight registry
+     * @param apiGatewayDedicatedVMService the api gateway dedicated vm service
+     * @param apiGatewayRecreateService    the api gateway recreate service
+     * @param occupancyService             the occupancy service
+     * @param drainTimeout                 the drain timeout (ms)
+     */
+    @Autowired
+    public GracefulShutdownService(InFlightRegistry inFlightRegistry, ApiGatewayDedicatedVMService apiGatewayDedicatedVMService,
+                                   ApiGatewayRecreateService apiGatewayRecreateService, OccupancyService occupancyService,
+                                   @Value("${broker.shutdown.drain_timeout:20000}") long drainTimeout) {
+        this.inFlightRegistry = inFlightRegistry;
+        this.apiGatewayDedicatedVMService = apiGatewayDedicatedVMService;
+        this.apiGatewayRecreateService = apiGatewayRecreateService;
+        this.occupancyService = occupancyService;
+        this.drainTimeout = drainTimeout;
+    }
+
+    /**
+     * Drains the node.
+     *
+     * @return the number of uncommitted VMs marked for recreate
+     */
+    public int drain() {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(drainTimeout);
+        inFlightRegistry.startDraining();
+        log.info("shutdown :: draining {} in-flight request(s), up to {} ms", inFlightRegistry.getRequests(), drainTimeout);
+
+        if (!await(() -> inFlightRegistry.getRequests() == 0, deadline)) {
+            log.warn("shutdown :: {} request(s) still in flight at the deadline", inFlightRegistry.getRequests());
+        }
+
+        int recreated = 0;
+        for (Map.Entry<String, JpaDedicatedVM> claim : inFlightRegistry.getClaims().entrySet()) {
+            try {
+                if (apiGatewayDedicatedVMService.markForRecreate(claim.getValue())) {
+                    recreated++;
+                    log.warn("shutdown :: VM {} claimed by {} not committed, marked for recreate", claim.getValue().getIp(), claim.getKey());
+                }
+            } catch (RuntimeException e) {
+                // sweeper 가 orphan 으로 처리
+                log.error("shutdown :: Failed to mark VM {} for recreate :: {}", claim.getValue().getIp(), e.toString());
+            }
+            inFlightRegistry.settled(claim.getKey());
+        }
+
+        occupancyService.record();
+        apiGatewayRecreateService.drain();
+        apiGatewayRecreateService.stop();
+        if (!await(() -> apiGatewayRecreateService.getInFlight() == 0, deadline)) {
+            log.warn("shutdown :: {} recreate(s) still in flight at the deadline, left in the outbox", apiGatewayRecreateService.getInFlight());
+        }
+
+        log.info("shutdown :: drained, {} uncommitted VM(s) marked for recreate", recreated);
+        return recreated;
+    }
+
+    private static boolean await(BooleanSupplier condition, long deadline) {
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            try {
+                Thread.sleep(POLL_INTERVAL);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        if (running) {
+            running = false;
+            drain();
+        }
+    }
+
+    @Override
+    public void stop(Runnable callback) {
+        try {
+            stop();
+        } finally {
+            callback.run();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public boolean isAutoStartup() {
+        return true;
+    }
+
+    // 가장 먼저 정지
+    @Override
+    public int getPhase() {
+        return Integer.MAX_VALUE;
+    }
+}
@@ -0,0 +1,99 @@
+package org.servicebroker.apigateway.shutdown;
+
+import org.servicebroker.apigateway.model.JpaDedicatedVM;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The type In flight registry.
+ *
+ * Broker requests that change service instances or bindings in progress on this node, and the VMs they claimed
+ * but did not commit yet (claimed -> assigned or rolled back). Once draining, no request is admitted any more.
+ */
+@Component
+public class InFlightRegistry {
+
+    private final AtomicInteger requests = new AtomicInteger();
+    private final Map<String, JpaDedicatedVM> claims = new ConcurrentHashMap<>();
+    private volatile boolean draining;
+
+    /**
+     * Admits a request.
+     *
+     * @return false if the node is draining
+     */
+    public boolean enter() {
+        // 증가 후 확인 : drain 시작 이후 들어온 요청은 대기 대상에 포함되기 전에 거절
+        requests.incrementAndGet();
+        if (draining) {
+            requests.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Ends an admitted request.
+     */
+    public void exit() {
+        requests.decrementAndGet();
+    }
+
+    /**
+     * Records a VM claimed for the service instance.
+     *
+     * @param serviceInstanceId the service instance id
+     * @param jpaDedicatedVM    the claimed vm
+     */
+    public void claimed(String serviceInstanceId, JpaDedicatedVM jpaDedicatedVM) {
+        claims.put(serviceInstanceId, jpaDedicatedVM);
+    }
+
+    /**
+     * The claim of the service instance was committed or rolled back.
+     *
+     * @param serviceInstanceId the service instance id
+     */
+    public void settled(String serviceInstanceId) {
+        claims.remove(serviceInstanceId);
+    }
+
+    /**
+     * Stops admitting requests.
+     */
+    public void startDraining() {
+        draining = true;
+    }
+
+    /**
+     * Is draining boolean.
+     *
+     * @return the boolean
+     */
+    public boolean isDraining() {
+        return draining;
+    }
+
+    /**
+     * Gets the number of requests in progress.
+     *
+     * @return the requests
+     */
+    public int getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * Gets the claimed VMs not committed yet.
+     *
+     * @return the claims (key : service instance id)
+     */
+    public Map<String, JpaDedicatedVM> getClaims() {
+        return new ConcurrentHashMap<>(claims);
+    }
+}
@@ -0,0 +1,124 @@
+package org.servicebroker.apigateway.startup;
+
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.Executor;
+
+/**
+ * The type Deferred schema validator. (broker.startup.deferred_schema_validation=true)
+ *
+ * Replaces ddl-auto validation at startup : once the broker is ready, checks on the broker task executor that every
+ * mapped table and column exists, through the JDBC metadata. Missing tables or columns are logged as errors;
+ * the broker keeps serving, as it would with ddl-auto none.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "broker.startup.deferred_schema_validation", havingValue = "true")
+public class DeferredSchemaValidator {
+
+    private final EntityManagerFactory entityManagerFactory;
+    private final DataSource dataSource;
+    private final Executor brokerTaskExecutor;
+
+    /**
+     * Instantiates a new Deferred schema validator.
+     *
+     * @param entityManagerFactory the entity manager factory
+     * @param dataSource           the data source
+     * @param brokerTaskExecutor   the broker task executor
+     */
+    @Autowired
+    public DeferredSchemaValidator(EntityManagerFactory entityManagerFactory, DataSource dataSource,
+                                   @Qualifier("brokerTaskExecutor") Executor brokerTaskExecutor) {
+        this.entityManagerFactory = entityManagerFactory;
+        this.dataSource = dataSource;
+        this.brokerTaskExecutor = brokerTaskExecutor;
+    }
+
+    /**
+     * Validates the schema in the background once the broker is ready.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void ready() {
+        brokerTaskExecutor.execute(this::validate);
+    }
+
+    /**
+     * Validates the schema.
+     *
+     * @return the missing tables and columns
+     */
+    public List<String> validate() {
+        long start = System.currentTimeMillis();
+        List<String> missing = new ArrayList<>();
+        Collection<ClassMetadata> entities = entityManagerFactory.unwrap(SessionFactoryImplementor.class).getAllClassMetadata().values();
+
+        try (Connection connection = dataSource.getConnection()) {
+            DatabaseMetaData metaData = connection.getMetaData();
+            for (ClassMetadata classMetadata : entities) {
+                if (!(classMetadata instanceof AbstractEntityPersister)) {
+                    continue;
+                }
+
+                AbstractEntityPersister persister = (AbstractEntityPersister) classMetadata;
+                String table = persister.getTableName();
+                Set<String> columns = columns(metaData, table);
+                if (columns.isEmpty()) {
+                    missing.add(table);
+                    continue;
+                }
+
+                List<String> mapped = new ArrayList<>(Arrays.asList(persister.getIdentifierColumnNames()));
+                for (String property : persister.getPropertyNames()) {
+                    mapped.addAll(Arrays.asList(persister.getPropertyColumnNames(property)));
+                }
+                for (String column : mapped) {
+                    if (!columns.contains(column.toLowerCase(Locale.ROOT))) {
+                        missing.add(table + "." + column);
+                    }
+                }
+            }
+        } catch (SQLException | RuntimeException e) {
+            log.error("schema :: Failed to validate schema :: {}", e.toString());
+            return missing;
+        }
+
+        if (missing.isEmpty()) {
+            log.info("schema :: {} table(s) validated in {} ms", entities.size(), System.currentTimeMillis() - start);
+        } else {
+            log.error("schema :: missing table(s) / column(s) {}", missing);
+        }
+        return missing;
+    }
+
+    private static Set<String> columns(DatabaseMetaData metaData, String table) throws SQLException {
+        Set<String> columns = columns(metaData, table, new HashSet<>());
+        // 대문자로 저장하는 DB (H2 등)
+        return columns.isEmpty() ? columns(metaData, table.toUpperCase(Locale.ROOT), columns) : columns;
+    }
+
+    private static Set<String> columns(DatabaseMetaData metaData, String table, Set<String> columns) throws SQLException {
+        try (ResultSet resultSet = metaData.getColumns(null, null, table, null)) {
+            while (resultSet.next()) {
+                columns.add(resultSet.getString("COLUMN_NAME").toLowerCase(Locale.ROOT));
+            }
+        }
+        return columns;
+    }
+}
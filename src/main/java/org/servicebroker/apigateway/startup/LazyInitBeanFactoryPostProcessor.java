@@ -0,0 +1,65 @@
+package org.servicebroker.apigateway.startup;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.Lifecycle;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.reflect.Method;
+
+/**
+ * The type Lazy init bean factory post processor. (broker.startup.lazy=true)
+ *
+ * Marks application beans lazy, so that a bean is created on first use instead of during the context refresh.
+ * Beans that have to run without being asked for stay eager : {@code @Scheduled} / {@code @EventListener} methods,
+ * application listeners, lifecycle beans, and factory beans (repositories, entity manager factory), which the eager beans need anyway.
+ */
+@Slf4j
+public class LazyInitBeanFactoryPostProcessor implements BeanFactoryPostProcessor {
+
+    @Override
+    public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory) {
+        int lazy = 0;
+        for (String beanName : beanFactory.getBeanDefinitionNames()) {
+            BeanDefinition beanDefinition = beanFactory.getBeanDefinition(beanName);
+            if (beanDefinition.getRole() != BeanDefinition.ROLE_APPLICATION || beanDefinition.isLazyInit() || beanFactory.isFactoryBean(beanName)) {
+                continue;
+            }
+
+            Class<?> type = beanFactory.getType(beanName);
+            if (type == null || isEager(type)) {
+                continue;
+            }
+
+            beanDefinition.setLazyInit(true);
+            lazy++;
+        }
+        log.info("startup :: {} bean(s) initialized lazily", lazy);
+    }
+
+    /**
+     * Whether a bean of the type has to be created with the context.
+     *
+     * @param type the bean type
+     * @return true if eager
+     */
+    static boolean isEager(Class<?> type) {
+        if (ApplicationListener.class.isAssignableFrom(type) || Lifecycle.class.isAssignableFrom(type)) {
+            return true;
+        }
+
+        for (Method method : ReflectionUtils.getUniqueDeclaredMethods(ClassUtils.getUserClass(type))) {
+            if (AnnotatedElementUtils.hasAnnotation(method, Scheduled.class) || AnnotatedElementUtils.hasAnnotation(method, EventListener.class)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,39 @@
+package org.servicebroker.apigateway.trace;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The type Logging span exporter.
+ * Child spans are logged at DEBUG, root spans at INFO with the per-kind timing breakdown, e.g.
+ * {@code trace=.. createServiceInstance 912.4ms [db 3 / 11.2ms, http 3 / 870.5ms]}.
+ */
+@Slf4j
+@Component
+public class LoggingSpanExporter implements SpanExporter {
+
+    @Override
+    public void export(Span span) {
+        if (!span.isRoot()) {
+            if (log.isDebugEnabled()) {
+                log.debug("trace={} span={} parent={} {}", span.getTraceId(), span.getSpanId(), span.getParentSpanId(), span);
+            }
+            return;
+        }
+
+        if (log.isInfoEnabled()) {
+            log.info("trace={} {} [{}]", span.getTraceId(), span, breakdown(span.getBreakdown()));
+        }
+    }
+
+    private static String breakdown(Map<String, AtomicLongArray> breakdown) {
+        StringBuilder sb = new StringBuilder();
+        breakdown.forEach((kind, counter) -> sb.append(sb.length() == 0 ? "" : ", ")
+                .append(kind).append(' ').append(counter.get(0)).append(" / ")
+                .append(String.format("%.1fms", counter.get(1) / 1_000_000.0)));
+        return sb.toString();
+    }
+}
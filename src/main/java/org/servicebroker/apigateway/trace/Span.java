@@ -0,0 +1,138 @@
+package org.servicebroker.apigateway.trace;
+
+import lombok.Getter;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The type Span. A timed step of a broker operation.
+ *
+ * The root span of a trace also collects a per-kind breakdown (count and total time) of its descendants.
+ */
+@Getter
+public class Span implements AutoCloseable {
+
+    /** The constant KIND_SERVICE. */
+    public static final String KIND_SERVICE = "service";
+    /** The constant KIND_DB. */
+    public static final String KIND_DB = "db";
+    /** The constant KIND_HTTP. */
+    public static final String KIND_HTTP = "http";
+    /** The constant KIND_BOSH. */
+    public static final String KIND_BOSH = "bosh";
+    /** The constant TRACEPARENT. (W3C trace context header) */
+    public static final String TRACEPARENT = "traceparent";
+
+    private final Tracer tracer;
+    private final Span parent;
+    private final Span root;
+    private final String traceId;
+    private final String spanId;
+    private final String name;
+    private final String kind;
+    private final long startTimeMillis;
+    private final long startNanos;
+    private final Map<String, String> tags = new LinkedHashMap<>();
+    private final Map<String, AtomicLongArray> breakdown;
+    private long durationNanos = -1;
+    private Throwable error;
+
+    Span(Tracer tracer, Span parent, String traceId, String spanId, String name, String kind) {
+        this.tracer = tracer;
+        this.parent = parent;
+        this.root = parent == null ? this : parent.root;
+        this.traceId = traceId;
+        this.spanId = spanId;
+        this.name = name;
+        this.kind = kind;
+        this.startTimeMillis = System.currentTimeMillis();
+        this.startNanos = System.nanoTime();
+        this.breakdown = parent == null ? new ConcurrentHashMap<>() : null;
+    }
+
+    /**
+     * Tag span.
+     *
+     * @param key   the key
+     * @param value the value
+     * @return the span
+     */
+    public Span tag(String key, Object value) {
+        tags.put(key, String.valueOf(value));
+        return this;
+    }
+
+    /**
+     * Error span.
+     *
+     * @param error the error
+     * @return the span
+     */
+    public Span error(Throwable error) {
+        this.error = error;
+        return this;
+    }
+
+    /**
+     * Gets parent span id.
+     *
+     * @return the parent span id, or null for a root span
+     */
+    public String getParentSpanId() {
+        return parent == null ? null : parent.spanId;
+    }
+
+    /**
+     * Is root boolean.
+     *
+     * @return the boolean
+     */
+    public boolean isRoot() {
+        return parent == null;
+    }
+
+    /**
+     * Gets duration millis.
+     *
+     * @return the duration millis
+     */
+    public double getDurationMillis() {
+        return durationNanos / 1_000_000.0;
+    }
+
+    /**
+     * W3C traceparent header value.
+     *
+     * @return the traceparent
+     */
+    public String traceparent() {
+        return "00-" + traceId + "-" + spanId + "-01";
+    }
+
+    /**
+     * Finishes the span and restores its parent as the current span.
+     */
+    @Override
+    public void close() {
+        if (durationNanos >= 0) {
+            return;
+        }
+        durationNanos = System.nanoTime() - startNanos;
+
+        if (parent != null) {
+            AtomicLongArray counter = root.breakdown.computeIfAbsent(kind, k -> new AtomicLongArray(2));
+            counter.incrementAndGet(0);
+            counter.addAndGet(1, durationNanos);
+        }
+
+        tracer.finish(this);
+    }
+
+    @Override
+    public String toString() {
+        return name + " " + String.format("%.1fms", getDurationMillis()) + (tags.isEmpty() ? "" : " " + tags) + (error == null ? "" : " error=" + error.getClass().getSimpleName());
+    }
+}
@@ -0,0 +1,14 @@
+package org.servicebroker.apigateway.trace;
+
+/**
+ * The interface Span exporter. Receives every finished span.
+ */
+public interface SpanExporter {
+
+    /**
+     * Export.
+     *
+     * @param span the finished span
+     */
+    void export(Span span);
+}
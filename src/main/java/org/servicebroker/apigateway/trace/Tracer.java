@@ -0,0 +1,111 @@
+package org.servicebroker.apigateway.trace;
+
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The type Tracer.
+ *
+ * Keeps the current span per thread; a span started while another is current becomes its child.
+ * Finished spans are handed to every {@link SpanExporter} bean. The trace id of the current trace is kept in the log MDC.
+ */
+@Slf4j
+@Component
+public class Tracer {
+
+    private static final ThreadLocal<Span> CURRENT = new ThreadLocal<>();
+    /** The constant MDC_TRACE_ID. (log field) */
+    public static final String MDC_TRACE_ID = "traceId";
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final List<SpanExporter> exporters;
+    private final boolean enabled;
+
+    /**
+     * Instantiates a new Tracer.
+     *
+     * @param exporters the exporters
+     * @param enabled   the enabled
+     */
+    @Autowired
+    public Tracer(List<SpanExporter> exporters, @Value("${broker.tracing.enabled:true}") boolean enabled) {
+        this.exporters = exporters;
+        this.enabled = enabled;
+    }
+
+    /**
+     * Is enabled boolean.
+     *
+     * @return the boolean
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Starts a span as a child of the current span (or a new trace) and makes it current.
+     * Must be closed on the same thread.
+     *
+     * @param name the name
+     * @param kind the kind
+     * @return the span
+     */
+    public Span start(String name, String kind) {
+        Span parent = CURRENT.get();
+        String traceId = parent == null ? randomId(2) : parent.getTraceId();
+        Span span = new Span(this, parent, traceId, randomId(1), name, kind);
+        CURRENT.set(span);
+        if (parent == null) {
+            MDC.put(MDC_TRACE_ID, traceId);
+        }
+        return span;
+    }
+
+    /**
+     * Gets the current span.
+     *
+     * @return the current span, or null
+     */
+    public Span current() {
+        return CURRENT.get();
+    }
+
+    void finish(Span span) {
+        if (CURRENT.get() == span) {
+            if (span.getParent() == null) {
+                CURRENT.remove();
+                MDC.remove(MDC_TRACE_ID);
+            } else {
+                CURRENT.set(span.getParent());
+            }
+        }
+
+        for (SpanExporter exporter : exporters) {
+            try {
+                exporter.export(span);
+            } catch (Exception e) {
+                log.warn("Failed to export span {} :: {}", span.getName(), e.getMessage());
+            }
+        }
+    }
+
+    private static String randomId(int longs) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        char[] id = new char[longs * 16];
+        for (int i = 0; i < longs; i++) {
+            long value = random.nextLong();
+            for (int j = 15; j >= 0; j--) {
+                id[i * 16 + j] = HEX[(int) (value & 0xf)];
+                value >>>= 4;
+            }
+        }
+        return new String(id);
+    }
+}
@@ -0,0 +1,112 @@
+package org.servicebroker.apigateway.trace;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The type Tracing aspect.
+ * Spans around the broker operations (root spans), the repository calls made within a trace and the BOSH recreate call.
+ * Repository calls without a current span (scheduled jobs, broker-worker threads) are not traced.
+ */
+@Aspect
+@Component
+public class TracingAspect {
+
+    private final Tracer tracer;
+    private final Map<Class<?>, String> repositoryNames = new ConcurrentHashMap<>();
+
+    /**
+     * Instantiates a new Tracing aspect.
+     *
+     * @param tracer the tracer
+     */
+    @Autowired
+    public TracingAspect(Tracer tracer) {
+        this.tracer = tracer;
+    }
+
+    /**
+     * Trace service instance operations.
+     *
+     * @param joinPoint the join point
+     * @return the object
+     * @throws Throwable the throwable
+     */
+    @Around("execution(* org.servicebroker.apigateway.service.impl.ApiGatewayServiceInstanceService.createServiceInstance(..))"
+            + " || execution(* org.servicebroker.apigateway.service.impl.ApiGatewayServiceInstanceService.deleteServiceInstance(..))")
+    public Object traceServiceInstance(ProceedingJoinPoint joinPoint) throws Throwable {
+        return trace(joinPoint, joinPoint.getSignature().getName(), Span.KIND_SERVICE);
+    }
+
+    /**
+     * Trace repository calls.
+     *
+     * @param joinPoint the join point
+     * @return the object
+     * @throws Throwable the throwable
+     */
+    @Around("execution(* org.springframework.data.repository.Repository+.*(..))")
+    public Object traceRepository(ProceedingJoinPoint joinPoint) throws Throwable {
+        // 상위 span 이 없는 호출 (lease heartbeat, outbox drain 등 주기 작업) 은 root span 으로 기록하지 않음
+        if (tracer.current() == null) {
+            return joinPoint.proceed();
+        }
+        return trace(joinPoint, repositoryName(joinPoint.getThis().getClass()) + "." + joinPoint.getSignature().getName(), Span.KIND_DB);
+    }
+
+    /**
+     * Trace bosh director calls.
+     *
+     * @param joinPoint the join point
+     * @return the object
+     * @throws Throwable the throwable
+     */
+    @Around("execution(* org.openpaas.bosh.director.BoshDirector.updateInstanceState(..))")
+    public Object traceBoshDirector(ProceedingJoinPoint joinPoint) throws Throwable {
+        if (!tracer.isEnabled()) {
+            return joinPoint.proceed();
+        }
+
+        Object[] args = joinPoint.getArgs();
+        try (Span span = tracer.start("BoshDirector.updateInstanceState", Span.KIND_BOSH)) {
+            span.tag("deployment", args[0]).tag("vm", args[1] + "/" + args[2]).tag("state", args[3]);
+            return proceed(joinPoint, span);
+        }
+    }
+
+    private Object trace(ProceedingJoinPoint joinPoint, String name, String kind) throws Throwable {
+        if (!tracer.isEnabled()) {
+            return joinPoint.proceed();
+        }
+
+        try (Span span = tracer.start(name, kind)) {
+            return proceed(joinPoint, span);
+        }
+    }
+
+    private static Object proceed(ProceedingJoinPoint joinPoint, Span span) throws Throwable {
+        try {
+            return joinPoint.proceed();
+        } catch (Throwable e) {
+            span.error(e);
+            throw e;
+        }
+    }
+
+    private String repositoryName(Class<?> proxyClass) {
+        return repositoryNames.computeIfAbsent(proxyClass, type -> {
+            for (Class<?> candidate : type.getInterfaces()) {
+                if (candidate.getName().startsWith("org.servicebroker.")) {
+                    return candidate.getSimpleName();
+                }
+            }
+            return type.getSimpleName();
+        });
+    }
+}
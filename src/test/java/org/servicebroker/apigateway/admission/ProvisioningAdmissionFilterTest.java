@@ -0,0 +1,109 @@
+package org.servicebroker.apigateway.admission;
+
+import org.junit.Test;
+import org.servicebroker.apigateway.service.TestConstants;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.util.StreamUtils;
+
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+
+/**
+ * The type Provisioning admission filter test.
+ */
+public class ProvisioningAdmissionFilterTest {
+
+    private static final String BODY = "{\"service_id\":\"" + TestConstants.SERVICES_ID + "\",\"organization_guid\":\"" + TestConstants.ORG_GUID + "\"}";
+
+    ProvisioningAdmission provisioningAdmission = new ProvisioningAdmission(true, 10, 0, 0, 100, 100, 1, 1, 100, () -> 0L);
+    ProvisioningAdmissionFilter provisioningAdmissionFilter = new ProvisioningAdmissionFilter(provisioningAdmission);
+
+    /**
+     * Do filter test verify rejected.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void doFilterTest_VerifyRejected() throws Exception {
+        MockHttpServletResponse admitted = filter(provision(), new MockFilterChain());
+        MockHttpServletResponse rejected = filter(provision(), new MockFilterChain());
+
+        assertThat(admitted.getStatus(), is(HttpServletResponse.SC_OK));
+        assertThat(rejected.getStatus(), is(AdmissionRejectedException.TOO_MANY_REQUESTS));
+        assertThat(rejected.getHeader("Retry-After"), is(notNullValue()));
+        assertThat(rejected.getContentAsString(), containsString("\"description\""));
+    }
+
+    /**
+     * Do filter test verify body passed on.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void doFilterTest_VerifyBodyPassedOn() throws Exception {
+        String[] body = new String[1];
+
+        filter(provision(), new MockFilterChain() {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response) {
+                try {
+                    body[0] = StreamUtils.copyToString(request.getInputStream(), StandardCharsets.UTF_8);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+
+        assertThat(body[0], is(BODY));
+        assertThat(provisioningAdmission.metrics().get("in_flight"), is(0));
+    }
+
+    /**
+     * Do filter test verify other requests not filtered.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void doFilterTest_VerifyOtherRequests() throws Exception {
+        MockHttpServletRequest binding = new MockHttpServletRequest("PUT", "/v2/service_instances/" + TestConstants.SV_INSTANCE_ID + "/service_bindings/" + TestConstants.BIND_GUID);
+        MockHttpServletRequest delete = new MockHttpServletRequest("DELETE", "/v2/service_instances/" + TestConstants.SV_INSTANCE_ID);
+
+        for (int i = 0; i < 3; i++) {
+            assertThat(filter(binding, new MockFilterChain()).getStatus(), is(HttpServletResponse.SC_OK));
+            assertThat(filter(delete, new MockFilterChain()).getStatus(), is(HttpServletResponse.SC_OK));
+        }
+        assertThat(provisioningAdmission.metrics().get("admitted"), is(0L));
+    }
+
+    /**
+     * Organization guid test.
+     */
+    @Test
+    public void organizationGuidTest() {
+        assertThat(ProvisioningAdmissionFilter.organizationGuid(BODY.getBytes(StandardCharsets.UTF_8)), is(TestConstants.ORG_GUID));
+        assertThat(ProvisioningAdmissionFilter.organizationGuid("{\"service_id\":\"x\"}".getBytes(StandardCharsets.UTF_8)), is(nullValue()));
+        assertThat(ProvisioningAdmissionFilter.organizationGuid("not json {".getBytes(StandardCharsets.UTF_8)), is(nullValue()));
+    }
+
+    private MockHttpServletRequest provision() {
+        MockHttpServletRequest request = new MockHttpServletRequest("PUT", "/v2/service_instances/" + TestConstants.SV_INSTANCE_ID);
+        request.setContentType("application/json");
+        request.setContent(BODY.getBytes(StandardCharsets.UTF_8));
+        return request;
+    }
+
+    private MockHttpServletResponse filter(MockHttpServletRequest request, MockFilterChain filterChain) throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        provisioningAdmissionFilter.doFilter(request, response, filterChain);
+        return response;
+    }
+}
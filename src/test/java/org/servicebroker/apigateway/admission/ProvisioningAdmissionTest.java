@@ -0,0 +1,170 @@
+package org.servicebroker.apigateway.admission;
+
+import org.junit.Test;
+import org.servicebroker.apigateway.service.TestConstants;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+
+/**
+ * The type Provisioning admission test.
+ */
+public class ProvisioningAdmissionTest {
+
+    AtomicLong clock = new AtomicLong();
+
+    /**
+     * Acquire test verify org rate.
+     */
+    @Test
+    public void acquireTest_VerifyOrgRate() {
+        ProvisioningAdmission provisioningAdmission = new ProvisioningAdmission(true, 10, 0, 0, 100, 100, 1, 2, 100, clock::get);
+
+        provisioningAdmission.acquire(TestConstants.ORG_GUID).close();
+        provisioningAdmission.acquire(TestConstants.ORG_GUID).close();
+
+        assertThatThrownBy(() -> provisioningAdmission.acquire(TestConstants.ORG_GUID))
+                .isInstanceOf(AdmissionRejectedException.class)
+                .hasFieldOrPropertyWithValue("status", AdmissionRejectedException.TOO_MANY_REQUESTS)
+                .hasFieldOrPropertyWithValue("retryAfterSeconds", 1L);
+
+        // 다른 org 는 영향 없음, 1초 후 token 1개 보충
+        provisioningAdmission.acquire("other-org").close();
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        provisioningAdmission.acquire(TestConstants.ORG_GUID).close();
+
+        assertThat(rejected(provisioningAdmission).get(ProvisioningAdmission.REJECTED_ORG_RATE), is(1L));
+        assertThat(provisioningAdmission.metrics().get("admitted"), is(4L));
+    }
+
+    /**
+     * Acquire test verify global rate refunds org token.
+     */
+    @Test
+    public void acquireTest_VerifyGlobalRate() {
+        ProvisioningAdmission provisioningAdmission = new ProvisioningAdmission(true, 10, 0, 0, 1, 1, 1, 1, 100, clock::get);
+
+        provisioningAdmission.acquire("other-org").close();
+
+        assertThatThrownBy(() -> provisioningAdmission.acquire(TestConstants.ORG_GUID))
+                .isInstanceOf(AdmissionRejectedException.class)
+                .hasFieldOrPropertyWithValue("reason", ProvisioningAdmission.REJECTED_GLOBAL_RATE)
+                .hasFieldOrPropertyWithValue("status", AdmissionRejectedException.TOO_MANY_REQUESTS);
+
+        // 전역 한도로 거절된 요청은 org token 을 소모하지 않음
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        provisioningAdmission.acquire(TestConstants.ORG_GUID).close();
+    }
+
+    /**
+     * Acquire test verify queue full.
+     */
+    @Test
+    public void acquireTest_VerifyQueueFull() {
+        ProvisioningAdmission provisioningAdmission = new ProvisioningAdmission(true, 1, 0, 1000, 100, 100, 100, 100, 100, clock::get);
+
+        ProvisioningAdmission.Permit permit = provisioningAdmission.acquire(TestConstants.ORG_GUID);
+
+        assertThatThrownBy(() -> provisioningAdmission.acquire("other-org"))
+                .isInstanceOf(AdmissionRejectedException.class)
+                .hasFieldOrPropertyWithValue("reason", ProvisioningAdmission.REJECTED_QUEUE_FULL)
+                .hasFieldOrPropertyWithValue("status", AdmissionRejectedException.SERVICE_UNAVAILABLE);
+        assertThat(provisioningAdmission.metrics().get("in_flight"), is(1));
+
+        // 중복 close 는 slot 을 한 번만 반환
+        permit.close();
+        permit.close();
+        assertThat(provisioningAdmission.metrics().get("in_flight"), is(0));
+        provisioningAdmission.acquire("other-org").close();
+    }
+
+    /**
+     * Acquire test verify wait timeout.
+     */
+    @Test
+    public void acquireTest_VerifyWaitTimeout() {
+        ProvisioningAdmission provisioningAdmission = new ProvisioningAdmission(true, 1, 1, 10, 100, 100, 100, 100, 100, System::nanoTime);
+
+        ProvisioningAdmission.Permit permit = provisioningAdmission.acquire(TestConstants.ORG_GUID);
+
+        assertThatThrownBy(() -> provisioningAdmission.acquire("other-org"))
+                .isInstanceOf(AdmissionRejectedException.class)
+                .hasFieldOrPropertyWithValue("reason", ProvisioningAdmission.REJECTED_WAIT_TIMEOUT);
+        assertThat(provisioningAdmission.metrics().get("waiting"), is(0));
+        permit.close();
+    }
+
+    /**
+     * Acquire test verify disabled.
+     */
+    @Test
+    public void acquireTest_VerifyDisabled() {
+        ProvisioningAdmission provisioningAdmission = new ProvisioningAdmission(false, 1, 0, 0, 1, 1, 1, 1, 100, clock::get);
+
+        provisioningAdmission.acquire(TestConstants.ORG_GUID);
+        provisioningAdmission.acquire(TestConstants.ORG_GUID);
+
+        assertThat(provisioningAdmission.metrics().get("admitted"), is(0L));
+    }
+
+    /**
+     * Acquire test verify overload. Concurrency stays at the limit and the surplus is turned away instead of queueing.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void acquireTest_VerifyOverload() throws Exception {
+        ProvisioningAdmission provisioningAdmission = new ProvisioningAdmission(true, 4, 8, 5000, 1000, 1000, 1000, 1000, 1000, System::nanoTime);
+        int requests = 64;
+        ExecutorService callers = Executors.newFixedThreadPool(requests);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(requests);
+        AtomicInteger concurrent = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+
+        for (int i = 0; i < requests; i++) {
+            String org = "org-" + i;
+            callers.execute(() -> {
+                try {
+                    start.await();
+                    try (ProvisioningAdmission.Permit ignored = provisioningAdmission.acquire(org)) {
+                        peak.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+                        Thread.sleep(50);
+                        concurrent.decrementAndGet();
+                    }
+                } catch (AdmissionRejectedException e) {
+                    rejected.incrementAndGet();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        start.countDown();
+
+        assertThat(done.await(10, TimeUnit.SECONDS), is(true));
+        callers.shutdown();
+
+        assertThat(peak.get(), is(4));
+        assertThat(rejected.get(), greaterThanOrEqualTo(requests - 4 - 8));
+        assertThat(rejected(provisioningAdmission).get(ProvisioningAdmission.REJECTED_QUEUE_FULL), is((long) rejected.get()));
+        assertThat((Long) provisioningAdmission.metrics().get("admitted"), is((long) (requests - rejected.get())));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Long> rejected(ProvisioningAdmission provisioningAdmission) {
+        return (Map<String, Long>) provisioningAdmission.metrics().get("rejected");
+    }
+}
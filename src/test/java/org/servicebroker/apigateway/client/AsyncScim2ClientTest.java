@@ -0,0 +1,150 @@
+package org.servicebroker.apigateway.client;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.servicebroker.apigateway.exception.ServiceException;
+import org.servicebroker.apigateway.service.TestConstants;
+import org.servicebroker.apigateway.trace.Span;
+import org.servicebroker.apigateway.trace.Tracer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.AsyncRestTemplate;
+
+import java.util.Base64;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.*;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.*;
+
+
+/**
+ * The type Async scim2 client test.
+ */
+public class AsyncScim2ClientTest {
+
+    private static final String BASE_URL = "https://" + TestConstants.DEDICATED_VM_IP;
+    private static final String BASIC_AUTH = "Basic " + Base64.getEncoder().encodeToString((TestConstants.ADMIN + ":" + TestConstants.ADMIN_PASSWORD).getBytes());
+    private static final String GROUPS_URL = BASE_URL + TestConstants.SCIM2_GROUPS + "?filter=displayName%20eq%20PRIMARY/admin&attributes=id&count=1";
+    private static final String GROUPS_RESPONSE = "{\"totalResults\":1,\"Resources\":[{\"id\":\"" + TestConstants.ADMIN_GROUP_GUID + "\"}]}";
+    private static final String USER_RESPONSE = "{\"id\":\"" + TestConstants.USER_GUID + "\",\"userName\":\"" + TestConstants.SERVICE_ADMIN + "\"}";
+
+    AsyncRestTemplate asyncRestTemplate;
+    MockRestServiceServer server;
+    Tracer tracer;
+    AsyncScim2Client asyncScim2Client;
+
+    /**
+     * Sets up.
+     */
+    @Before
+    public void setUp() {
+        asyncRestTemplate = new AsyncRestTemplate();
+        server = MockRestServiceServer.bindTo(asyncRestTemplate).build();
+        tracer = new Tracer(Collections.emptyList(), true);
+        asyncScim2Client = new AsyncScim2Client(asyncRestTemplate, tracer, TestConstants.ADMIN, TestConstants.ADMIN_PASSWORD, TestConstants.SERVICE_ADMIN);
+    }
+
+    /**
+     * Create service admin test verify return.
+     */
+    @Test
+    public void createServiceAdminTest_VerifyReturn() {
+        server.expect(requestTo(GROUPS_URL))
+                .andExpect(method(HttpMethod.GET))
+                .andExpect(header(HttpHeaders.AUTHORIZATION, BASIC_AUTH))
+                .andRespond(withSuccess(GROUPS_RESPONSE, MediaType.APPLICATION_JSON));
+        server.expect(requestTo(BASE_URL + TestConstants.SCIM2_USERS))
+                .andExpect(method(HttpMethod.POST))
+                .andExpect(content().string("{\"userName\":\"" + TestConstants.SERVICE_ADMIN + "\",\"password\":\"" + TestConstants.VAILD_PARAMETER_VALUE + "\"}"))
+                .andRespond(withSuccess(USER_RESPONSE, MediaType.APPLICATION_JSON));
+        server.expect(requestTo(BASE_URL + TestConstants.SCIM2_GROUPS + "/" + TestConstants.ADMIN_GROUP_GUID))
+                .andExpect(method(HttpMethod.PATCH))
+                .andRespond(withSuccess());
+
+        assertThat(asyncScim2Client.createServiceAdmin(TestConstants.DEDICATED_VM_IP, TestConstants.VAILD_PARAMETER_VALUE).join(), is(TestConstants.USER_GUID));
+        server.verify();
+    }
+
+    /**
+     * Create service admin test verify delete user when the group lookup fails.
+     */
+    @Test
+    public void createServiceAdminTest_VerifyDeleteUserOnGroupFailure() {
+        server.expect(requestTo(GROUPS_URL)).andRespond(withSuccess("{\"totalResults\":0}", MediaType.APPLICATION_JSON));
+        server.expect(method(HttpMethod.POST)).andRespond(withSuccess(USER_RESPONSE, MediaType.APPLICATION_JSON));
+        server.expect(requestTo(BASE_URL + TestConstants.SCIM2_USERS + "/" + TestConstants.USER_GUID))
+                .andExpect(method(HttpMethod.DELETE))
+                .andRespond(withNoContent());
+
+        Throwable failure = failure(asyncScim2Client.createServiceAdmin(TestConstants.DEDICATED_VM_IP, TestConstants.VAILD_PARAMETER_VALUE));
+
+        assertThat(failure, instanceOf(ServiceException.class));
+        assertThat(failure.getMessage(), containsString("Failed to retrieve Admin group data"));
+        server.verify();
+    }
+
+    /**
+     * Create service admin test verify no delete when the user creation fails.
+     */
+    @Test
+    public void createServiceAdminTest_VerifyUserFailure() {
+        server.expect(requestTo(GROUPS_URL)).andRespond(withSuccess(GROUPS_RESPONSE, MediaType.APPLICATION_JSON));
+        server.expect(method(HttpMethod.POST)).andRespond(withBadRequest());
+
+        Throwable failure = failure(asyncScim2Client.createServiceAdmin(TestConstants.DEDICATED_VM_IP, TestConstants.VAILD_PARAMETER_VALUE));
+
+        assertThat(failure.getMessage(), containsString("Failed to create service admin"));
+        server.verify();
+    }
+
+    /**
+     * Reg admin test verify delete user on failure.
+     */
+    @Test
+    public void regAdminTest_VerifyDeleteUser() {
+        server.expect(method(HttpMethod.PATCH)).andRespond(withServerError());
+        server.expect(requestTo(BASE_URL + TestConstants.SCIM2_USERS + "/" + TestConstants.USER_GUID))
+                .andExpect(method(HttpMethod.DELETE))
+                .andRespond(withNoContent());
+
+        Throwable failure = failure(asyncScim2Client.regAdmin(TestConstants.DEDICATED_VM_IP, TestConstants.ADMIN_GROUP_GUID, TestConstants.USER_GUID));
+
+        assertThat(failure, instanceOf(ServiceException.class));
+        assertThat(failure.getMessage(), containsString("Failed to register admin group"));
+        server.verify();
+    }
+
+    /**
+     * Exists service admin test verify return, with the caller's trace context propagated.
+     */
+    @Test
+    public void existsServiceAdminTest_VerifyReturn() {
+        server.expect(requestTo(BASE_URL + TestConstants.SCIM2_USERS + "?filter=userName%20eq%20" + TestConstants.SERVICE_ADMIN + "&attributes=id"))
+                .andExpect(header(Span.TRACEPARENT, startsWith("00-")))
+                .andRespond(withSuccess("{\"totalResults\":0}", MediaType.APPLICATION_JSON));
+
+        try (Span ignored = tracer.start("sweep", Span.KIND_SERVICE)) {
+            assertThat(asyncScim2Client.existsServiceAdmin(TestConstants.DEDICATED_VM_IP).join(), is(false));
+        }
+        server.verify();
+    }
+
+    private static Throwable failure(CompletableFuture<?> future) {
+        try {
+            future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e;
+            while (cause instanceof CompletionException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            return cause;
+        }
+        throw new AssertionError("expected a failure");
+    }
+}
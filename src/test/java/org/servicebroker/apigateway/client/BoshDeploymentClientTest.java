@@ -0,0 +1,193 @@
+package org.servicebroker.apigateway.client;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.servicebroker.apigateway.exception.ServiceException;
+import org.servicebroker.apigateway.service.TestConstants;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.client.ExpectedCount;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestTemplate;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.*;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.*;
+
+
+/**
+ * The type Bosh deployment client test.
+ */
+public class BoshDeploymentClientTest {
+
+    private static final String BOSH_URL = "https://10.0.0.6:25555";
+    private static final String OAUTH_URL = "https://10.0.0.6:8443";
+    private static final String TOKEN = "{\"access_token\":\"test_token\",\"token_type\":\"bearer\",\"expires_in\":3600}";
+
+    RestTemplate restTemplate;
+    MockRestServiceServer server;
+    BoshDeploymentClient boshDeploymentClient;
+
+    /**
+     * Sets up.
+     *
+     * @throws Exception the exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        restTemplate = new RestTemplate();
+        server = MockRestServiceServer.bindTo(restTemplate).build();
+        boshDeploymentClient = new BoshDeploymentClient(restTemplate, "test_client", "test_secret", BOSH_URL, OAUTH_URL, 0);
+    }
+
+    /**
+     * Gets manifest test verify token reused.
+     *
+     * @throws ServiceException the service exception
+     */
+    @Test
+    public void getManifestTest_VerifyTokenReused() throws ServiceException {
+        server.expect(ExpectedCount.once(), requestTo(OAUTH_URL + "/oauth/token"))
+                .andExpect(method(HttpMethod.POST))
+                .andExpect(content().string("grant_type=client_credentials"))
+                .andRespond(withSuccess(TOKEN, MediaType.APPLICATION_JSON));
+        server.expect(ExpectedCount.times(2), requestTo(BOSH_URL + "/deployments/" + TestConstants.DEPLOYMENT_NAME))
+                .andExpect(method(HttpMethod.GET))
+                .andExpect(header(HttpHeaders.AUTHORIZATION, "Bearer test_token"))
+                .andRespond(withSuccess("{\"manifest\":\"name: " + TestConstants.DEPLOYMENT_NAME + "\\n\"}", MediaType.APPLICATION_JSON));
+
+        assertThat(boshDeploymentClient.getManifest(TestConstants.DEPLOYMENT_NAME), is("name: " + TestConstants.DEPLOYMENT_NAME + "\n"));
+        boshDeploymentClient.getManifest(TestConstants.DEPLOYMENT_NAME);
+        server.verify();
+    }
+
+    /**
+     * Deploy test verify task id.
+     *
+     * @throws ServiceException the service exception
+     */
+    @Test
+    public void deployTest_VerifyTaskId() throws ServiceException {
+        server.expect(requestTo(OAUTH_URL + "/oauth/token")).andRespond(withSuccess(TOKEN, MediaType.APPLICATION_JSON));
+        server.expect(requestTo(BOSH_URL + "/deployments"))
+                .andExpect(method(HttpMethod.POST))
+                .andExpect(header(HttpHeaders.CONTENT_TYPE, containsString("text/yaml")))
+                .andRespond(withStatus(HttpStatus.FOUND).location(URI.create(BOSH_URL + "/tasks/42")));
+
+        assertThat(boshDeploymentClient.deploy("name: " + TestConstants.DEPLOYMENT_NAME + "\n"), is(42L));
+        server.verify();
+    }
+
+    /**
+     * Wait for task test verify error.
+     */
+    @Test
+    public void waitForTaskTest_VerifyError() {
+        server.expect(requestTo(OAUTH_URL + "/oauth/token")).andRespond(withSuccess(TOKEN, MediaType.APPLICATION_JSON));
+        server.expect(requestTo(BOSH_URL + "/tasks/42")).andRespond(withSuccess("{\"id\":42,\"state\":\"processing\"}", MediaType.APPLICATION_JSON));
+        server.expect(requestTo(BOSH_URL + "/tasks/42")).andRespond(withSuccess("{\"id\":42,\"state\":\"error\",\"result\":\"quota exceeded\"}", MediaType.APPLICATION_JSON));
+
+        assertThatThrownBy(() -> boshDeploymentClient.waitForTask(42, 10000))
+                .isInstanceOf(ServiceException.class).hasMessageContaining("quota exceeded");
+        server.verify();
+    }
+
+    /**
+     * Wait for task test verify stopped :: 호출자가 대기를 중단하면 조회 없이 종료
+     */
+    @Test
+    public void waitForTaskTest_VerifyStopped() {
+        server.expect(requestTo(OAUTH_URL + "/oauth/token")).andRespond(withSuccess(TOKEN, MediaType.APPLICATION_JSON));
+        server.expect(ExpectedCount.once(), requestTo(BOSH_URL + "/tasks/42")).andRespond(withSuccess("{\"id\":42,\"state\":\"processing\"}", MediaType.APPLICATION_JSON));
+        Iterator<Boolean> keepWaiting = Arrays.asList(true, false).iterator();
+
+        assertThatThrownBy(() -> boshDeploymentClient.waitForTask(42, 10000, keepWaiting::next))
+                .isInstanceOf(ServiceException.class).hasMessageContaining("Stopped waiting for BOSH task 42");
+        server.verify();
+    }
+
+    /**
+     * Gets running tasks test verify return.
+     *
+     * @throws ServiceException the service exception
+     */
+    @Test
+    public void getRunningTasksTest_VerifyReturn() throws ServiceException {
+        server.expect(requestTo(OAUTH_URL + "/oauth/token")).andRespond(withSuccess(TOKEN, MediaType.APPLICATION_JSON));
+        server.expect(requestTo(BOSH_URL + "/tasks?state=queued,processing,cancelling&deployment=" + TestConstants.DEPLOYMENT_NAME))
+                .andExpect(method(HttpMethod.GET))
+                .andRespond(withSuccess("[{\"id\":43,\"state\":\"queued\"},{\"id\":42,\"state\":\"processing\"}]", MediaType.APPLICATION_JSON));
+
+        assertThat(boshDeploymentClient.getRunningTasks(TestConstants.DEPLOYMENT_NAME), is(Arrays.asList(43L, 42L)));
+        server.verify();
+    }
+
+    /**
+     * Gets vms test verify return.
+     *
+     * @throws ServiceException the service exception
+     */
+    @Test
+    public void getVmsTest_VerifyReturn() throws ServiceException {
+        server.expect(requestTo(OAUTH_URL + "/oauth/token")).andRespond(withSuccess(TOKEN, MediaType.APPLICATION_JSON));
+        server.expect(requestTo(BOSH_URL + "/deployments/" + TestConstants.DEPLOYMENT_NAME + "/vms"))
+                .andRespond(withSuccess("[{\"agent_id\":\"a\",\"cid\":\"c\",\"job\":\"apigateway\",\"index\":1,\"id\":\"" + TestConstants.DEDICATED_VM_ID
+                        + "\",\"az\":\"z1\",\"ips\":[\"" + TestConstants.DEDICATED_VM_IP + "\"]}]", MediaType.APPLICATION_JSON));
+
+        List<BoshVm> vms = boshDeploymentClient.getVms(TestConstants.DEPLOYMENT_NAME);
+
+        assertThat(vms.size(), is(1));
+        assertThat(vms.get(0).getIp(), is(TestConstants.DEDICATED_VM_IP));
+        assertThat(vms.get(0).getIndex(), is(1));
+        assertThat(vms.get(0).getAz(), is("z1"));
+    }
+
+    /**
+     * Gets vms test verify unauthorized.
+     */
+    @Test
+    public void getVmsTest_VerifyUnauthorized() {
+        server.expect(requestTo(OAUTH_URL + "/oauth/token")).andRespond(withSuccess(TOKEN, MediaType.APPLICATION_JSON));
+        server.expect(requestTo(BOSH_URL + "/deployments/" + TestConstants.DEPLOYMENT_NAME + "/vms")).andRespond(withUnauthorizedRequest());
+
+        assertThatThrownBy(() -> boshDeploymentClient.getVms(TestConstants.DEPLOYMENT_NAME))
+                .isInstanceOf(ServiceException.class).hasMessageContaining("Failed to retrieve BOSH VMs");
+        server.verify();
+    }
+
+    /**
+     * Manifest test verify instances.
+     *
+     * @throws ServiceException the service exception
+     */
+    @Test
+    public void manifestTest_VerifyInstances() throws ServiceException {
+        String yaml = "name: test\ninstance_groups:\n- name: apigateway\n  instances: 2\n  jobs:\n  - name: wso2\n    release: wso2\n";
+
+        BoshManifest manifest = BoshManifest.parse(yaml).withInstances("apigateway", 5);
+
+        assertThat(BoshManifest.parse(manifest.toYaml()).getInstances("apigateway"), is(5));
+        assertThat(manifest.toYaml(), containsString("release: wso2"));
+        assertThatThrownBy(() -> manifest.getInstances("unknown")).isInstanceOf(ServiceException.class);
+    }
+
+    /**
+     * Manifest test verify java tags rejected.
+     */
+    @Test
+    public void manifestTest_VerifyJavaTagsRejected() {
+        String yaml = "name: test\nproperties: !!java.io.File [\"/tmp\"]\n";
+
+        assertThatThrownBy(() -> BoshManifest.parse(yaml)).isInstanceOf(ServiceException.class).hasMessageContaining("Invalid BOSH deployment manifest");
+    }
+}
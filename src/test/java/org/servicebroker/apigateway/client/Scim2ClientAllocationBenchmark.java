@@ -0,0 +1,204 @@
+package org.servicebroker.apigateway.client;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.servicebroker.apigateway.config.ApiGatewayBroker;
+import org.servicebroker.apigateway.service.TestConstants;
+import org.servicebroker.apigateway.trace.Tracer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.*;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+import org.springframework.mock.http.client.MockClientHttpResponse;
+import org.springframework.web.client.RestTemplate;
+
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+
+/**
+ * The type Scim2 client allocation benchmark.
+ * Bytes allocated per provision (group search + user create + admin group patch), previous inline implementation vs {@link Scim2Client}.
+ * The production rest template is used with its transport replaced by canned in-memory responses, so only the broker side is measured.
+ *
+ * Run with : ./gradlew benchmark
+ */
+public class Scim2ClientAllocationBenchmark {
+
+    private static final Logger log = LoggerFactory.getLogger(Scim2ClientAllocationBenchmark.class);
+
+    private static final int WARMUP = 5000;
+    private static final int ITERATIONS = 20000;
+    private static final int GROUP_MEMBERS = 200;
+
+    RestTemplate restTemplate;
+    Scim2Client scim2Client;
+    LegacyScim2 legacyScim2;
+
+    /**
+     * Sets up.
+     *
+     * @throws Exception the exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        assumeTrue("run with -Dbenchmark=true", Boolean.getBoolean("benchmark"));
+
+        restTemplate = new ApiGatewayBroker().restTemplate(200, 10);
+        restTemplate.setRequestFactory(cannedResponses());
+        scim2Client = new Scim2Client(restTemplate, new Tracer(Collections.emptyList(), true), TestConstants.ADMIN, TestConstants.ADMIN_PASSWORD, TestConstants.SERVICE_ADMIN);
+        legacyScim2 = new LegacyScim2(restTemplate);
+    }
+
+    /**
+     * Allocation per provision.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void allocationPerProvision() throws Exception {
+        Runnable legacy = () -> {
+            String groupId = legacyScim2.getGroups(TestConstants.DEDICATED_VM_IP);
+            String userId = legacyScim2.createUser(TestConstants.DEDICATED_VM_IP, TestConstants.VAILD_PARAMETER_VALUE);
+            legacyScim2.regAdmin(TestConstants.DEDICATED_VM_IP, groupId, userId);
+        };
+        Runnable client = () -> {
+            try {
+                String groupId = scim2Client.getGroups(TestConstants.DEDICATED_VM_IP);
+                String userId = scim2Client.createUser(TestConstants.DEDICATED_VM_IP, TestConstants.VAILD_PARAMETER_VALUE);
+                scim2Client.regAdmin(TestConstants.DEDICATED_VM_IP, groupId, userId);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        };
+
+        long legacyBytes = allocatedPerIteration(legacy);
+        long clientBytes = allocatedPerIteration(client);
+
+        log.info("SCIM2 bytes allocated per provision :: legacy {} / Scim2Client {} ({}%)",
+                legacyBytes, clientBytes, String.format("%.1f", 100.0 * clientBytes / legacyBytes));
+        assertThat(clientBytes, lessThan(legacyBytes));
+    }
+
+    private static long allocatedPerIteration(Runnable provision) {
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        for (int i = 0; i < WARMUP; i++) {
+            provision.run();
+        }
+
+        long before = threadMXBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < ITERATIONS; i++) {
+            provision.run();
+        }
+        return (threadMXBean.getThreadAllocatedBytes(threadId) - before) / ITERATIONS;
+    }
+
+    /**
+     * SCIM2 API stub. The group search returns the full admin group unless only the id is requested.
+     */
+    private static ClientHttpRequestFactory cannedResponses() {
+        byte[] group = ("{\"totalResults\":1,\"Resources\":[{\"id\":\"" + TestConstants.ADMIN_GROUP_GUID + "\"}]}").getBytes(StandardCharsets.UTF_8);
+        byte[] user = ("{\"id\":\"" + TestConstants.USER_GUID + "\",\"userName\":\"" + TestConstants.SERVICE_ADMIN + "\"}").getBytes(StandardCharsets.UTF_8);
+
+        StringBuilder members = new StringBuilder();
+        for (int i = 0; i < GROUP_MEMBERS; i++) {
+            members.append(i == 0 ? "" : ",").append("{\"display\":\"user").append(i).append("\",\"value\":\"").append(java.util.UUID.randomUUID()).append("\"}");
+        }
+        byte[] fullGroup = ("{\"totalResults\":1,\"Resources\":[{\"id\":\"" + TestConstants.ADMIN_GROUP_GUID
+                + "\",\"displayName\":\"PRIMARY/admin\",\"members\":[" + members + "]}]}").getBytes(StandardCharsets.UTF_8);
+
+        return (URI uri, HttpMethod method) -> {
+            byte[] body = method == HttpMethod.POST ? user
+                    : method == HttpMethod.PATCH ? new byte[0]
+                    : uri.getRawQuery().contains("attributes=id") ? group : fullGroup;
+
+            MockClientHttpResponse response = new MockClientHttpResponse(body, HttpStatus.OK);
+            response.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+            MockClientHttpRequest request = new MockClientHttpRequest(method, uri);
+            request.setResponse(response);
+            return request;
+        };
+    }
+
+    /**
+     * Previous inline implementation of ApiGatewayCommonService (baseline).
+     */
+    private static class LegacyScim2 {
+
+        private final RestTemplate restTemplate;
+
+        LegacyScim2(RestTemplate restTemplate) {
+            this.restTemplate = restTemplate;
+        }
+
+        String getGroups(String url) {
+            String reqUrl = "https://" + url + TestConstants.SCIM2_GROUPS + "?filter=displayName+eq+PRIMARY/admin";
+            try {
+                ResponseEntity<Map> response = restTemplate.exchange(URLDecoder.decode(reqUrl, "UTF-8"), HttpMethod.GET, restCommonHeaders(null), Map.class);
+                List<Map> resources = (List<Map>) response.getBody().get("Resources");
+                return (String) resources.get(0).get("id");
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        String createUser(String url, String password) {
+            Gson gson = new Gson();
+            JsonObject user = new JsonObject();
+            user.addProperty("userName", TestConstants.SERVICE_ADMIN);
+            user.addProperty("password", password);
+
+            Map response = restTemplate.exchange("https://" + url + TestConstants.SCIM2_USERS, HttpMethod.POST, restCommonHeaders(gson.toJson(user)), Map.class).getBody();
+            return (String) response.get("id");
+        }
+
+        void regAdmin(String url, String groupId, String userId) {
+            Gson gson = new Gson();
+            JsonObject operations = new JsonObject();
+            JsonObject members = new JsonObject();
+            JsonArray jsonArray = new JsonArray();
+            JsonObject jsonObject = new JsonObject();
+
+            jsonObject.addProperty("display", TestConstants.SERVICE_ADMIN);
+            jsonObject.addProperty("value", userId);
+            jsonArray.add(jsonObject);
+            members.add("members", jsonArray);
+
+            jsonObject = new JsonObject();
+            jsonObject.addProperty("op", "add");
+            jsonObject.add("value", members);
+            jsonArray = new JsonArray();
+            jsonArray.add(jsonObject);
+            operations.add("Operations", jsonArray);
+
+            restTemplate.exchange("https://" + url + TestConstants.SCIM2_GROUPS + "/" + groupId, HttpMethod.PATCH, restCommonHeaders(gson.toJson(operations)), String.class);
+        }
+
+        private HttpEntity<Object> restCommonHeaders(Object param) {
+            String basicAuth = "Basic " + (Base64.getEncoder().encodeToString((TestConstants.ADMIN + ":" + TestConstants.ADMIN_PASSWORD).getBytes()));
+            HttpHeaders headers = new HttpHeaders();
+            headers.set("Authorization", basicAuth);
+            headers.setContentType(MediaType.APPLICATION_JSON);
+            headers.setAccept(Arrays.asList(MediaType.APPLICATION_JSON));
+
+            return param == null ? new HttpEntity<>(headers) : new HttpEntity<>(param, headers);
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package org.servicebroker.apigateway.client;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.servicebroker.apigateway.config.VirtualThreads;
+import org.servicebroker.apigateway.service.TestConstants;
+import org.servicebroker.apigateway.trace.Tracer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.client.AsyncClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsAsyncClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.web.client.AsyncRestTemplate;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.*;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+
+/**
+ * The type Scim2 client load benchmark.
+ * Provisions (group search + user create + admin group patch) per second, blocking {@link Scim2Client} on a fixed
+ * request thread pool vs non-blocking {@link AsyncScim2Client} driven by a single thread,
+ * and on JDK 21+ the blocking client on a virtual thread per request.
+ * The SCIM2 API is a local stub server that answers every call after {@link #LATENCY_MS}, without holding a thread.
+ *
+ * Run with : ./gradlew benchmark (virtual threads : ./gradlew benchmark -PruntimeJavaHome=/path/to/jdk-21)
+ */
+public class Scim2ClientLoadBenchmark {
+
+    private static final Logger log = LoggerFactory.getLogger(Scim2ClientLoadBenchmark.class);
+
+    private static final int LATENCY_MS = 20;
+    private static final int PROVISIONS = 2000;
+    private static final int REQUEST_THREADS = 50;
+    private static final int MAX_IN_FLIGHT = 500;
+
+    HttpServer server;
+    ScheduledExecutorService responder;
+    URI stub;
+    HttpComponentsClientHttpRequestFactory requestFactory;
+    HttpComponentsAsyncClientHttpRequestFactory asyncRequestFactory;
+
+    /**
+     * Sets up.
+     *
+     * @throws Exception the exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        assumeTrue("run with -Dbenchmark=true", Boolean.getBoolean("benchmark"));
+
+        // 기본값 (200) 을 넘는 idle connection 은 stub server 가 닫음 : pool 에서 재사용 시 Connection closed
+        System.setProperty("sun.net.httpserver.maxIdleConnections", String.valueOf(MAX_IN_FLIGHT * 2));
+        responder = Executors.newScheduledThreadPool(4);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        server.createContext("/scim2", this::handle);
+        server.setExecutor(Executors.newFixedThreadPool(4));
+        server.start();
+        stub = URI.create("http://127.0.0.1:" + server.getAddress().getPort());
+
+        requestFactory = new HttpComponentsClientHttpRequestFactory(HttpClients.custom().setMaxConnTotal(MAX_IN_FLIGHT).setMaxConnPerRoute(MAX_IN_FLIGHT).build());
+        asyncRequestFactory = new HttpComponentsAsyncClientHttpRequestFactory(HttpAsyncClients.custom().setMaxConnTotal(MAX_IN_FLIGHT).setMaxConnPerRoute(MAX_IN_FLIGHT).build());
+    }
+
+    /**
+     * Tear down.
+     *
+     * @throws Exception the exception
+     */
+    @After
+    public void tearDown() throws Exception {
+        if (server == null) {
+            return;
+        }
+        requestFactory.destroy();
+        asyncRequestFactory.destroy();
+        server.stop(0);
+        ((ExecutorService) server.getExecutor()).shutdownNow();
+        responder.shutdownNow();
+    }
+
+    /**
+     * Provisions per second.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void provisionsPerSecond() throws Exception {
+        ClientHttpRequestFactory local = (uri, method) -> requestFactory.createRequest(local(uri), method);
+        AsyncClientHttpRequestFactory asyncLocal = (uri, method) -> asyncRequestFactory.createAsyncRequest(local(uri), method);
+
+        Scim2Client scim2Client = new Scim2Client(new RestTemplate(local), new Tracer(Collections.emptyList(), true), TestConstants.ADMIN, TestConstants.ADMIN_PASSWORD, TestConstants.SERVICE_ADMIN);
+        AsyncScim2Client asyncScim2Client = new AsyncScim2Client(new AsyncRestTemplate(asyncLocal, local), new Tracer(Collections.emptyList(), false),
+                TestConstants.ADMIN, TestConstants.ADMIN_PASSWORD, TestConstants.SERVICE_ADMIN);
+
+        ExecutorService requestThreads = Executors.newFixedThreadPool(REQUEST_THREADS);
+
+        // warm up
+        nonBlocking(asyncScim2Client, PROVISIONS / 4);
+        blocking(scim2Client, PROVISIONS / 4, requestThreads);
+
+        Result nonBlocking = nonBlocking(asyncScim2Client, PROVISIONS);
+        Result blocking = blocking(scim2Client, PROVISIONS, requestThreads);
+        requestThreads.shutdown();
+        requestThreads.awaitTermination(10, TimeUnit.SECONDS);
+
+        log.info("SCIM2 provisions ({}, stub latency {} ms) :: blocking ({} request threads) {}/s p50 {} ms p99 {} ms, peak {} threads"
+                        + " / non-blocking ({} in flight) {}/s p50 {} ms p99 {} ms, peak {} threads",
+                PROVISIONS, LATENCY_MS, REQUEST_THREADS,
+                Math.round(blocking.perSecond), blocking.p50, blocking.p99, blocking.threads,
+                MAX_IN_FLIGHT, Math.round(nonBlocking.perSecond), nonBlocking.p50, nonBlocking.p99, nonBlocking.threads);
+        assertThat(nonBlocking.perSecond, greaterThan(blocking.perSecond));
+
+        // JDK 21+ : 같은 blocking client 를 요청마다 virtual thread 에서 실행 (broker.threads.virtual)
+        if (VirtualThreads.available()) {
+            ThreadFactory virtualThreads = VirtualThreads.factory("request-vt-");
+            Executor threadPerRequest = task -> virtualThreads.newThread(task).start();
+
+            blocking(scim2Client, PROVISIONS / 4, threadPerRequest);
+            Result virtual = blocking(scim2Client, PROVISIONS, threadPerRequest);
+
+            log.info("SCIM2 provisions ({}, stub latency {} ms) :: blocking on virtual threads ({} in flight) {}/s p50 {} ms p99 {} ms, peak {} platform threads",
+                    PROVISIONS, LATENCY_MS, MAX_IN_FLIGHT, Math.round(virtual.perSecond), virtual.p50, virtual.p99, virtual.threads);
+            assertThat(virtual.perSecond, greaterThan(blocking.perSecond));
+        }
+    }
+
+    /**
+     * Every provision holds its request thread for the three sequential calls, up to {@link #MAX_IN_FLIGHT} at a time.
+     */
+    private static Result blocking(Scim2Client scim2Client, int provisions, Executor requestThreads) throws Exception {
+        Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+        long[] latencies = new long[provisions];
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        threadMXBean.resetPeakThreadCount();
+
+        long start = System.nanoTime();
+        CompletableFuture<?>[] done = new CompletableFuture<?>[provisions];
+        for (int i = 0; i < provisions; i++) {
+            int n = i;
+            inFlight.acquire();
+            long begin = System.nanoTime();
+            done[i] = CompletableFuture.runAsync(() -> {
+                try {
+                    String groupId = scim2Client.getGroups(TestConstants.DEDICATED_VM_IP);
+                    String userId = scim2Client.createUser(TestConstants.DEDICATED_VM_IP, TestConstants.VAILD_PARAMETER_VALUE);
+                    scim2Client.regAdmin(TestConstants.DEDICATED_VM_IP, groupId, userId);
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                } finally {
+                    latencies[n] = System.nanoTime() - begin;
+                    inFlight.release();
+                }
+            }, requestThreads);
+        }
+        CompletableFuture.allOf(done).join();
+        long elapsed = System.nanoTime() - start;
+
+        return new Result(provisions, elapsed, latencies, threadMXBean.getPeakThreadCount());
+    }
+
+    /**
+     * One thread starts the provisions, up to {@link #MAX_IN_FLIGHT} at a time; no thread waits on a call.
+     */
+    private static Result nonBlocking(AsyncScim2Client asyncScim2Client, int provisions) throws Exception {
+        Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+        long[] latencies = new long[provisions];
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        threadMXBean.resetPeakThreadCount();
+
+        long start = System.nanoTime();
+        CompletableFuture<?>[] done = new CompletableFuture<?>[provisions];
+        for (int i = 0; i < provisions; i++) {
+            int n = i;
+            inFlight.acquire();
+            long begin = System.nanoTime();
+            done[i] = asyncScim2Client.createServiceAdmin(TestConstants.DEDICATED_VM_IP, TestConstants.VAILD_PARAMETER_VALUE)
+                    .whenComplete((userId, e) -> {
+                        latencies[n] = System.nanoTime() - begin;
+                        inFlight.release();
+                    });
+        }
+        CompletableFuture.allOf(done).join();
+        long elapsed = System.nanoTime() - start;
+
+        return new Result(provisions, elapsed, latencies, threadMXBean.getPeakThreadCount());
+    }
+
+    private URI local(URI uri) {
+        return URI.create(stub + uri.getRawPath() + (uri.getRawQuery() == null ? "" : "?" + uri.getRawQuery()));
+    }
+
+    /**
+     * SCIM2 API stub. The response is sent from a timer after the latency, the server threads are not held.
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] buffer = new byte[1024];
+            while (in.read(buffer) >= 0) {
+                // drain
+            }
+        }
+
+        String method = exchange.getRequestMethod();
+        byte[] body = ("GET".equals(method) ? "{\"totalResults\":1,\"Resources\":[{\"id\":\"" + TestConstants.ADMIN_GROUP_GUID + "\"}]}"
+                : "POST".equals(method) ? "{\"id\":\"" + TestConstants.USER_GUID + "\"}"
+                : "{}").getBytes(StandardCharsets.UTF_8);
+
+        responder.schedule(() -> {
+            try {
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders("POST".equals(method) ? 201 : 200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            } catch (IOException e) {
+                exchange.close();
+            }
+        }, LATENCY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private static class Result {
+
+        final double perSecond;
+        final long p50;
+        final long p99;
+        final int threads;
+
+        Result(int provisions, long elapsedNanos, long[] latencies, int threads) {
+            long[] sorted = latencies.clone();
+            Arrays.sort(sorted);
+            this.perSecond = provisions * 1_000_000_000.0 / elapsedNanos;
+            this.p50 = TimeUnit.NANOSECONDS.toMillis(sorted[sorted.length / 2]);
+            this.p99 = TimeUnit.NANOSECONDS.toMillis(sorted[sorted.length * 99 / 100]);
+            this.threads = threads;
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package org.servicebroker.apigateway.client;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.servicebroker.apigateway.exception.ServiceException;
+import org.servicebroker.apigateway.service.TestConstants;
+import org.servicebroker.apigateway.trace.InMemorySpanExporter;
+import org.servicebroker.apigateway.trace.Span;
+import org.servicebroker.apigateway.trace.Tracer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.Base64;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.*;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.*;
+
+
+/**
+ * The type Scim2 client test.
+ */
+public class Scim2ClientTest {
+
+    private static final String BASE_URL = "https://" + TestConstants.DEDICATED_VM_IP;
+    private static final String BASIC_AUTH = "Basic " + Base64.getEncoder().encodeToString((TestConstants.ADMIN + ":" + TestConstants.ADMIN_PASSWORD).getBytes());
+
+    RestTemplate restTemplate;
+    MockRestServiceServer server;
+    InMemorySpanExporter exporter;
+    Tracer tracer;
+    Scim2Client scim2Client;
+
+    /**
+     * Sets up.
+     *
+     * @throws Exception the exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        restTemplate = new RestTemplate();
+        server = MockRestServiceServer.bindTo(restTemplate).build();
+        exporter = new InMemorySpanExporter();
+        tracer = new Tracer(Collections.singletonList(exporter), true);
+        scim2Client = new Scim2Client(restTemplate, tracer, TestConstants.ADMIN, TestConstants.ADMIN_PASSWORD, TestConstants.SERVICE_ADMIN);
+    }
+
+    /**
+     * Gets groups test verify return.
+     *
+     * @throws ServiceException the service exception
+     */
+    @Test
+    public void getGroupsTest_VerifyReturn() throws ServiceException {
+        server.expect(requestTo(BASE_URL + TestConstants.SCIM2_GROUPS + "?filter=displayName%20eq%20PRIMARY/admin&attributes=id&count=1"))
+                .andExpect(method(HttpMethod.GET))
+                .andExpect(header(HttpHeaders.AUTHORIZATION, BASIC_AUTH))
+                .andRespond(withSuccess("{\"totalResults\":1,\"schemas\":[\"urn:ietf:params:scim:api:messages:2.0:ListResponse\"],"
+                        + "\"Resources\":[{\"id\":\"" + TestConstants.ADMIN_GROUP_GUID + "\",\"meta\":{\"resourceType\":\"Group\"}}]}", MediaType.APPLICATION_JSON));
+
+        assertThat(scim2Client.getGroups(TestConstants.DEDICATED_VM_IP), is(TestConstants.ADMIN_GROUP_GUID));
+        server.verify();
+    }
+
+    /**
+     * Gets groups test verify exception.
+     */
+    @Test
+    public void getGroupsTest_VerifyException() {
+        server.expect(method(HttpMethod.GET)).andRespond(withServerError());
+
+        assertThatThrownBy(() -> scim2Client.getGroups(TestConstants.DEDICATED_VM_IP))
+                .isInstanceOf(ServiceException.class).hasMessageContaining("Failed to retrieve Admin group data");
+    }
+
+    /**
+     * Gets groups test verify empty resources.
+     */
+    @Test
+    public void getGroupsTest_VerifyEmptyResources() {
+        server.expect(method(HttpMethod.GET)).andRespond(withSuccess("{\"totalResults\":0}", MediaType.APPLICATION_JSON));
+
+        assertThatThrownBy(() -> scim2Client.getGroups(TestConstants.DEDICATED_VM_IP))
+                .isInstanceOf(ServiceException.class).hasMessageContaining("Failed to retrieve Admin group data");
+    }
+
+    /**
+     * Create user test verify return.
+     *
+     * @throws ServiceException the service exception
+     */
+    @Test
+    public void createUserTest_VerifyReturn() throws ServiceException {
+        server.expect(requestTo(BASE_URL + TestConstants.SCIM2_USERS))
+                .andExpect(method(HttpMethod.POST))
+                .andExpect(header(HttpHeaders.AUTHORIZATION, BASIC_AUTH))
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(content().string("{\"userName\":\"" + TestConstants.SERVICE_ADMIN + "\",\"password\":\"" + TestConstants.VAILD_PARAMETER_VALUE + "\"}"))
+                .andRespond(withSuccess("{\"id\":\"" + TestConstants.USER_GUID + "\",\"userName\":\"" + TestConstants.SERVICE_ADMIN + "\",\"emails\":[]}", MediaType.APPLICATION_JSON));
+
+        assertThat(scim2Client.createUser(TestConstants.DEDICATED_VM_IP, TestConstants.VAILD_PARAMETER_VALUE), is(TestConstants.USER_GUID));
+        server.verify();
+    }
+
+    /**
+     * Create user test verify exception.
+     */
+    @Test
+    public void createUserTest_VerifyException() {
+        server.expect(method(HttpMethod.POST)).andRespond(withBadRequest());
+
+        assertThatThrownBy(() -> scim2Client.createUser(TestConstants.DEDICATED_VM_IP, TestConstants.VAILD_PARAMETER_VALUE))
+                .isInstanceOf(ServiceException.class).hasMessageContaining("Failed to create service admin");
+    }
+
+    /**
+     * Reg admin test verify return.
+     *
+     * @throws ServiceException the service exception
+     */
+    @Test
+    public void regAdminTest_VerifyReturn() throws ServiceException {
+        server.expect(requestTo(BASE_URL + TestConstants.SCIM2_GROUPS + "/" + TestConstants.ADMIN_GROUP_GUID))
+                .andExpect(method(HttpMethod.PATCH))
+                .andExpect(content().string("{\"Operations\":[{\"op\":\"add\",\"value\":{\"members\":[{\"display\":\"" + TestConstants.SERVICE_ADMIN
+                        + "\",\"value\":\"" + TestConstants.USER_GUID + "\"}]}}]}"))
+                .andRespond(withSuccess());
+
+        scim2Client.regAdmin(TestConstants.DEDICATED_VM_IP, TestConstants.ADMIN_GROUP_GUID, TestConstants.USER_GUID);
+        server.verify();
+    }
+
+    /**
+     * Reg admin test verify delete user on failure.
+     */
+    @Test
+    public void regAdminTest_VerifyDeleteUser() {
+        server.expect(method(HttpMethod.PATCH)).andRespond(withServerError());
+        server.expect(requestTo(BASE_URL + TestConstants.SCIM2_USERS + "/" + TestConstants.USER_GUID))
+                .andExpect(method(HttpMethod.DELETE))
+                .andRespond(withNoContent());
+
+        assertThatThrownBy(() -> scim2Client.regAdmin(TestConstants.DEDICATED_VM_IP, TestConstants.ADMIN_GROUP_GUID, TestConstants.USER_GUID))
+                .isInstanceOf(ServiceException.class).hasMessageContaining("Failed to register admin group");
+        server.verify();
+    }
+
+    /**
+     * Exists service admin test verify return.
+     *
+     * @throws ServiceException the service exception
+     */
+    @Test
+    public void existsServiceAdminTest_VerifyReturn() throws ServiceException {
+        server.expect(requestTo(BASE_URL + TestConstants.SCIM2_USERS + "?filter=userName%20eq%20" + TestConstants.SERVICE_ADMIN + "&attributes=id"))
+                .andExpect(method(HttpMethod.GET))
+                .andRespond(withSuccess("{\"totalResults\":1,\"Resources\":[{\"id\":\"" + TestConstants.USER_GUID + "\"}]}", MediaType.APPLICATION_JSON));
+
+        assertThat(scim2Client.existsServiceAdmin(TestConstants.DEDICATED_VM_IP), is(true));
+        server.verify();
+    }
+
+    /**
+     * Exists service admin test verify exception.
+     */
+    @Test
+    public void existsServiceAdminTest_VerifyException() {
+        server.expect(method(HttpMethod.GET)).andRespond(withServerError());
+
+        assertThatThrownBy(() -> scim2Client.existsServiceAdmin(TestConstants.DEDICATED_VM_IP))
+                .isInstanceOf(ServiceException.class).hasMessageContaining("Failed to retrieve service admin");
+    }
+
+    /**
+     * Find user id test verify return.
+     *
+     * @throws ServiceException the service exception
+     */
+    @Test
+    public void findUserIdTest_VerifyReturn() throws ServiceException {
+        server.expect(requestTo(BASE_URL + TestConstants.SCIM2_USERS + "?filter=userName%20eq%20binding-1&attributes=id"))
+                .andExpect(method(HttpMethod.GET))
+                .andRespond(withSuccess("{\"totalResults\":1,\"Resources\":[{\"id\":\"" + TestConstants.USER_GUID + "\"}]}", MediaType.APPLICATION_JSON));
+        server.expect(requestTo(BASE_URL + TestConstants.SCIM2_USERS + "?filter=userName%20eq%20binding-2&attributes=id"))
+                .andRespond(withSuccess("{\"totalResults\":0}", MediaType.APPLICATION_JSON));
+
+        assertThat(scim2Client.findUserId(TestConstants.DEDICATED_VM_IP, "binding-1"), is(TestConstants.USER_GUID));
+        assertThat(scim2Client.findUserId(TestConstants.DEDICATED_VM_IP, "binding-2"), is(nullValue()));
+        server.verify();
+    }
+
+    /**
+     * Add to group test verify return.
+     *
+     * @throws ServiceException the service exception
+     */
+    @Test
+    public void addToGroupTest_VerifyReturn() throws ServiceException {
+        server.expect(requestTo(BASE_URL + TestConstants.SCIM2_GROUPS + "?filter=displayName%20eq%20Internal/subscriber&attributes=id&count=1"))
+                .andExpect(method(HttpMethod.GET))
+                .andRespond(withSuccess("{\"totalResults\":1,\"Resources\":[{\"id\":\"" + TestConstants.ADMIN_GROUP_GUID + "\"}]}", MediaType.APPLICATION_JSON));
+        server.expect(requestTo(BASE_URL + TestConstants.SCIM2_GROUPS + "/" + TestConstants.ADMIN_GROUP_GUID))
+                .andExpect(method(HttpMethod.PATCH))
+                .andExpect(content().string("{\"Operations\":[{\"op\":\"add\",\"value\":{\"members\":[{\"display\":\"binding-1\",\"value\":\""
+                        + TestConstants.USER_GUID + "\"}]}}]}"))
+                .andRespond(withSuccess());
+
+        scim2Client.addToGroup(TestConstants.DEDICATED_VM_IP, "Internal/subscriber", "binding-1", TestConstants.USER_GUID);
+        server.verify();
+    }
+
+    /**
+     * Add to group test verify unknown group.
+     */
+    @Test
+    public void addToGroupTest_VerifyUnknownGroup() {
+        server.expect(method(HttpMethod.GET)).andRespond(withSuccess("{\"totalResults\":0}", MediaType.APPLICATION_JSON));
+
+        assertThatThrownBy(() -> scim2Client.addToGroup(TestConstants.DEDICATED_VM_IP, "Internal/subscriber", "binding-1", TestConstants.USER_GUID))
+                .isInstanceOf(ServiceException.class).hasMessageContaining("Group Internal/subscriber not found");
+        server.verify();
+    }
+
+    /**
+     * Calls within a trace get their own span and carry the trace context in the traceparent header.
+     *
+     * @throws ServiceException the service exception
+     */
+    @Test
+    public void tracingTest_PropagatesTraceparent() throws ServiceException {
+        Span root = tracer.start("createServiceInstance", Span.KIND_SERVICE);
+        server.expect(requestTo(BASE_URL + TestConstants.SCIM2_USERS))
+                .andExpect(method(HttpMethod.POST))
+                .andExpect(header(Span.TRACEPARENT, startsWith("00-" + root.getTraceId() + "-")))
+                .andRespond(withSuccess("{\"id\":\"" + TestConstants.USER_GUID + "\"}", MediaType.APPLICATION_JSON));
+        server.expect(requestTo(BASE_URL + TestConstants.SCIM2_USERS + "/" + TestConstants.USER_GUID))
+                .andRespond(withStatus(HttpStatus.CONFLICT));
+
+        scim2Client.createUser(TestConstants.DEDICATED_VM_IP, TestConstants.VAILD_PARAMETER_VALUE);
+        assertThatThrownBy(() -> scim2Client.deleteUser(TestConstants.DEDICATED_VM_IP, TestConstants.USER_GUID)).isInstanceOf(ServiceException.class);
+        root.close();
+        server.verify();
+
+        Span http = exporter.getSpans().get(0);
+        assertThat(http.getName(), is("Scim2Client.createUser"));
+        assertThat(http.getKind(), is(Span.KIND_HTTP));
+        assertThat(http.getParentSpanId(), is(root.getSpanId()));
+        assertThat(http.getTags().get("peer"), is(TestConstants.DEDICATED_VM_IP));
+        assertThat(http.getTags().get("status"), is("200"));
+        assertThat(exporter.getSpans().get(1).getTags().get("status"), is("409"));
+        assertThat(root.getBreakdown().get(Span.KIND_HTTP).get(0), is(2L));
+    }
+
+    /**
+     * Calls outside a trace (scheduled jobs) start no span and send no traceparent header.
+     *
+     * @throws ServiceException the service exception
+     */
+    @Test
+    public void tracingTest_OutsideTrace() throws ServiceException {
+        server.expect(requestTo(BASE_URL + TestConstants.SCIM2_USERS + "/" + TestConstants.USER_GUID))
+                .andExpect(request -> assertThat(request.getHeaders().containsKey(Span.TRACEPARENT), is(false)))
+                .andRespond(withSuccess());
+
+        scim2Client.deleteUser(TestConstants.DEDICATED_VM_IP, TestConstants.USER_GUID);
+        server.verify();
+        assertThat(exporter.getSpans().isEmpty(), is(true));
+    }
+}
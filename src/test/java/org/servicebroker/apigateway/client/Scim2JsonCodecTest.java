@@ -0,0 +1,116 @@
+package org.servicebroker.apigateway.client;
+
+import org.junit.Test;
+import org.servicebroker.apigateway.service.TestConstants;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+
+/**
+ * The type Scim2 json codec test.
+ */
+public class Scim2JsonCodecTest {
+
+    /**
+     * Read first resource id test verify early stop.
+     * 멤버 수와 관계없이 id 이후의 응답은 읽지 않음
+     *
+     * @throws IOException the io exception
+     */
+    @Test
+    public void readFirstResourceIdTest_VerifyEarlyStop() throws IOException {
+        for (int members : new int[]{10, 100000}) {
+            CountingInputStream in = new CountingInputStream(group(members, false));
+
+            assertThat(Scim2JsonCodec.readFirstResourceId(in), is(TestConstants.ADMIN_GROUP_GUID));
+            assertThat(in.count, lessThan(16L * 1024));
+        }
+    }
+
+    /**
+     * Read first resource id test verify members before id.
+     * (projection not applied by the server)
+     *
+     * @throws IOException the io exception
+     */
+    @Test
+    public void readFirstResourceIdTest_VerifyMembersBeforeId() throws IOException {
+        assertThat(Scim2JsonCodec.readFirstResourceId(group(1000, true)), is(TestConstants.ADMIN_GROUP_GUID));
+    }
+
+    /**
+     * Read first resource id test verify no resource.
+     *
+     * @throws IOException the io exception
+     */
+    @Test
+    public void readFirstResourceIdTest_VerifyNoResource() throws IOException {
+        assertThat(Scim2JsonCodec.readFirstResourceId(stream("{\"totalResults\":0,\"Resources\":[]}")), is(nullValue()));
+        assertThat(Scim2JsonCodec.readFirstResourceId(stream("{\"totalResults\":0}")), is(nullValue()));
+    }
+
+    /**
+     * Read list response test verify return.
+     *
+     * @throws IOException the io exception
+     */
+    @Test
+    public void readListResponseTest_VerifyReturn() throws IOException {
+        Scim2ListResponse response = Scim2JsonCodec.readListResponse(
+                stream("{\"schemas\":[\"urn:ietf:params:scim:api:messages:2.0:ListResponse\"],\"totalResults\":2,"
+                        + "\"Resources\":[{\"id\":\"a\",\"meta\":{\"version\":\"1\"}},{\"id\":\"b\"}]}"));
+
+        assertThat(response.getTotalResults(), is(2));
+        assertThat(response.getResources().size(), is(2));
+        assertThat(response.getResources().get(1).getId(), is("b"));
+    }
+
+    private static InputStream group(int members, boolean membersFirst) {
+        StringBuilder json = new StringBuilder("{\"totalResults\":1,\"startIndex\":1,\"itemsPerPage\":1,\"Resources\":[{");
+        StringBuilder memberList = new StringBuilder("\"members\":[");
+        for (int i = 0; i < members; i++) {
+            memberList.append(i == 0 ? "" : ",").append("{\"display\":\"user").append(i).append("\",\"value\":\"").append(i).append("\"}");
+        }
+        memberList.append("]");
+
+        String id = "\"id\":\"" + TestConstants.ADMIN_GROUP_GUID + "\"";
+        json.append(membersFirst ? memberList + "," + id : id + "," + memberList).append("}]}");
+        return stream(json.toString());
+    }
+
+    private static InputStream stream(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            count += b < 0 ? 0 : 1;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            count += n < 0 ? 0 : n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package org.servicebroker.apigateway.client;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.servicebroker.apigateway.exception.ServiceException;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.*;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.*;
+
+
+/**
+ * The type Wso2 migration client test.
+ */
+public class Wso2MigrationClientTest {
+
+    private static final String VM_IP = "10.0.0.1";
+
+    RestTemplate restTemplate;
+    MockRestServiceServer server;
+    Wso2MigrationClient wso2MigrationClient;
+
+    /**
+     * Sets up.
+     *
+     * @throws Exception the exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        restTemplate = new RestTemplate();
+        server = MockRestServiceServer.bindTo(restTemplate).build();
+        wso2MigrationClient = new Wso2MigrationClient(restTemplate, "admin", "admin_password", "service-admin");
+    }
+
+    /**
+     * Gets users test. super admin / service admin 제외, primary email
+     *
+     * @throws ServiceException the service exception
+     */
+    @Test
+    public void getUsersTest_VerifyAdminExcluded() throws ServiceException {
+        server.expect(requestTo(startsWith("https://" + VM_IP + ":9443/scim2/Users")))
+                .andExpect(method(HttpMethod.GET))
+                .andRespond(withSuccess("{\"totalResults\":5,\"Resources\":[" +
+                        "{\"id\":\"1\",\"userName\":\"admin\"}," +
+                        "{\"id\":\"5\",\"userName\":\"service-admin\"}," +
+                        "{\"id\":\"2\",\"userName\":\"alice\",\"emails\":[{\"value\":\"a@home\"},{\"value\":\"a@work\",\"primary\":true}]}," +
+                        "{\"id\":\"3\",\"userName\":\"bob\",\"emails\":[\"b@work\"]}," +
+                        "{\"id\":\"4\",\"userName\":\"carol\"}]}", MediaType.APPLICATION_JSON));
+
+        Map<String, String> users = wso2MigrationClient.getUsers(VM_IP);
+
+        assertThat(users.keySet(), contains("alice", "bob", "carol"));
+        assertThat(users.get("alice"), is("a@work"));
+        assertThat(users.get("bob"), is("b@work"));
+        assertThat(users.get("carol"), nullValue());
+        server.verify();
+    }
+
+    /**
+     * Gets users test. startIndex / count 로 totalResults 까지 page 조회
+     *
+     * @throws ServiceException the service exception
+     */
+    @Test
+    public void getUsersTest_VerifyPaged() throws ServiceException {
+        wso2MigrationClient.pageSize = 2;
+        server.expect(requestTo(allOf(startsWith("https://" + VM_IP + ":9443/scim2/Users"), containsString("startIndex=1&count=2"))))
+                .andRespond(withSuccess("{\"totalResults\":3,\"itemsPerPage\":2,\"Resources\":[" +
+                        "{\"id\":\"2\",\"userName\":\"alice\"},{\"id\":\"3\",\"userName\":\"bob\"}]}", MediaType.APPLICATION_JSON));
+        server.expect(requestTo(allOf(startsWith("https://" + VM_IP + ":9443/scim2/Users"), containsString("startIndex=3&count=2"))))
+                .andRespond(withSuccess("{\"totalResults\":3,\"itemsPerPage\":1,\"Resources\":[" +
+                        "{\"id\":\"4\",\"userName\":\"carol\"}]}", MediaType.APPLICATION_JSON));
+
+        assertThat(wso2MigrationClient.getUsers(VM_IP).keySet(), contains("alice", "bob", "carol"));
+        server.verify();
+    }
+
+    /**
+     * Gets users test. totalResults 보다 적게 조회되면 실패 (조회 중 목록 변경)
+     */
+    @Test
+    public void getUsersTest_VerifyCountMismatch() {
+        wso2MigrationClient.pageSize = 2;
+        server.expect(requestTo(containsString("startIndex=1&count=2")))
+                .andRespond(withSuccess("{\"totalResults\":3,\"Resources\":[" +
+                        "{\"id\":\"2\",\"userName\":\"alice\"},{\"id\":\"3\",\"userName\":\"bob\"}]}", MediaType.APPLICATION_JSON));
+        server.expect(requestTo(containsString("startIndex=3&count=2")))
+                .andRespond(withSuccess("{\"totalResults\":3,\"Resources\":[]}", MediaType.APPLICATION_JSON));
+
+        assertThatThrownBy(() -> wso2MigrationClient.getUsers(VM_IP))
+                .isInstanceOf(ServiceException.class).hasMessageContaining("read 2 of 3");
+    }
+
+    /**
+     * Gets group members test.
+     *
+     * @throws ServiceException the service exception
+     */
+    @Test
+    public void getGroupMembersTest() throws ServiceException {
+        server.expect(requestTo(allOf(startsWith("https://" + VM_IP + ":9443/scim2/Groups"), containsString("startIndex=1&count=100"))))
+                .andRespond(withSuccess("{\"totalResults\":1,\"Resources\":[" +
+                        "{\"id\":\"g1\",\"displayName\":\"Application/team\",\"members\":[{\"display\":\"alice\"}]}]}", MediaType.APPLICATION_JSON));
+
+        assertThat(wso2MigrationClient.getGroupMembers(VM_IP), hasEntry("Application/team", Collections.singletonList("alice")));
+        server.verify();
+    }
+
+    /**
+     * Create user test. email 이 있으면 askPassword, 없으면 임의 비밀번호
+     *
+     * @throws ServiceException the service exception
+     */
+    @Test
+    public void createUserTest_VerifyAskPassword() throws ServiceException {
+        server.expect(requestTo("https://" + VM_IP + ":9443/scim2/Users"))
+                .andExpect(method(HttpMethod.POST))
+                .andExpect(content().string(allOf(containsString("\"askPassword\":true"), containsString("a@work"), not(containsString("password\"")))))
+                .andRespond(withSuccess("{\"id\":\"new-alice\"}", MediaType.APPLICATION_JSON));
+        server.expect(requestTo("https://" + VM_IP + ":9443/scim2/Users"))
+                .andExpect(method(HttpMethod.POST))
+                .andExpect(content().string(allOf(containsString("\"password\""), not(containsString("askPassword")))))
+                .andRespond(withSuccess("{\"id\":\"new-carol\"}", MediaType.APPLICATION_JSON));
+
+        assertThat(wso2MigrationClient.createUser(VM_IP, "alice", "a@work", null), is("new-alice"));
+        assertThat(wso2MigrationClient.createUser(VM_IP, "carol", null, null), is("new-carol"));
+        server.verify();
+    }
+
+    /**
+     * Add group members test. 그룹이 없으면 생성
+     *
+     * @throws ServiceException the service exception
+     */
+    @Test
+    public void addGroupMembersTest_VerifyGroupCreated() throws ServiceException {
+        server.expect(requestTo(startsWith("https://" + VM_IP + ":9443/scim2/Groups?filter=")))
+                .andExpect(method(HttpMethod.GET))
+                .andRespond(withSuccess("{\"totalResults\":0}", MediaType.APPLICATION_JSON));
+        server.expect(requestTo("https://" + VM_IP + ":9443/scim2/Groups"))
+                .andExpect(method(HttpMethod.POST))
+                .andExpect(content().string(allOf(containsString("\"displayName\":\"Application/team\""), containsString("\"value\":\"new-alice\""))))
+                .andRespond(withStatus(HttpStatus.CREATED).contentType(MediaType.APPLICATION_JSON).body("{\"id\":\"g1\"}"));
+
+        wso2MigrationClient.addGroupMembers(VM_IP, "Application/team", Collections.singletonMap("alice", "new-alice"));
+        server.verify();
+    }
+
+    /**
+     * Add group members test. 기존 그룹에 member 추가 (PATCH)
+     *
+     * @throws ServiceException the service exception
+     */
+    @Test
+    public void addGroupMembersTest_VerifyPatched() throws ServiceException {
+        server.expect(requestTo(startsWith("https://" + VM_IP + ":9443/scim2/Groups?filter=")))
+                .andRespond(withSuccess("{\"totalResults\":1,\"Resources\":[{\"id\":\"g1\"}]}", MediaType.APPLICATION_JSON));
+        server.expect(requestTo("https://" + VM_IP + ":9443/scim2/Groups/g1"))
+                .andExpect(method(HttpMethod.PATCH))
+                .andExpect(content().string(allOf(containsString("\"op\":\"add\""), containsString("\"display\":\"alice\""))))
+                .andRespond(withSuccess());
+
+        wso2MigrationClient.addGroupMembers(VM_IP, "PRIMARY/admin", Collections.singletonMap("alice", "new-alice"));
+        server.verify();
+    }
+
+    /**
+     * Api export / import test.
+     *
+     * @throws ServiceException the service exception
+     */
+    @Test
+    public void apiTest_VerifyExportImport() throws ServiceException {
+        wso2MigrationClient.pageSize = 1;
+        server.expect(requestTo("https://" + VM_IP + ":9443/api/am/publisher/v1/apis?limit=1&offset=0"))
+                .andRespond(withSuccess("{\"count\":1,\"list\":[{\"id\":\"api-1\"}],\"pagination\":{\"offset\":0,\"limit\":1,\"total\":2}}", MediaType.APPLICATION_JSON));
+        server.expect(requestTo("https://" + VM_IP + ":9443/api/am/publisher/v1/apis?limit=1&offset=1"))
+                .andRespond(withSuccess("{\"count\":1,\"list\":[{\"id\":\"api-2\"}],\"pagination\":{\"offset\":1,\"limit\":1,\"total\":2}}", MediaType.APPLICATION_JSON));
+        server.expect(requestTo("https://" + VM_IP + ":9443/api/am/publisher/v1/apis/export?apiId=api-1"))
+                .andExpect(method(HttpMethod.GET))
+                .andRespond(withSuccess(new byte[]{1, 2, 3}, MediaType.APPLICATION_OCTET_STREAM));
+        server.expect(requestTo(startsWith("https://" + VM_IP + ":9443/api/am/publisher/v1/apis/import?preserveProvider=true")))
+                .andExpect(method(HttpMethod.POST))
+                .andExpect(header("Content-Type", startsWith(MediaType.MULTIPART_FORM_DATA_VALUE)))
+                .andRespond(withSuccess());
+
+        assertThat(wso2MigrationClient.getApiIds(VM_IP), is(Arrays.asList("api-1", "api-2")));
+        wso2MigrationClient.importApi(VM_IP, wso2MigrationClient.exportApi(VM_IP, "api-1"));
+        server.verify();
+    }
+
+    /**
+     * Api test verify failure.
+     */
+    @Test
+    public void apiTest_VerifyFailure() {
+        server.expect(requestTo(startsWith("https://" + VM_IP + ":9443/api/am/publisher/v1/apis?limit=")))
+                .andRespond(withStatus(HttpStatus.UNAUTHORIZED));
+
+        assertThatThrownBy(() -> wso2MigrationClient.getApiIds(VM_IP))
+                .isInstanceOf(ServiceException.class).hasMessageContaining("Failed to retrieve APIs");
+    }
+}
@@ -0,0 +1,14 @@
+package org.servicebroker.apigateway.config;
+
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+
+/**
+ * The type Jpa test config.
+ */
+@Configuration
+@EnableJpaRepositories("org.servicebroker.apigateway.repository")
+@EntityScan(value = "org.servicebroker.apigateway.model")
+public class JpaTestConfig {
+}
@@ -0,0 +1,113 @@
+package org.servicebroker.apigateway.export;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.servicebroker.apigateway.config.JpaTestConfig;
+import org.servicebroker.apigateway.model.JpaDedicatedVM;
+import org.servicebroker.apigateway.model.JpaRepositoryFixture;
+import org.servicebroker.apigateway.model.JpaServiceInstance;
+import org.servicebroker.apigateway.repository.JpaDedicatedVMRepository;
+import org.servicebroker.apigateway.repository.JpaServiceInstanceRepository;
+import org.servicebroker.apigateway.service.TestConstants;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.StringWriter;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * The type Instance export service test.
+ */
+@RunWith(SpringRunner.class)
+@DataJpaTest
+@ContextConfiguration(classes = {JpaTestConfig.class, InstanceExportService.class})
+@TestPropertySource(properties = {
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "broker.export.fetch_size=2"})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class InstanceExportServiceTest {
+
+    @Autowired
+    InstanceExportService instanceExportService;
+    @Autowired
+    JpaDedicatedVMRepository jpaDedicatedVMRepository;
+    @Autowired
+    JpaServiceInstanceRepository jpaServiceInstanceRepository;
+
+    /**
+     * Sets up. Three instances (a, b, c), a and b with a VM.
+     */
+    @Before
+    public void setUp() {
+        jpaServiceInstanceRepository.deleteAll();
+        jpaDedicatedVMRepository.deleteAll();
+
+        for (String id : new String[]{"instance-c", "instance-a", "instance-b"}) {
+            JpaServiceInstance jpaServiceInstance = JpaRepositoryFixture.getJpaServiceInstance();
+            jpaServiceInstance.setServiceInstanceId(id);
+            jpaServiceInstanceRepository.save(jpaServiceInstance);
+
+            if (!id.equals("instance-c")) {
+                JpaDedicatedVM jpaDedicatedVM = JpaRepositoryFixture.getJpaDedicatedVM();
+                jpaDedicatedVM.setIp(TestConstants.DEDICATED_VM_IP + "-" + id);
+                jpaDedicatedVM.setAssignment(TestConstants.STATUS_ASSIGNED);
+                jpaDedicatedVM.setProvisionedServiceInstanceId(id);
+                jpaDedicatedVMRepository.save(jpaDedicatedVM);
+            }
+        }
+    }
+
+    /**
+     * Export test verify ndjson keyset pages.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void exportTest_VerifyNdjsonKeysetPages() throws Exception {
+        StringWriter first = new StringWriter();
+        assertThat(instanceExportService.export("", 2, InstanceExportService.Format.NDJSON, first), is(2L));
+
+        String[] lines = first.toString().split("\n");
+        assertThat(lines.length, is(2));
+        JsonObject row = new JsonParser().parse(lines[0]).getAsJsonObject();
+        assertThat(row.get("service_instance_id").getAsString(), is("instance-a"));
+        assertThat(row.get("plan_id").getAsString(), is(TestConstants.SERVICES_PLANS_ID));
+        assertThat(row.get("vm_ip").getAsString(), is(TestConstants.DEDICATED_VM_IP + "-instance-a"));
+        assertThat(row.get("assignment").getAsInt(), is(TestConstants.STATUS_ASSIGNED));
+        String last = new JsonParser().parse(lines[1]).getAsJsonObject().get("service_instance_id").getAsString();
+        assertThat(last, is("instance-b"));
+
+        StringWriter next = new StringWriter();
+        assertThat(instanceExportService.export(last, 2, InstanceExportService.Format.NDJSON, next), is(1L));
+        row = new JsonParser().parse(next.toString().trim()).getAsJsonObject();
+        assertThat(row.get("service_instance_id").getAsString(), is("instance-c"));
+        assertThat(row.get("vm_ip").isJsonNull(), is(true));
+    }
+
+    /**
+     * Export test verify csv.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void exportTest_VerifyCsv() throws Exception {
+        StringWriter writer = new StringWriter();
+        assertThat(instanceExportService.export(null, 0, InstanceExportService.Format.CSV, writer), is(3L));
+
+        String[] lines = writer.toString().split("\r\n");
+        assertThat(lines.length, is(4));
+        assertThat(lines[0], is(String.join(",", InstanceExportService.COLUMNS)));
+        assertThat(lines[3].startsWith("instance-c,"), is(true));
+        assertThat(lines[3].endsWith(",,,,,"), is(true));
+    }
+}
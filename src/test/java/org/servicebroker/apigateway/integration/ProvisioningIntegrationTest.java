@@ -0,0 +1,280 @@
+package org.servicebroker.apigateway.integration;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openpaas.bosh.director.BoshDirector;
+import org.openpaas.servicebroker.model.CreateServiceInstanceRequest;
+import org.openpaas.servicebroker.model.ServiceInstance;
+import org.servicebroker.apigateway.client.AsyncScim2Client;
+import org.servicebroker.apigateway.client.BoshDeploymentClient;
+import org.servicebroker.apigateway.client.Scim2Client;
+import org.servicebroker.apigateway.config.ExecutorConfig;
+import org.servicebroker.apigateway.config.JpaTestConfig;
+import org.servicebroker.apigateway.exception.ServiceException;
+import org.servicebroker.apigateway.model.JpaDedicatedVM;
+import org.servicebroker.apigateway.occupancy.OccupancyService;
+import org.servicebroker.apigateway.repository.JpaDedicatedVMRepository;
+import org.servicebroker.apigateway.repository.JpaRecreateOutboxRepository;
+import org.servicebroker.apigateway.repository.JpaServiceInstanceRepository;
+import org.servicebroker.apigateway.selection.LeastRecentlyRecreatedStrategy;
+import org.servicebroker.apigateway.selection.VmHealthTracker;
+import org.servicebroker.apigateway.selection.VmSelectionService;
+import org.servicebroker.apigateway.service.TestConstants;
+import org.servicebroker.apigateway.service.impl.*;
+import org.servicebroker.apigateway.shutdown.InFlightRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.jdbc.Sql;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.*;
+
+
+/**
+ * The type Provisioning integration test.
+ *
+ * Runs provisions and deprovisions through {@link ApiGatewayCommonService} (serviceAssignment, createServiceInstance,
+ * procDeProvisioning) from concurrent request threads against the integration profile : an embedded H2 database in
+ * MySQL mode, seeded with {@link #POOL_SIZE} free VMs. Only the SCIM2 and BOSH clients are mocked, so the native claim
+ * queries, row locking and the retry policy run as they do against MariaDB. Asserts the pool invariants and logs the throughput.
+ *
+ * Run with : ./gradlew integrationTest
+ */
+@RunWith(SpringRunner.class)
+@DataJpaTest(showSql = false)
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@ActiveProfiles("integration")
+@ContextConfiguration(classes = {JpaTestConfig.class, ExecutorConfig.class, ApiGatewayCommonService.class, ApiGatewayDedicatedVMService.class,
+        ApiGatewayRetryPolicy.class, ApiGatewayCapacityService.class, ApiGatewayLeaderService.class, OccupancyService.class, InFlightRegistry.class,
+        VmSelectionService.class, VmHealthTracker.class, LeastRecentlyRecreatedStrategy.class})
+@TestPropertySource(properties = {
+        "bosh.deployment_name=" + TestConstants.DEPLOYMENT_NAME,
+        "broker.occupancy.file=${java.io.tmpdir}/occupancy-integration.ring"})
+@Sql("/integration/dedicated_vm_pool.sql")
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class ProvisioningIntegrationTest {
+
+    private static final Logger log = LoggerFactory.getLogger(ProvisioningIntegrationTest.class);
+
+    private static final int POOL_SIZE = 64;
+    private static final int THREADS = 16;
+    private static final int CYCLES = 25;
+
+    @Autowired
+    ApiGatewayCommonService apiGatewayCommonService;
+    @Autowired
+    ApiGatewayDedicatedVMService apiGatewayDedicatedVMService;
+    @Autowired
+    VmSelectionService vmSelectionService;
+    @Autowired
+    JpaDedicatedVMRepository jpaDedicatedVMRepository;
+    @Autowired
+    JpaServiceInstanceRepository jpaServiceInstanceRepository;
+    @Autowired
+    JpaRecreateOutboxRepository jpaRecreateOutboxRepository;
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @MockBean
+    Scim2Client scim2Client;
+    @MockBean
+    AsyncScim2Client asyncScim2Client;
+    @MockBean
+    BoshDirector boshDirector;
+    @MockBean
+    BoshDeploymentClient boshDeploymentClient;
+
+    /**
+     * Sets up. SCIM2 on the dedicated VMs always succeeds.
+     *
+     * @throws Exception the exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        when(scim2Client.getGroups(anyString())).thenReturn(TestConstants.ADMIN_GROUP_GUID);
+        when(scim2Client.createUser(anyString(), anyString())).thenReturn(TestConstants.USER_GUID);
+    }
+
+    /**
+     * Provision / deprovision cycles from concurrent request threads while the selection ranking is rebuilt.
+     * A VM is never held by two service instances at once, and every VM is back in the pool at the end.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void provisionDeprovisionTest_VerifyPoolInvariants() throws Exception {
+        Map<String, String> held = new ConcurrentHashMap<>();
+        Set<String> used = ConcurrentHashMap.newKeySet();
+        List<String> violations = Collections.synchronizedList(new ArrayList<>());
+        long[] latencies = new long[THREADS * CYCLES];
+        AtomicInteger exhausted = new AtomicInteger();
+
+        ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor();
+        refresher.scheduleWithFixedDelay(vmSelectionService::refresh, 0, 20, TimeUnit.MILLISECONDS);
+        ExecutorService requestThreads = Executors.newFixedThreadPool(THREADS);
+
+        long start = System.nanoTime();
+        List<Future<?>> workers = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int worker = t;
+            workers.add(requestThreads.submit(() -> {
+                for (int cycle = 0; cycle < CYCLES; cycle++) {
+                    String serviceInstanceId = "integration-" + worker + "-" + cycle;
+                    long begin = System.nanoTime();
+
+                    try {
+                        provision(serviceInstanceId);
+                    } catch (ServiceException e) {
+                        exhausted.incrementAndGet();
+                        continue;
+                    }
+                    JpaDedicatedVM assigned = apiGatewayDedicatedVMService.findByServiceInstanceId(serviceInstanceId);
+                    String owner = held.putIfAbsent(assigned.getIp(), serviceInstanceId);
+                    if (owner != null) {
+                        violations.add(assigned.getIp() + " assigned to " + serviceInstanceId + " while held by " + owner);
+                    }
+                    used.add(assigned.getIp());
+
+                    apiGatewayCommonService.procDeProvisioning(serviceInstanceId);
+                    int assignment = jpaDedicatedVMRepository.findOne(assigned.getIp()).getAssignment();
+                    if (assignment != TestConstants.STATUS_WATING_FOR_VM_RECREATE) {
+                        violations.add(serviceInstanceId + " deprovisioned " + assigned.getIp() + " but left it in state " + assignment);
+                    }
+
+                    held.remove(assigned.getIp(), serviceInstanceId);
+                    recreated(assigned.getIp());
+                    latencies[worker * CYCLES + cycle] = System.nanoTime() - begin;
+                }
+                return null;
+            }));
+        }
+        for (Future<?> worker : workers) {
+            worker.get(60, TimeUnit.SECONDS);
+        }
+        long elapsed = System.nanoTime() - start;
+        refresher.shutdownNow();
+        requestThreads.shutdown();
+
+        report("provision / deprovision cycles", THREADS * CYCLES, elapsed, latencies);
+        log.info("  {} of {} VMs used", used.size(), POOL_SIZE);
+
+        assertThat(violations, is(empty()));
+        assertThat(exhausted.get(), is(0));
+        assertThat(jpaDedicatedVMRepository.count(), is((long) POOL_SIZE));
+        assertThat(jpaDedicatedVMRepository.findByAssignment(TestConstants.STATUS_WATING_FOR_ASSIGNMENT).size(), is(POOL_SIZE));
+        assertThat(jpaServiceInstanceRepository.count(), is(0L));
+        assertThat(jpaRecreateOutboxRepository.count(), is(0L));
+        verify(scim2Client, times(THREADS * CYCLES)).regAdmin(anyString(), eq(TestConstants.ADMIN_GROUP_GUID), eq(TestConstants.USER_GUID));
+        verifyZeroInteractions(boshDirector, asyncScim2Client);
+    }
+
+    /**
+     * More concurrent provisions than free VMs. Every VM is assigned to exactly one service instance,
+     * the remaining provisions find the pool exhausted, and no claim is left without its service instance.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void provisionTest_VerifyExhaustedPool() throws Exception {
+        int provisions = POOL_SIZE + POOL_SIZE / 2;
+        long[] latencies = new long[provisions];
+        CountDownLatch go = new CountDownLatch(1);
+        ExecutorService requestThreads = Executors.newFixedThreadPool(THREADS);
+
+        vmSelectionService.refresh();
+        List<Future<String>> futures = new ArrayList<>();
+        for (int i = 0; i < provisions; i++) {
+            int n = i;
+            String serviceInstanceId = "integration-" + i;
+            futures.add(requestThreads.submit(() -> {
+                go.await();
+                long begin = System.nanoTime();
+                try {
+                    provision(serviceInstanceId);
+                    return serviceInstanceId;
+                } catch (ServiceException e) {
+                    return null;
+                } finally {
+                    latencies[n] = System.nanoTime() - begin;
+                }
+            }));
+        }
+
+        long start = System.nanoTime();
+        go.countDown();
+        List<JpaDedicatedVM> claimed = new ArrayList<>();
+        for (Future<String> future : futures) {
+            String serviceInstanceId = future.get(60, TimeUnit.SECONDS);
+            if (serviceInstanceId != null) {
+                claimed.add(apiGatewayDedicatedVMService.findByServiceInstanceId(serviceInstanceId));
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        requestThreads.shutdown();
+
+        report("provisions on an exhausting pool", provisions, elapsed, latencies);
+
+        assertThat(claimed.size(), is(POOL_SIZE));
+        assertThat(claimed.stream().map(JpaDedicatedVM::getIp).distinct().count(), is((long) POOL_SIZE));
+        assertThat(jpaDedicatedVMRepository.findByAssignment(TestConstants.STATUS_ASSIGNED).size(), is(POOL_SIZE));
+        assertThat(jpaServiceInstanceRepository.count(), is((long) POOL_SIZE));
+
+        Set<String> serviceInstanceIds = jpaDedicatedVMRepository.findAll().stream()
+                .map(JpaDedicatedVM::getProvisionedServiceInstanceId).collect(Collectors.toSet());
+        assertThat(serviceInstanceIds.size(), is(POOL_SIZE));
+        assertThat(apiGatewayDedicatedVMService.findOrphans(new Date(System.currentTimeMillis() + 60000)), is(empty()));
+    }
+
+    /**
+     * Provisions a service instance as the broker API does : VM claim and SCIM2 service admin, then the commit transaction.
+     */
+    private void provision(String serviceInstanceId) throws ServiceException {
+        CreateServiceInstanceRequest request = new CreateServiceInstanceRequest(TestConstants.SERVICES_ID, TestConstants.SERVICES_PLANS_ID,
+                TestConstants.ORG_GUID, TestConstants.SPACE_GUID, Collections.<String, Object>singletonMap(Constants.PARAMETERS_KEY, TestConstants.VAILD_PARAMETER_VALUE))
+                .withServiceInstanceId(serviceInstanceId);
+
+        String dashboardUrl = apiGatewayCommonService.serviceAssignment(request);
+        apiGatewayCommonService.createServiceInstance(new ServiceInstance(request).withDashboardUrl(dashboardUrl));
+    }
+
+    /**
+     * BOSH recreate done : the outbox row is consumed and the VM is back in the pool.
+     */
+    private void recreated(String ip) {
+        // bulk update 가 persistence context 를 비우므로 outbox 삭제는 그 이후
+        new TransactionTemplate(transactionManager).execute(status -> {
+            int restored = jpaDedicatedVMRepository.updateAssignmentByIpIn(Collections.singleton(ip),
+                    TestConstants.STATUS_WATING_FOR_VM_RECREATE, TestConstants.STATUS_WATING_FOR_ASSIGNMENT);
+            jpaRecreateOutboxRepository.delete(ip);
+            return restored;
+        });
+    }
+
+    private static void report(String name, int operations, long elapsed, long[] latencies) {
+        long[] sorted = Arrays.stream(latencies).filter(latency -> latency > 0).sorted().toArray();
+        log.info("{} ({}, {} request threads, pool {}) :: {}/s p50 {} us p99 {} us",
+                name, operations, THREADS, POOL_SIZE, Math.round(operations / (elapsed / 1e9)),
+                TimeUnit.NANOSECONDS.toMicros(sorted[sorted.length / 2]),
+                TimeUnit.NANOSECONDS.toMicros(sorted[(int) (sorted.length * 0.99)]));
+    }
+}
@@ -0,0 +1,118 @@
+package org.servicebroker.apigateway.inventory;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.servicebroker.apigateway.client.BoshDeploymentClient;
+import org.servicebroker.apigateway.client.BoshVm;
+import org.servicebroker.apigateway.config.JpaTestConfig;
+import org.servicebroker.apigateway.model.JpaDedicatedVM;
+import org.servicebroker.apigateway.model.JpaRepositoryFixture;
+import org.servicebroker.apigateway.repository.JpaDedicatedVMRepository;
+import org.servicebroker.apigateway.service.TestConstants;
+import org.servicebroker.apigateway.service.impl.ApiGatewayLeaderService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.*;
+
+/**
+ * The type Inventory reconciliation service test.
+ */
+@RunWith(SpringRunner.class)
+@DataJpaTest
+@ContextConfiguration(classes = {JpaTestConfig.class, InventoryReconciliationService.class})
+@TestPropertySource(properties = {
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "bosh.deployment_name=" + TestConstants.DEPLOYMENT_NAME})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class InventoryReconciliationServiceTest {
+
+    @Autowired
+    InventoryReconciliationService inventoryReconciliationService;
+    @Autowired
+    JpaDedicatedVMRepository jpaDedicatedVMRepository;
+
+    @MockBean
+    BoshDeploymentClient boshDeploymentClient;
+    @MockBean
+    ApiGatewayLeaderService apiGatewayLeaderService;
+
+    /**
+     * Sets up. Three VMs : ip0, ip1, ip2.
+     */
+    @Before
+    public void setUp() {
+        jpaDedicatedVMRepository.deleteAll();
+
+        for (int i = 0; i < 3; i++) {
+            JpaDedicatedVM jpaDedicatedVM = JpaRepositoryFixture.getJpaDedicatedVM();
+            jpaDedicatedVM.setIp(TestConstants.DEDICATED_VM_IP + i);
+            jpaDedicatedVM.setVmId("vm-id-" + i);
+            jpaDedicatedVM.setProvisionedServiceInstanceId(null);
+            jpaDedicatedVMRepository.save(jpaDedicatedVM);
+        }
+    }
+
+    /**
+     * Reconcile test verify changed unknown and missing.
+     * ip0 unchanged, ip1 recreated with a new instance id, ip2 gone, ip3 new.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void reconcileTest_VerifyChangedUnknownAndMissing() throws Exception {
+        when(boshDeploymentClient.getVms(TestConstants.DEPLOYMENT_NAME)).thenReturn(Arrays.asList(
+                vm(TestConstants.DEDICATED_VM_NAME, "vm-id-0", TestConstants.DEDICATED_VM_IP + 0),
+                vm(TestConstants.DEDICATED_VM_NAME, "vm-id-new", TestConstants.DEDICATED_VM_IP + 1),
+                vm(TestConstants.DEDICATED_VM_NAME, "vm-id-3", TestConstants.DEDICATED_VM_IP + 3),
+                vm("other-job", "other-id", "10.0.0.99")));
+        long version = jpaDedicatedVMRepository.findOne(TestConstants.DEDICATED_VM_IP + 1).getVersion();
+
+        InventoryReport report = inventoryReconciliationService.reconcile();
+
+        assertThat(report.getRegistered(), is(3));
+        assertThat(report.getChanged().size(), is(1));
+        assertThat(report.getChanged().get(0).getPreviousVmId(), is("vm-id-1"));
+        assertThat(report.getUpdated(), is(1));
+        assertThat(report.getUnknown().size(), is(1));
+        assertThat(report.getUnknown().get(0).getIp(), is(TestConstants.DEDICATED_VM_IP + 3));
+        assertThat(report.getMissing().size(), is(1));
+        assertThat(report.getMissing().get(0).getIp(), is(TestConstants.DEDICATED_VM_IP + 2));
+
+        JpaDedicatedVM recreated = jpaDedicatedVMRepository.findOne(TestConstants.DEDICATED_VM_IP + 1);
+        assertThat(recreated.getVmId(), is("vm-id-new"));
+        assertThat(recreated.getVersion(), is(version + 1));
+        assertThat(jpaDedicatedVMRepository.findOne(TestConstants.DEDICATED_VM_IP + 2).getVmId(), is("vm-id-2"));
+        assertThat(inventoryReconciliationService.getLastReport(), is(report));
+    }
+
+    /**
+     * Scheduled reconcile test verify not leader.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void scheduledReconcileTest_VerifyNotLeader() throws Exception {
+        when(apiGatewayLeaderService.isLeader()).thenReturn(false);
+
+        inventoryReconciliationService.scheduledReconcile();
+
+        verify(boshDeploymentClient, never()).getVms(anyString());
+    }
+
+    private static BoshVm vm(String job, String id, String ip) {
+        return new BoshVm(job, 0, id, "z1", Collections.singletonList(ip));
+    }
+}
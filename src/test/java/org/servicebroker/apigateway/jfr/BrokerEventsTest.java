@@ -0,0 +1,94 @@
+package org.servicebroker.apigateway.jfr;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.servicebroker.apigateway.service.TestConstants;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * The type Broker events test.
+ */
+public class BrokerEventsTest {
+
+    Recording recording;
+    Path dump;
+
+    /**
+     * Sets up.
+     *
+     * @throws IOException the io exception
+     */
+    @Before
+    public void setUp() throws IOException {
+        dump = Files.createTempFile("broker-events", ".jfr");
+        recording = new Recording();
+        recording.enable("org.servicebroker.apigateway.VmClaim");
+        recording.enable("org.servicebroker.apigateway.Scim2Call");
+        recording.enable("org.servicebroker.apigateway.ProvisioningRollback");
+        recording.enable("org.servicebroker.apigateway.VmRecreate");
+        recording.start();
+    }
+
+    /**
+     * Tear down.
+     *
+     * @throws IOException the io exception
+     */
+    @After
+    public void tearDown() throws IOException {
+        recording.close();
+        Files.deleteIfExists(dump);
+    }
+
+    /**
+     * Events are recorded with their step fields.
+     *
+     * @throws IOException the io exception
+     */
+    @Test
+    public void commitTest_RecordsEvents() throws IOException {
+        assertThat(BrokerEvents.available(), is(true));
+
+        BrokerEvents.vmClaim(TestConstants.SV_INSTANCE_ID).vmIp(TestConstants.DEDICATED_VM_IP).success(true).commit();
+        BrokerEvents.scim2Call("createUser", TestConstants.DEDICATED_VM_IP).httpStatus(409).commit();
+        BrokerEvents.provisioningRollback(TestConstants.SV_INSTANCE_ID, TestConstants.DEDICATED_VM_IP).message("conflict").commit();
+        BrokerEvents.vmRecreate(TestConstants.DEPLOYMENT_NAME, "apigateway", "vm-id").success(true).commit();
+
+        List<RecordedEvent> events = stop();
+        assertThat(events.size(), is(4));
+
+        RecordedEvent claim = events.get(0);
+        assertThat(claim.getEventType().getName(), is("org.servicebroker.apigateway.VmClaim"));
+        assertThat(claim.getString("serviceInstanceId"), is(TestConstants.SV_INSTANCE_ID));
+        assertThat(claim.getString("vmIp"), is(TestConstants.DEDICATED_VM_IP));
+        assertThat(claim.getBoolean("claimed"), is(true));
+
+        RecordedEvent scim2 = events.get(1);
+        assertThat(scim2.getString("operation"), is("createUser"));
+        assertThat(scim2.getInt("httpStatus"), is(409));
+        assertThat(scim2.getBoolean("success"), is(false));
+
+        assertThat(events.get(2).getString("cause"), is("conflict"));
+        assertThat(events.get(3).getString("deploymentName"), is(TestConstants.DEPLOYMENT_NAME));
+        assertThat(events.get(3).getBoolean("success"), is(true));
+    }
+
+    private List<RecordedEvent> stop() throws IOException {
+        recording.stop();
+        recording.dump(dump);
+        List<RecordedEvent> events = RecordingFile.readAllEvents(dump);
+        events.sort((a, b) -> a.getStartTime().compareTo(b.getStartTime()));
+        return events;
+    }
+}
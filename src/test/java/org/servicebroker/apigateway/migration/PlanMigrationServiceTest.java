@@ -0,0 +1,258 @@
+package org.servicebroker.apigateway.migration;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.servicebroker.apigateway.client.Scim2Client;
+import org.servicebroker.apigateway.client.Wso2MigrationClient;
+import org.servicebroker.apigateway.exception.ServiceException;
+import org.servicebroker.apigateway.model.JpaDedicatedVM;
+import org.servicebroker.apigateway.model.JpaRepositoryFixture;
+import org.servicebroker.apigateway.selection.VmSelectionService;
+import org.servicebroker.apigateway.service.TestConstants;
+import org.servicebroker.apigateway.service.impl.ApiGatewayBindingCredentials;
+import org.servicebroker.apigateway.service.impl.ApiGatewayCapacityService;
+import org.servicebroker.apigateway.service.impl.ApiGatewayDedicatedVMService;
+import org.servicebroker.apigateway.service.impl.ApiGatewayServiceInstanceBindingService;
+
+import java.util.*;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * The type Plan migration service test.
+ */
+public class PlanMigrationServiceTest {
+
+    private static final String SOURCE_IP = "10.0.0.1";
+    private static final String TARGET_IP = "10.0.0.2";
+    private static final String NEW_PLAN_ID = "new-plan-id";
+    private static final String PASSWORD = "Test12";
+
+    ApiGatewayDedicatedVMService apiGatewayDedicatedVMService;
+    ApiGatewayCapacityService apiGatewayCapacityService;
+    Wso2MigrationClient wso2MigrationClient;
+    Scim2Client scim2Client;
+    ApiGatewayBindingCredentials apiGatewayBindingCredentials = new ApiGatewayBindingCredentials("test_secret");
+    ApiGatewayServiceInstanceBindingService apiGatewayServiceInstanceBindingService;
+    VmSelectionService vmSelectionService;
+    PlanMigrationService planMigrationService;
+
+    JpaDedicatedVM source;
+    JpaDedicatedVM target;
+
+    /**
+     * Sets up.
+     *
+     * @throws Exception the exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        apiGatewayDedicatedVMService = mock(ApiGatewayDedicatedVMService.class);
+        apiGatewayCapacityService = mock(ApiGatewayCapacityService.class);
+        wso2MigrationClient = mock(Wso2MigrationClient.class);
+        scim2Client = mock(Scim2Client.class);
+        apiGatewayServiceInstanceBindingService = mock(ApiGatewayServiceInstanceBindingService.class);
+        vmSelectionService = mock(VmSelectionService.class);
+        when(vmSelectionService.instanceGroup(NEW_PLAN_ID)).thenReturn("large");
+        planMigrationService = new PlanMigrationService(apiGatewayDedicatedVMService, apiGatewayCapacityService, wso2MigrationClient, scim2Client,
+                apiGatewayBindingCredentials, apiGatewayServiceInstanceBindingService, vmSelectionService, Runnable::run);
+
+        source = JpaRepositoryFixture.getJpaDedicatedVM();
+        source.setIp(SOURCE_IP);
+        source.setAssignment(TestConstants.STATUS_ASSIGNED);
+        target = JpaRepositoryFixture.getJpaDedicatedVM();
+        target.setIp(TARGET_IP);
+        target.setAssignment(TestConstants.STATUS_PROVISIONING);
+
+        when(apiGatewayDedicatedVMService.findByServiceInstanceId(TestConstants.SV_INSTANCE_ID)).thenReturn(source);
+        when(apiGatewayDedicatedVMService.claimForMigration(TestConstants.SV_INSTANCE_ID, "large")).thenReturn(target);
+    }
+
+    /**
+     * Migration test. service admin 생성, 사용자 / 그룹 / API 복사 후 VM 교체
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void migrateTest_VerifyCompleted() throws Exception {
+        Map<String, String> users = new LinkedHashMap<>();
+        users.put("alice", "alice@example.com");
+        users.put("bob", null);
+        users.put("binding-b1", null);
+        when(wso2MigrationClient.getUsers(SOURCE_IP)).thenReturn(users);
+        when(wso2MigrationClient.createUser(TARGET_IP, "alice", "alice@example.com", null)).thenReturn("id-alice");
+        when(wso2MigrationClient.createUser(TARGET_IP, "bob", null, null)).thenReturn("id-bob");
+        when(scim2Client.getGroups(TARGET_IP)).thenReturn("admin-group");
+        when(scim2Client.createUser(TARGET_IP, PASSWORD)).thenReturn("id-service-admin");
+        when(wso2MigrationClient.createUser(TARGET_IP, "binding-b1", null, apiGatewayBindingCredentials.password("binding-b1"))).thenReturn("id-binding-b1");
+        Map<String, List<String>> groups = new LinkedHashMap<>();
+        groups.put("PRIMARY/admin", Arrays.asList("admin", "service-admin", "bob"));
+        groups.put("Application/empty", Collections.singletonList("admin"));
+        when(wso2MigrationClient.getGroupMembers(SOURCE_IP)).thenReturn(groups);
+        when(wso2MigrationClient.getApiIds(SOURCE_IP)).thenReturn(Arrays.asList("api-1", "api-2"));
+        when(wso2MigrationClient.exportApi(eq(SOURCE_IP), anyString())).thenReturn(new byte[]{1});
+
+        PlanMigration migration = planMigrationService.start(TestConstants.SV_INSTANCE_ID, TestConstants.SERVICES_PLANS_ID, NEW_PLAN_ID, PASSWORD).get();
+
+        assertThat(migration.getStep(), is(PlanMigration.Step.COMPLETED));
+        assertThat(migration.getSourceIp(), is(SOURCE_IP));
+        assertThat(migration.getTargetIp(), is(TARGET_IP));
+        assertThat(migration.getUsersCopied(), is(3));
+        assertThat(migration.getPasswordResetRequired(), is(Collections.singletonList("bob")));
+        assertThat(migration.getGroupsCopied(), is(1));
+        assertThat(migration.getApisCopied(), is(2));
+        verify(scim2Client).regAdmin(TARGET_IP, "admin-group", "id-service-admin");
+        verify(wso2MigrationClient).addGroupMembers(TARGET_IP, "PRIMARY/admin", Collections.singletonMap("bob", "id-bob"));
+        verify(wso2MigrationClient, times(2)).importApi(TARGET_IP, new byte[]{1});
+        verify(apiGatewayDedicatedVMService).swap(TestConstants.SV_INSTANCE_ID, TestConstants.SERVICES_PLANS_ID, NEW_PLAN_ID, target);
+        verify(apiGatewayServiceInstanceBindingService).evict(TestConstants.SV_INSTANCE_ID);
+        // service admin, 복사한 사용자 / 그룹 / API 마다 claim 갱신
+        verify(apiGatewayDedicatedVMService, times(7)).heartbeat(target);
+        assertThat(planMigrationService.get(TestConstants.SV_INSTANCE_ID), is(migration));
+    }
+
+    /**
+     * Migration test verify recovered target. The sweeper recovered the migration VM : the migration stops
+     * before writing more and does not swap.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void migrateTest_VerifyTargetRecovered() throws Exception {
+        when(wso2MigrationClient.getUsers(SOURCE_IP)).thenReturn(Collections.emptyMap());
+        when(wso2MigrationClient.getGroupMembers(SOURCE_IP)).thenReturn(Collections.emptyMap());
+        when(wso2MigrationClient.getApiIds(SOURCE_IP)).thenReturn(Arrays.asList("api-1", "api-2"));
+        doThrow(new ServiceException("VM " + TARGET_IP + " is no longer claimed.")).when(apiGatewayDedicatedVMService).heartbeat(target);
+
+        PlanMigration migration = planMigrationService.start(TestConstants.SV_INSTANCE_ID, TestConstants.SERVICES_PLANS_ID, NEW_PLAN_ID, PASSWORD).get();
+
+        assertThat(migration.getStep(), is(PlanMigration.Step.FAILED));
+        assertThat(migration.getMessage(), containsString("no longer claimed"));
+        verify(scim2Client).createUser(TARGET_IP, PASSWORD);
+        verify(wso2MigrationClient, never()).importApi(anyString(), any(byte[].class));
+        verify(apiGatewayDedicatedVMService, never()).swap(anyString(), anyString(), anyString(), any(JpaDedicatedVM.class));
+    }
+
+    /**
+     * Migration test verify cancelled. 취소된 migration 은 다음 복사 항목에서 중단, VM 교체 없이 migration VM 은 recreate 대기
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void migrateTest_VerifyCancelled() throws Exception {
+        when(wso2MigrationClient.getUsers(SOURCE_IP)).thenReturn(Collections.emptyMap());
+        when(wso2MigrationClient.getGroupMembers(SOURCE_IP)).thenReturn(Collections.emptyMap());
+        when(wso2MigrationClient.getApiIds(SOURCE_IP)).thenAnswer(invocation -> {
+            assertThat(planMigrationService.cancel(TestConstants.SV_INSTANCE_ID), is(true));
+            return Arrays.asList("api-1", "api-2");
+        });
+        when(wso2MigrationClient.exportApi(eq(SOURCE_IP), anyString())).thenReturn(new byte[]{1});
+
+        PlanMigration migration = planMigrationService.start(TestConstants.SV_INSTANCE_ID, TestConstants.SERVICES_PLANS_ID, NEW_PLAN_ID, PASSWORD).get();
+
+        assertThat(migration.getStep(), is(PlanMigration.Step.FAILED));
+        assertThat(migration.getMessage(), containsString("Cancelled"));
+        verify(wso2MigrationClient, times(1)).importApi(TARGET_IP, new byte[]{1});
+        verify(apiGatewayDedicatedVMService, never()).swap(anyString(), anyString(), anyString(), any(JpaDedicatedVM.class));
+        verify(apiGatewayDedicatedVMService).markForRecreate(target);
+    }
+
+    /**
+     * Migration test verify not cancelled while swapping. VM 교체가 시작된 migration 은 취소 불가
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void migrateTest_VerifyNotCancelledWhileSwapping() throws Exception {
+        when(wso2MigrationClient.getUsers(SOURCE_IP)).thenReturn(Collections.emptyMap());
+        when(wso2MigrationClient.getGroupMembers(SOURCE_IP)).thenReturn(Collections.emptyMap());
+        when(wso2MigrationClient.getApiIds(SOURCE_IP)).thenReturn(Collections.emptyList());
+        when(apiGatewayDedicatedVMService.swap(TestConstants.SV_INSTANCE_ID, TestConstants.SERVICES_PLANS_ID, NEW_PLAN_ID, target)).thenAnswer(invocation -> {
+            assertThat(planMigrationService.cancel(TestConstants.SV_INSTANCE_ID), is(false));
+            return source;
+        });
+
+        PlanMigration migration = planMigrationService.start(TestConstants.SV_INSTANCE_ID, TestConstants.SERVICES_PLANS_ID, NEW_PLAN_ID, PASSWORD).get();
+
+        assertThat(migration.getStep(), is(PlanMigration.Step.COMPLETED));
+        assertThat(planMigrationService.cancel(TestConstants.SV_INSTANCE_ID), is(false));
+    }
+
+    /**
+     * Migration test verify no available vm.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void migrateTest_VerifyNoAvailableVM() throws Exception {
+        when(apiGatewayDedicatedVMService.claimForMigration(TestConstants.SV_INSTANCE_ID, "large")).thenReturn(null);
+
+        PlanMigration migration = planMigrationService.start(TestConstants.SV_INSTANCE_ID, TestConstants.SERVICES_PLANS_ID, NEW_PLAN_ID, PASSWORD).get();
+
+        assertThat(migration.getStep(), is(PlanMigration.Step.FAILED));
+        assertThat(migration.getMessage(), containsString("no available service VM"));
+        verify(apiGatewayCapacityService).poolExhausted();
+        verify(apiGatewayDedicatedVMService, never()).swap(anyString(), anyString(), anyString(), any(JpaDedicatedVM.class));
+    }
+
+    /**
+     * Migration test verify release. 복사 전 실패 시 migration VM 은 미할당으로 반환
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void migrateTest_VerifyReleasedBeforeCopy() throws Exception {
+        when(wso2MigrationClient.getUsers(SOURCE_IP)).thenThrow(new ServiceException("Failed to retrieve users"));
+
+        PlanMigration migration = planMigrationService.start(TestConstants.SV_INSTANCE_ID, TestConstants.SERVICES_PLANS_ID, NEW_PLAN_ID, PASSWORD).get();
+
+        assertThat(migration.getStep(), is(PlanMigration.Step.FAILED));
+        verify(apiGatewayDedicatedVMService).release(target);
+        verify(apiGatewayDedicatedVMService, never()).markForRecreate(any(JpaDedicatedVM.class));
+    }
+
+    /**
+     * Migration test verify recreate. 복사 이후 실패 시 migration VM 은 recreate 대기
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void migrateTest_VerifyRecreatedAfterCopy() throws Exception {
+        when(wso2MigrationClient.getUsers(SOURCE_IP)).thenReturn(Collections.emptyMap());
+        when(wso2MigrationClient.getGroupMembers(SOURCE_IP)).thenReturn(Collections.emptyMap());
+        when(wso2MigrationClient.getApiIds(SOURCE_IP)).thenReturn(Collections.singletonList("api-1"));
+        when(wso2MigrationClient.exportApi(SOURCE_IP, "api-1")).thenReturn(new byte[]{1});
+        when(apiGatewayDedicatedVMService.swap(anyString(), anyString(), anyString(), any(JpaDedicatedVM.class)))
+                .thenThrow(new ServiceException("Cannot swap VM."));
+
+        PlanMigration migration = planMigrationService.start(TestConstants.SV_INSTANCE_ID, TestConstants.SERVICES_PLANS_ID, NEW_PLAN_ID, PASSWORD).get();
+
+        assertThat(migration.getStep(), is(PlanMigration.Step.FAILED));
+        assertThat(migration.getMessage(), containsString("Cannot swap VM"));
+        verify(apiGatewayDedicatedVMService).markForRecreate(target);
+        verify(apiGatewayDedicatedVMService, never()).release(any(JpaDedicatedVM.class));
+    }
+
+    /**
+     * Migration test verify one migration per service instance.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void startTest_VerifyInProgress() throws Exception {
+        List<Runnable> queued = new ArrayList<>();
+        PlanMigrationService queuedService = new PlanMigrationService(apiGatewayDedicatedVMService, apiGatewayCapacityService, wso2MigrationClient, scim2Client,
+                apiGatewayBindingCredentials, apiGatewayServiceInstanceBindingService, vmSelectionService, queued::add);
+
+        queuedService.start(TestConstants.SV_INSTANCE_ID, TestConstants.SERVICES_PLANS_ID, NEW_PLAN_ID, PASSWORD);
+
+        assertThatThrownBy(() -> queuedService.start(TestConstants.SV_INSTANCE_ID, TestConstants.SERVICES_PLANS_ID, NEW_PLAN_ID, PASSWORD))
+                .isInstanceOf(ServiceException.class).hasMessageContaining("already being migrated");
+        assertThat(queuedService.getAll().size(), is(1));
+    }
+}
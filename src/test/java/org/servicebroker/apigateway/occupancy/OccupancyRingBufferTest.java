@@ -0,0 +1,83 @@
+package org.servicebroker.apigateway.occupancy;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+
+/**
+ * The type Occupancy ring buffer test.
+ */
+public class OccupancyRingBufferTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    /**
+     * Append test verify wrap around. The file size stays fixed and only the newest records are kept.
+     *
+     * @throws IOException the io exception
+     */
+    @Test
+    public void appendTest_VerifyWrapAround() throws IOException {
+        Path path = temporaryFolder.getRoot().toPath().resolve("occupancy.ring");
+
+        try (OccupancyRingBuffer ringBuffer = new OccupancyRingBuffer(path, 4)) {
+            for (int i = 0; i < 4; i++) {
+                ringBuffer.append(snapshot(i));
+            }
+            long size = Files.size(path);
+
+            for (int i = 4; i < 10; i++) {
+                ringBuffer.append(snapshot(i));
+            }
+
+            List<OccupancySnapshot> snapshots = ringBuffer.read(0);
+            assertThat(Files.size(path), is(size));
+            assertThat(snapshots.size(), is(4));
+            assertThat(snapshots.get(0).getTimestamp(), is(6L));
+            assertThat(snapshots.get(3).getTimestamp(), is(9L));
+            assertThat(snapshots.get(3).getCount(2), is(9));
+            assertThat(snapshots.get(3).getProvisions(), is(1));
+            assertThat(ringBuffer.read(8).size(), is(2));
+        }
+    }
+
+    /**
+     * Open test verify reopen. Records survive a restart; a different capacity starts over.
+     *
+     * @throws IOException the io exception
+     */
+    @Test
+    public void openTest_VerifyReopen() throws IOException {
+        Path path = temporaryFolder.getRoot().toPath().resolve("occupancy.ring");
+
+        try (OccupancyRingBuffer ringBuffer = new OccupancyRingBuffer(path, 4)) {
+            for (int i = 0; i < 6; i++) {
+                ringBuffer.append(snapshot(i));
+            }
+        }
+
+        try (OccupancyRingBuffer ringBuffer = new OccupancyRingBuffer(path, 4)) {
+            assertThat(ringBuffer.size(), is(4));
+            ringBuffer.append(snapshot(6));
+            assertThat(ringBuffer.read(0).get(0).getTimestamp(), is(3L));
+        }
+
+        try (OccupancyRingBuffer ringBuffer = new OccupancyRingBuffer(path, 8)) {
+            assertThat(ringBuffer.size(), is(0));
+        }
+    }
+
+    private static OccupancySnapshot snapshot(int i) {
+        return new OccupancySnapshot(i, new int[]{10 - i, 0, i, 0, 0}, i % 2, 0);
+    }
+}
@@ -0,0 +1,151 @@
+package org.servicebroker.apigateway.occupancy;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.servicebroker.apigateway.repository.JpaDedicatedVMRepository;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.*;
+
+
+/**
+ * The type Occupancy service test.
+ */
+public class OccupancyServiceTest {
+
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    JpaDedicatedVMRepository jpaDedicatedVMRepository;
+    OccupancyService occupancyService;
+
+    /**
+     * Sets up.
+     *
+     * @throws Exception the exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        jpaDedicatedVMRepository = mock(JpaDedicatedVMRepository.class);
+        occupancyService = new OccupancyService(jpaDedicatedVMRepository, temporaryFolder.getRoot().toPath().resolve("occupancy.ring").toString(), 100);
+    }
+
+    /**
+     * Aggregate test. One grouped count per snapshot, the aggregates are served from the ring buffer.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void aggregateTest() throws Exception {
+        long now = System.currentTimeMillis();
+        when(jpaDedicatedVMRepository.countGroupByAssignment()).thenReturn(
+                rows(new Object[]{0, 5L}, new Object[]{2, 3L}),
+                rows(new Object[]{0, 3L}, new Object[]{2, 5L}),
+                rows(new Object[]{0, 2L}, new Object[]{2, 6L}, new Object[]{3, 1L}));
+
+        occupancyService.provisioned();
+        occupancyService.record(now - 90 * 60000);
+        occupancyService.provisioned();
+        occupancyService.provisioned();
+        occupancyService.deprovisioned();
+        occupancyService.record(now - 80 * 60000);
+        occupancyService.record(now - 10 * 60000);
+
+        Map<String, Object> aggregate = occupancyService.aggregate(2 * HOUR, HOUR);
+        Map<String, Object> second = occupancyService.aggregate(2 * HOUR, HOUR);
+
+        verify(jpaDedicatedVMRepository, times(3)).countGroupByAssignment();
+        assertThat(second.get("snapshots"), is(3));
+
+        List<Map<String, Object>> buckets = (List<Map<String, Object>>) aggregate.get("buckets");
+        assertThat(buckets.size(), is(2));
+        assertThat(buckets.get(0).get("samples"), is(2));
+        assertThat(buckets.get(0).get("provisions"), is(3));
+        assertThat(buckets.get(0).get("deprovisions"), is(1));
+
+        Map<String, Map<String, Object>> states = (Map<String, Map<String, Object>>) buckets.get(0).get("states");
+        assertThat(states.get("waiting_for_assignment").get("min"), is(3));
+        assertThat(states.get("waiting_for_assignment").get("avg"), is(4.0));
+        assertThat(states.get("waiting_for_assignment").get("max"), is(5));
+        assertThat(((Map<String, Map<String, Object>>) buckets.get(1).get("states")).get("provisioning").get("max"), is(1));
+    }
+
+    /**
+     * Forecast test. Rising demand projects the pool running out.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void forecastTest() throws Exception {
+        long now = System.currentTimeMillis();
+        when(jpaDedicatedVMRepository.countGroupByAssignment()).thenReturn(rows(new Object[]{0, 20L}));
+
+        for (int hour = 6; hour >= 1; hour--) {
+            for (int i = 0; i < 7 - hour; i++) {
+                occupancyService.provisioned();
+            }
+            occupancyService.record(now - hour * HOUR + 1);
+        }
+
+        Map<String, Object> forecast = (Map<String, Object>) occupancyService.forecast(6 * HOUR, HOUR, 4 * HOUR).get("forecast");
+
+        assertThat(forecast.get("free_now"), is(20));
+        assertThat((Double) forecast.get("provisions"), greaterThan(24.0));
+        assertThat((Double) forecast.get("free_projected"), lessThan(0.0));
+        assertThat((Long) forecast.get("exhausted_in_ms"), lessThan(4 * HOUR));
+    }
+
+    /**
+     * Forecast test verify no history.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void forecastTest_VerifyNoHistory() throws Exception {
+        assertThat(occupancyService.forecast(6 * HOUR, HOUR, HOUR).get("forecast"), is(nullValue()));
+    }
+
+    /**
+     * Unwritable file test. Recording is disabled instead of failing the broker.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void openTest_VerifyRecordingDisabled() throws Exception {
+        String file = temporaryFolder.newFile("not-a-directory").toPath().resolve("occupancy.ring").toString();
+        occupancyService = new OccupancyService(jpaDedicatedVMRepository, file, 100);
+
+        occupancyService.provisioned();
+        occupancyService.record(System.currentTimeMillis());
+
+        verify(jpaDedicatedVMRepository, never()).countGroupByAssignment();
+        assertThat(occupancyService.aggregate(HOUR, HOUR).get("snapshots"), is(0));
+        assertThat(occupancyService.forecast(HOUR, HOUR, HOUR).get("forecast"), is(nullValue()));
+        occupancyService.close();
+    }
+
+    /**
+     * Project test. A linear series is extrapolated linearly.
+     */
+    @Test
+    public void projectTest() {
+        assertThat(OccupancyService.project(new double[]{1, 2, 3, 4, 5}, 2), closeTo(6 + 7, 0.001));
+        assertThat(OccupancyService.project(new double[]{3, 3, 3}, 4), closeTo(12, 0.001));
+    }
+
+    private static List<Object[]> rows(Object[]... rows) {
+        return Arrays.asList(rows);
+    }
+}
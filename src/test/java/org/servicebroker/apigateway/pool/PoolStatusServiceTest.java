@@ -0,0 +1,119 @@
+package org.servicebroker.apigateway.pool;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.servicebroker.apigateway.config.JpaTestConfig;
+import org.servicebroker.apigateway.exception.ServiceException;
+import org.servicebroker.apigateway.model.JpaDedicatedVM;
+import org.servicebroker.apigateway.model.JpaRepositoryFixture;
+import org.servicebroker.apigateway.repository.JpaDedicatedVMRepository;
+import org.servicebroker.apigateway.repository.JpaServiceInstanceRepository;
+import org.servicebroker.apigateway.service.SqlStatementCounter;
+import org.servicebroker.apigateway.service.TestConstants;
+import org.servicebroker.apigateway.service.impl.ApiGatewayDedicatedVMService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Map;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.core.IsNull.notNullValue;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * The type Pool status service test.
+ */
+@RunWith(SpringRunner.class)
+@DataJpaTest
+@ContextConfiguration(classes = {JpaTestConfig.class, ApiGatewayDedicatedVMService.class, PoolStatusService.class})
+@TestPropertySource(properties = {
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.jpa.properties.hibernate.session_factory.statement_inspector=org.servicebroker.apigateway.service.SqlStatementCounter"})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class PoolStatusServiceTest {
+
+    @Autowired
+    PoolStatusService poolStatusService;
+    @Autowired
+    ApiGatewayDedicatedVMService apiGatewayDedicatedVMService;
+    @Autowired
+    JpaDedicatedVMRepository jpaDedicatedVMRepository;
+    @Autowired
+    JpaServiceInstanceRepository jpaServiceInstanceRepository;
+
+    /**
+     * Sets up.
+     *
+     * @throws Exception the exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        jpaServiceInstanceRepository.deleteAll();
+        jpaDedicatedVMRepository.deleteAll();
+
+        for (int i = 0; i < 3; i++) {
+            JpaDedicatedVM jpaDedicatedVM = JpaRepositoryFixture.getJpaDedicatedVM();
+            jpaDedicatedVM.setIp(TestConstants.DEDICATED_VM_IP + i);
+            jpaDedicatedVM.setProvisionedServiceInstanceId(null);
+            jpaDedicatedVMRepository.save(jpaDedicatedVM);
+        }
+    }
+
+    /**
+     * Status test verify grouped counts.
+     * grouped summary (1) + oldest waiting for recreate (1)
+     *
+     * @throws ServiceException the service exception
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void statusTest_VerifyGroupedCounts() throws ServiceException {
+        apiGatewayDedicatedVMService.claim(TestConstants.SV_INSTANCE_ID);
+        apiGatewayDedicatedVMService.assign(JpaRepositoryFixture.getJpaServiceInstance());
+        JpaDedicatedVM recreate = apiGatewayDedicatedVMService.claim(TestConstants.OTHER_SV_INSTANCE_ID);
+        apiGatewayDedicatedVMService.markForRecreate(recreate);
+        SqlStatementCounter.reset();
+
+        Map<String, Object> status = poolStatusService.status();
+
+        assertThat(SqlStatementCounter.getStatements().size(), is(2));
+        assertThat(status.get("total"), is(3L));
+
+        Map<String, Long> states = (Map<String, Long>) status.get("states");
+        assertThat(states.get("waiting_for_assignment"), is(1L));
+        assertThat(states.get("waiting_for_recreate"), is(1L));
+        assertThat(states.get("assigned"), is(1L));
+        assertThat(states.get("provisioning"), is(0L));
+
+        Map<String, Map<String, Object>> plans = (Map<String, Map<String, Object>>) status.get("plans");
+        assertThat(plans.get(TestConstants.SERVICES_PLANS_ID).get("assigned"), is(1L));
+        assertThat(plans.get(TestConstants.SERVICES_PLANS_ID).get("last_provisioned"), is(notNullValue()));
+        assertThat(plans.get("none").get("waiting_for_assignment"), is(1L));
+        assertThat(status.get("last_provisioned"), is(notNullValue()));
+
+        Map<String, Object> oldest = (Map<String, Object>) status.get("oldest_waiting_for_recreate");
+        assertThat(oldest.get("ip"), is(recreate.getIp()));
+        assertThat(oldest.get("since"), is(notNullValue()));
+    }
+
+    /**
+     * Status test verify empty pool.
+     */
+    @Test
+    public void statusTest_VerifyEmptyPool() {
+        jpaDedicatedVMRepository.deleteAll();
+
+        Map<String, Object> status = poolStatusService.status();
+
+        assertThat(status.get("total"), is(0L));
+        assertThat(status.get("oldest_waiting_for_recreate"), is(nullValue()));
+        assertThat(status.get("last_provisioned"), is(nullValue()));
+    }
+}
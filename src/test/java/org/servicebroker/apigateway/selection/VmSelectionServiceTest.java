@@ -0,0 +1,155 @@
+package org.servicebroker.apigateway.selection;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.servicebroker.apigateway.exception.ServiceException;
+import org.servicebroker.apigateway.model.JpaDedicatedVM;
+import org.servicebroker.apigateway.service.impl.ApiGatewayDedicatedVMService;
+import org.servicebroker.apigateway.service.impl.Constants;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.hasEntry;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+
+/**
+ * The type Vm selection service test.
+ */
+public class VmSelectionServiceTest {
+
+    private static final String SV_INSTANCE_ID = "test_sv_instance_id";
+    private static final String PLAN_ID = "test_plan_id";
+    private static final String LARGE_PLAN_ID = "large_plan_id";
+
+    ApiGatewayDedicatedVMService apiGatewayDedicatedVMService;
+    VmSelectionService vmSelectionService;
+
+    /**
+     * Sets up.
+     *
+     * @throws Exception the exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        apiGatewayDedicatedVMService = mock(ApiGatewayDedicatedVMService.class);
+        vmSelectionService = new VmSelectionService(apiGatewayDedicatedVMService, new VmHealthTracker(),
+                Collections.singletonList(new LeastRecentlyRecreatedStrategy()), "least-recently-recreated", LARGE_PLAN_ID + "=large");
+
+        when(apiGatewayDedicatedVMService.findByAssignment(Constants.STATUS_WATING_FOR_ASSIGNMENT))
+                .thenReturn(VmSelectionStrategyTest.vms("10.0.0.1", "10.0.0.2", "10.0.0.3", "10.0.0.4", "10.0.0.5"));
+    }
+
+    /**
+     * Claim test. The ranked VMs are claimed in order by ip, without a query for the next candidate.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void claimTest_VerifyRankedOrder() throws Exception {
+        JpaDedicatedVM claimed = JpaDedicatedVM.builder().ip("10.0.0.1").build();
+        when(apiGatewayDedicatedVMService.claim(SV_INSTANCE_ID, "10.0.0.1")).thenReturn(claimed);
+
+        vmSelectionService.refresh();
+
+        assertThat(vmSelectionService.claim(SV_INSTANCE_ID, PLAN_ID), is(claimed));
+        assertThat(vmSelectionService.getRanking(), contains("10.0.0.2", "10.0.0.3", "10.0.0.4", "10.0.0.5"));
+        verify(apiGatewayDedicatedVMService, never()).claimFromInstanceGroup(anyString(), anyString());
+    }
+
+    /**
+     * Claim test. Candidates claimed by another node are skipped, after MAX_CANDIDATES the first free VM is claimed.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void claimTest_VerifyFallback() throws Exception {
+        JpaDedicatedVM claimed = JpaDedicatedVM.builder().ip("10.0.0.5").build();
+        when(apiGatewayDedicatedVMService.claimFromInstanceGroup(SV_INSTANCE_ID, null)).thenReturn(claimed);
+
+        vmSelectionService.refresh();
+
+        assertThat(vmSelectionService.claim(SV_INSTANCE_ID, PLAN_ID), is(claimed));
+        verify(apiGatewayDedicatedVMService, times(VmSelectionService.MAX_CANDIDATES)).claim(eq(SV_INSTANCE_ID), anyString());
+        assertThat(vmSelectionService.getRanking(), contains("10.0.0.4", "10.0.0.5"));
+    }
+
+    /**
+     * Claim test. Without a ranking (strategy none) the first free VM is claimed.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void claimTest_VerifyNone() throws Exception {
+        vmSelectionService = new VmSelectionService(apiGatewayDedicatedVMService, new VmHealthTracker(), Collections.emptyList(), VmSelectionService.NONE, "");
+
+        vmSelectionService.refresh();
+        vmSelectionService.claim(SV_INSTANCE_ID, PLAN_ID);
+
+        assertThat(vmSelectionService.getRanking(), is(empty()));
+        verify(apiGatewayDedicatedVMService).claimFromInstanceGroup(SV_INSTANCE_ID, null);
+        verify(apiGatewayDedicatedVMService, never()).findByAssignment(anyInt());
+    }
+
+    /**
+     * Claim test. A plan mapped to an instance group claims only VMs of that group; the other candidates stay ranked.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void claimTest_VerifyInstanceGroup() throws Exception {
+        List<JpaDedicatedVM> vms = VmSelectionStrategyTest.vms("10.0.0.1", "10.0.0.2", "10.0.0.3");
+        vms.get(0).setVmName("small");
+        vms.get(1).setVmName("large");
+        vms.get(2).setVmName("small");
+        when(apiGatewayDedicatedVMService.findByAssignment(Constants.STATUS_WATING_FOR_ASSIGNMENT)).thenReturn(vms);
+        JpaDedicatedVM claimed = JpaDedicatedVM.builder().ip("10.0.0.2").build();
+        when(apiGatewayDedicatedVMService.claim(SV_INSTANCE_ID, "10.0.0.2")).thenReturn(claimed);
+
+        vmSelectionService.refresh();
+
+        assertThat(vmSelectionService.claim(SV_INSTANCE_ID, LARGE_PLAN_ID), is(claimed));
+        assertThat(vmSelectionService.getRanking(), contains("10.0.0.1", "10.0.0.3"));
+        verify(apiGatewayDedicatedVMService, never()).claim(SV_INSTANCE_ID, "10.0.0.1");
+
+        // 순위에 남은 large VM 이 없으면 instance group 의 첫 미할당 VM
+        vmSelectionService.claim(SV_INSTANCE_ID, LARGE_PLAN_ID);
+        verify(apiGatewayDedicatedVMService).claimFromInstanceGroup(SV_INSTANCE_ID, "large");
+    }
+
+    /**
+     * Instance group test. plan_id=instance_group 형식, 값이 없는 항목은 무시
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void instanceGroupTest() throws Exception {
+        assertThat(VmSelectionService.parse(""), is(Collections.emptyMap()));
+        Map<String, String> mapping = VmSelectionService.parse("a=x, b = y,c=,=z");
+        assertThat(mapping.size(), is(2));
+        assertThat(mapping, hasEntry("a", "x"));
+        assertThat(mapping, hasEntry("b", "y"));
+        assertThat(vmSelectionService.instanceGroup(LARGE_PLAN_ID), is("large"));
+        assertThat(vmSelectionService.instanceGroup(PLAN_ID), is(nullValue()));
+    }
+
+    /**
+     * Unknown strategy test.
+     */
+    @Test
+    public void unknownStrategyTest() {
+        List<VmSelectionStrategy> strategies = Collections.singletonList(new LeastRecentlyRecreatedStrategy());
+
+        assertThatThrownBy(() -> new VmSelectionService(apiGatewayDedicatedVMService, new VmHealthTracker(), strategies, "fastest", ""))
+                .isInstanceOf(ServiceException.class).hasMessageContaining("fastest");
+    }
+}
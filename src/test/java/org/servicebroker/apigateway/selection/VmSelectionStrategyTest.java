@@ -0,0 +1,109 @@
+package org.servicebroker.apigateway.selection;
+
+import org.junit.Test;
+import org.servicebroker.apigateway.client.BoshDeploymentClient;
+import org.servicebroker.apigateway.client.BoshVm;
+import org.servicebroker.apigateway.model.JpaDedicatedVM;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+
+/**
+ * The type Vm selection strategy test.
+ */
+public class VmSelectionStrategyTest {
+
+    private static final String DEPLOYMENT_NAME = "apigateway";
+
+    /**
+     * Az round robin test. The AZs alternate, the AZ with the most free VMs first, VMs unknown to BOSH last.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void azRoundRobinTest() throws Exception {
+        BoshDeploymentClient boshDeploymentClient = mock(BoshDeploymentClient.class);
+        when(boshDeploymentClient.getVms(DEPLOYMENT_NAME)).thenReturn(Arrays.asList(
+                boshVm("z1", "10.0.0.1"), boshVm("z1", "10.0.0.2"),
+                boshVm("z2", "10.0.0.3"), boshVm("z2", "10.0.0.4"), boshVm("z2", "10.0.0.5")));
+
+        List<JpaDedicatedVM> ranked = new AzRoundRobinStrategy(boshDeploymentClient, DEPLOYMENT_NAME)
+                .rank(vms("10.0.0.1", "10.0.0.2", "10.0.0.3", "10.0.0.4", "10.0.0.5", "10.0.0.9"));
+
+        assertThat(ips(ranked), contains("10.0.0.3", "10.0.0.1", "10.0.0.9", "10.0.0.4", "10.0.0.2", "10.0.0.5"));
+    }
+
+    /**
+     * Least recently recreated test. Never released first, then the oldest release.
+     */
+    @Test
+    public void leastRecentlyRecreatedTest() {
+        List<JpaDedicatedVM> free = vms("10.0.0.1", "10.0.0.2", "10.0.0.3");
+        free.get(0).setReleasedTime(new Date(2000));
+        free.get(1).setReleasedTime(new Date(1000));
+
+        assertThat(ips(new LeastRecentlyRecreatedStrategy().rank(free)), contains("10.0.0.3", "10.0.0.2", "10.0.0.1"));
+    }
+
+    /**
+     * Health weighted test. A VM that keeps failing is ranked first far less often than a healthy one.
+     */
+    @Test
+    public void healthWeightedTest() {
+        VmHealthTracker vmHealthTracker = new VmHealthTracker();
+        for (int i = 0; i < 5; i++) {
+            vmHealthTracker.failure("10.0.0.1");
+        }
+        HealthWeightedStrategy strategy = new HealthWeightedStrategy(vmHealthTracker, new Random(42));
+
+        int unhealthyFirst = 0;
+        List<JpaDedicatedVM> free = vms("10.0.0.1", "10.0.0.2");
+        for (int i = 0; i < 1000; i++) {
+            if ("10.0.0.1".equals(strategy.rank(free).get(0).getIp())) {
+                unhealthyFirst++;
+            }
+        }
+
+        assertThat(unhealthyFirst > 0, is(true));
+        assertThat(1000 - unhealthyFirst, greaterThan(unhealthyFirst * 4));
+    }
+
+    /**
+     * Health tracker test. Failures lower the score down to the minimum, successes restore it.
+     */
+    @Test
+    public void healthTrackerTest() {
+        VmHealthTracker vmHealthTracker = new VmHealthTracker();
+        assertThat(vmHealthTracker.score("10.0.0.1"), is(1.0));
+
+        for (int i = 0; i < 20; i++) {
+            vmHealthTracker.failure("10.0.0.1");
+        }
+        assertThat(vmHealthTracker.score("10.0.0.1"), is(VmHealthTracker.MIN_SCORE));
+
+        for (int i = 0; i < 30; i++) {
+            vmHealthTracker.success("10.0.0.1");
+        }
+        assertThat(vmHealthTracker.score("10.0.0.1"), is(1.0));
+    }
+
+    static List<JpaDedicatedVM> vms(String... ips) {
+        return Arrays.stream(ips).map(ip -> JpaDedicatedVM.builder().ip(ip).build()).collect(Collectors.toList());
+    }
+
+    private static List<String> ips(List<JpaDedicatedVM> vms) {
+        return vms.stream().map(JpaDedicatedVM::getIp).collect(Collectors.toList());
+    }
+
+    private static BoshVm boshVm(String az, String ip) {
+        return new BoshVm("apigateway", 0, ip, az, Collections.singletonList(ip));
+    }
+}
@@ -0,0 +1,404 @@
+package org.servicebroker.apigateway.service;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.servicebroker.apigateway.client.BoshDeploymentClient;
+import org.servicebroker.apigateway.client.BoshManifest;
+import org.servicebroker.apigateway.client.BoshVm;
+import org.servicebroker.apigateway.exception.ServiceException;
+import org.servicebroker.apigateway.model.JpaBrokerLease;
+import org.servicebroker.apigateway.model.JpaDedicatedVM;
+import org.servicebroker.apigateway.model.JpaRepositoryFixture;
+import org.servicebroker.apigateway.repository.JpaBrokerLeaseRepository;
+import org.servicebroker.apigateway.service.impl.ApiGatewayCapacityService;
+import org.servicebroker.apigateway.service.impl.ApiGatewayDedicatedVMService;
+import org.servicebroker.apigateway.service.impl.ApiGatewayLeaderService;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+
+/**
+ * The type Api gateway capacity service test.
+ */
+@RunWith(SpringRunner.class)
+public class ApiGatewayCapacityServiceTest {
+
+    private static final String INSTANCE_GROUP = "apigateway";
+
+    @InjectMocks
+    ApiGatewayCapacityService apiGatewayCapacityService;
+
+    @Mock
+    ApiGatewayDedicatedVMService apiGatewayDedicatedVMService;
+    @Mock
+    ApiGatewayLeaderService apiGatewayLeaderService;
+    @Mock
+    JpaBrokerLeaseRepository jpaBrokerLeaseRepository;
+    @Mock
+    BoshDeploymentClient boshDeploymentClient;
+    @Mock
+    Executor brokerTaskExecutor;
+
+    /**
+     * Sets up.
+     *
+     * @throws Exception the exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        apiGatewayCapacityService.deploymentName = TestConstants.DEPLOYMENT_NAME;
+        apiGatewayCapacityService.enabled = true;
+        apiGatewayCapacityService.instanceGroup = INSTANCE_GROUP;
+        apiGatewayCapacityService.lowWatermark = 2;
+        apiGatewayCapacityService.highWatermark = 6;
+        apiGatewayCapacityService.scaleStep = 2;
+        apiGatewayCapacityService.minInstances = 1;
+        apiGatewayCapacityService.maxInstances = 20;
+        apiGatewayCapacityService.idlePeriod = 0;
+        apiGatewayCapacityService.taskTimeout = 1000;
+        apiGatewayCapacityService.dashboardUrl = "https://{ip}:9443/publisher";
+
+        when(apiGatewayLeaderService.isLeader()).thenReturn(true);
+        when(apiGatewayDedicatedVMService.findByAssignment(TestConstants.STATUS_RETIRING)).thenReturn(Collections.emptyList());
+        when(apiGatewayDedicatedVMService.retire(any(JpaDedicatedVM.class))).thenReturn(true);
+        when(boshDeploymentClient.deploy(anyString())).thenReturn(42L);
+    }
+
+    /**
+     * Check capacity test verify not leader.
+     *
+     * @throws ServiceException the service exception
+     */
+    @Test
+    public void checkCapacityTest_VerifyNotLeader() throws ServiceException {
+        when(apiGatewayLeaderService.isLeader()).thenReturn(false);
+
+        assertThat(apiGatewayCapacityService.checkCapacity(), is(0));
+        verify(boshDeploymentClient, never()).getVms(anyString());
+    }
+
+    /**
+     * Check capacity test verify scale up.
+     *
+     * @throws ServiceException the service exception
+     */
+    @Test
+    public void checkCapacityTest_VerifyScaleUp() throws ServiceException {
+        List<BoshVm> vms = vms(0, 1);
+        List<BoshVm> scaled = vms(0, 1, 2, 3);
+        when(boshDeploymentClient.getVms(TestConstants.DEPLOYMENT_NAME)).thenReturn(vms, scaled);
+        when(boshDeploymentClient.getManifest(TestConstants.DEPLOYMENT_NAME)).thenReturn(manifest(2));
+        when(apiGatewayDedicatedVMService.findByAssignment(TestConstants.STATUS_WATING_FOR_ASSIGNMENT)).thenReturn(free(vms.subList(0, 1)));
+
+        assertThat(apiGatewayCapacityService.checkCapacity(), is(2));
+
+        assertThat(deployedInstances(), is(4));
+        verify(boshDeploymentClient).waitForTask(eq(42L), eq(1000L), any(BooleanSupplier.class));
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<JpaDedicatedVM>> registered = ArgumentCaptor.forClass((Class) List.class);
+        verify(apiGatewayDedicatedVMService, times(1)).register(registered.capture());
+        List<JpaDedicatedVM> added = registered.getValue();
+        assertThat(added.size(), is(2));
+        assertThat(added.get(0).getIp(), is(ip(2)));
+        assertThat(added.get(1).getIp(), is(ip(3)));
+        assertThat(added.get(1).getVmName(), is(INSTANCE_GROUP));
+        assertThat(added.get(1).getDashboardUrl(), is("https://" + ip(3) + ":9443/publisher"));
+    }
+
+    /**
+     * Check capacity test verify max instances.
+     *
+     * @throws ServiceException the service exception
+     */
+    @Test
+    public void checkCapacityTest_VerifyMaxInstances() throws ServiceException {
+        apiGatewayCapacityService.maxInstances = 2;
+        when(boshDeploymentClient.getVms(TestConstants.DEPLOYMENT_NAME)).thenReturn(vms(0, 1));
+        when(boshDeploymentClient.getManifest(TestConstants.DEPLOYMENT_NAME)).thenReturn(manifest(2));
+        when(apiGatewayDedicatedVMService.findByAssignment(TestConstants.STATUS_WATING_FOR_ASSIGNMENT)).thenReturn(Collections.emptyList());
+
+        assertThat(apiGatewayCapacityService.checkCapacity(), is(0));
+        verify(boshDeploymentClient, never()).deploy(anyString());
+        // dedicated_vm 에 없는 VM 은 등록하지 않음 (InventoryReconciliationService 가 보고)
+        verify(apiGatewayDedicatedVMService, never()).register(anyListOf(JpaDedicatedVM.class));
+    }
+
+    /**
+     * Check capacity test verify scale down.
+     *
+     * @throws ServiceException the service exception
+     */
+    @Test
+    public void checkCapacityTest_VerifyScaleDown() throws ServiceException {
+        apiGatewayCapacityService.highWatermark = 1;
+        List<BoshVm> vms = vms(0, 1, 2, 3);
+        List<JpaDedicatedVM> free = free(vms);
+        when(boshDeploymentClient.getVms(TestConstants.DEPLOYMENT_NAME)).thenReturn(vms, vms(0));
+        when(boshDeploymentClient.getManifest(TestConstants.DEPLOYMENT_NAME)).thenReturn(manifest(4));
+        when(apiGatewayDedicatedVMService.findByAssignment(TestConstants.STATUS_WATING_FOR_ASSIGNMENT)).thenReturn(free);
+        when(apiGatewayDedicatedVMService.findByAssignment(TestConstants.STATUS_RETIRING)).thenReturn(Collections.emptyList(), free.subList(1, 4));
+
+        assertThat(apiGatewayCapacityService.checkCapacity(), is(-3));
+
+        assertThat(deployedInstances(), is(1));
+        verify(apiGatewayDedicatedVMService, times(3)).retire(any(JpaDedicatedVM.class));
+        verify(apiGatewayDedicatedVMService, never()).retire(free.get(0));
+        verify(apiGatewayDedicatedVMService).remove(Arrays.asList(ip(1), ip(2), ip(3)));
+    }
+
+    /**
+     * Check capacity test verify scale down not idle.
+     *
+     * @throws ServiceException the service exception
+     */
+    @Test
+    public void checkCapacityTest_VerifyScaleDownNotIdle() throws ServiceException {
+        apiGatewayCapacityService.highWatermark = 1;
+        apiGatewayCapacityService.idlePeriod = 60000;
+        List<BoshVm> vms = vms(0, 1, 2, 3);
+        when(boshDeploymentClient.getVms(TestConstants.DEPLOYMENT_NAME)).thenReturn(vms);
+        when(boshDeploymentClient.getManifest(TestConstants.DEPLOYMENT_NAME)).thenReturn(manifest(4));
+        when(apiGatewayDedicatedVMService.findByAssignment(TestConstants.STATUS_WATING_FOR_ASSIGNMENT)).thenReturn(free(vms));
+
+        assertThat(apiGatewayCapacityService.checkCapacity(), is(0));
+        verify(boshDeploymentClient, never()).deploy(anyString());
+    }
+
+    /**
+     * Check capacity test verify scale down after failover.
+     * The idle time comes from released_time / created_time : a leader that never saw the VMs scales down right away,
+     * VMs without either are tracked from the first check.
+     *
+     * @throws ServiceException the service exception
+     */
+    @Test
+    public void checkCapacityTest_VerifyScaleDownAfterFailover() throws ServiceException {
+        apiGatewayCapacityService.highWatermark = 1;
+        apiGatewayCapacityService.idlePeriod = 60000;
+        List<BoshVm> vms = vms(0, 1, 2, 3);
+        List<JpaDedicatedVM> free = free(vms);
+        Date idleBefore = new Date(System.currentTimeMillis() - 120000);
+        free.get(0).setCreatedTime(null);
+        free.get(1).setReleasedTime(idleBefore);
+        free.get(2).setCreatedTime(idleBefore);
+        free.get(3).setReleasedTime(idleBefore);
+        when(boshDeploymentClient.getVms(TestConstants.DEPLOYMENT_NAME)).thenReturn(vms, vms(0));
+        when(boshDeploymentClient.getManifest(TestConstants.DEPLOYMENT_NAME)).thenReturn(manifest(4));
+        when(apiGatewayDedicatedVMService.findByAssignment(TestConstants.STATUS_WATING_FOR_ASSIGNMENT)).thenReturn(free);
+        when(apiGatewayDedicatedVMService.findByAssignment(TestConstants.STATUS_RETIRING)).thenReturn(Collections.emptyList(), free.subList(1, 4));
+
+        assertThat(apiGatewayCapacityService.checkCapacity(), is(-3));
+
+        assertThat(deployedInstances(), is(1));
+        verify(apiGatewayDedicatedVMService, never()).retire(free.get(0));
+    }
+
+    /**
+     * Check capacity test verify scale down highest index assigned.
+     * BOSH would remove the assigned VM with the highest index : no scale-down.
+     *
+     * @throws ServiceException the service exception
+     */
+    @Test
+    public void checkCapacityTest_VerifyScaleDownHighestIndexAssigned() throws ServiceException {
+        apiGatewayCapacityService.highWatermark = 1;
+        List<BoshVm> vms = vms(0, 1, 2, 3);
+        when(boshDeploymentClient.getVms(TestConstants.DEPLOYMENT_NAME)).thenReturn(vms);
+        when(boshDeploymentClient.getManifest(TestConstants.DEPLOYMENT_NAME)).thenReturn(manifest(4));
+        when(apiGatewayDedicatedVMService.findByAssignment(TestConstants.STATUS_WATING_FOR_ASSIGNMENT)).thenReturn(free(vms.subList(0, 3)));
+
+        assertThat(apiGatewayCapacityService.checkCapacity(), is(0));
+        verify(apiGatewayDedicatedVMService, never()).retire(any(JpaDedicatedVM.class));
+        verify(boshDeploymentClient, never()).deploy(anyString());
+    }
+
+    /**
+     * Check capacity test verify scale down failure restores the VMs.
+     *
+     * @throws ServiceException the service exception
+     */
+    @Test
+    public void checkCapacityTest_VerifyScaleDownFailure() throws ServiceException {
+        apiGatewayCapacityService.highWatermark = 3;
+        List<BoshVm> vms = vms(0, 1, 2, 3);
+        when(boshDeploymentClient.getVms(TestConstants.DEPLOYMENT_NAME)).thenReturn(vms);
+        when(boshDeploymentClient.getManifest(TestConstants.DEPLOYMENT_NAME)).thenReturn(manifest(4));
+        when(apiGatewayDedicatedVMService.findByAssignment(TestConstants.STATUS_WATING_FOR_ASSIGNMENT)).thenReturn(free(vms));
+        doThrow(new ServiceException("BOSH task 42 error")).when(boshDeploymentClient).waitForTask(anyLong(), anyLong(), any(BooleanSupplier.class));
+
+        assertThat(apiGatewayCapacityService.checkCapacity(), is(0));
+        verify(apiGatewayDedicatedVMService).restore(Collections.singletonList(ip(3)));
+    }
+
+    /**
+     * Check capacity test verify task running :: 실행 중인 BOSH task 가 있으면 정리 / scale 없음
+     *
+     * @throws ServiceException the service exception
+     */
+    @Test
+    public void checkCapacityTest_VerifyTaskRunning() throws ServiceException {
+        when(boshDeploymentClient.getRunningTasks(TestConstants.DEPLOYMENT_NAME)).thenReturn(Collections.singletonList(41L));
+
+        assertThat(apiGatewayCapacityService.checkCapacity(), is(0));
+        verify(boshDeploymentClient, never()).getVms(anyString());
+        verify(apiGatewayDedicatedVMService, never()).findByAssignment(TestConstants.STATUS_RETIRING);
+        verify(boshDeploymentClient, never()).deploy(anyString());
+    }
+
+    /**
+     * Check capacity test verify leadership lost :: deploy 전 leader 재확인, 대기 중 상실 시 retiring 유지
+     *
+     * @throws ServiceException the service exception
+     */
+    @Test
+    public void checkCapacityTest_VerifyLeadershipLost() throws ServiceException {
+        apiGatewayCapacityService.highWatermark = 3;
+        List<BoshVm> vms = vms(0, 1, 2, 3);
+        when(boshDeploymentClient.getVms(TestConstants.DEPLOYMENT_NAME)).thenReturn(vms);
+        when(boshDeploymentClient.getManifest(TestConstants.DEPLOYMENT_NAME)).thenReturn(manifest(4));
+        when(apiGatewayDedicatedVMService.findByAssignment(TestConstants.STATUS_WATING_FOR_ASSIGNMENT)).thenReturn(free(vms));
+        when(boshDeploymentClient.getRunningTasks(TestConstants.DEPLOYMENT_NAME)).thenReturn(Collections.emptyList(), Collections.singletonList(42L));
+        doAnswer(invocation -> {
+            BooleanSupplier keepWaiting = (BooleanSupplier) invocation.getArguments()[2];
+            when(apiGatewayLeaderService.isLeader()).thenReturn(false);
+            assertThat(keepWaiting.getAsBoolean(), is(false));
+            throw new ServiceException("Stopped waiting for BOSH task 42.");
+        }).when(boshDeploymentClient).waitForTask(eq(42L), anyLong(), any(BooleanSupplier.class));
+
+        assertThat(apiGatewayCapacityService.checkCapacity(), is(0));
+        verify(apiGatewayDedicatedVMService).retire(any(JpaDedicatedVM.class));
+        verify(apiGatewayDedicatedVMService, never()).restore(anyCollectionOf(String.class));
+    }
+
+    /**
+     * Check capacity test verify leadership lost before deploy :: deploy 없이 retiring VM 반환
+     *
+     * @throws ServiceException the service exception
+     */
+    @Test
+    public void checkCapacityTest_VerifyLeadershipLostBeforeDeploy() throws ServiceException {
+        apiGatewayCapacityService.highWatermark = 3;
+        List<BoshVm> vms = vms(0, 1, 2, 3);
+        when(apiGatewayLeaderService.isLeader()).thenReturn(true, false);
+        when(boshDeploymentClient.getVms(TestConstants.DEPLOYMENT_NAME)).thenReturn(vms);
+        when(boshDeploymentClient.getManifest(TestConstants.DEPLOYMENT_NAME)).thenReturn(manifest(4));
+        when(apiGatewayDedicatedVMService.findByAssignment(TestConstants.STATUS_WATING_FOR_ASSIGNMENT)).thenReturn(free(vms));
+
+        assertThat(apiGatewayCapacityService.checkCapacity(), is(0));
+        verify(boshDeploymentClient, never()).deploy(anyString());
+        verify(apiGatewayDedicatedVMService).restore(Collections.singletonList(ip(3)));
+    }
+
+    /**
+     * Pool exhausted test.
+     */
+    @Test
+    public void poolExhaustedTest() {
+        apiGatewayCapacityService.poolExhausted();
+        verify(brokerTaskExecutor).execute(any(Runnable.class));
+        verifyZeroInteractions(jpaBrokerLeaseRepository);
+
+        apiGatewayCapacityService.enabled = false;
+        apiGatewayCapacityService.poolExhausted();
+        verifyNoMoreInteractions(brokerTaskExecutor);
+    }
+
+    /**
+     * Pool exhausted test verify follower :: 신호를 DB 에 기록 (row 가 없으면 생성)
+     */
+    @Test
+    public void poolExhaustedTest_VerifyFollower() {
+        when(apiGatewayLeaderService.isLeader()).thenReturn(false);
+        when(apiGatewayLeaderService.getNodeId()).thenReturn("node-2");
+
+        apiGatewayCapacityService.poolExhausted();
+
+        verify(brokerTaskExecutor, never()).execute(any(Runnable.class));
+        verify(jpaBrokerLeaseRepository).signal(eq(TestConstants.LEASE_POOL_EXHAUSTED), eq("node-2"), any(Date.class));
+        verify(jpaBrokerLeaseRepository).insert(eq(TestConstants.LEASE_POOL_EXHAUSTED), eq("node-2"), any(Date.class), any(Date.class));
+    }
+
+    /**
+     * Check signal test :: 새 신호마다 한 번 capacity 확인
+     *
+     * @throws ServiceException the service exception
+     */
+    @Test
+    public void checkSignalTest() throws ServiceException {
+        List<BoshVm> vms = vms(0, 1, 2);
+        when(boshDeploymentClient.getVms(TestConstants.DEPLOYMENT_NAME)).thenReturn(vms);
+        when(apiGatewayDedicatedVMService.findByAssignment(TestConstants.STATUS_WATING_FOR_ASSIGNMENT)).thenReturn(free(vms));
+        JpaBrokerLease signal = JpaBrokerLease.builder().name(TestConstants.LEASE_POOL_EXHAUSTED).owner("node-2")
+                .expiresTime(new Date(1000)).renewedTime(new Date(1000)).build();
+        when(jpaBrokerLeaseRepository.findOne(TestConstants.LEASE_POOL_EXHAUSTED)).thenReturn(signal);
+
+        apiGatewayCapacityService.checkSignal();
+        apiGatewayCapacityService.checkSignal();
+        verify(boshDeploymentClient, times(1)).getVms(TestConstants.DEPLOYMENT_NAME);
+
+        signal.setRenewedTime(new Date(2000));
+        apiGatewayCapacityService.checkSignal();
+        verify(boshDeploymentClient, times(2)).getVms(TestConstants.DEPLOYMENT_NAME);
+
+        signal.setRenewedTime(new Date(3000));
+        when(apiGatewayLeaderService.isLeader()).thenReturn(false);
+        apiGatewayCapacityService.checkSignal();
+        verify(boshDeploymentClient, times(2)).getVms(TestConstants.DEPLOYMENT_NAME);
+    }
+
+    private int deployedInstances() throws ServiceException {
+        ArgumentCaptor<String> manifest = ArgumentCaptor.forClass(String.class);
+        verify(boshDeploymentClient).deploy(manifest.capture());
+        return BoshManifest.parse(manifest.getValue()).getInstances(INSTANCE_GROUP);
+    }
+
+    private static String manifest(int instances) {
+        return "name: " + TestConstants.DEPLOYMENT_NAME + "\n"
+                + "instance_groups:\n"
+                + "- name: " + INSTANCE_GROUP + "\n"
+                + "  instances: " + instances + "\n"
+                + "  azs: [z1]\n";
+    }
+
+    private static List<BoshVm> vms(int... indexes) {
+        List<BoshVm> vms = new ArrayList<>();
+        for (int index : indexes) {
+            vms.add(new BoshVm(INSTANCE_GROUP, index, "vm-id-" + index, "z1", Collections.singletonList(ip(index))));
+        }
+        vms.add(new BoshVm("other", 0, "other-id", "z1", Collections.singletonList("10.0.1.0")));
+        return vms;
+    }
+
+    private static List<JpaDedicatedVM> free(List<BoshVm> vms) {
+        return vms.stream()
+                .filter(vm -> INSTANCE_GROUP.equals(vm.getJob()))
+                .map(vm -> {
+                    JpaDedicatedVM jpaDedicatedVM = JpaRepositoryFixture.getJpaDedicatedVM();
+                    jpaDedicatedVM.setIp(vm.getIp());
+                    jpaDedicatedVM.setProvisionedServiceInstanceId(null);
+                    return jpaDedicatedVM;
+                })
+                .collect(Collectors.toList());
+    }
+
+    private static String ip(int index) {
+        return "10.0.0." + index;
+    }
+}
@@ -1,34 +1,37 @@
 package org.servicebroker.apigateway.service;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonObject;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.openpaas.bosh.director.BoshDirector;
 import org.openpaas.servicebroker.model.CreateServiceInstanceRequest;
 import org.openpaas.servicebroker.model.ServiceInstance;
+import org.servicebroker.apigateway.client.AsyncScim2Client;
+import org.servicebroker.apigateway.client.Scim2Client;
 import org.servicebroker.apigateway.exception.ServiceException;
 import org.servicebroker.apigateway.model.JpaDedicatedVM;
 import org.servicebroker.apigateway.model.JpaRepositoryFixture;
 import org.servicebroker.apigateway.model.JpaServiceInstance;
 import org.servicebroker.apigateway.model.RequestFixture;
-import org.servicebroker.apigateway.repository.JpaDedicatedVMRepository;
+import org.servicebroker.apigateway.occupancy.OccupancyService;
+import org.servicebroker.apigateway.selection.VmSelectionService;
+import org.servicebroker.apigateway.shutdown.InFlightRegistry;
 import org.servicebroker.apigateway.repository.JpaServiceInstanceRepository;
+import org.servicebroker.apigateway.service.impl.ApiGatewayCapacityService;
 import org.servicebroker.apigateway.service.impl.ApiGatewayCommonService;
-import org.springframework.http.HttpEntity;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.HttpMethod;
-import org.springframework.http.MediaType;
+import org.servicebroker.apigateway.service.impl.ApiGatewayDedicatedVMService;
+import org.servicebroker.apigateway.service.impl.ApiGatewayRetryPolicy;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.util.ReflectionTestUtils;
-import org.springframework.web.client.RestTemplate;
 
-import java.io.UnsupportedEncodingException;
-import java.net.URLDecoder;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.hamcrest.Matchers.is;
@@ -52,17 +55,28 @@ public class ApiGatewayCommonServiceTest {
     @Mock
     JpaServiceInstanceRepository jpaServiceInstanceRepository;
     @Mock
-    JpaDedicatedVMRepository jpaDedicatedVMRepository;
-    @Mock
     BoshDirector boshDirector;
     @Mock
-    RestTemplate restTemplate;
+    Scim2Client scim2Client;
+    @Mock
+    AsyncScim2Client asyncScim2Client;
+    @Mock
+    ApiGatewayDedicatedVMService apiGatewayDedicatedVMService;
+    @Mock
+    ApiGatewayCapacityService apiGatewayCapacityService;
+    @Mock
+    OccupancyService occupancyService;
+    @Mock
+    VmSelectionService vmSelectionService;
+    @Mock
+    InFlightRegistry inFlightRegistry;
+    @Spy
+    ApiGatewayRetryPolicy apiGatewayRetryPolicy = new ApiGatewayRetryPolicy(3, 0, 0);
 
     JpaServiceInstance jpaServiceInstance;
     JpaDedicatedVM jpaDedicatedVM;
     ServiceInstance serviceInstance;
     CreateServiceInstanceRequest createServiceInstanceRequest;
-    HttpHeaders headers;
 
 
     /**
@@ -74,9 +88,6 @@ public class ApiGatewayCommonServiceTest {
     public void setUp() throws Exception {
 
         ReflectionTestUtils.setField(apiGatewayCommonService, "deploymentName", TestConstants.DEPLOYMENT_NAME);
-        ReflectionTestUtils.setField(apiGatewayCommonService, "serviceAdmin", TestConstants.SERVICE_ADMIN);
-        ReflectionTestUtils.setField(apiGatewayCommonService, "admin", TestConstants.ADMIN);
-        ReflectionTestUtils.setField(apiGatewayCommonService, "adminPassword", TestConstants.ADMIN_PASSWORD);
         createServiceInstanceRequest = RequestFixture.getCreateServiceInstanceRequest();
         Map vaildParam = new HashMap<>();
         vaildParam.put(TestConstants.PARAMETERS_KEY, TestConstants.VAILD_PARAMETER_VALUE);
@@ -86,12 +97,6 @@ public class ApiGatewayCommonServiceTest {
         jpaDedicatedVM = JpaRepositoryFixture.getJpaDedicatedVM();
         serviceInstance = RequestFixture.getServiceInstance();
 
-        String basicAuth = "Basic " + (Base64.getEncoder().encodeToString((TestConstants.ADMIN + ":" + TestConstants.ADMIN_PASSWORD).getBytes()));
-        headers = new HttpHeaders();
-        headers.set("Authorization", basicAuth);
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        headers.setAccept(Arrays.asList(MediaType.APPLICATION_JSON));
-
     }
 
     /**
@@ -155,6 +160,54 @@ public class ApiGatewayCommonServiceTest {
         assertThat(result, is(nullValue()));
     }
 
+    /**
+     * Find by service instance id or org guid test verify instance id wins.
+     */
+    @Test
+    public void findByServiceInstanceIdOrOrgGuidTest_VerifyReturn() {
+        JpaServiceInstance otherInstance = JpaRepositoryFixture.getJpaServiceInstance();
+        otherInstance.setServiceInstanceId(TestConstants.OTHER_SV_INSTANCE_ID);
+
+        when(jpaServiceInstanceRepository.findByServiceInstanceIdOrOrganizationGuid(anyString(), anyString()))
+                .thenReturn(Arrays.asList(otherInstance, jpaServiceInstance));
+
+        ServiceInstance result = apiGatewayCommonService.findByServiceInstanceIdOrOrgGuid(TestConstants.SV_INSTANCE_ID, TestConstants.ORG_GUID);
+
+        assertThat(result.getServiceInstanceId(), is(TestConstants.SV_INSTANCE_ID));
+        assertThat(result.getDashboardUrl(), is(jpaServiceInstance.getDashboardUrl()));
+    }
+
+    /**
+     * Find by service instance id or org guid test verify return is null.
+     */
+    @Test
+    public void findByServiceInstanceIdOrOrgGuidTest_VerifyReturnIsNull() {
+
+        when(jpaServiceInstanceRepository.findByServiceInstanceIdOrOrganizationGuid(anyString(), anyString())).thenReturn(Collections.emptyList());
+
+        ServiceInstance result = apiGatewayCommonService.findByServiceInstanceIdOrOrgGuid(TestConstants.SV_INSTANCE_ID, TestConstants.ORG_GUID);
+
+        assertThat(result, is(nullValue()));
+    }
+
+    /**
+     * Service assignment test verify return.
+     *
+     * @throws ServiceException the service exception
+     */
+    @Test
+    public void serviceAssignmentTest_VerifyReturn() throws ServiceException {
+
+        when(vmSelectionService.claim(anyString(), anyString())).thenReturn(jpaDedicatedVM);
+        when(scim2Client.getGroups(TestConstants.DEDICATED_VM_IP)).thenReturn(TestConstants.ADMIN_GROUP_GUID);
+        when(scim2Client.createUser(TestConstants.DEDICATED_VM_IP, TestConstants.VAILD_PARAMETER_VALUE)).thenReturn(TestConstants.USER_GUID);
+
+        assertThat(apiGatewayCommonService.serviceAssignment(createServiceInstanceRequest), is(TestConstants.DASHBOARD_URL));
+        verify(scim2Client, times(1)).regAdmin(TestConstants.DEDICATED_VM_IP, TestConstants.ADMIN_GROUP_GUID, TestConstants.USER_GUID);
+        verify(apiGatewayDedicatedVMService, never()).release(any(JpaDedicatedVM.class));
+        verify(vmSelectionService).succeeded(TestConstants.DEDICATED_VM_IP);
+    }
+
     /**
      * Service assignment test verify assign vm is null.
      *
@@ -163,66 +216,145 @@ public class ApiGatewayCommonServiceTest {
     @Test
     public void serviceAssignmentTest_VerifyAssignVMIsNull() throws ServiceException {
 
-        when(jpaDedicatedVMRepository.findDistinctFirstByAssignmentEquals(TestConstants.STATUS_WATING_FOR_ASSIGNMENT)).thenReturn(null);
+        when(vmSelectionService.claim(anyString(), anyString())).thenReturn(null);
         assertThatThrownBy(() -> apiGatewayCommonService.serviceAssignment(createServiceInstanceRequest))
                 .isInstanceOf(ServiceException.class).hasMessageContaining("Cannot assign VM");
+        verify(apiGatewayCapacityService).poolExhausted();
+    }
+
+    /**
+     * Service assignment test verify duplicate claim.
+     */
+    @Test
+    public void serviceAssignmentTest_VerifyDuplicateClaim() {
+
+        when(vmSelectionService.claim(anyString(), anyString())).thenThrow(new DataIntegrityViolationException("duplicate"));
+        assertThatThrownBy(() -> apiGatewayCommonService.serviceAssignment(createServiceInstanceRequest))
+                .isInstanceOf(ServiceException.class).hasMessageContaining("already being provisioned");
+    }
+
+    /**
+     * Service assignment test verify claimed vm is released on failure.
+     */
+    @Test
+    public void serviceAssignmentTest_VerifyRelease() throws ServiceException {
+
+        when(vmSelectionService.claim(anyString(), anyString())).thenReturn(jpaDedicatedVM);
+        when(scim2Client.getGroups(anyString())).thenThrow(new ServiceException("Failed to retrieve Admin group data"));
+
+        assertThatThrownBy(() -> apiGatewayCommonService.serviceAssignment(createServiceInstanceRequest))
+                .isInstanceOf(ServiceException.class).hasMessageContaining("Failed to retrieve Admin group data");
+        verify(apiGatewayDedicatedVMService, times(1)).release(jpaDedicatedVM);
+        verify(vmSelectionService).failed(TestConstants.DEDICATED_VM_IP);
+    }
+
+    /**
+     * Service assignment test verify return with the non-blocking client.
+     *
+     * @throws ServiceException the service exception
+     */
+    @Test
+    public void serviceAssignmentTest_VerifyNonBlocking() throws ServiceException {
+        ReflectionTestUtils.setField(apiGatewayCommonService, "nonBlocking", true);
+        ReflectionTestUtils.setField(apiGatewayCommonService, "brokerTaskExecutor", (Executor) Runnable::run);
+
+        when(vmSelectionService.claim(anyString(), anyString())).thenReturn(jpaDedicatedVM);
+        when(asyncScim2Client.createServiceAdmin(TestConstants.DEDICATED_VM_IP, TestConstants.VAILD_PARAMETER_VALUE))
+                .thenReturn(CompletableFuture.completedFuture(TestConstants.USER_GUID));
+
+        assertThat(apiGatewayCommonService.serviceAssignment(createServiceInstanceRequest), is(TestConstants.DASHBOARD_URL));
+        verifyZeroInteractions(scim2Client);
+        verify(apiGatewayDedicatedVMService, never()).release(any(JpaDedicatedVM.class));
+    }
+
+    /**
+     * Service assignment test verify claimed vm is released when the non-blocking client fails.
+     */
+    @Test
+    public void serviceAssignmentTest_VerifyNonBlockingRelease() {
+        ReflectionTestUtils.setField(apiGatewayCommonService, "nonBlocking", true);
+        ReflectionTestUtils.setField(apiGatewayCommonService, "brokerTaskExecutor", (Executor) Runnable::run);
+
+        CompletableFuture<String> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new ServiceException("Failed to create service admin"));
+        when(vmSelectionService.claim(anyString(), anyString())).thenReturn(jpaDedicatedVM);
+        when(asyncScim2Client.createServiceAdmin(anyString(), anyString())).thenReturn(failed);
+
+        assertThatThrownBy(() -> apiGatewayCommonService.serviceAssignment(createServiceInstanceRequest))
+                .isInstanceOf(ServiceException.class).hasMessageContaining("Failed to create service admin");
+        verify(apiGatewayDedicatedVMService, times(1)).release(jpaDedicatedVM);
     }
 
     /**
      * Create service instance test.
+     *
+     * @throws ServiceException the service exception
      */
     @Test
-    public void createServiceInstanceTest() {
+    public void createServiceInstanceTest() throws ServiceException {
 
         apiGatewayCommonService.createServiceInstance(serviceInstance);
 
-        verify(jpaServiceInstanceRepository, times(1)).save(any(JpaServiceInstance.class));
+        verify(apiGatewayDedicatedVMService, times(1)).assign(any(JpaServiceInstance.class));
     }
 
     /**
-     * Proc de provisioning test.
+     * Proc de provisioning test. The recreate is left to the outbox worker.
      *
      * @throws Exception the exception
      */
     @Test
     public void procDeProvisioningTest() throws Exception {
 
-        doNothing().when(jpaServiceInstanceRepository).delete(anyString());
-        when(jpaDedicatedVMRepository.findDistinctFirstByProvisionedServiceInstanceId(anyString())).thenReturn(jpaDedicatedVM);
-        when(boshDirector.updateInstanceState(TestConstants.DEPLOYMENT_NAME, jpaDedicatedVM.getVmName(), jpaDedicatedVM.getVmId(), TestConstants.JOB_STATE_RECREATE)).thenReturn(true);
+        when(apiGatewayDedicatedVMService.deprovision(anyString())).thenReturn(jpaDedicatedVM);
 
         apiGatewayCommonService.procDeProvisioning(TestConstants.SV_INSTANCE_ID);
+
+        // service instance 삭제는 deprovision transaction 에서 수행
+        verify(jpaServiceInstanceRepository, never()).delete(anyString());
+        verify(apiGatewayDedicatedVMService, times(1)).deprovision(TestConstants.SV_INSTANCE_ID);
+        verify(occupancyService, times(1)).deprovisioned();
+        verify(boshDirector, never()).updateInstanceState(anyString(), anyString(), anyString(), anyString());
     }
 
     /**
-     * Proc de provisioning test verify recreate vm case 1.
+     * Recreate vm test.
      *
      * @throws Exception the exception
      */
     @Test
-    public void procDeProvisioningTest_VerifyRecreateVM_Case1() throws Exception {
+    public void recreateVMTest() throws Exception {
+
+        when(boshDirector.updateInstanceState(TestConstants.DEPLOYMENT_NAME, jpaDedicatedVM.getVmName(), jpaDedicatedVM.getVmId(), TestConstants.JOB_STATE_RECREATE)).thenReturn(true);
+
+        apiGatewayCommonService.recreateVM(jpaDedicatedVM);
+    }
+
+    /**
+     * Recreate vm test verify failure case 1.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void recreateVMTest_VerifyFailure_Case1() throws Exception {
 
-        doNothing().when(jpaServiceInstanceRepository).delete(anyString());
-        when(jpaDedicatedVMRepository.findDistinctFirstByProvisionedServiceInstanceId(anyString())).thenReturn(jpaDedicatedVM);
         when(boshDirector.updateInstanceState(TestConstants.DEPLOYMENT_NAME, jpaDedicatedVM.getVmName(), jpaDedicatedVM.getVmId(), TestConstants.JOB_STATE_RECREATE)).thenReturn(false);
 
-        assertThatThrownBy(() -> apiGatewayCommonService.procDeProvisioning(TestConstants.SV_INSTANCE_ID))
+        assertThatThrownBy(() -> apiGatewayCommonService.recreateVM(jpaDedicatedVM))
                 .isInstanceOf(ServiceException.class).hasMessageContaining("Failed to recreate dedecated VM");
     }
 
     /**
-     * Proc de provisioning test verify recreate vm case 2.
+     * Recreate vm test verify failure case 2.
      *
      * @throws Exception the exception
      */
     @Test
-    public void procDeProvisioningTest_VerifyRecreateVM_Case2() throws Exception {
+    public void recreateVMTest_VerifyFailure_Case2() throws Exception {
 
-        doNothing().when(jpaServiceInstanceRepository).delete(anyString());
-        when(jpaDedicatedVMRepository.findDistinctFirstByProvisionedServiceInstanceId(anyString())).thenReturn(jpaDedicatedVM);
         when(boshDirector.updateInstanceState(TestConstants.DEPLOYMENT_NAME, jpaDedicatedVM.getVmName(), jpaDedicatedVM.getVmId(), TestConstants.JOB_STATE_RECREATE)).thenThrow(Exception.class);
 
-        assertThatThrownBy(() -> apiGatewayCommonService.procDeProvisioning(TestConstants.SV_INSTANCE_ID))
+        assertThatThrownBy(() -> apiGatewayCommonService.recreateVM(jpaDedicatedVM))
                 .isInstanceOf(ServiceException.class).hasMessageContaining("Failed to recreate dedecated VM");
     }
 
@@ -234,14 +366,12 @@ public class ApiGatewayCommonServiceTest {
     @Test
     public void deprovisionVMTest_VerifyDedicatedVM() throws Exception {
 
-        when(jpaDedicatedVMRepository.findDistinctFirstByProvisionedServiceInstanceId(anyString())).thenReturn(jpaDedicatedVM);
+        when(apiGatewayDedicatedVMService.deprovision(anyString())).thenReturn(jpaDedicatedVM);
 
         JpaDedicatedVM result = apiGatewayCommonService.deprovisionVM(TestConstants.SV_INSTANCE_ID);
 
-        assertThat(result.getAssignment(), is(TestConstants.STATUS_WATING_FOR_VM_RECREATE));
-        assertThat(result.getProvisionedServiceInstanceId(), is(nullValue()));
-        assertThat(result.getProvisionedTime(), is(nullValue()));
-        verify(jpaDedicatedVMRepository, times(1)).save(any(JpaDedicatedVM.class));
+        assertThat(result, is(jpaDedicatedVM));
+        verify(apiGatewayDedicatedVMService, times(1)).deprovision(TestConstants.SV_INSTANCE_ID);
     }
 
     /**
@@ -252,65 +382,26 @@ public class ApiGatewayCommonServiceTest {
     @Test
     public void deprovisionVMTest_VerifyDedicatedVMIsNull() throws Exception {
 
-        when(jpaDedicatedVMRepository.findDistinctFirstByProvisionedServiceInstanceId(anyString())).thenReturn(null);
+        when(apiGatewayDedicatedVMService.deprovision(anyString())).thenThrow(new ServiceException("Cannot deprovision. There are no provisioned VM."));
 
         assertThatThrownBy(() -> apiGatewayCommonService.deprovisionVM(TestConstants.SV_INSTANCE_ID))
                 .isInstanceOf(ServiceException.class).hasMessageContaining("Cannot deprovision");
     }
 
     /**
-     * Gets groups test verify return.
+     * Deprovision vm test verify retry on conflict.
      *
-     * @throws UnsupportedEncodingException the unsupported encoding exception
-     */
-    @Test
-    public void getGroupsTest_VerifyReturn() throws UnsupportedEncodingException {
-        String reqUrl = "https://"+ TestConstants.DEDICATED_VM_IP + TestConstants.SCIM2_GROUPS+"?filter=displayName+eq+PRIMARY/admin";
-        HttpEntity<Object> entity = new HttpEntity<>(headers);
-
-        when(restTemplate.exchange(URLDecoder.decode(reqUrl, "UTF-8"), HttpMethod.GET, entity, Map.class)).thenThrow(Exception.class);
-
-        assertThatThrownBy(() -> apiGatewayCommonService.getGroups(TestConstants.DEDICATED_VM_IP))
-                .isInstanceOf(ServiceException.class).hasMessageContaining("Failed to retrieve Admin group data");
-
-    }
-
-    /**
-     * Reg admin verify return.
-     *
-     * @throws UnsupportedEncodingException the unsupported encoding exception
+     * @throws Exception the exception
      */
     @Test
-    public void regAdmin_VerifyReturn() throws UnsupportedEncodingException {
-        String reqUrl = "https://"+ TestConstants.DEDICATED_VM_IP + TestConstants.SCIM2_GROUPS + "/" + TestConstants.ADMIN_GROUP_GUID;
-        String param = "{\"Operations\":[{\"op\":\"add\",\"value\":{\"members\":[{\"display\":\""+TestConstants.SERVICE_ADMIN+"\",\"value\":\""+TestConstants.USER_GUID+"\"}]}}]}";
-        HttpEntity<Object> entity = new HttpEntity<>(param,headers);
-
-        when(restTemplate.exchange(reqUrl, HttpMethod.PATCH, entity, String.class)).thenThrow(Exception.class);
-
-        assertThatThrownBy(() -> apiGatewayCommonService.regAdmin(TestConstants.DEDICATED_VM_IP, TestConstants.ADMIN_GROUP_GUID, TestConstants.USER_GUID))
-                .isInstanceOf(ServiceException.class).hasMessageContaining("Failed to register admin group");
+    public void deprovisionVMTest_VerifyRetry() throws Exception {
 
-    }
-
-    /**
-     * Create user test verify return.
-     */
-    @Test
-    public void createUserTest_VerifyReturn() {
-        String reqUrl = "https://"+ TestConstants.DEDICATED_VM_IP + TestConstants.SCIM2_USERS;
-        Gson gson = new Gson();
-        JsonObject user =  new JsonObject();
-        user.addProperty("userName", TestConstants.SERVICE_ADMIN);
-        user.addProperty("password", TestConstants.VAILD_PARAMETER_VALUE);
-        String param = gson.toJson(user);
-        HttpEntity<Object> entity = new HttpEntity<>(param, headers);
-
-        when(restTemplate.exchange(reqUrl, HttpMethod.POST, entity, Map.class)).thenThrow(Exception.class);
-
-        assertThatThrownBy(() -> apiGatewayCommonService.createUser(TestConstants.DEDICATED_VM_IP, TestConstants.VAILD_PARAMETER_VALUE))
-                .isInstanceOf(ServiceException.class).hasMessageContaining("Failed to create service admin");
+        when(apiGatewayDedicatedVMService.deprovision(anyString()))
+                .thenThrow(new ObjectOptimisticLockingFailureException(JpaDedicatedVM.class, TestConstants.DEDICATED_VM_IP))
+                .thenReturn(jpaDedicatedVM);
 
+        assertThat(apiGatewayCommonService.deprovisionVM(TestConstants.SV_INSTANCE_ID), is(jpaDedicatedVM));
+        verify(apiGatewayDedicatedVMService, times(2)).deprovision(TestConstants.SV_INSTANCE_ID);
     }
 
     /**
@@ -0,0 +1,459 @@
+package org.servicebroker.apigateway.service;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.servicebroker.apigateway.config.JpaTestConfig;
+import org.servicebroker.apigateway.exception.ServiceException;
+import org.servicebroker.apigateway.model.JpaDedicatedVM;
+import org.servicebroker.apigateway.model.JpaRepositoryFixture;
+import org.servicebroker.apigateway.model.JpaServiceInstance;
+import org.servicebroker.apigateway.repository.JpaDedicatedVMRepository;
+import org.servicebroker.apigateway.repository.JpaRecreateOutboxRepository;
+import org.servicebroker.apigateway.repository.JpaServiceInstanceRepository;
+import org.servicebroker.apigateway.service.impl.ApiGatewayDedicatedVMService;
+import org.servicebroker.apigateway.service.impl.ApiGatewayRetryPolicy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.core.IsNull.notNullValue;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+
+/**
+ * The type Api gateway dedicated vm service test.
+ * Runs against an embedded H2 database and counts the SQL statements issued per provisioning step.
+ */
+@RunWith(SpringRunner.class)
+@DataJpaTest
+@ContextConfiguration(classes = {JpaTestConfig.class, ApiGatewayDedicatedVMService.class})
+@TestPropertySource(properties = {
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.jpa.properties.hibernate.session_factory.statement_inspector=org.servicebroker.apigateway.service.SqlStatementCounter"})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class ApiGatewayDedicatedVMServiceTest {
+
+    @Autowired
+    ApiGatewayDedicatedVMService apiGatewayDedicatedVMService;
+    @Autowired
+    JpaDedicatedVMRepository jpaDedicatedVMRepository;
+    @Autowired
+    JpaServiceInstanceRepository jpaServiceInstanceRepository;
+    @Autowired
+    JpaRecreateOutboxRepository jpaRecreateOutboxRepository;
+
+    private static final String NEW_PLAN_ID = "new-plan-id";
+    private static final String LARGE_INSTANCE_GROUP = "large";
+    private static final String LARGE_DASHBOARD_URL = "https://large-dashboard.com";
+
+    /**
+     * Sets up.
+     *
+     * @throws Exception the exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        jpaServiceInstanceRepository.deleteAll();
+        jpaDedicatedVMRepository.deleteAll();
+        jpaRecreateOutboxRepository.deleteAll();
+
+        for (int i = 0; i < 2; i++) {
+            JpaDedicatedVM jpaDedicatedVM = JpaRepositoryFixture.getJpaDedicatedVM();
+            jpaDedicatedVM.setIp(TestConstants.DEDICATED_VM_IP + i);
+            jpaDedicatedVM.setProvisionedServiceInstanceId(null);
+            jpaDedicatedVMRepository.save(jpaDedicatedVM);
+        }
+
+        SqlStatementCounter.reset();
+    }
+
+    /**
+     * Provisioning test verify statement count.
+     * lookup (1) + claim (2) + assign (2)
+     *
+     * @throws ServiceException the service exception
+     */
+    @Test
+    public void provisioningTest_VerifyStatementCount() throws ServiceException {
+        JpaServiceInstance jpaServiceInstance = JpaRepositoryFixture.getJpaServiceInstance();
+
+        jpaServiceInstanceRepository.findByServiceInstanceIdOrOrganizationGuid(TestConstants.SV_INSTANCE_ID, TestConstants.ORG_GUID);
+        assertThat(SqlStatementCounter.getStatements().size(), is(1));
+
+        JpaDedicatedVM claimed = apiGatewayDedicatedVMService.claim(TestConstants.SV_INSTANCE_ID);
+        assertThat(SqlStatementCounter.getStatements().size(), is(3));
+        assertThat(claimed.getAssignment(), is(TestConstants.STATUS_PROVISIONING));
+
+        apiGatewayDedicatedVMService.assign(jpaServiceInstance);
+        assertThat(SqlStatementCounter.getStatements().size(), is(5));
+
+        assertThat(jpaDedicatedVMRepository.findOne(claimed.getIp()).getAssignment(), is(TestConstants.STATUS_ASSIGNED));
+        assertThat(jpaServiceInstanceRepository.exists(TestConstants.SV_INSTANCE_ID), is(true));
+    }
+
+    /**
+     * Claim test verify no available vm.
+     */
+    @Test
+    public void claimTest_VerifyNoAvailableVM() {
+        apiGatewayDedicatedVMService.claim(TestConstants.SV_INSTANCE_ID);
+        apiGatewayDedicatedVMService.claim(TestConstants.OTHER_SV_INSTANCE_ID);
+
+        assertThat(apiGatewayDedicatedVMService.claim("test_third_sv_instance_id"), is(nullValue()));
+    }
+
+    /**
+     * Claim test verify duplicate service instance id.
+     */
+    @Test
+    public void claimTest_VerifyDuplicateServiceInstanceId() {
+        apiGatewayDedicatedVMService.claim(TestConstants.SV_INSTANCE_ID);
+
+        assertThatThrownBy(() -> apiGatewayDedicatedVMService.claim(TestConstants.SV_INSTANCE_ID))
+                .isInstanceOf(DataIntegrityViolationException.class);
+        assertThat(jpaDedicatedVMRepository.findDistinctFirstByAssignmentEquals(TestConstants.STATUS_WATING_FOR_ASSIGNMENT), is(notNullValue()));
+    }
+
+    /**
+     * Claim test verify selected vm. Claimed only while it is still free.
+     */
+    @Test
+    public void claimTest_VerifySelectedVM() {
+        JpaDedicatedVM claimed = apiGatewayDedicatedVMService.claim(TestConstants.SV_INSTANCE_ID, TestConstants.DEDICATED_VM_IP + 1);
+
+        assertThat(claimed.getIp(), is(TestConstants.DEDICATED_VM_IP + 1));
+        assertThat(claimed.getAssignment(), is(TestConstants.STATUS_PROVISIONING));
+        assertThat(claimed.getProvisionedServiceInstanceId(), is(TestConstants.SV_INSTANCE_ID));
+        assertThat(apiGatewayDedicatedVMService.claim(TestConstants.OTHER_SV_INSTANCE_ID, TestConstants.DEDICATED_VM_IP + 1), is(nullValue()));
+    }
+
+    /**
+     * Release test verify free vm.
+     */
+    @Test
+    public void releaseTest_VerifyFreeVM() {
+        JpaDedicatedVM claimed = apiGatewayDedicatedVMService.claim(TestConstants.SV_INSTANCE_ID);
+
+        apiGatewayDedicatedVMService.release(claimed);
+
+        JpaDedicatedVM result = jpaDedicatedVMRepository.findOne(claimed.getIp());
+        assertThat(result.getAssignment(), is(TestConstants.STATUS_WATING_FOR_ASSIGNMENT));
+        assertThat(result.getProvisionedServiceInstanceId(), is(nullValue()));
+    }
+
+    /**
+     * Find orphans test verify return.
+     * claimed without service instance (orphan), assigned with service instance (not orphan)
+     *
+     * @throws ServiceException the service exception
+     */
+    @Test
+    public void findOrphansTest_VerifyReturn() throws ServiceException {
+        apiGatewayDedicatedVMService.claim(TestConstants.OTHER_SV_INSTANCE_ID);
+        apiGatewayDedicatedVMService.claim(TestConstants.SV_INSTANCE_ID);
+        apiGatewayDedicatedVMService.assign(JpaRepositoryFixture.getJpaServiceInstance());
+
+        List<JpaDedicatedVM> result = apiGatewayDedicatedVMService.findOrphans(new Date(System.currentTimeMillis() + 60000));
+
+        assertThat(result.size(), is(1));
+        assertThat(result.get(0).getProvisionedServiceInstanceId(), is(TestConstants.OTHER_SV_INSTANCE_ID));
+        assertThat(apiGatewayDedicatedVMService.findOrphans(new Date(System.currentTimeMillis() - 60000)).size(), is(0));
+    }
+
+    /**
+     * Heartbeat test. A migration VM claimed before the grace period is an orphan until its claim is refreshed;
+     * a heartbeat after the VM was recovered fails.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void heartbeatTest_VerifyMigrationOutlastsGracePeriod() throws Exception {
+        apiGatewayDedicatedVMService.claim(TestConstants.SV_INSTANCE_ID);
+        apiGatewayDedicatedVMService.assign(JpaRepositoryFixture.getJpaServiceInstance());
+        JpaDedicatedVM target = apiGatewayDedicatedVMService.claimForMigration(TestConstants.SV_INSTANCE_ID, null);
+
+        // grace period 경과 (claimedBefore 이전에 선점)
+        Thread.sleep(50);
+        Date claimedBefore = new Date();
+        assertThat(apiGatewayDedicatedVMService.findOrphans(claimedBefore).size(), is(1));
+
+        apiGatewayDedicatedVMService.heartbeat(target);
+
+        assertThat(apiGatewayDedicatedVMService.findOrphans(claimedBefore).size(), is(0));
+        assertThat(jpaDedicatedVMRepository.findOne(target.getIp()).getVersion(), is(target.getVersion()));
+
+        // sweeper 가 회수한 경우
+        JpaDedicatedVM swept = jpaDedicatedVMRepository.findOne(target.getIp());
+        assertThat(apiGatewayDedicatedVMService.release(swept), is(true));
+
+        assertThatThrownBy(() -> apiGatewayDedicatedVMService.heartbeat(target))
+                .isInstanceOf(ServiceException.class).hasMessageContaining("no longer claimed");
+    }
+
+    /**
+     * Mark for recreate test verify stale vm.
+     */
+    @Test
+    public void markForRecreateTest_VerifyStaleVM() {
+        JpaDedicatedVM claimed = apiGatewayDedicatedVMService.claim(TestConstants.SV_INSTANCE_ID);
+        assertThat(apiGatewayDedicatedVMService.release(claimed), is(true));
+        assertThat(apiGatewayDedicatedVMService.release(claimed), is(false));
+
+        assertThat(apiGatewayDedicatedVMService.markForRecreate(claimed), is(false));
+        assertThat(jpaDedicatedVMRepository.findOne(claimed.getIp()).getAssignment(), is(TestConstants.STATUS_WATING_FOR_ASSIGNMENT));
+        assertThat(jpaRecreateOutboxRepository.count(), is(0L));
+
+        claimed = apiGatewayDedicatedVMService.claim(TestConstants.SV_INSTANCE_ID);
+
+        assertThat(apiGatewayDedicatedVMService.markForRecreate(claimed), is(true));
+        assertThat(jpaDedicatedVMRepository.findOne(claimed.getIp()).getAssignment(), is(TestConstants.STATUS_WATING_FOR_VM_RECREATE));
+    }
+
+    /**
+     * Mark for recreate test verify version conflict.
+     */
+    @Test
+    public void markForRecreateTest_VerifyVersionConflict() {
+        JpaDedicatedVM claimed = apiGatewayDedicatedVMService.claim(TestConstants.SV_INSTANCE_ID);
+        JpaDedicatedVM stale = jpaDedicatedVMRepository.findOne(claimed.getIp());
+        stale.setVersion(stale.getVersion() - 1);
+
+        assertThat(apiGatewayDedicatedVMService.markForRecreate(stale), is(false));
+        assertThat(apiGatewayDedicatedVMService.markForRecreate(claimed), is(true));
+        assertThat(jpaDedicatedVMRepository.findOne(claimed.getIp()).getVersion(), is(claimed.getVersion()));
+    }
+
+    /**
+     * Deprovision test verify recreate state.
+     *
+     * @throws ServiceException the service exception
+     */
+    @Test
+    public void deprovisionTest_VerifyRecreateState() throws ServiceException {
+        JpaDedicatedVM claimed = apiGatewayDedicatedVMService.claim(TestConstants.SV_INSTANCE_ID);
+        apiGatewayDedicatedVMService.assign(JpaRepositoryFixture.getJpaServiceInstance());
+
+        JpaDedicatedVM result = apiGatewayDedicatedVMService.deprovision(TestConstants.SV_INSTANCE_ID);
+
+        JpaDedicatedVM stored = jpaDedicatedVMRepository.findOne(claimed.getIp());
+        assertThat(result.getAssignment(), is(TestConstants.STATUS_WATING_FOR_VM_RECREATE));
+        assertThat(stored.getAssignment(), is(TestConstants.STATUS_WATING_FOR_VM_RECREATE));
+        assertThat(stored.getProvisionedServiceInstanceId(), is(nullValue()));
+        assertThat(stored.getVersion(), is(claimed.getVersion() + 2));
+        assertThat(jpaServiceInstanceRepository.exists(TestConstants.SV_INSTANCE_ID), is(false));
+        assertThat(jpaRecreateOutboxRepository.findOne(claimed.getIp()).getVmId(), is(claimed.getVmId()));
+    }
+
+    /**
+     * Deprovision test verify service instance kept.
+     * The service instance is deleted in the deprovision transaction : a failed deprovision keeps it.
+     *
+     * @throws ServiceException the service exception
+     */
+    @Test
+    public void deprovisionTest_VerifyServiceInstanceKept() throws ServiceException {
+        JpaDedicatedVM claimed = apiGatewayDedicatedVMService.claim(TestConstants.SV_INSTANCE_ID);
+        apiGatewayDedicatedVMService.assign(JpaRepositoryFixture.getJpaServiceInstance());
+        apiGatewayDedicatedVMService.markForRecreate(jpaDedicatedVMRepository.findOne(claimed.getIp()));
+        jpaRecreateOutboxRepository.deleteAll();
+
+        assertThatThrownBy(() -> apiGatewayDedicatedVMService.deprovision(TestConstants.SV_INSTANCE_ID))
+                .isInstanceOf(ServiceException.class);
+        assertThat(jpaServiceInstanceRepository.exists(TestConstants.SV_INSTANCE_ID), is(true));
+        assertThat(jpaRecreateOutboxRepository.count(), is(0L));
+    }
+
+    /**
+     * Deprovision test verify recreate intent rolled back.
+     * The intent is written in the deprovision transaction : a failed deprovision leaves no intent.
+     */
+    @Test
+    public void deprovisionTest_VerifyRecreateIntentRolledBack() {
+        apiGatewayDedicatedVMService.claim(TestConstants.SV_INSTANCE_ID);
+
+        assertThatThrownBy(() -> apiGatewayDedicatedVMService.deprovision(TestConstants.SV_INSTANCE_ID))
+                .isInstanceOf(ServiceException.class);
+        assertThat(jpaRecreateOutboxRepository.count(), is(0L));
+    }
+
+    /**
+     * Deprovision test verify invalid state.
+     */
+    @Test
+    public void deprovisionTest_VerifyInvalidState() {
+        apiGatewayDedicatedVMService.claim(TestConstants.SV_INSTANCE_ID);
+
+        assertThatThrownBy(() -> apiGatewayDedicatedVMService.deprovision(TestConstants.SV_INSTANCE_ID))
+                .isInstanceOf(ServiceException.class).hasMessageContaining("not in assigned state");
+        assertThatThrownBy(() -> apiGatewayDedicatedVMService.deprovision(TestConstants.OTHER_SV_INSTANCE_ID))
+                .isInstanceOf(ServiceException.class).hasMessageContaining("There are no provisioned VM");
+    }
+
+    /**
+     * Swap test. 기존 VM 은 recreate 대기, migration VM 은 할당, plan / dashboard url 변경
+     *
+     * @throws ServiceException the service exception
+     */
+    @Test
+    public void swapTest_VerifySwapped() throws ServiceException {
+        JpaDedicatedVM large = JpaRepositoryFixture.getJpaDedicatedVM();
+        large.setIp(TestConstants.DEDICATED_VM_IP + "large");
+        large.setVmName(LARGE_INSTANCE_GROUP);
+        large.setDashboardUrl(LARGE_DASHBOARD_URL);
+        large.setProvisionedServiceInstanceId(null);
+        jpaDedicatedVMRepository.save(large);
+
+        JpaDedicatedVM source = apiGatewayDedicatedVMService.claim(TestConstants.SV_INSTANCE_ID);
+        apiGatewayDedicatedVMService.assign(JpaRepositoryFixture.getJpaServiceInstance());
+
+        JpaDedicatedVM target = apiGatewayDedicatedVMService.claimForMigration(TestConstants.SV_INSTANCE_ID, LARGE_INSTANCE_GROUP);
+        assertThat(target.getIp(), is(large.getIp()));
+        assertThat(target.getAssignment(), is(TestConstants.STATUS_PROVISIONING));
+
+        JpaDedicatedVM old = apiGatewayDedicatedVMService.swap(TestConstants.SV_INSTANCE_ID, TestConstants.SERVICES_PLANS_ID, NEW_PLAN_ID, target);
+        assertThat(old.getIp(), is(source.getIp()));
+
+        assertThat(jpaDedicatedVMRepository.findOne(source.getIp()).getAssignment(), is(TestConstants.STATUS_WATING_FOR_VM_RECREATE));
+        assertThat(jpaRecreateOutboxRepository.exists(source.getIp()), is(true));
+        JpaDedicatedVM assigned = jpaDedicatedVMRepository.findDistinctFirstByProvisionedServiceInstanceId(TestConstants.SV_INSTANCE_ID);
+        assertThat(assigned.getIp(), is(large.getIp()));
+        assertThat(assigned.getAssignment(), is(TestConstants.STATUS_ASSIGNED));
+        JpaServiceInstance jpaServiceInstance = jpaServiceInstanceRepository.findOne(TestConstants.SV_INSTANCE_ID);
+        assertThat(jpaServiceInstance.getPlanId(), is(NEW_PLAN_ID));
+        assertThat(jpaServiceInstance.getDashboardUrl(), is(LARGE_DASHBOARD_URL));
+    }
+
+    /**
+     * Swap test verify rollback. plan 이 이미 변경된 경우 VM 교체도 취소
+     *
+     * @throws ServiceException the service exception
+     */
+    @Test
+    public void swapTest_VerifyRollback() throws ServiceException {
+        JpaDedicatedVM source = apiGatewayDedicatedVMService.claim(TestConstants.SV_INSTANCE_ID);
+        apiGatewayDedicatedVMService.assign(JpaRepositoryFixture.getJpaServiceInstance());
+        JpaDedicatedVM target = apiGatewayDedicatedVMService.claimForMigration(TestConstants.SV_INSTANCE_ID, null);
+
+        assertThatThrownBy(() -> apiGatewayDedicatedVMService.swap(TestConstants.SV_INSTANCE_ID, "other-plan-id", NEW_PLAN_ID, target))
+                .isInstanceOf(ServiceException.class).hasMessageContaining("changed its plan");
+
+        assertThat(jpaDedicatedVMRepository.findOne(source.getIp()).getAssignment(), is(TestConstants.STATUS_ASSIGNED));
+        assertThat(jpaDedicatedVMRepository.findOne(target.getIp()).getAssignment(), is(TestConstants.STATUS_PROVISIONING));
+        assertThat(jpaRecreateOutboxRepository.count(), is(0L));
+        assertThat(jpaServiceInstanceRepository.findOne(TestConstants.SV_INSTANCE_ID).getPlanId(), is(TestConstants.SERVICES_PLANS_ID));
+    }
+
+    /**
+     * Claim test verify concurrent claims.
+     * 동시 요청 시 하나의 VM 이 두 번 이상 선점되지 않음
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void claimTest_VerifyConcurrentClaims() throws Exception {
+        ApiGatewayRetryPolicy apiGatewayRetryPolicy = new ApiGatewayRetryPolicy(10, 5, 50);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<JpaDedicatedVM>> futures = new ArrayList<>();
+
+        for (int i = 0; i < 8; i++) {
+            String serviceInstanceId = "concurrent_sv_instance_id_" + i;
+            futures.add(executor.submit(() -> apiGatewayRetryPolicy.execute("claim", () -> apiGatewayDedicatedVMService.claim(serviceInstanceId))));
+        }
+
+        Set<String> claimedIps = new HashSet<>();
+        int claimed = 0;
+        for (Future<JpaDedicatedVM> future : futures) {
+            JpaDedicatedVM jpaDedicatedVM = future.get(30, TimeUnit.SECONDS);
+            if (jpaDedicatedVM != null) {
+                claimed++;
+                claimedIps.add(jpaDedicatedVM.getIp());
+            }
+        }
+        executor.shutdown();
+
+        assertThat(claimed, is(2));
+        assertThat(claimedIps.size(), is(2));
+    }
+
+    /**
+     * Assign test verify rollback when the claim is lost.
+     */
+    @Test
+    public void assignTest_VerifyRollback() {
+        JpaDedicatedVM claimed = apiGatewayDedicatedVMService.claim(TestConstants.SV_INSTANCE_ID);
+        apiGatewayDedicatedVMService.release(claimed);
+
+        assertThatThrownBy(() -> apiGatewayDedicatedVMService.assign(JpaRepositoryFixture.getJpaServiceInstance()))
+                .isInstanceOf(ServiceException.class).hasMessageContaining("Cannot assign VM");
+        assertThat(jpaServiceInstanceRepository.exists(TestConstants.SV_INSTANCE_ID), is(false));
+    }
+
+    /**
+     * Retire test verify restore and remove.
+     * A retiring VM is no longer claimable; it is either returned to the pool or removed.
+     */
+    @Test
+    public void retireTest_VerifyRestoreAndRemove() {
+        List<JpaDedicatedVM> free = apiGatewayDedicatedVMService.findByAssignment(TestConstants.STATUS_WATING_FOR_ASSIGNMENT);
+        assertThat(free.size(), is(2));
+
+        JpaDedicatedVM stale = jpaDedicatedVMRepository.findOne(free.get(1).getIp());
+        assertThat(apiGatewayDedicatedVMService.retire(free.get(0)), is(true));
+        assertThat(apiGatewayDedicatedVMService.retire(free.get(1)), is(true));
+        assertThat(apiGatewayDedicatedVMService.retire(stale), is(false));
+        assertThat(apiGatewayDedicatedVMService.claim(TestConstants.SV_INSTANCE_ID), is(nullValue()));
+
+        assertThat(apiGatewayDedicatedVMService.restore(Collections.singletonList(free.get(0).getIp())), is(1));
+        assertThat(apiGatewayDedicatedVMService.remove(Arrays.asList(free.get(0).getIp(), free.get(1).getIp())), is(1));
+
+        assertThat(jpaDedicatedVMRepository.findOne(free.get(0).getIp()).getAssignment(), is(TestConstants.STATUS_WATING_FOR_ASSIGNMENT));
+        assertThat(jpaDedicatedVMRepository.exists(free.get(1).getIp()), is(false));
+    }
+
+    /**
+     * Register test verify known vms skipped.
+     */
+    @Test
+    public void registerTest_VerifyKnownVMsSkipped() {
+        JpaDedicatedVM known = JpaRepositoryFixture.getJpaDedicatedVM();
+        known.setIp(TestConstants.DEDICATED_VM_IP + 0);
+        JpaDedicatedVM added = JpaDedicatedVM.builder().ip(TestConstants.DEDICATED_VM_IP + 2)
+                .vmName(TestConstants.DEDICATED_VM_NAME).vmId(TestConstants.DEDICATED_VM_ID).dashboardUrl(TestConstants.DASHBOARD_URL).build();
+
+        assertThat(apiGatewayDedicatedVMService.register(Arrays.asList(known, added)), is(1));
+        assertThat(apiGatewayDedicatedVMService.findByAssignment(TestConstants.STATUS_WATING_FOR_ASSIGNMENT).size(), is(3));
+    }
+
+    /**
+     * Count group by assignment test. A single grouped query, no entities loaded.
+     */
+    @Test
+    public void countGroupByAssignmentTest() {
+        apiGatewayDedicatedVMService.claim(TestConstants.SV_INSTANCE_ID);
+        SqlStatementCounter.reset();
+
+        Map<Integer, Long> counts = new HashMap<>();
+        for (Object[] row : jpaDedicatedVMRepository.countGroupByAssignment()) {
+            counts.put((Integer) row[0], (Long) row[1]);
+        }
+
+        assertThat(SqlStatementCounter.getStatements().size(), is(1));
+        assertThat(counts.get(TestConstants.STATUS_WATING_FOR_ASSIGNMENT), is(1L));
+        assertThat(counts.get(TestConstants.STATUS_PROVISIONING), is(1L));
+    }
+}
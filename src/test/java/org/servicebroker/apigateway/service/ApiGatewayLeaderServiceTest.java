@@ -0,0 +1,121 @@
+package org.servicebroker.apigateway.service;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.servicebroker.apigateway.config.JpaTestConfig;
+import org.servicebroker.apigateway.repository.JpaBrokerLeaseRepository;
+import org.servicebroker.apigateway.service.impl.ApiGatewayLeaderService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Date;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+
+/**
+ * The type Api gateway leader service test.
+ * Two broker nodes share the lease table of an embedded H2 database.
+ */
+@RunWith(SpringRunner.class)
+@DataJpaTest
+@ContextConfiguration(classes = JpaTestConfig.class)
+@TestPropertySource(properties = "spring.jpa.hibernate.ddl-auto=create-drop")
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class ApiGatewayLeaderServiceTest {
+
+    @Autowired
+    JpaBrokerLeaseRepository jpaBrokerLeaseRepository;
+
+    ApiGatewayLeaderService node1;
+    ApiGatewayLeaderService node2;
+
+    /**
+     * Sets up.
+     *
+     * @throws Exception the exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        jpaBrokerLeaseRepository.deleteAll();
+
+        node1 = new ApiGatewayLeaderService(jpaBrokerLeaseRepository, "node1", 300, 100);
+        node2 = new ApiGatewayLeaderService(jpaBrokerLeaseRepository, "node2", 300, 100);
+    }
+
+    /**
+     * Heartbeat test verify single leader.
+     */
+    @Test
+    public void heartbeatTest_VerifySingleLeader() {
+        assertThat(node1.heartbeat(), is(true));
+        assertThat(node2.heartbeat(), is(false));
+        assertThat(node1.heartbeat(), is(true));
+
+        assertThat(node1.isLeader(), is(true));
+        assertThat(node2.isLeader(), is(false));
+    }
+
+    /**
+     * Heartbeat test verify failover after expiry.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void heartbeatTest_VerifyFailover() throws Exception {
+        node1.heartbeat();
+
+        Thread.sleep(350);
+
+        assertThat(node1.isLeader(), is(false));
+        assertThat(node2.heartbeat(), is(true));
+        assertThat(node1.heartbeat(), is(false));
+    }
+
+    /**
+     * Release test verify immediate takeover.
+     */
+    @Test
+    public void releaseTest_VerifyTakeover() {
+        node1.heartbeat();
+
+        node1.release();
+
+        assertThat(node1.isLeader(), is(false));
+        assertThat(node2.heartbeat(), is(true));
+    }
+
+    /**
+     * Signal test :: 신호 row 는 leader lease 와 별개, 기존 row 갱신
+     */
+    @Test
+    public void signalTest_VerifySeparateFromLease() {
+        node1.heartbeat();
+
+        assertThat(jpaBrokerLeaseRepository.signal(TestConstants.LEASE_POOL_EXHAUSTED, "node2", new Date(1000)), is(0));
+        assertThat(jpaBrokerLeaseRepository.insert(TestConstants.LEASE_POOL_EXHAUSTED, "node2", new Date(1000), new Date(1000)), is(1));
+        assertThat(jpaBrokerLeaseRepository.signal(TestConstants.LEASE_POOL_EXHAUSTED, "node2", new Date(2000)), is(1));
+
+        assertThat(jpaBrokerLeaseRepository.findOne(TestConstants.LEASE_POOL_EXHAUSTED).getRenewedTime().getTime(), is(2000L));
+        assertThat(node1.heartbeat(), is(true));
+        assertThat(node2.heartbeat(), is(false));
+    }
+
+    /**
+     * Node id test verify generated.
+     */
+    @Test
+    public void nodeIdTest_VerifyGenerated() {
+        ApiGatewayLeaderService generated = new ApiGatewayLeaderService(jpaBrokerLeaseRepository, "", 300, 100);
+
+        assertThat(generated.getNodeId().isEmpty(), is(false));
+        assertThat(generated.getNodeId().equals(new ApiGatewayLeaderService(jpaBrokerLeaseRepository, "", 300, 100).getNodeId()), is(false));
+    }
+}
@@ -0,0 +1,178 @@
+package org.servicebroker.apigateway.service;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.servicebroker.apigateway.exception.ServiceException;
+import org.servicebroker.apigateway.model.JpaDedicatedVM;
+import org.servicebroker.apigateway.model.JpaRecreateOutbox;
+import org.servicebroker.apigateway.model.JpaRepositoryFixture;
+import org.servicebroker.apigateway.repository.JpaDedicatedVMRepository;
+import org.servicebroker.apigateway.repository.JpaRecreateOutboxRepository;
+import org.servicebroker.apigateway.service.impl.ApiGatewayCommonService;
+import org.servicebroker.apigateway.service.impl.ApiGatewayLeaderService;
+import org.servicebroker.apigateway.service.impl.ApiGatewayRecreateService;
+import org.springframework.data.domain.Pageable;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+
+/**
+ * The type Api gateway recreate service test.
+ */
+@RunWith(SpringRunner.class)
+public class ApiGatewayRecreateServiceTest {
+
+    @InjectMocks
+    ApiGatewayRecreateService apiGatewayRecreateService;
+
+    @Mock
+    JpaRecreateOutboxRepository jpaRecreateOutboxRepository;
+    @Mock
+    JpaDedicatedVMRepository jpaDedicatedVMRepository;
+    @Mock
+    ApiGatewayCommonService apiGatewayCommonService;
+    @Mock
+    ApiGatewayLeaderService apiGatewayLeaderService;
+    @Mock
+    Executor brokerTaskExecutor;
+
+    JpaDedicatedVM jpaDedicatedVM;
+    List<Runnable> tasks = new ArrayList<>();
+
+    /**
+     * Sets up.
+     */
+    @Before
+    public void setUp() {
+        apiGatewayRecreateService.maxConcurrent = 2;
+        apiGatewayRecreateService.backoff = 1000;
+        apiGatewayRecreateService.maxBackoff = 60000;
+        apiGatewayRecreateService.lockTimeout = 600000;
+
+        jpaDedicatedVM = JpaRepositoryFixture.getJpaDedicatedVM();
+        jpaDedicatedVM.setAssignment(TestConstants.STATUS_WATING_FOR_VM_RECREATE);
+
+        when(apiGatewayLeaderService.isLeader()).thenReturn(true);
+        when(jpaRecreateOutboxRepository.lock(anyString(), anyString(), any(Date.class), any(Date.class))).thenReturn(1);
+        when(jpaDedicatedVMRepository.findOne(anyString())).thenReturn(jpaDedicatedVM);
+        doAnswer(invocation -> tasks.add((Runnable) invocation.getArguments()[0])).when(brokerTaskExecutor).execute(any(Runnable.class));
+    }
+
+    /**
+     * Drain test verify not leader.
+     */
+    @Test
+    public void drainTest_VerifyNotLeader() {
+        when(apiGatewayLeaderService.isLeader()).thenReturn(false);
+
+        assertThat(apiGatewayRecreateService.drain(), is(0));
+        verify(jpaRecreateOutboxRepository, never()).findDue(any(Date.class), any(Pageable.class));
+    }
+
+    /**
+     * Drain test verify recreate and delete.
+     *
+     * @throws ServiceException the service exception
+     */
+    @Test
+    public void drainTest_VerifyRecreateAndDelete() throws ServiceException {
+        when(jpaRecreateOutboxRepository.findDue(any(Date.class), any(Pageable.class))).thenReturn(Arrays.asList(intent(TestConstants.DEDICATED_VM_IP, 0)));
+
+        assertThat(apiGatewayRecreateService.drain(), is(1));
+        assertThat(apiGatewayRecreateService.getInFlight(), is(1));
+        tasks.forEach(Runnable::run);
+
+        verify(apiGatewayCommonService, times(1)).recreateVM(jpaDedicatedVM);
+        verify(jpaRecreateOutboxRepository, times(1)).deleteByIpAndLockOwner(eq(TestConstants.DEDICATED_VM_IP), anyString());
+        assertThat(apiGatewayRecreateService.getInFlight(), is(0));
+    }
+
+    /**
+     * Drain test verify concurrency cap.
+     * Two recreates in flight : the next drain does not query the outbox.
+     */
+    @Test
+    public void drainTest_VerifyConcurrencyCap() {
+        when(jpaRecreateOutboxRepository.findDue(any(Date.class), any(Pageable.class)))
+                .thenReturn(Arrays.asList(intent("ip0", 0), intent("ip1", 0)));
+
+        assertThat(apiGatewayRecreateService.drain(), is(2));
+        assertThat(apiGatewayRecreateService.drain(), is(0));
+        verify(jpaRecreateOutboxRepository, times(1)).findDue(any(Date.class), any(Pageable.class));
+    }
+
+    /**
+     * Drain test verify locked elsewhere.
+     */
+    @Test
+    public void drainTest_VerifyLockedElsewhere() {
+        when(jpaRecreateOutboxRepository.findDue(any(Date.class), any(Pageable.class))).thenReturn(Arrays.asList(intent(TestConstants.DEDICATED_VM_IP, 0)));
+        when(jpaRecreateOutboxRepository.lock(anyString(), anyString(), any(Date.class), any(Date.class))).thenReturn(0);
+
+        assertThat(apiGatewayRecreateService.drain(), is(0));
+        assertThat(tasks.isEmpty(), is(true));
+    }
+
+    /**
+     * Drain test verify failure rescheduled with backoff.
+     *
+     * @throws ServiceException the service exception
+     */
+    @Test
+    public void drainTest_VerifyFailureRescheduled() throws ServiceException {
+        when(jpaRecreateOutboxRepository.findDue(any(Date.class), any(Pageable.class))).thenReturn(Arrays.asList(intent(TestConstants.DEDICATED_VM_IP, 3)));
+        doThrow(new ServiceException("Failed to recreate dedecated VM")).when(apiGatewayCommonService).recreateVM(jpaDedicatedVM);
+
+        long before = System.currentTimeMillis();
+        apiGatewayRecreateService.drain();
+        tasks.forEach(Runnable::run);
+
+        verify(jpaRecreateOutboxRepository, never()).deleteByIpAndLockOwner(anyString(), anyString());
+        verify(jpaRecreateOutboxRepository, times(1)).reschedule(eq(TestConstants.DEDICATED_VM_IP), anyString(),
+                argThat(org.hamcrest.Matchers.<Date>both(greaterThanOrEqualTo(new Date(before + 4000))).and(lessThanOrEqualTo(new Date(System.currentTimeMillis() + 8000)))),
+                eq("Failed to recreate dedecated VM"));
+        assertThat(apiGatewayRecreateService.getInFlight(), is(0));
+    }
+
+    /**
+     * Drain test verify obsolete intent dropped.
+     *
+     * @throws ServiceException the service exception
+     */
+    @Test
+    public void drainTest_VerifyObsoleteIntentDropped() throws ServiceException {
+        jpaDedicatedVM.setAssignment(TestConstants.STATUS_WATING_FOR_ASSIGNMENT);
+        when(jpaRecreateOutboxRepository.findDue(any(Date.class), any(Pageable.class))).thenReturn(Arrays.asList(intent(TestConstants.DEDICATED_VM_IP, 0)));
+
+        apiGatewayRecreateService.drain();
+        tasks.forEach(Runnable::run);
+
+        verify(apiGatewayCommonService, never()).recreateVM(any(JpaDedicatedVM.class));
+        verify(jpaRecreateOutboxRepository, times(1)).deleteByIpAndLockOwner(eq(TestConstants.DEDICATED_VM_IP), anyString());
+    }
+
+    private static JpaRecreateOutbox intent(String ip, int attempts) {
+        return JpaRecreateOutbox.builder()
+                .ip(ip)
+                .vmName(TestConstants.DEDICATED_VM_NAME)
+                .vmId(TestConstants.DEDICATED_VM_ID)
+                .attempts(attempts)
+                .nextAttemptTime(new Date())
+                .build();
+    }
+}
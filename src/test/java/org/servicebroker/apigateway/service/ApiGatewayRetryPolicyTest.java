@@ -0,0 +1,71 @@
+package org.servicebroker.apigateway.service;
+
+import org.junit.Test;
+import org.servicebroker.apigateway.exception.ServiceException;
+import org.servicebroker.apigateway.model.JpaDedicatedVM;
+import org.servicebroker.apigateway.service.impl.ApiGatewayRetryPolicy;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+
+/**
+ * The type Api gateway retry policy test.
+ */
+public class ApiGatewayRetryPolicyTest {
+
+    ApiGatewayRetryPolicy apiGatewayRetryPolicy = new ApiGatewayRetryPolicy(3, 1, 2);
+
+    /**
+     * Execute test verify retry.
+     *
+     * @throws ServiceException the service exception
+     */
+    @Test
+    public void executeTest_VerifyRetry() throws ServiceException {
+        AtomicInteger attempts = new AtomicInteger();
+
+        String result = apiGatewayRetryPolicy.execute("test", () -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new CannotAcquireLockException("test");
+            }
+            return TestConstants.DEDICATED_VM_IP;
+        });
+
+        assertThat(result, is(TestConstants.DEDICATED_VM_IP));
+        assertThat(attempts.get(), is(3));
+    }
+
+    /**
+     * Execute test verify exhausted.
+     */
+    @Test
+    public void executeTest_VerifyExhausted() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThatThrownBy(() -> apiGatewayRetryPolicy.execute("test", () -> {
+            attempts.incrementAndGet();
+            throw new ObjectOptimisticLockingFailureException(JpaDedicatedVM.class, TestConstants.DEDICATED_VM_IP);
+        })).isInstanceOf(ServiceException.class).hasMessageContaining("Concurrent modification");
+        assertThat(attempts.get(), is(3));
+    }
+
+    /**
+     * Execute test verify no retry on service exception.
+     */
+    @Test
+    public void executeTest_VerifyNoRetry() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThatThrownBy(() -> apiGatewayRetryPolicy.execute("test", () -> {
+            attempts.incrementAndGet();
+            throw new ServiceException("test");
+        })).isInstanceOf(ServiceException.class).hasMessage("test");
+        assertThat(attempts.get(), is(1));
+    }
+}
@@ -2,26 +2,55 @@ package org.servicebroker.apigateway.service;
 
 import org.junit.Before;
 import org.junit.Test;
-import org.junit.runner.RunWith;
-import org.mockito.InjectMocks;
 import org.openpaas.servicebroker.exception.ServiceBrokerException;
+import org.openpaas.servicebroker.exception.ServiceInstanceBindingExistsException;
 import org.openpaas.servicebroker.model.CreateServiceInstanceBindingRequest;
 import org.openpaas.servicebroker.model.DeleteServiceInstanceBindingRequest;
+import org.openpaas.servicebroker.model.ServiceInstanceBinding;
+import org.servicebroker.apigateway.client.Scim2Client;
+import org.servicebroker.apigateway.exception.ServiceException;
+import org.servicebroker.apigateway.model.JpaDedicatedVM;
+import org.servicebroker.apigateway.model.JpaRepositoryFixture;
+import org.servicebroker.apigateway.model.JpaServiceInstanceBinding;
 import org.servicebroker.apigateway.model.RequestFixture;
+import org.servicebroker.apigateway.repository.JpaServiceInstanceBindingRepository;
+import org.servicebroker.apigateway.service.impl.ApiGatewayBindingCredentials;
+import org.servicebroker.apigateway.service.impl.ApiGatewayDedicatedVMService;
 import org.servicebroker.apigateway.service.impl.ApiGatewayServiceInstanceBindingService;
-import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.dao.DataIntegrityViolationException;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
 
 
 /**
  * The type Api gateway service instance binding service test.
  */
-@RunWith(SpringRunner.class)
 public class ApiGatewayServiceInstanceBindingServiceTest {
 
-    @InjectMocks
+    private static final String USER_NAME = ApiGatewayBindingCredentials.USER_NAME_PREFIX + TestConstants.BIND_GUID;
+
     ApiGatewayServiceInstanceBindingService apiGatewayServiceInstanceBindingService;
+    JpaServiceInstanceBindingRepository jpaServiceInstanceBindingRepository;
+    ApiGatewayDedicatedVMService apiGatewayDedicatedVMService;
+    Scim2Client scim2Client;
+    ApiGatewayBindingCredentials apiGatewayBindingCredentials = new ApiGatewayBindingCredentials("test_secret");
+
+    JpaDedicatedVM jpaDedicatedVM;
+    CreateServiceInstanceBindingRequest createRequest;
 
     /**
      * Sets up.
@@ -30,29 +59,271 @@ public class ApiGatewayServiceInstanceBindingServiceTest {
      */
     @Before
     public void setUp() throws Exception {
+        jpaServiceInstanceBindingRepository = mock(JpaServiceInstanceBindingRepository.class);
+        apiGatewayDedicatedVMService = mock(ApiGatewayDedicatedVMService.class);
+        scim2Client = mock(Scim2Client.class);
+        apiGatewayServiceInstanceBindingService = new ApiGatewayServiceInstanceBindingService(jpaServiceInstanceBindingRepository,
+                apiGatewayDedicatedVMService, scim2Client, apiGatewayBindingCredentials, 10);
+
+        jpaDedicatedVM = JpaRepositoryFixture.getJpaDedicatedVM();
+        jpaDedicatedVM.setAssignment(TestConstants.STATUS_ASSIGNED);
+        when(apiGatewayDedicatedVMService.findByServiceInstanceId(TestConstants.SV_INSTANCE_ID)).thenReturn(jpaDedicatedVM);
+        when(scim2Client.createUser(eq(TestConstants.DEDICATED_VM_IP), eq(USER_NAME), anyString())).thenReturn(TestConstants.USER_GUID);
+
+        createRequest = RequestFixture.getCreateServiceInstanceBindingRequest()
+                .withServiceInstanceId(TestConstants.SV_INSTANCE_ID).withBindingId(TestConstants.BIND_GUID);
+    }
+
+    /**
+     * Create service instance binding :: binding 사용자 생성, 비밀번호는 저장하지 않음
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void createServiceInstanceBindingTest_VerifyUserCreated() throws Exception {
+        ServiceInstanceBinding binding = apiGatewayServiceInstanceBindingService.createServiceInstanceBinding(createRequest);
+
+        String password = apiGatewayBindingCredentials.password(USER_NAME);
+        assertThat(binding.getId(), is(TestConstants.BIND_GUID));
+        assertThat(binding.getCredentials().get("username"), is(USER_NAME));
+        assertThat(binding.getCredentials().get("password"), is(password));
+        assertThat(binding.getCredentials().get("gateway_url"), is("https://" + TestConstants.DEDICATED_VM_IP + ":8243"));
+        verify(scim2Client).createUser(TestConstants.DEDICATED_VM_IP, USER_NAME, password);
+        verify(scim2Client).addToGroup(TestConstants.DEDICATED_VM_IP, "Internal/subscriber", USER_NAME, TestConstants.USER_GUID);
+        verify(jpaServiceInstanceBindingRepository).save(any(JpaServiceInstanceBinding.class));
+    }
+
+    /**
+     * Create service instance binding :: 동일 요청은 cache 에서 반환 (WSO2 호출 / binding 조회 없음, VM 조회만 수행)
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void createServiceInstanceBindingTest_VerifyCached() throws Exception {
+        ServiceInstanceBinding binding = apiGatewayServiceInstanceBindingService.createServiceInstanceBinding(createRequest);
+
+        for (int i = 0; i < 5; i++) {
+            assertThat(apiGatewayServiceInstanceBindingService.createServiceInstanceBinding(createRequest), is(binding));
+        }
+        verify(jpaServiceInstanceBindingRepository, times(1)).findOne(TestConstants.BIND_GUID);
+        verify(apiGatewayDedicatedVMService, times(6)).findByServiceInstanceId(TestConstants.SV_INSTANCE_ID);
+        verify(scim2Client, times(1)).createUser(anyString(), anyString(), anyString());
+    }
+
+    /**
+     * Create service instance binding :: 다른 노드에서 VM 이 변경된 경우 (evict 되지 않은 cache) 새 VM 으로 다시 생성
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void createServiceInstanceBindingTest_VerifyVMChanged() throws Exception {
+        apiGatewayServiceInstanceBindingService.createServiceInstanceBinding(createRequest);
+
+        JpaDedicatedVM migrated = JpaRepositoryFixture.getJpaDedicatedVM();
+        migrated.setIp("10.0.0.2");
+        migrated.setAssignment(TestConstants.STATUS_ASSIGNED);
+        when(apiGatewayDedicatedVMService.findByServiceInstanceId(TestConstants.SV_INSTANCE_ID)).thenReturn(migrated);
+        when(jpaServiceInstanceBindingRepository.findOne(TestConstants.BIND_GUID)).thenReturn(JpaServiceInstanceBinding.builder()
+                .bindingId(TestConstants.BIND_GUID).serviceInstanceId(TestConstants.SV_INSTANCE_ID).appGuid(createRequest.getAppGuid())
+                .userName(USER_NAME).createdTime(new Date()).build());
+
+        ServiceInstanceBinding binding = apiGatewayServiceInstanceBindingService.createServiceInstanceBinding(createRequest);
+
+        assertThat(binding.getCredentials().get("gateway_url"), is("https://10.0.0.2:8243"));
+        verify(scim2Client, times(1)).createUser(anyString(), anyString(), anyString());
     }
 
     /**
-     * Create service instance binding valid return.
+     * Create service instance binding :: 저장된 binding 은 사용자 생성 없이 반환, 다른 app 이면 conflict
+     *
+     * @throws Exception the exception
      */
     @Test
-    public void createServiceInstanceBindingTest() {
-        CreateServiceInstanceBindingRequest request = RequestFixture.getCreateServiceInstanceBindingRequest();
+    public void createServiceInstanceBindingTest_VerifyExisting() throws Exception {
+        when(jpaServiceInstanceBindingRepository.findOne(TestConstants.BIND_GUID)).thenReturn(JpaServiceInstanceBinding.builder()
+                .bindingId(TestConstants.BIND_GUID).serviceInstanceId(TestConstants.SV_INSTANCE_ID).appGuid("other_app_guid")
+                .userName(USER_NAME).createdTime(new Date()).build());
+
+        assertThatThrownBy(() -> apiGatewayServiceInstanceBindingService.createServiceInstanceBinding(createRequest))
+                .isInstanceOf(ServiceInstanceBindingExistsException.class);
+        verify(scim2Client, never()).createUser(anyString(), anyString(), anyString());
+    }
 
-        assertThatThrownBy(() -> apiGatewayServiceInstanceBindingService.createServiceInstanceBinding(request))
-                .isInstanceOf(ServiceBrokerException.class).hasMessageContaining("Not Supported");
+    /**
+     * Create service instance binding :: service instance 가 없는 경우
+     */
+    @Test
+    public void createServiceInstanceBindingTest_VerifyNoServiceInstance() {
+        when(apiGatewayDedicatedVMService.findByServiceInstanceId(TestConstants.SV_INSTANCE_ID)).thenReturn(null);
 
+        assertThatThrownBy(() -> apiGatewayServiceInstanceBindingService.createServiceInstanceBinding(createRequest))
+                .isInstanceOf(ServiceBrokerException.class).hasMessageContaining("does not exist");
     }
 
     /**
-     * Delete service instance binding valid return.
+     * Create service instance binding :: 이전 요청에서 생성된 사용자 재사용
+     *
+     * @throws Exception the exception
      */
     @Test
-    public void deleteServiceInstanceBindingTest() {
+    public void createServiceInstanceBindingTest_VerifyUserReused() throws Exception {
+        when(scim2Client.createUser(anyString(), anyString(), anyString())).thenThrow(new ServiceException("Failed to create user"));
+        when(scim2Client.findUserId(TestConstants.DEDICATED_VM_IP, USER_NAME)).thenReturn(TestConstants.USER_GUID);
+
+        ServiceInstanceBinding binding = apiGatewayServiceInstanceBindingService.createServiceInstanceBinding(createRequest);
+
+        assertThat(binding.getCredentials().get("username"), is(USER_NAME));
+        verify(scim2Client).addToGroup(TestConstants.DEDICATED_VM_IP, "Internal/subscriber", USER_NAME, TestConstants.USER_GUID);
+        verify(jpaServiceInstanceBindingRepository).save(any(JpaServiceInstanceBinding.class));
+    }
+
+    /**
+     * Create service instance binding :: 권한 부여 실패 시 사용자 삭제, binding 저장 없음
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void createServiceInstanceBindingTest_VerifyRoleFailed() throws Exception {
+        doThrow(new ServiceException("Group Internal/subscriber not found.")).when(scim2Client)
+                .addToGroup(anyString(), anyString(), anyString(), anyString());
+
+        assertThatThrownBy(() -> apiGatewayServiceInstanceBindingService.createServiceInstanceBinding(createRequest))
+                .isInstanceOf(ServiceException.class).hasMessageContaining("Internal/subscriber");
+        verify(scim2Client).deleteUser(TestConstants.DEDICATED_VM_IP, TestConstants.USER_GUID);
+        verify(jpaServiceInstanceBindingRepository, never()).save(any(JpaServiceInstanceBinding.class));
+    }
+
+    /**
+     * Create service instance binding :: 저장 실패 시 생성한 사용자 삭제
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void createServiceInstanceBindingTest_VerifyRollback() throws Exception {
+        when(jpaServiceInstanceBindingRepository.save(any(JpaServiceInstanceBinding.class))).thenThrow(new IllegalStateException("connection refused"));
+
+        assertThatThrownBy(() -> apiGatewayServiceInstanceBindingService.createServiceInstanceBinding(createRequest))
+                .isInstanceOf(IllegalStateException.class);
+        verify(scim2Client).deleteUser(TestConstants.DEDICATED_VM_IP, TestConstants.USER_GUID);
+    }
+
+    /**
+     * Create service instance binding :: 다른 노드에서 먼저 저장한 경우 저장된 binding 반환 (사용자 삭제 없음), 다른 app 이면 conflict
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void createServiceInstanceBindingTest_VerifyInsertRace() throws Exception {
+        JpaServiceInstanceBinding saved = JpaServiceInstanceBinding.builder()
+                .bindingId(TestConstants.BIND_GUID).serviceInstanceId(TestConstants.SV_INSTANCE_ID).appGuid(createRequest.getAppGuid())
+                .userName(USER_NAME).createdTime(new Date()).build();
+        when(jpaServiceInstanceBindingRepository.findOne(TestConstants.BIND_GUID)).thenReturn(null, saved);
+        when(jpaServiceInstanceBindingRepository.save(any(JpaServiceInstanceBinding.class))).thenThrow(new DataIntegrityViolationException("duplicate key"));
+
+        ServiceInstanceBinding binding = apiGatewayServiceInstanceBindingService.createServiceInstanceBinding(createRequest);
+
+        assertThat(binding.getId(), is(TestConstants.BIND_GUID));
+        assertThat(binding.getCredentials().get("username"), is(USER_NAME));
+        assertThat(binding.getCredentials().get("password"), is(apiGatewayBindingCredentials.password(USER_NAME)));
+        verify(scim2Client, never()).deleteUser(anyString(), anyString());
+
+        saved.setAppGuid("other_app_guid");
+        apiGatewayServiceInstanceBindingService.evict(TestConstants.SV_INSTANCE_ID);
+        when(jpaServiceInstanceBindingRepository.findOne(TestConstants.BIND_GUID)).thenReturn(null, saved);
+
+        assertThatThrownBy(() -> apiGatewayServiceInstanceBindingService.createServiceInstanceBinding(createRequest))
+                .isInstanceOf(ServiceInstanceBindingExistsException.class);
+        verify(scim2Client, never()).deleteUser(anyString(), anyString());
+    }
+
+    /**
+     * Binding credentials :: secret 필수
+     */
+    @Test
+    public void bindingCredentialsTest_VerifySecretRequired() {
+        assertThatThrownBy(() -> new ApiGatewayBindingCredentials(""))
+                .isInstanceOf(IllegalStateException.class).hasMessageContaining("broker.binding.secret is required");
+        assertThatThrownBy(() -> new ApiGatewayBindingCredentials(null))
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    /**
+     * Create service instance binding :: 동시 중복 요청은 하나의 요청으로 병합
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void createServiceInstanceBindingTest_VerifyConcurrentRequestsMerged() throws Exception {
+        when(scim2Client.createUser(anyString(), anyString(), anyString())).thenAnswer(invocation -> {
+            Thread.sleep(200);
+            return TestConstants.USER_GUID;
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<ServiceInstanceBinding>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(() -> apiGatewayServiceInstanceBindingService.createServiceInstanceBinding(createRequest)));
+            }
+            for (Future<ServiceInstanceBinding> future : futures) {
+                assertThat(future.get().getId(), is(TestConstants.BIND_GUID));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        verify(scim2Client, times(1)).createUser(anyString(), anyString(), anyString());
+    }
+
+    /**
+     * Delete service instance binding :: 사용자 / binding 삭제, cache 제거
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void deleteServiceInstanceBindingTest_VerifyDeleted() throws Exception {
+        apiGatewayServiceInstanceBindingService.createServiceInstanceBinding(createRequest);
+        JpaServiceInstanceBinding jpaServiceInstanceBinding = JpaServiceInstanceBinding.builder()
+                .bindingId(TestConstants.BIND_GUID).serviceInstanceId(TestConstants.SV_INSTANCE_ID).appGuid(TestConstants.APP_GUID)
+                .userName(USER_NAME).createdTime(new Date()).build();
+        when(jpaServiceInstanceBindingRepository.findOne(TestConstants.BIND_GUID)).thenReturn(jpaServiceInstanceBinding);
+        when(scim2Client.findUserId(TestConstants.DEDICATED_VM_IP, USER_NAME)).thenReturn(TestConstants.USER_GUID);
+
+        DeleteServiceInstanceBindingRequest request = RequestFixture.getDeleteServiceInstanceBindingRequest();
+        assertThat(apiGatewayServiceInstanceBindingService.deleteServiceInstanceBinding(request).getId(), is(TestConstants.BIND_GUID));
+
+        verify(scim2Client).deleteUser(TestConstants.DEDICATED_VM_IP, TestConstants.USER_GUID);
+        verify(jpaServiceInstanceBindingRepository).delete(jpaServiceInstanceBinding);
+
+        // cache 에서 제거되어 다시 생성
+        when(jpaServiceInstanceBindingRepository.findOne(TestConstants.BIND_GUID)).thenReturn(null);
+        apiGatewayServiceInstanceBindingService.createServiceInstanceBinding(createRequest);
+        verify(scim2Client, times(2)).createUser(anyString(), anyString(), anyString());
+    }
+
+    /**
+     * Delete service instance binding :: 없는 binding
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void deleteServiceInstanceBindingTest_VerifyNotExists() throws Exception {
         DeleteServiceInstanceBindingRequest request = RequestFixture.getDeleteServiceInstanceBindingRequest();
 
-        assertThatThrownBy(() -> apiGatewayServiceInstanceBindingService.deleteServiceInstanceBinding(request))
-                .isInstanceOf(ServiceBrokerException.class).hasMessageContaining("Not Supported");
+        assertThat(apiGatewayServiceInstanceBindingService.deleteServiceInstanceBinding(request), is(nullValue()));
+        verify(scim2Client, never()).deleteUser(anyString(), anyString());
+    }
+
+    /**
+     * Evict test. VM 변경 시 service instance 의 binding cache 제거
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void evictTest() throws Exception {
+        apiGatewayServiceInstanceBindingService.createServiceInstanceBinding(createRequest);
+        apiGatewayServiceInstanceBindingService.evict(TestConstants.SV_INSTANCE_ID);
+        apiGatewayServiceInstanceBindingService.createServiceInstanceBinding(createRequest);
 
+        verify(jpaServiceInstanceBindingRepository, times(2)).findOne(TestConstants.BIND_GUID);
     }
-}
\ No newline at end of file
+}
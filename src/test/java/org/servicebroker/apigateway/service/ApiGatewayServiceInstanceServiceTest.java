@@ -12,19 +12,24 @@ import org.openpaas.servicebroker.model.DeleteServiceInstanceRequest;
 import org.openpaas.servicebroker.model.ServiceInstance;
 import org.openpaas.servicebroker.model.UpdateServiceInstanceRequest;
 import org.servicebroker.apigateway.exception.ServiceException;
+import org.servicebroker.apigateway.migration.PlanMigration;
+import org.servicebroker.apigateway.migration.PlanMigrationService;
 import org.servicebroker.apigateway.model.RequestFixture;
 import org.servicebroker.apigateway.service.impl.ApiGatewayCommonService;
 import org.servicebroker.apigateway.service.impl.ApiGatewayServiceInstanceService;
 import org.servicebroker.apigateway.service.impl.Constants;
 import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.*;
 
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.core.IsNull.nullValue;
 import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.*;
 
@@ -40,6 +45,10 @@ public class ApiGatewayServiceInstanceServiceTest {
 
     @Mock
     ApiGatewayCommonService apiGatewayCommonService;
+    @Mock
+    PlanMigrationService planMigrationService;
+
+    private static final String NEW_PLAN_ID = "new-plan-id";
 
     ServiceInstance serviceInstance;
     CreateServiceInstanceRequest createServiceInstanceRequest;
@@ -92,24 +101,87 @@ public class ApiGatewayServiceInstanceServiceTest {
                 .isInstanceOf(ServiceBrokerException.class).hasMessageContaining("password does not meet the requirements.");
     }
 
+    /**
+     * Create service instance test verify identical service instance.
+     *
+     * @throws ServiceBrokerException         the service broker exception
+     * @throws ServiceInstanceExistsException the service instance exists exception
+     */
+    @Test
+    public void createServiceInstanceTest_VerifyIdenticalServiceInstance() throws ServiceBrokerException, ServiceInstanceExistsException {
+
+        // 서비스 인스턴스 Guid Check :: 동일한 요청은 기존 인스턴스 반환
+        Map vaildParam = new HashMap<>();
+        vaildParam.put(TestConstants.PARAMETERS_KEY, TestConstants.VAILD_PARAMETER_VALUE);
+        createServiceInstanceRequest.setParameters(vaildParam);
+
+        when(apiGatewayCommonService.findByServiceInstanceIdOrOrgGuid(anyString(), anyString())).thenReturn(serviceInstance);
+
+        ServiceInstance result = apiGatewayServiceInstanceService.createServiceInstance(createServiceInstanceRequest);
+
+        assertThat(result.getDashboardUrl(), is(serviceInstance.getDashboardUrl()));
+        verify(apiGatewayCommonService, never()).serviceAssignment(any(CreateServiceInstanceRequest.class));
+    }
+
     /**
      * Create service instance test verify service instance.
      */
     @Test
     public void createServiceInstanceTest_VerifyServiceInstance() {
 
-        // 서비스 인스턴스 Guid Check
+        // 서비스 인스턴스 Guid Check :: 속성이 다른 요청은 충돌
         Map vaildParam = new HashMap<>();
         vaildParam.put(TestConstants.PARAMETERS_KEY, TestConstants.VAILD_PARAMETER_VALUE);
         createServiceInstanceRequest.setParameters(vaildParam);
 
-        when(apiGatewayCommonService.getServiceInstance(anyString())).thenReturn(serviceInstance);
+        ServiceInstance otherSpace = new ServiceInstance(new CreateServiceInstanceRequest(
+                serviceInstance.getServiceDefinitionId(), serviceInstance.getPlanId(), serviceInstance.getOrganizationGuid(), "other_space_guid", null)
+                .withServiceInstanceId(TestConstants.SV_INSTANCE_ID));
+        when(apiGatewayCommonService.findByServiceInstanceIdOrOrgGuid(anyString(), anyString())).thenReturn(otherSpace);
 
         assertThatThrownBy(() -> apiGatewayServiceInstanceService.createServiceInstance(createServiceInstanceRequest))
                 .isInstanceOf(ServiceInstanceExistsException.class);
 
     }
 
+    /**
+     * Create service instance test verify concurrent duplicates.
+     * 동일 인스턴스에 대한 동시 요청은 하나의 프로비저닝으로 병합
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void createServiceInstanceTest_VerifyConcurrentDuplicates() throws Exception {
+
+        Map vaildParam = new HashMap<>();
+        vaildParam.put(TestConstants.PARAMETERS_KEY, TestConstants.VAILD_PARAMETER_VALUE);
+        createServiceInstanceRequest.setParameters(vaildParam);
+
+        CountDownLatch assigning = new CountDownLatch(1);
+        CountDownLatch joined = new CountDownLatch(1);
+        when(apiGatewayCommonService.findByServiceInstanceIdOrOrgGuid(anyString(), anyString())).thenReturn(null);
+        when(apiGatewayCommonService.serviceAssignment(any(CreateServiceInstanceRequest.class))).thenAnswer(invocation -> {
+            assigning.countDown();
+            joined.await(5, TimeUnit.SECONDS);
+            return TestConstants.DASHBOARD_URL;
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        Future<ServiceInstance> first = executor.submit(() -> apiGatewayServiceInstanceService.createServiceInstance(createServiceInstanceRequest));
+        assigning.await(5, TimeUnit.SECONDS);
+        Future<ServiceInstance> duplicate = executor.submit(() -> apiGatewayServiceInstanceService.createServiceInstance(createServiceInstanceRequest));
+        Thread.sleep(200);
+        joined.countDown();
+
+        assertThat(first.get(5, TimeUnit.SECONDS).getDashboardUrl(), is(TestConstants.DASHBOARD_URL));
+        assertThat(duplicate.get(5, TimeUnit.SECONDS).getDashboardUrl(), is(TestConstants.DASHBOARD_URL));
+        executor.shutdown();
+
+        verify(apiGatewayCommonService, times(1)).findByServiceInstanceIdOrOrgGuid(anyString(), anyString());
+        verify(apiGatewayCommonService, times(1)).serviceAssignment(any(CreateServiceInstanceRequest.class));
+        verify(apiGatewayCommonService, times(1)).createServiceInstance(any(ServiceInstance.class));
+    }
+
     /**
      * Create service instance test verify org.
      */
@@ -121,8 +193,9 @@ public class ApiGatewayServiceInstanceServiceTest {
         vaildParam.put(TestConstants.PARAMETERS_KEY, TestConstants.VAILD_PARAMETER_VALUE);
         createServiceInstanceRequest.setParameters(vaildParam);
 
-        when(apiGatewayCommonService.getServiceInstance(anyString())).thenReturn(null);
-        when(apiGatewayCommonService.findByOrgGuid(anyString())).thenReturn(serviceInstance);
+        ServiceInstance serviceInstanceOrg = new ServiceInstance(
+                RequestFixture.getCreateServiceInstanceRequest().withServiceInstanceId(TestConstants.OTHER_SV_INSTANCE_ID));
+        when(apiGatewayCommonService.findByServiceInstanceIdOrOrgGuid(anyString(), anyString())).thenReturn(serviceInstanceOrg);
 
         assertThatThrownBy(() -> apiGatewayServiceInstanceService.createServiceInstance(createServiceInstanceRequest))
                 .isInstanceOf(ServiceBrokerException.class).hasMessageContaining("already exists in your organization");
@@ -142,8 +215,7 @@ public class ApiGatewayServiceInstanceServiceTest {
         vaildParam.put(TestConstants.PARAMETERS_KEY, TestConstants.VAILD_PARAMETER_VALUE);
         createServiceInstanceRequest.setParameters(vaildParam);
 
-        when(apiGatewayCommonService.getServiceInstance(anyString())).thenReturn(null);
-        when(apiGatewayCommonService.findByOrgGuid(anyString())).thenReturn(null);
+        when(apiGatewayCommonService.findByServiceInstanceIdOrOrgGuid(anyString(), anyString())).thenReturn(null);
         when(apiGatewayCommonService.serviceAssignment(createServiceInstanceRequest)).thenReturn(TestConstants.DASHBOARD_URL);
         doNothing().when(apiGatewayCommonService).createServiceInstance(serviceInstance);
 
@@ -220,14 +292,130 @@ public class ApiGatewayServiceInstanceServiceTest {
     //----------------[ updateServiceInstance Test]
 
     /**
-     * Update service instance valid return.
+     * Update service instance :: service instance 가 없는 경우
      */
     @Test
-    public void updateServiceInstanceTest() {
-        UpdateServiceInstanceRequest request = RequestFixture.getUpdateServiceInstanceRequest();
+    public void updateServiceInstanceTest_VerifyNotExists() throws Exception {
+        UpdateServiceInstanceRequest request = RequestFixture.getUpdateServiceInstanceRequest().withInstanceId(TestConstants.SV_INSTANCE_ID);
+        when(apiGatewayCommonService.getServiceInstance(TestConstants.SV_INSTANCE_ID)).thenReturn(null);
 
         assertThatThrownBy(() -> apiGatewayServiceInstanceService.updateServiceInstance(request))
-                .isInstanceOf(ServiceBrokerException.class).hasMessageContaining("Not Supported");
+                .isInstanceOf(ServiceBrokerException.class).hasMessageContaining("does not exist");
+        verify(planMigrationService, never()).start(anyString(), anyString(), anyString(), anyString());
+    }
+
+    /**
+     * Update service instance :: 동일 plan 인 경우 변경 없음
+     */
+    @Test
+    public void updateServiceInstanceTest_SamePlan() throws Exception {
+        UpdateServiceInstanceRequest request = RequestFixture.getUpdateServiceInstanceRequest().withInstanceId(TestConstants.SV_INSTANCE_ID);
+        when(apiGatewayCommonService.getServiceInstance(TestConstants.SV_INSTANCE_ID)).thenReturn(serviceInstance);
+
+        assertThat(apiGatewayServiceInstanceService.updateServiceInstance(request), is(serviceInstance));
+        verify(planMigrationService, never()).start(anyString(), anyString(), anyString(), anyString());
+    }
+
+    /**
+     * Update service instance :: plan 변경 migration 완료
+     */
+    @Test
+    public void updateServiceInstanceTest_Migrated() throws Exception {
+        UpdateServiceInstanceRequest request = planChangeRequest(TestConstants.VAILD_PARAMETER_VALUE);
+        ServiceInstance migrated = mock(ServiceInstance.class);
+        when(apiGatewayCommonService.getServiceInstance(TestConstants.SV_INSTANCE_ID)).thenReturn(serviceInstance, migrated);
+        PlanMigration migration = new PlanMigration(TestConstants.SV_INSTANCE_ID, serviceInstance.getPlanId(), NEW_PLAN_ID);
+        when(planMigrationService.start(TestConstants.SV_INSTANCE_ID, serviceInstance.getPlanId(), NEW_PLAN_ID, TestConstants.VAILD_PARAMETER_VALUE))
+                .thenReturn(CompletableFuture.completedFuture(migration));
+
+        assertThat(apiGatewayServiceInstanceService.updateServiceInstance(request), is(migrated));
+    }
+
+    /**
+     * Update service instance :: migration 실패
+     */
+    @Test
+    public void updateServiceInstanceTest_VerifyMigrationFailure() throws Exception {
+        UpdateServiceInstanceRequest request = planChangeRequest(TestConstants.VAILD_PARAMETER_VALUE);
+        when(apiGatewayCommonService.getServiceInstance(TestConstants.SV_INSTANCE_ID)).thenReturn(serviceInstance);
+        PlanMigration migration = mock(PlanMigration.class);
+        when(migration.getStep()).thenReturn(PlanMigration.Step.FAILED);
+        when(migration.getMessage()).thenReturn("Cannot migrate. There are no available service VM.");
+        when(planMigrationService.start(anyString(), anyString(), anyString(), anyString())).thenReturn(CompletableFuture.completedFuture(migration));
+
+        assertThatThrownBy(() -> apiGatewayServiceInstanceService.updateServiceInstance(request))
+                .isInstanceOf(ServiceBrokerException.class).hasMessageContaining("no available service VM");
+    }
+
+    /**
+     * Update service instance :: 이미 migration 진행 중
+     */
+    @Test
+    public void updateServiceInstanceTest_VerifyMigrationInProgress() throws Exception {
+        UpdateServiceInstanceRequest request = planChangeRequest(TestConstants.VAILD_PARAMETER_VALUE);
+        when(apiGatewayCommonService.getServiceInstance(TestConstants.SV_INSTANCE_ID)).thenReturn(serviceInstance);
+        when(planMigrationService.start(anyString(), anyString(), anyString(), anyString())).thenThrow(new ServiceException("ServiceInstance is already being migrated."));
+
+        assertThatThrownBy(() -> apiGatewayServiceInstanceService.updateServiceInstance(request))
+                .isInstanceOf(ServiceBrokerException.class).hasMessageContaining("already being migrated");
+    }
+
+    /**
+     * Update service instance :: sync timeout 까지 복사 중인 migration 은 취소, 요청은 실패 (plan 유지)
+     */
+    @Test
+    public void updateServiceInstanceTest_MigrationCancelled() throws Exception {
+        ReflectionTestUtils.setField(apiGatewayServiceInstanceService, "migrationSyncTimeout", 50L);
+        UpdateServiceInstanceRequest request = planChangeRequest(TestConstants.VAILD_PARAMETER_VALUE);
+        when(apiGatewayCommonService.getServiceInstance(TestConstants.SV_INSTANCE_ID)).thenReturn(serviceInstance);
+        when(planMigrationService.start(anyString(), anyString(), anyString(), anyString())).thenReturn(new CompletableFuture<>());
+        when(planMigrationService.cancel(TestConstants.SV_INSTANCE_ID)).thenReturn(true);
+
+        assertThatThrownBy(() -> apiGatewayServiceInstanceService.updateServiceInstance(request))
+                .isInstanceOf(ServiceBrokerException.class).hasMessageContaining("was cancelled");
+        verify(planMigrationService).cancel(TestConstants.SV_INSTANCE_ID);
+    }
+
+    /**
+     * Update service instance :: sync timeout 시점에 VM 교체 중인 migration 은 취소하지 않고 완료까지 대기
+     */
+    @Test
+    public void updateServiceInstanceTest_MigrationSwapping() throws Exception {
+        ReflectionTestUtils.setField(apiGatewayServiceInstanceService, "migrationSyncTimeout", 50L);
+        UpdateServiceInstanceRequest request = planChangeRequest(TestConstants.VAILD_PARAMETER_VALUE);
+        ServiceInstance migrated = mock(ServiceInstance.class);
+        when(apiGatewayCommonService.getServiceInstance(TestConstants.SV_INSTANCE_ID)).thenReturn(serviceInstance, migrated);
+        CompletableFuture<PlanMigration> migration = new CompletableFuture<>();
+        when(planMigrationService.start(anyString(), anyString(), anyString(), anyString())).thenReturn(migration);
+        when(planMigrationService.cancel(TestConstants.SV_INSTANCE_ID)).thenAnswer(invocation -> {
+            migration.complete(new PlanMigration(TestConstants.SV_INSTANCE_ID, serviceInstance.getPlanId(), NEW_PLAN_ID));
+            return false;
+        });
+
+        assertThat(apiGatewayServiceInstanceService.updateServiceInstance(request), is(migrated));
+    }
+
+    /**
+     * Update service instance :: plan 변경 시 service admin 비밀번호 필수 (새 VM 에 service admin 재생성)
+     */
+    @Test
+    public void updateServiceInstanceTest_VerifyPasswordRequired() throws Exception {
+        UpdateServiceInstanceRequest request = planChangeRequest(null);
+        when(apiGatewayCommonService.getServiceInstance(TestConstants.SV_INSTANCE_ID)).thenReturn(serviceInstance);
+
+        assertThatThrownBy(() -> apiGatewayServiceInstanceService.updateServiceInstance(request))
+                .isInstanceOf(ServiceBrokerException.class).hasMessageContaining("Required [" + TestConstants.PARAMETERS_KEY + "]");
+        verify(planMigrationService, never()).start(anyString(), anyString(), anyString(), anyString());
+    }
+
+    private static UpdateServiceInstanceRequest planChangeRequest(String password) {
+        Map<String, Object> parameters = new HashMap<>();
+        if (password != null) {
+            parameters.put(TestConstants.PARAMETERS_KEY, password);
+        }
+        UpdateServiceInstanceRequest request = spy(new UpdateServiceInstanceRequest(NEW_PLAN_ID, TestConstants.SERVICES_ID).withInstanceId(TestConstants.SV_INSTANCE_ID));
+        doReturn(parameters).when(request).getParameters();
+        return request;
     }
 
-}
\ No newline at end of file
+}
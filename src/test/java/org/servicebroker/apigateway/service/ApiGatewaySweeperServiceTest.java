@@ -0,0 +1,155 @@
+package org.servicebroker.apigateway.service;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.servicebroker.apigateway.client.Scim2Client;
+import org.servicebroker.apigateway.exception.ServiceException;
+import org.servicebroker.apigateway.model.JpaDedicatedVM;
+import org.servicebroker.apigateway.model.JpaRepositoryFixture;
+import org.servicebroker.apigateway.service.impl.ApiGatewayDedicatedVMService;
+import org.servicebroker.apigateway.service.impl.ApiGatewayLeaderService;
+import org.servicebroker.apigateway.service.impl.ApiGatewaySweeperService;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+
+/**
+ * The type Api gateway sweeper service test.
+ */
+@RunWith(SpringRunner.class)
+public class ApiGatewaySweeperServiceTest {
+
+    @InjectMocks
+    ApiGatewaySweeperService apiGatewaySweeperService;
+
+    @Mock
+    ApiGatewayDedicatedVMService apiGatewayDedicatedVMService;
+    @Mock
+    ApiGatewayLeaderService apiGatewayLeaderService;
+    @Mock
+    Scim2Client scim2Client;
+
+    JpaDedicatedVM jpaDedicatedVM;
+
+    /**
+     * Sets up.
+     *
+     * @throws Exception the exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        jpaDedicatedVM = JpaRepositoryFixture.getJpaDedicatedVM();
+        when(apiGatewayLeaderService.isLeader()).thenReturn(true);
+    }
+
+    /**
+     * Sweep test verify not leader.
+     */
+    @Test
+    public void sweepTest_VerifyNotLeader() {
+        when(apiGatewayLeaderService.isLeader()).thenReturn(false);
+
+        assertThat(apiGatewaySweeperService.sweep(), is(0));
+        verify(apiGatewayDedicatedVMService, never()).findOrphans(any(Date.class));
+    }
+
+    /**
+     * Sweep test verify reclaim.
+     *
+     * @throws ServiceException the service exception
+     */
+    @Test
+    public void sweepTest_VerifyReclaim() throws ServiceException {
+        jpaDedicatedVM.setAssignment(TestConstants.STATUS_PROVISIONING);
+
+        when(apiGatewayDedicatedVMService.findOrphans(any(Date.class))).thenReturn(Collections.singletonList(jpaDedicatedVM));
+        when(scim2Client.existsServiceAdmin(anyString())).thenReturn(false);
+        when(apiGatewayDedicatedVMService.release(any(JpaDedicatedVM.class))).thenReturn(true);
+
+        assertThat(apiGatewaySweeperService.sweep(), is(1));
+        verify(apiGatewayDedicatedVMService, times(1)).release(jpaDedicatedVM);
+        verify(apiGatewayDedicatedVMService, never()).markForRecreate(any(JpaDedicatedVM.class));
+    }
+
+    /**
+     * Sweep test verify stale provisioning vm. The claim completed or was released after the orphan query.
+     *
+     * @throws ServiceException the service exception
+     */
+    @Test
+    public void sweepTest_VerifyStaleProvisioningVM() throws ServiceException {
+        jpaDedicatedVM.setAssignment(TestConstants.STATUS_PROVISIONING);
+
+        when(apiGatewayDedicatedVMService.findOrphans(any(Date.class))).thenReturn(Collections.singletonList(jpaDedicatedVM));
+        when(scim2Client.existsServiceAdmin(anyString())).thenReturn(false);
+        when(apiGatewayDedicatedVMService.release(any(JpaDedicatedVM.class))).thenReturn(false);
+
+        assertThat(apiGatewaySweeperService.sweep(), is(0));
+        verify(apiGatewayDedicatedVMService, times(1)).release(jpaDedicatedVM);
+        verify(apiGatewayDedicatedVMService, never()).markForRecreate(any(JpaDedicatedVM.class));
+    }
+
+    /**
+     * Sweep test verify recreate.
+     *
+     * @throws ServiceException the service exception
+     */
+    @Test
+    public void sweepTest_VerifyRecreate() throws ServiceException {
+        JpaDedicatedVM provisioning = JpaRepositoryFixture.getJpaDedicatedVM();
+        provisioning.setAssignment(TestConstants.STATUS_PROVISIONING);
+        jpaDedicatedVM.setAssignment(TestConstants.STATUS_ASSIGNED);
+
+        when(apiGatewayDedicatedVMService.findOrphans(any(Date.class))).thenReturn(Arrays.asList(provisioning, jpaDedicatedVM));
+        when(scim2Client.existsServiceAdmin(anyString())).thenThrow(new ServiceException("test"));
+        when(apiGatewayDedicatedVMService.markForRecreate(any(JpaDedicatedVM.class))).thenReturn(true);
+
+        assertThat(apiGatewaySweeperService.sweep(), is(2));
+        verify(apiGatewayDedicatedVMService, times(1)).markForRecreate(provisioning);
+        verify(apiGatewayDedicatedVMService, times(1)).markForRecreate(jpaDedicatedVM);
+        verify(apiGatewayDedicatedVMService, never()).release(any(JpaDedicatedVM.class));
+    }
+
+    /**
+     * Sweep test verify stale vm.
+     *
+     * @throws ServiceException the service exception
+     */
+    @Test
+    public void sweepTest_VerifyStaleVM() throws ServiceException {
+        jpaDedicatedVM.setAssignment(TestConstants.STATUS_ASSIGNED);
+
+        when(apiGatewayDedicatedVMService.findOrphans(any(Date.class))).thenReturn(Collections.singletonList(jpaDedicatedVM));
+        when(apiGatewayDedicatedVMService.markForRecreate(any(JpaDedicatedVM.class))).thenReturn(false);
+
+        assertThat(apiGatewaySweeperService.sweep(), is(0));
+        verify(apiGatewayDedicatedVMService, times(1)).markForRecreate(jpaDedicatedVM);
+    }
+
+    /**
+     * Sweep test verify mark failure.
+     *
+     * @throws ServiceException the service exception
+     */
+    @Test
+    public void sweepTest_VerifyMarkFailure() throws ServiceException {
+        jpaDedicatedVM.setAssignment(TestConstants.STATUS_ASSIGNED);
+
+        when(apiGatewayDedicatedVMService.findOrphans(any(Date.class))).thenReturn(Collections.singletonList(jpaDedicatedVM));
+        when(apiGatewayDedicatedVMService.markForRecreate(any(JpaDedicatedVM.class))).thenThrow(new IllegalStateException("test"));
+
+        assertThat(apiGatewaySweeperService.sweep(), is(0));
+    }
+}
@@ -0,0 +1,37 @@
+package org.servicebroker.apigateway.service;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The type Sql statement counter.
+ * Registered through {@code hibernate.session_factory.statement_inspector} and records every prepared SQL.
+ */
+public class SqlStatementCounter implements StatementInspector {
+
+    private static final List<String> STATEMENTS = new CopyOnWriteArrayList<>();
+
+    @Override
+    public String inspect(String sql) {
+        STATEMENTS.add(sql);
+        return sql;
+    }
+
+    /**
+     * Reset.
+     */
+    public static void reset() {
+        STATEMENTS.clear();
+    }
+
+    /**
+     * Gets statements.
+     *
+     * @return the statements
+     */
+    public static List<String> getStatements() {
+        return STATEMENTS;
+    }
+}
@@ -33,6 +33,7 @@ public class TestConstants {
     public static final String ORG_GUID = "test_org_guid";
     public static final String SPACE_GUID = "test_space_guid";
     public static final String SV_INSTANCE_ID = "test_sv_instance_id";
+    public static final String OTHER_SV_INSTANCE_ID = "test_other_sv_instance_id";
     public static final String APP_GUID = "test_app_guid";
     public static final String BIND_GUID = "test_bind_guid";
     public static final String DASHBOARD_URL = "https://test-dashboard.com";
@@ -43,6 +44,10 @@ public class TestConstants {
     public static final int STATUS_WATING_FOR_ASSIGNMENT = 0;
     public static final String JOB_STATE_RECREATE = "recreate";
     public static final int STATUS_WATING_FOR_VM_RECREATE = 1;
+    public static final int STATUS_ASSIGNED = 2;
+    public static final int STATUS_PROVISIONING = 3;
+    public static final int STATUS_RETIRING = 4;
+    public static final String LEASE_POOL_EXHAUSTED = "pool-exhausted";
 
     public static final String PARAMETERS_KEY = "password";
     public static final String VAILD_PARAMETER_VALUE = "Test12";
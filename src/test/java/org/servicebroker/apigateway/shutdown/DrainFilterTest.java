@@ -0,0 +1,88 @@
+package org.servicebroker.apigateway.shutdown;
+
+import org.junit.Test;
+import org.servicebroker.apigateway.service.TestConstants;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+
+/**
+ * The type Drain filter test.
+ */
+public class DrainFilterTest {
+
+    InFlightRegistry inFlightRegistry = new InFlightRegistry();
+    DrainFilter drainFilter = new DrainFilter(inFlightRegistry);
+
+    /**
+     * Do filter test verify counted while in flight.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void doFilterTest_VerifyCounted() throws Exception {
+        int[] inFlight = new int[1];
+
+        MockHttpServletResponse response = filter(new MockHttpServletRequest("PUT", "/v2/service_instances/" + TestConstants.SV_INSTANCE_ID), new MockFilterChain() {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response) {
+                inFlight[0] = inFlightRegistry.getRequests();
+            }
+        });
+
+        assertThat(response.getStatus(), is(HttpServletResponse.SC_OK));
+        assertThat(inFlight[0], is(1));
+        assertThat(inFlightRegistry.getRequests(), is(0));
+    }
+
+    /**
+     * Do filter test verify rejected while draining.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void doFilterTest_VerifyRejectedWhileDraining() throws Exception {
+        inFlightRegistry.startDraining();
+
+        MockHttpServletResponse provision = filter(new MockHttpServletRequest("PUT", "/v2/service_instances/" + TestConstants.SV_INSTANCE_ID), new MockFilterChain());
+        MockHttpServletResponse unbind = filter(new MockHttpServletRequest("DELETE", "/v2/service_instances/" + TestConstants.SV_INSTANCE_ID
+                + "/service_bindings/" + TestConstants.BIND_GUID), new MockFilterChain());
+
+        assertThat(provision.getStatus(), is(HttpServletResponse.SC_SERVICE_UNAVAILABLE));
+        assertThat(provision.getHeader("Retry-After"), is(notNullValue()));
+        assertThat(provision.getContentAsString(), containsString("\"description\""));
+        assertThat(unbind.getStatus(), is(HttpServletResponse.SC_SERVICE_UNAVAILABLE));
+        assertThat(inFlightRegistry.getRequests(), is(0));
+    }
+
+    /**
+     * Do filter test verify other requests served while draining.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void doFilterTest_VerifyOtherRequests() throws Exception {
+        inFlightRegistry.startDraining();
+
+        MockHttpServletResponse catalog = filter(new MockHttpServletRequest("GET", "/v2/catalog"), new MockFilterChain());
+        MockHttpServletResponse lastOperation = filter(new MockHttpServletRequest("GET", "/v2/service_instances/" + TestConstants.SV_INSTANCE_ID
+                + "/last_operation"), new MockFilterChain());
+
+        assertThat(catalog.getStatus(), is(HttpServletResponse.SC_OK));
+        assertThat(lastOperation.getStatus(), is(HttpServletResponse.SC_OK));
+    }
+
+    private MockHttpServletResponse filter(MockHttpServletRequest request, MockFilterChain chain) throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        drainFilter.doFilter(request, response, chain);
+        return response;
+    }
+}
@@ -0,0 +1,120 @@
+package org.servicebroker.apigateway.shutdown;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.servicebroker.apigateway.model.JpaDedicatedVM;
+import org.servicebroker.apigateway.occupancy.OccupancyService;
+import org.servicebroker.apigateway.service.TestConstants;
+import org.servicebroker.apigateway.service.impl.ApiGatewayDedicatedVMService;
+import org.servicebroker.apigateway.service.impl.ApiGatewayRecreateService;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+
+/**
+ * The type Graceful shutdown service test.
+ */
+public class GracefulShutdownServiceTest {
+
+    private static final long DRAIN_TIMEOUT = 1000;
+
+    InFlightRegistry inFlightRegistry;
+    ApiGatewayDedicatedVMService apiGatewayDedicatedVMService;
+    ApiGatewayRecreateService apiGatewayRecreateService;
+    OccupancyService occupancyService;
+    GracefulShutdownService gracefulShutdownService;
+
+    /**
+     * Sets up.
+     */
+    @Before
+    public void setUp() {
+        inFlightRegistry = new InFlightRegistry();
+        apiGatewayDedicatedVMService = mock(ApiGatewayDedicatedVMService.class);
+        apiGatewayRecreateService = mock(ApiGatewayRecreateService.class);
+        occupancyService = mock(OccupancyService.class);
+        gracefulShutdownService = new GracefulShutdownService(inFlightRegistry, apiGatewayDedicatedVMService,
+                apiGatewayRecreateService, occupancyService, DRAIN_TIMEOUT);
+    }
+
+    /**
+     * Drain test. Waits for the in-flight request, which commits its claim : nothing is marked for recreate.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void drainTest_VerifyInFlightRequestFinished() throws Exception {
+        assertThat(inFlightRegistry.enter(), is(true));
+        inFlightRegistry.claimed(TestConstants.SV_INSTANCE_ID, vm());
+
+        // drain 시작 이후 할당 완료
+        Thread request = new Thread(() -> {
+            try {
+                Thread.sleep(DRAIN_TIMEOUT / 5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            inFlightRegistry.settled(TestConstants.SV_INSTANCE_ID);
+            inFlightRegistry.exit();
+        });
+        request.start();
+
+        int recreated = gracefulShutdownService.drain();
+        request.join();
+
+        assertThat(recreated, is(0));
+        assertThat(inFlightRegistry.enter(), is(false));
+        verify(apiGatewayDedicatedVMService, never()).markForRecreate(any(JpaDedicatedVM.class));
+        verify(occupancyService).record();
+        verify(apiGatewayRecreateService).drain();
+        verify(apiGatewayRecreateService).stop();
+    }
+
+    /**
+     * Drain test. The request is still in flight at the deadline : its claimed VM is marked for recreate.
+     */
+    @Test
+    public void drainTest_VerifyUncommittedClaimMarkedForRecreate() {
+        JpaDedicatedVM jpaDedicatedVM = vm();
+        inFlightRegistry.enter();
+        inFlightRegistry.claimed(TestConstants.SV_INSTANCE_ID, jpaDedicatedVM);
+        when(apiGatewayDedicatedVMService.markForRecreate(jpaDedicatedVM)).thenReturn(true);
+
+        long start = System.nanoTime();
+        int recreated = gracefulShutdownService.drain();
+
+        assertThat(recreated, is(1));
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= DRAIN_TIMEOUT, is(true));
+        assertThat(inFlightRegistry.getClaims().isEmpty(), is(true));
+        verify(apiGatewayDedicatedVMService).markForRecreate(jpaDedicatedVM);
+        verify(apiGatewayRecreateService).stop();
+    }
+
+    /**
+     * Stop test. Drains once, then runs the callback.
+     */
+    @Test
+    public void stopTest_VerifyCallback() {
+        Runnable callback = mock(Runnable.class);
+
+        gracefulShutdownService.start();
+        gracefulShutdownService.stop(callback);
+
+        assertThat(gracefulShutdownService.isRunning(), is(false));
+        verify(callback).run();
+        verify(occupancyService, times(1)).record();
+    }
+
+    private static JpaDedicatedVM vm() {
+        return JpaDedicatedVM.builder()
+                .ip(TestConstants.DEDICATED_VM_IP)
+                .assignment(TestConstants.STATUS_PROVISIONING)
+                .provisionedServiceInstanceId(TestConstants.SV_INSTANCE_ID)
+                .build();
+    }
+}
@@ -0,0 +1,52 @@
+package org.servicebroker.apigateway.startup;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.servicebroker.apigateway.config.JpaTestConfig;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+
+/**
+ * The type Deferred schema validator test. Runs against an embedded H2 database created by ddl-auto.
+ */
+@RunWith(SpringRunner.class)
+@DataJpaTest
+@ContextConfiguration(classes = JpaTestConfig.class)
+@TestPropertySource(properties = "spring.jpa.hibernate.ddl-auto=create-drop")
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class DeferredSchemaValidatorTest {
+
+    @Autowired
+    EntityManagerFactory entityManagerFactory;
+    @Autowired
+    DataSource dataSource;
+
+    /**
+     * Validate test. Nothing is missing from the schema ddl-auto created, a dropped column is reported.
+     */
+    @Test
+    @DirtiesContext
+    public void validateTest() {
+        DeferredSchemaValidator validator = new DeferredSchemaValidator(entityManagerFactory, dataSource, Runnable::run);
+        assertThat(validator.validate(), is(empty()));
+
+        new JdbcTemplate(dataSource).execute("ALTER TABLE dedicated_vm DROP COLUMN claimed_time");
+        assertThat(validator.validate(), contains("dedicated_vm.claimed_time"));
+    }
+}
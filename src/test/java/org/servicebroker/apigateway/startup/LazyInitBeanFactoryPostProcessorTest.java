@@ -0,0 +1,53 @@
+package org.servicebroker.apigateway.startup;
+
+import org.junit.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+
+/**
+ * The type Lazy init bean factory post processor test.
+ */
+public class LazyInitBeanFactoryPostProcessorTest {
+
+    /**
+     * Plain beans are created on first use, scheduled and event listener beans with the context.
+     */
+    @Test
+    public void postProcessBeanFactoryTest() {
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+        context.register(PlainBean.class, ScheduledBean.class, ListenerBean.class);
+        context.addBeanFactoryPostProcessor(new LazyInitBeanFactoryPostProcessor());
+        context.refresh();
+
+        try {
+            assertThat(context.getBeanFactory().containsSingleton("lazyInitBeanFactoryPostProcessorTest.PlainBean"), is(false));
+            assertThat(context.getBeanFactory().containsSingleton("lazyInitBeanFactoryPostProcessorTest.ScheduledBean"), is(true));
+            assertThat(context.getBeanFactory().containsSingleton("lazyInitBeanFactoryPostProcessorTest.ListenerBean"), is(true));
+
+            context.getBean(PlainBean.class);
+            assertThat(context.getBeanFactory().containsSingleton("lazyInitBeanFactoryPostProcessorTest.PlainBean"), is(true));
+        } finally {
+            context.close();
+        }
+    }
+
+    static class PlainBean {
+    }
+
+    static class ScheduledBean {
+        @Scheduled(fixedDelay = 60000)
+        public void run() {
+        }
+    }
+
+    static class ListenerBean {
+        @EventListener
+        public void on(Object event) {
+        }
+    }
+}
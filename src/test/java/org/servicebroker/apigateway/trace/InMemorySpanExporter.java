@@ -0,0 +1,36 @@
+package org.servicebroker.apigateway.trace;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The type In memory span exporter. Collects finished spans for assertions.
+ */
+public class InMemorySpanExporter implements SpanExporter {
+
+    private final List<Span> spans = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void export(Span span) {
+        spans.add(span);
+    }
+
+    /**
+     * Gets finished spans, in finishing order.
+     *
+     * @return the spans
+     */
+    public List<Span> getSpans() {
+        return spans;
+    }
+
+    /**
+     * Finds the first finished span by name.
+     *
+     * @param name the name
+     * @return the span, or null
+     */
+    public Span find(String name) {
+        return spans.stream().filter(span -> span.getName().equals(name)).findFirst().orElse(null);
+    }
+}
@@ -0,0 +1,91 @@
+package org.servicebroker.apigateway.trace;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.Signature;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * The type Tracer test.
+ */
+public class TracerTest {
+
+    InMemorySpanExporter exporter;
+    Tracer tracer;
+
+    /**
+     * Sets up.
+     */
+    @Before
+    public void setUp() {
+        exporter = new InMemorySpanExporter();
+        tracer = new Tracer(Collections.singletonList(exporter), true);
+    }
+
+    /**
+     * Nested spans share the trace and are summed up by kind on the root span.
+     */
+    @Test
+    public void startTest_ChildSpansAndBreakdown() {
+        Span root = tracer.start("createServiceInstance", Span.KIND_SERVICE);
+        try (Span db = tracer.start("JpaDedicatedVMRepository.claimFirstByAssignment", Span.KIND_DB)) {
+            assertThat(tracer.current(), is(db));
+        }
+        try (Span db = tracer.start("JpaServiceInstanceRepository.persist", Span.KIND_DB)) {
+            assertThat(db.getParentSpanId(), is(root.getSpanId()));
+            assertThat(db.getTraceId(), is(root.getTraceId()));
+        }
+        try (Span ignored = tracer.start("POST /scim2/Users", Span.KIND_HTTP)) {
+            assertThat(tracer.current().getRoot(), is(root));
+        }
+        assertThat(tracer.current(), is(root));
+        root.close();
+
+        assertThat(tracer.current(), nullValue());
+        assertThat(exporter.getSpans().size(), is(4));
+        assertThat(exporter.getSpans().get(3), is(root));
+        assertThat(root.getTraceId().length(), is(32));
+        assertThat(root.getSpanId().length(), is(16));
+
+        AtomicLongArray db = root.getBreakdown().get(Span.KIND_DB);
+        assertThat(db.get(0), is(2L));
+        assertThat(root.getBreakdown().get(Span.KIND_HTTP).get(0), is(1L));
+        assertThat(root.getBreakdown().containsKey(Span.KIND_SERVICE), is(false));
+        assertThat(root.getDurationMillis(), greaterThanOrEqualTo(0.0));
+    }
+
+    /**
+     * Repository calls are traced only within a trace : scheduled jobs without a parent span do not start root spans.
+     *
+     * @throws Throwable the throwable
+     */
+    @Test
+    public void aspectTest_RepositoryCallsWithinTraceOnly() throws Throwable {
+        TracingAspect tracingAspect = new TracingAspect(tracer);
+        ProceedingJoinPoint joinPoint = mock(ProceedingJoinPoint.class);
+        Signature signature = mock(Signature.class);
+        when(joinPoint.getThis()).thenReturn(new Object());
+        when(joinPoint.getSignature()).thenReturn(signature);
+        when(signature.getName()).thenReturn("findDue");
+        when(joinPoint.proceed()).thenReturn("result");
+
+        assertThat(tracingAspect.traceRepository(joinPoint), is("result"));
+        assertThat(exporter.getSpans().isEmpty(), is(true));
+
+        Span root = tracer.start("deleteServiceInstance", Span.KIND_SERVICE);
+        assertThat(tracingAspect.traceRepository(joinPoint), is("result"));
+        root.close();
+
+        assertThat(exporter.getSpans().size(), is(2));
+        assertThat(exporter.getSpans().get(0).getName(), is("Object.findDue"));
+        assertThat(exporter.getSpans().get(0).getParentSpanId(), is(root.getSpanId()));
+    }
+}
@@ -0,0 +1,13 @@
+-- integration 프로필 seed :: 미할당 VM pool 2 개 (apigateway 48 대, apigateway-large 16 대)
+DELETE FROM service_instance_binding;
+DELETE FROM recreate_outbox;
+DELETE FROM service_instance;
+DELETE FROM dedicated_vm;
+
+INSERT INTO dedicated_vm (vm_ip, vm_name, vm_id, assignment, dashboard_url, created_time, version)
+SELECT CONCAT('10.10.1.', X), 'apigateway', CONCAT('apigateway-', X), 0, CONCAT('https://10.10.1.', X, ':9443/publisher'), CURRENT_TIMESTAMP, 0
+FROM SYSTEM_RANGE(1, 48);
+
+INSERT INTO dedicated_vm (vm_ip, vm_name, vm_id, assignment, dashboard_url, created_time, version)
+SELECT CONCAT('10.10.2.', X), 'apigateway-large', CONCAT('apigateway-large-', X), 0, CONCAT('https://10.10.2.', X, ':9443/publisher'), CURRENT_TIMESTAMP, 0
+FROM SYSTEM_RANGE(1, 16);